@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.Random;
+
+/**
+ * Trades smoothness against lag for the {@link OrientationFilter}s on a synthetic sensor.
+ *
+ * <p>The sensor reports at {@link #RATE_HZ} with Gaussian noise on each Euler angle. It is held
+ * still first, then turned about Z at a steady speed. Jitter is the RMS rotation between
+ * consecutive outputs while still, in degrees; lag is how far the output trails the true angle
+ * during the turn, in milliseconds. Both skip the first {@link #SETTLE_SECONDS} of their phase.
+ * The named filters are the ones {@link SceneUpdateBenchmark} times.
+ *
+ * <pre>
+ *   java -cp build/benchmarks com.google.vr.sdk.samples.treasurehunt.FilterComparison [SPEC...]
+ * </pre>
+ */
+public final class FilterComparison {
+
+  /** The filters compared by default; {@code none} passes the samples through. */
+  static final String[] NAMES = {"none", "exp", "euro", "kalman", "chain"};
+
+  static final int RATE_HZ = 100;
+  static final float NOISE_DEGREES = 0.5f;
+  static final float STILL_SECONDS = 2.0f;
+  static final float TURN_SECONDS = 1.5f;
+  static final float TURN_DEGREES_PER_SECOND = 60.0f;
+  static final float SETTLE_SECONDS = 0.5f;
+
+  private static final long SEED = 1;
+
+  /** Jitter and lag of one filter. */
+  static final class Result {
+    final float jitterDegrees;
+    final float lagMillis;
+
+    Result(float jitterDegrees, float lagMillis) {
+      this.jitterDegrees = jitterDegrees;
+      this.lagMillis = lagMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("jitter %.3f deg, lag %.1f ms", jitterDegrees, lagMillis);
+    }
+  }
+
+  private FilterComparison() {}
+
+  /**
+   * The {@link OrientationFilterChain} spec of a named filter, or {@code null} for {@code none}.
+   * Any other name is taken to be a spec itself.
+   */
+  static String spec(String name) {
+    switch (name) {
+      case "none":
+        return null;
+      case "exp":
+        return "exp:0.05";
+      case "euro":
+        return "euro:1,0.5";
+      case "kalman":
+        return "kalman:0.001,0.00002";
+      case "chain":
+        return "euro:0.3,0.5+kalman:0.001,0.00002";
+      default:
+        return name;
+    }
+  }
+
+  /** A fresh filter for a name or spec, or {@code null} for {@code none}. */
+  static OrientationFilter create(String name) {
+    String spec = spec(name);
+    return spec == null ? null : OrientationFilterChain.fromSpec(spec);
+  }
+
+  /** Runs the synthetic sensor through {@code filter}, which may be {@code null}. */
+  static Result measure(OrientationFilter filter) {
+    Random random = new Random(SEED);
+    long periodNanos = 1000000000L / RATE_HZ;
+    int stillSamples = Math.round(STILL_SECONDS * RATE_HZ);
+    int turnSamples = Math.round(TURN_SECONDS * RATE_HZ);
+    int settleSamples = Math.round(SETTLE_SECONDS * RATE_HZ);
+    float[] q = new float[4];
+    float[] previous = new float[4];
+    double squaredSteps = 0;
+    int steps = 0;
+    double trail = 0;
+    int trailSamples = 0;
+
+    for (int i = 0; i < stillSamples + turnSamples; i++) {
+      long timestamp = i * periodNanos;
+      float angle = i < stillSamples
+          ? 0f : (i - stillSamples) * TURN_DEGREES_PER_SECOND / RATE_HZ;
+      Quaternions.setFromEulerXyz(q, 0, noise(random), noise(random), angle + noise(random));
+      if (filter != null) {
+        filter.filter(timestamp, q, 0);
+      }
+      if (i > settleSamples && i < stillSamples) {
+        float step = angleBetween(previous, q);
+        squaredSteps += step * step;
+        steps++;
+      } else if (i >= stillSamples + settleSamples) {
+        trail += angle - angleZ(q);
+        trailSamples++;
+      }
+      System.arraycopy(q, 0, previous, 0, 4);
+    }
+    float jitter = (float) Math.sqrt(squaredSteps / steps);
+    float lag = (float) (trail / trailSamples / TURN_DEGREES_PER_SECOND * 1000);
+    return new Result(jitter, lag);
+  }
+
+  private static float noise(Random random) {
+    return (float) random.nextGaussian() * NOISE_DEGREES;
+  }
+
+  private static float angleBetween(float[] a, float[] b) {
+    float cos = Math.min(1f, Math.abs(Quaternions.dot(a, 0, b, 0)));
+    return (float) Math.toDegrees(2 * Math.acos(cos));
+  }
+
+  private static float angleZ(float[] q) {
+    return (float) Math.toDegrees(2 * Math.atan2(q[2], q[3]));
+  }
+
+  public static void main(String[] args) {
+    String[] names = args.length > 0 ? args : NAMES;
+    for (String name : names) {
+      System.out.println(String.format("%-40s %s", name, measure(create(name))));
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building one floor tile with the {@link FlatFloorTileSource} of the streamed terrain, per level
+ * of detail, as the {@link FloorTileStreamer} builder thread does. Reported in microseconds per
+ * tile; a level's cost times the tiles wanted at it bounds how fast the viewer may move.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FloorTileBenchmark {
+
+  /** Level of detail, 0 to {@code SceneRenderer.TERRAIN_MAX_LOD}. */
+  @Param({"0", "1", "2", "3", "4"})
+  public int lod;
+
+  private final FlatFloorTileSource source =
+      new FlatFloorTileSource(SceneRenderer.TERRAIN_TILE_SIZE, SceneRenderer.TERRAIN_QUADS);
+  private int tileX;
+
+  @Benchmark
+  public MeshData buildTile() {
+    // A different tile every time, as when walking.
+    tileX++;
+    return source.build(tileX, -tileX, lod);
+  }
+}
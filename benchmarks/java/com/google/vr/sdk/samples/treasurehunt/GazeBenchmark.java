@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The gaze test run every frame and the relocation of the object after it was found, both from
+ * {@link GazeTarget}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GazeBenchmark {
+
+  private final GazeTarget gaze = new GazeTarget();
+  private final float[] headView = new float[16];
+  private final float[] model = new float[16];
+  private final float[] position = new float[3];
+  private final Random random = new Random(1);
+  private float distance = 3.5f;
+
+  @Setup
+  public void setUp() {
+    float[] q = new float[4];
+    Quaternions.setFromEulerXyz(q, 0, 2.0f, -3.0f, 0.0f);
+    Quaternions.toMatrix(headView, 0, q, 0, 0.0f, 0.0f, 0.0f);
+    Quaternions.setIdentity(q, 0);
+    Quaternions.toMatrix(model, 0, q, 0, 0.0f, 0.0f, -distance);
+  }
+
+  @Benchmark
+  public boolean isLookedAt() {
+    return gaze.isLookedAt(headView, model);
+  }
+
+  @Benchmark
+  public float relocate() {
+    distance = gaze.relocate(model, distance, 3.0f, 7.0f, random, position);
+    return distance;
+  }
+}
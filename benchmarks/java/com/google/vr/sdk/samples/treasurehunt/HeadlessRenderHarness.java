@@ -0,0 +1,397 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the {@link SceneRenderer} of {@code TreasureHuntActivity} on a desktop JVM against a
+ * {@link RecordingGlBackend}, and reports what every frame sends to GL.
+ *
+ * <p>The sequence is the activity's: the {@code onSurfaceCreated} uploads and program setup, then
+ * per frame {@code onNewFrame} followed by {@code onDrawEye} for both eyes, or the single-pass
+ * {@code onDrawFrame}. Only what GVR and Android resources provide is stood in for here: the
+ * head and eye matrices, a fixed projection and programs linked from shader names. Head pose and
+ * sensors are scripted, or come from a {@link SessionRecorder} capture through
+ * {@link SessionReplay}; either way every run issues the same calls. A capture replays as fast as
+ * possible, or with {@code --realtime} at its original frame times.
+ *
+ * <p>Each frame prints its counters, CPU time and call hash. With {@code --golden} the hashes are
+ * compared against a file written by an earlier {@code --update} run and the process exits with
+ * status 1 on the first difference; {@code --trace} prints the calls of one frame to find it.
+ */
+public final class HeadlessRenderHarness {
+
+  // Scripted input: the head sweeps left and right, each sensor turns at its own phase.
+  private static final float HEAD_SWEEP_DEGREES = 40.0f;
+  private static final int HEAD_SWEEP_FRAMES = 90;
+  private static final float SENSOR_DEGREES_PER_FRAME = 3.0f;
+  private static final float SENSOR_PHASE_DEGREES = 45.0f;
+  private static final float HALF_IPD = 0.032f;
+  private static final long MAX_SENSOR_EXTRAPOLATION_NANOS = 50000000L;
+
+  // GVR sets the viewports itself, so they are counted but never reach the backend.
+  private static final SceneRenderer.Viewports NO_VIEWPORTS = new SceneRenderer.Viewports() {
+    @Override
+    public void setViewport(int eye) {}
+  };
+
+  private final boolean singlePass;
+  private final int sensors;
+  private final RecordingGlBackend gl;
+  private final SceneRenderer renderer;
+
+  private final float[] perspective = new float[16];
+  private final float[][] perspectives = new float[StereoProgram.EYES][];
+  private final float[] headView = new float[16];
+  private final float[][] eyeOffsets = new float[StereoProgram.EYES][16];
+  private final float[][] eyeViews = new float[StereoProgram.EYES][16];
+  private final float[] cubeOrientation = new float[4];
+  private final float[] deviceOrientations;
+
+  HeadlessRenderHarness(RecordingGlBackend gl, boolean singlePass, int sceneObjects, int sensors,
+      boolean terrainEnabled) {
+    this.gl = gl;
+    this.singlePass = singlePass;
+    this.sensors = sensors;
+    renderer = new SceneRenderer(new FrameState(),
+        sceneObjects > 0 ? new CubeScene(sceneObjects) : null, singlePass, terrainEnabled);
+    deviceOrientations = new float[sensors * SampleHistory.SIZE];
+
+    // 90 degree symmetric frustum, close to the Cardboard viewer's.
+    float near = SceneRenderer.Z_NEAR;
+    float far = SceneRenderer.Z_FAR;
+    perspective[0] = 1.0f;
+    perspective[5] = 1.0f;
+    perspective[10] = -(far + near) / (far - near);
+    perspective[11] = -1.0f;
+    perspective[14] = -2.0f * far * near / (far - near);
+    for (int eye = 0; eye < StereoProgram.EYES; eye++) {
+      perspectives[eye] = perspective;
+      Matrix.setIdentityM(eyeOffsets[eye], 0);
+      eyeOffsets[eye][12] = eye == 0 ? HALF_IPD : -HALF_IPD;
+    }
+    Quaternions.setIdentity(cubeOrientation, 0);
+    for (int d = 0; d < sensors; d++) {
+      Quaternions.setIdentity(deviceOrientations, d * SampleHistory.SIZE);
+    }
+  }
+
+  /** The GL part of {@code onSurfaceCreated}. */
+  void onSurfaceCreated() {
+    renderer.onContextCreated(
+        MeshData.compile(WorldLayoutData.CUBE_COORDS,
+            WorldLayoutData.CUBE_NORMALS, WorldLayoutData.CUBE_COLORS),
+        MeshData.compile(WorldLayoutData.CUBE_COORDS,
+            WorldLayoutData.CUBE_NORMALS, WorldLayoutData.CUBE_FOUND_COLORS),
+        MeshData.compile(WorldLayoutData.FLOOR_COORDS,
+            WorldLayoutData.FLOOR_NORMALS, WorldLayoutData.FLOOR_COLORS));
+    renderer.createPrograms(new SceneRenderer.Programs() {
+      @Override
+      public int getProgram(int program) {
+        switch (program) {
+          case SceneRenderer.PROGRAM_CUBE:
+            return link("light_vertex", "passthrough_fragment");
+          case SceneRenderer.PROGRAM_FLOOR:
+            return link("light_vertex", "grid_fragment");
+          case SceneRenderer.PROGRAM_STEREO_CUBE:
+            return link("stereo_light_vertex", "passthrough_fragment");
+          case SceneRenderer.PROGRAM_STEREO_FLOOR:
+            return link("stereo_light_vertex", "grid_fragment");
+          case SceneRenderer.PROGRAM_INSTANCED:
+            return link("instanced_light_vertex", "instanced_fragment");
+          default:
+            throw new IllegalArgumentException("program " + program);
+        }
+      }
+    });
+    renderer.createFloor();
+  }
+
+  /** Compiles and links like {@code ShaderRegistry}; the sources are only names here. */
+  private int link(String vertex, String fragment) {
+    int program = Gl.glCreateProgram();
+    Gl.glAttachShader(program, compile(GLES20.GL_VERTEX_SHADER, vertex));
+    Gl.glAttachShader(program, compile(GLES20.GL_FRAGMENT_SHADER, fragment));
+    Mesh.bindAttribLocations(program);
+    Gl.glLinkProgram(program);
+    return program;
+  }
+
+  private int compile(int type, String name) {
+    int shader = Gl.glCreateShader(type);
+    Gl.glShaderSource(shader, "res/raw/" + name + ".shader");
+    Gl.glCompileShader(shader);
+    return shader;
+  }
+
+  /** Sets the head pose and sensor orientations of {@code frame} from the script. */
+  void scriptInput(int frame) {
+    float sweep = (frame % (2 * HEAD_SWEEP_FRAMES)) / (float) HEAD_SWEEP_FRAMES;
+    float yaw = HEAD_SWEEP_DEGREES * (sweep < 1.0f ? 2.0f * sweep - 1.0f : 3.0f - 2.0f * sweep);
+    Matrix.setRotateM(headView, 0, yaw, 0.0f, 1.0f, 0.0f);
+    for (int eye = 0; eye < StereoProgram.EYES; eye++) {
+      Matrix.multiplyMM(eyeViews[eye], 0, eyeOffsets[eye], 0, headView, 0);
+    }
+    for (int d = 0; d < sensors; d++) {
+      float angle = frame * SENSOR_DEGREES_PER_FRAME + d * SENSOR_PHASE_DEGREES;
+      Quaternions.setFromEulerXyz(
+          deviceOrientations, d * SampleHistory.SIZE, angle / 3.0f, angle, 0.0f);
+    }
+  }
+
+  /** Sets the head pose and sensor orientations of the current frame of {@code session}. */
+  void replayInput(SessionReplay session) {
+    Quaternions.toMatrix(headView, 0, session.getHeadRotation(), 0, 0.0f, 0.0f, 0.0f);
+    for (int eye = 0; eye < StereoProgram.EYES; eye++) {
+      Matrix.multiplyMM(eyeViews[eye], 0, eyeOffsets[eye], 0, headView, 0);
+    }
+    long now = session.getFrameNanos();
+    // Sensors that were never seen, or have nothing new, keep their orientation.
+    for (int d = 0; d < Math.min(sensors, session.getDeviceCount()); d++) {
+      SampleHistory history = session.getHistory(d);
+      history.sampleAt(now - history.getAverageIntervalNanos(), MAX_SENSOR_EXTRAPOLATION_NANOS,
+          deviceOrientations, d * SampleHistory.SIZE);
+    }
+  }
+
+  /** {@code onNewFrame}, after the input of the frame was set. */
+  void onNewFrame() {
+    renderer.beginFrame();
+    System.arraycopy(deviceOrientations, 0, cubeOrientation, 0, 4);
+    renderer.updateScene(headView, cubeOrientation, deviceOrientations, sensors);
+  }
+
+  /**
+   * Renders {@code frames} frames, or up to the end of {@code session} if it ends first, and
+   * returns the report of each.
+   */
+  List<RecordingGlBackend.FrameReport> run(int frames, SessionReplay session, boolean realtime,
+      int traceFrame, PrintWriter out, LatencyHistogram cpuNanos) throws IOException {
+    List<RecordingGlBackend.FrameReport> reports = new ArrayList<>();
+    long startNanos = System.nanoTime();
+    for (int frame = 0; frame < frames; frame++) {
+      if (session != null) {
+        if (!session.nextFrame()) {
+          break;
+        }
+        if (realtime) {
+          sleepUntil(startNanos + session.getElapsedNanos());
+        }
+        replayInput(session);
+      } else {
+        scriptInput(frame);
+      }
+      gl.setTrace(frame == traceFrame ? out : null);
+      gl.beginFrame();
+      long start = System.nanoTime();
+      onNewFrame();
+      if (singlePass) {
+        renderer.drawFrame(eyeViews, perspectives, NO_VIEWPORTS);
+      } else {
+        for (int eye = 0; eye < StereoProgram.EYES; eye++) {
+          renderer.drawEye(eyeViews[eye], perspective);
+        }
+      }
+      long elapsed = System.nanoTime() - start;
+      RecordingGlBackend.FrameReport report = new RecordingGlBackend.FrameReport();
+      gl.endFrame(report);
+      gl.setTrace(null);
+      cpuNanos.record(elapsed);
+      reports.add(report);
+      out.println("frame " + frame + " " + report.hashString() + ": " + report.describe()
+          + ", " + GlState.getLastFrameFiltered() + " filtered, cpu " + elapsed / 1000 + " us");
+    }
+    return reports;
+  }
+
+  private static void sleepUntil(long dueNanos) {
+    long remaining;
+    while ((remaining = dueNanos - System.nanoTime()) > 0) {
+      try {
+        Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private static void usage() {
+    System.err.println("usage: HeadlessRenderHarness [--frames N] [--gles2] [--single-pass]"
+        + " [--scene N] [--sensors N] [--terrain] [--session FILE [--binary-frames] [--realtime]]"
+        + " [--trace FRAME] [--golden FILE [--update]]");
+    System.exit(2);
+  }
+
+  public static void main(String[] args) throws IOException {
+    int frames = -1;
+    boolean gles3 = true;
+    boolean singlePass = false;
+    int sceneObjects = 16;
+    int sensors = 1;
+    boolean terrainEnabled = false;
+    int traceFrame = -1;
+    String golden = null;
+    boolean update = false;
+    String sessionPath = null;
+    boolean binaryFrames = false;
+    boolean realtime = false;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      boolean hasValue = i + 1 < args.length;
+      if (arg.equals("--frames") && hasValue) {
+        frames = Integer.parseInt(args[++i]);
+      } else if (arg.equals("--gles2")) {
+        gles3 = false;
+      } else if (arg.equals("--single-pass")) {
+        singlePass = true;
+      } else if (arg.equals("--scene") && hasValue) {
+        sceneObjects = Integer.parseInt(args[++i]);
+      } else if (arg.equals("--sensors") && hasValue) {
+        sensors = Math.max(1, Integer.parseInt(args[++i]));
+      } else if (arg.equals("--terrain")) {
+        terrainEnabled = true;
+      } else if (arg.equals("--trace") && hasValue) {
+        traceFrame = Integer.parseInt(args[++i]);
+      } else if (arg.equals("--golden") && hasValue) {
+        golden = args[++i];
+      } else if (arg.equals("--update")) {
+        update = true;
+      } else if (arg.equals("--session") && hasValue) {
+        sessionPath = args[++i];
+      } else if (arg.equals("--binary-frames")) {
+        binaryFrames = true;
+      } else if (arg.equals("--realtime")) {
+        realtime = true;
+      } else {
+        usage();
+      }
+    }
+    if (terrainEnabled && golden != null) {
+      // Tiles arrive from a background thread, so the frames they appear in vary between runs.
+      System.err.println("--terrain cannot be compared against a golden file");
+      System.exit(2);
+    }
+
+    SessionReplay session = null;
+    if (sessionPath != null) {
+      session = new SessionReplay(new File(sessionPath), binaryFrames);
+    }
+    if (frames < 0) {
+      // A capture plays to its end.
+      frames = session != null ? Integer.MAX_VALUE : 120;
+    }
+
+    PrintWriter out = new PrintWriter(System.out, true);
+    RecordingGlBackend gl = new RecordingGlBackend(gles3);
+    Gl.setBackend(gl);
+    HeadlessRenderHarness harness =
+        new HeadlessRenderHarness(gl, singlePass, sceneObjects, sensors, terrainEnabled);
+
+    gl.beginFrame();
+    long start = System.nanoTime();
+    harness.onSurfaceCreated();
+    RecordingGlBackend.FrameReport setup = new RecordingGlBackend.FrameReport();
+    gl.endFrame(setup);
+    out.println("setup " + setup.hashString() + ": " + setup.describe() + ", cpu "
+        + (System.nanoTime() - start) / 1000 + " us");
+
+    LatencyHistogram cpuNanos = new LatencyHistogram();
+    List<RecordingGlBackend.FrameReport> reports =
+        harness.run(frames, session, realtime, traceFrame, out, cpuNanos);
+    out.println("total " + gl.getTotal().hashString() + ": " + gl.getTotal().describe());
+    out.println("cpu per frame: " + cpuNanos.describe(1000) + " us");
+
+    int status = gl.getTotal().errors == 0 ? 0 : 1;
+    if (session != null) {
+      out.println("session: " + session.describe());
+      if (session.getMismatches() != 0) {
+        status = 1;
+      }
+    }
+    if (golden != null) {
+      List<String> hashes = new ArrayList<>();
+      hashes.add(setup.hashString());
+      for (RecordingGlBackend.FrameReport report : reports) {
+        hashes.add(report.hashString());
+      }
+      if (update) {
+        writeGolden(golden, hashes);
+        out.println("wrote " + golden);
+      } else if (!compareGolden(golden, hashes, out)) {
+        status = 1;
+      }
+    }
+    if (gl.getTotal().errors != 0) {
+      out.println("GL errors were reported, see the counters above");
+    }
+    System.exit(status);
+  }
+
+  // One hash per line, the setup first, then one per frame.
+  private static void writeGolden(String path, List<String> hashes) throws IOException {
+    PrintWriter writer = new PrintWriter(new FileWriter(path));
+    try {
+      for (String hash : hashes) {
+        writer.println(hash);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static boolean compareGolden(String path, List<String> hashes, PrintWriter out)
+      throws IOException {
+    List<String> expected = new ArrayList<>();
+    BufferedReader reader = new BufferedReader(new FileReader(path));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        expected.add(line.trim());
+      }
+    } finally {
+      reader.close();
+    }
+    if (expected.size() != hashes.size()) {
+      out.println("golden " + path + " has " + (expected.size() - 1) + " frames, ran "
+          + (hashes.size() - 1));
+      return false;
+    }
+    for (int i = 0; i < hashes.size(); i++) {
+      if (!expected.get(i).equals(hashes.get(i))) {
+        String what = i == 0 ? "setup" : "frame " + (i - 1);
+        out.println(what + " differs from " + path + ": " + hashes.get(i) + " != "
+            + expected.get(i) + (i == 0 ? "" : ", rerun with --trace " + (i - 1)));
+        return false;
+      }
+    }
+    out.println("all frames match " + path);
+    return true;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-frame matrix work of {@code TreasureHuntActivity}: the cube model matrix built once in
+ * {@code onNewFrame}, and the per-eye sequence of {@code onDrawEye} with the culling tests for the
+ * cube and the floor tiles. The eye and projection matrices are fixed stand-ins for the ones GVR
+ * provides.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixPipelineBenchmark {
+
+  private static final float CAMERA_Z = 0.01f;
+  private static final float[] LIGHT_POS_IN_WORLD_SPACE = new float[] {0.0f, 2.0f, 0.0f, 1.0f};
+  private static final float[] CUBE_POSITION = new float[] {0.0f, 0.0f, 4.2f};
+  private static final float CUBE_RADIUS = (float) Math.sqrt(3.0);
+  private static final float Z_NEAR = 0.1f;
+  private static final float Z_FAR = 100.0f;
+
+  private final float[] camera = new float[16];
+  private final float[] eyeView = new float[16];
+  private final float[] perspective = new float[16];
+  private final float[] modelCube = new float[16];
+  private final float[] modelFloor = new float[16];
+  private final float[] view = new float[16];
+  private final float[] viewProjection = new float[16];
+  private final float[] modelView = new float[16];
+  private final float[] modelViewProjection = new float[16];
+  private final float[] lightPosInEyeSpace = new float[4];
+  private final float[] cubeOrientation = new float[4];
+  private final FrustumCuller culler = new FrustumCuller();
+  private float[] floorTileBounds;
+
+  @Setup
+  public void setUp() {
+    Matrix.setIdentityM(camera, 0);
+    camera[14] = -CAMERA_Z;
+    // Left eye, half the interpupillary distance to the side.
+    Matrix.setIdentityM(eyeView, 0);
+    eyeView[12] = 0.032f;
+    // 90 degree symmetric frustum.
+    perspective[0] = 1.0f;
+    perspective[5] = 1.0f;
+    perspective[10] = -(Z_FAR + Z_NEAR) / (Z_FAR - Z_NEAR);
+    perspective[11] = -1.0f;
+    perspective[14] = -2.0f * Z_FAR * Z_NEAR / (Z_FAR - Z_NEAR);
+    Matrix.setIdentityM(modelFloor, 0);
+    modelFloor[13] = -20.0f;
+    floorTileBounds = FrustumCuller.groupBounds(WorldLayoutData.FLOOR_COORDS, 6);
+    FrustumCuller.transformBoxes(modelFloor, floorTileBounds, floorTileBounds);
+    culler.setDistanceLimit(0.0f, 0.0f, CAMERA_Z, Z_FAR);
+    Quaternions.setFromEulerXyz(cubeOrientation, 0, 10.0f, 20.0f, 30.0f);
+  }
+
+  /** Builds the cube model matrix from the sensor orientation, once per frame. */
+  @Benchmark
+  public float[] newFrameCube() {
+    Quaternions.toMatrix(modelCube, 0, cubeOrientation, 0,
+        CUBE_POSITION[0], CUBE_POSITION[1], CUBE_POSITION[2]);
+    return modelCube;
+  }
+
+  /**
+   * The cube model matrix as the original {@code onDrawEye} built it, for comparison with
+   * {@link #newFrameCube}: three Euler rotations, repeated for each of the two eyes.
+   */
+  @Benchmark
+  public float[] legacyEulerCube() {
+    for (int eye = 0; eye < 2; eye++) {
+      Matrix.setIdentityM(modelCube, 0);
+      Matrix.translateM(modelCube, 0, CUBE_POSITION[0], CUBE_POSITION[1], CUBE_POSITION[2]);
+      Matrix.rotateM(modelCube, 0, 10.0f, 1.0f, 0.0f, 0.0f);
+      Matrix.rotateM(modelCube, 0, 20.0f, 0.0f, 1.0f, 0.0f);
+      Matrix.rotateM(modelCube, 0, 30.0f, 0.0f, 0.0f, 1.0f);
+    }
+    return modelCube;
+  }
+
+  /** The matrices and culling tests of one eye; returns the visible floor tiles. */
+  @Benchmark
+  public int drawEyeMatrices() {
+    Matrix.multiplyMM(view, 0, eyeView, 0, camera, 0);
+    Matrix.multiplyMV(lightPosInEyeSpace, 0, view, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
+    Matrix.multiplyMM(viewProjection, 0, perspective, 0, view, 0);
+    culler.setViewProjection(viewProjection, 0);
+
+    if (culler.isSphereVisible(modelCube[12], modelCube[13], modelCube[14], CUBE_RADIUS)) {
+      Matrix.multiplyMM(modelView, 0, view, 0, modelCube, 0);
+      Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
+    }
+
+    int tiles = 0;
+    for (int i = 0; i < floorTileBounds.length / FrustumCuller.BOX_SIZE; i++) {
+      if (culler.isBoxVisible(floorTileBounds, i * FrustumCuller.BOX_SIZE)) {
+        tiles |= 1 << i;
+      }
+    }
+    if (tiles != 0) {
+      Matrix.multiplyMM(modelView, 0, view, 0, modelFloor, 0);
+      Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
+    }
+    return tiles;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Packing the {@link WorldLayoutData} arrays into interleaved, indexed {@link MeshData}, which
+ * runs on a background thread during start-up. Reported in microseconds per mesh.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshPackingBenchmark {
+
+  @Setup
+  public void setUp() {
+    // Touch the arrays so their initialization isn't measured.
+    if (WorldLayoutData.CUBE_COORDS.length == 0) {
+      throw new IllegalStateException();
+    }
+  }
+
+  @Benchmark
+  public MeshData cube() {
+    return MeshData.compile(WorldLayoutData.CUBE_COORDS,
+        WorldLayoutData.CUBE_NORMALS, WorldLayoutData.CUBE_COLORS);
+  }
+
+  @Benchmark
+  public MeshData floor() {
+    return MeshData.compile(WorldLayoutData.FLOOR_COORDS,
+        WorldLayoutData.FLOOR_NORMALS, WorldLayoutData.FLOOR_COLORS);
+  }
+}
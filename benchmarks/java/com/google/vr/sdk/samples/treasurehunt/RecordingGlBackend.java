@@ -0,0 +1,754 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+import java.io.PrintWriter;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link GlBackend} without a GPU: it hands out object names, answers queries the way a
+ * conforming driver would, and counts and fingerprints every call instead of rendering.
+ *
+ * <p>Each call is folded into a 64-bit FNV-1a hash of the call name and all arguments, including
+ * the contents of uploaded buffers and uniforms, so two runs that issue the same GL stream produce
+ * the same hash. Floats are rounded to 1/4096 first, so the hash does not depend on the last bits
+ * of the math library. The misuse a driver would report through {@code glGetError} is detected for the
+ * cases the renderer can get wrong: drawing without a program or index buffer, uploading to an
+ * unbound or too small buffer, binding unknown objects, and GLES3 calls on a GLES2 context.
+ *
+ * <p>The counters are kept per frame between {@link #beginFrame()} and {@link #endFrame}, and in
+ * total since construction. Only used from one thread, like a GL context.
+ */
+final class RecordingGlBackend implements GlBackend {
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  // Floats are hashed as fixed point with this many steps per unit.
+  private static final float FLOAT_RESOLUTION = 4096.0f;
+
+  /** Counters of one frame, or of a whole run. */
+  static final class FrameReport {
+    long calls;
+    long drawCalls;
+    long vertices;
+    long stateChanges;
+    long uniformUploads;
+    long bufferBytes;
+    long uniformBytes;
+    long errors;
+    long hash;
+
+    void reset() {
+      calls = 0;
+      drawCalls = 0;
+      vertices = 0;
+      stateChanges = 0;
+      uniformUploads = 0;
+      bufferBytes = 0;
+      uniformBytes = 0;
+      errors = 0;
+      hash = FNV_OFFSET;
+    }
+
+    void set(FrameReport other) {
+      calls = other.calls;
+      drawCalls = other.drawCalls;
+      vertices = other.vertices;
+      stateChanges = other.stateChanges;
+      uniformUploads = other.uniformUploads;
+      bufferBytes = other.bufferBytes;
+      uniformBytes = other.uniformBytes;
+      errors = other.errors;
+      hash = other.hash;
+    }
+
+    /** Adds the counters of {@code other}; the hash is chained so that frame order matters. */
+    void add(FrameReport other) {
+      calls += other.calls;
+      drawCalls += other.drawCalls;
+      vertices += other.vertices;
+      stateChanges += other.stateChanges;
+      uniformUploads += other.uniformUploads;
+      bufferBytes += other.bufferBytes;
+      uniformBytes += other.uniformBytes;
+      errors += other.errors;
+      hash = (hash ^ other.hash) * FNV_PRIME;
+    }
+
+    String describe() {
+      return calls + " calls, " + drawCalls + " draws, " + vertices + " vertices, "
+          + stateChanges + " state changes, " + uniformUploads + " uniform uploads, "
+          + bufferBytes + " buffer bytes, " + uniformBytes + " uniform bytes, "
+          + errors + " errors";
+    }
+
+    String hashString() {
+      return String.format("%016x", hash);
+    }
+  }
+
+  private final boolean gles3;
+  private final FrameReport frame = new FrameReport();
+  private final FrameReport total = new FrameReport();
+  private PrintWriter trace;
+  private boolean traceLine;
+
+  private int nextName = 1;
+  private final Set<Integer> shaders = new HashSet<>();
+  private final Map<Integer, Map<String, Integer>> programs = new HashMap<>();
+  private final Map<Integer, Integer> bufferSizes = new HashMap<>();
+  // Element array binding of each vertex array object; 0 is the default vertex array.
+  private final Map<Integer, Integer> elementBindings = new HashMap<>();
+  private final Map<String, Integer> boundAttribs = new HashMap<>();
+
+  private int error = GLES20.GL_NO_ERROR;
+  private int program;
+  private int arrayBuffer;
+  private int vertexArray;
+
+  /** @param gles3 Whether to report an OpenGL ES 3.0 context, otherwise 2.0. */
+  RecordingGlBackend(boolean gles3) {
+    this.gles3 = gles3;
+    frame.reset();
+    total.reset();
+    elementBindings.put(0, 0);
+  }
+
+  /** Writes every call to {@code out}, one per line, until set to null. */
+  void setTrace(PrintWriter out) {
+    endTraceLine();
+    trace = out;
+  }
+
+  /** Starts a new frame report. */
+  void beginFrame() {
+    frame.reset();
+  }
+
+  /** Copies the counters of the frame into {@code out} and adds them to the total. */
+  void endFrame(FrameReport out) {
+    endTraceLine();
+    total.add(frame);
+    out.set(frame);
+  }
+
+  /** Counters of all frames ended so far. */
+  FrameReport getTotal() {
+    return total;
+  }
+
+  // State
+
+  @Override
+  public void glEnable(int cap) {
+    state("glEnable").arg(cap);
+  }
+
+  @Override
+  public void glDisable(int cap) {
+    state("glDisable").arg(cap);
+  }
+
+  @Override
+  public void glClearColor(float red, float green, float blue, float alpha) {
+    state("glClearColor").arg(red).arg(green).arg(blue).arg(alpha);
+  }
+
+  @Override
+  public void glClear(int mask) {
+    call("glClear").arg(mask);
+  }
+
+  @Override
+  public int glGetError() {
+    call("glGetError");
+    int result = error;
+    error = GLES20.GL_NO_ERROR;
+    return result;
+  }
+
+  @Override
+  public void glGetIntegerv(int pname, int[] params, int offset) {
+    call("glGetIntegerv").arg(pname);
+    // No binary formats, no extensions: the renderer takes its plain paths.
+    params[offset] = 0;
+  }
+
+  @Override
+  public String glGetString(int name) {
+    call("glGetString").arg(name);
+    switch (name) {
+      case GLES20.GL_VERSION:
+        return gles3 ? "OpenGL ES 3.0 recording" : "OpenGL ES 2.0 recording";
+      case GLES20.GL_VENDOR:
+        return "none";
+      case GLES20.GL_RENDERER:
+        return "RecordingGlBackend";
+      default:
+        return null;
+    }
+  }
+
+  // Shaders and programs
+
+  @Override
+  public int glCreateShader(int type) {
+    call("glCreateShader").arg(type);
+    int shader = nextName++;
+    shaders.add(shader);
+    return shader;
+  }
+
+  @Override
+  public void glShaderSource(int shader, String source) {
+    call("glShaderSource").arg(shader).arg(source);
+    checkShader(shader);
+  }
+
+  @Override
+  public void glCompileShader(int shader) {
+    call("glCompileShader").arg(shader);
+    checkShader(shader);
+  }
+
+  @Override
+  public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+    call("glGetShaderiv").arg(shader).arg(pname);
+    checkShader(shader);
+    params[offset] = pname == GLES20.GL_COMPILE_STATUS ? GLES20.GL_TRUE : 0;
+  }
+
+  @Override
+  public String glGetShaderInfoLog(int shader) {
+    call("glGetShaderInfoLog").arg(shader);
+    return "";
+  }
+
+  @Override
+  public void glDeleteShader(int shader) {
+    call("glDeleteShader").arg(shader);
+    shaders.remove(shader);
+  }
+
+  @Override
+  public int glCreateProgram() {
+    call("glCreateProgram");
+    int created = nextName++;
+    programs.put(created, new HashMap<String, Integer>());
+    return created;
+  }
+
+  @Override
+  public void glAttachShader(int program, int shader) {
+    call("glAttachShader").arg(program).arg(shader);
+    checkProgram(program);
+    checkShader(shader);
+  }
+
+  @Override
+  public void glBindAttribLocation(int program, int index, String name) {
+    call("glBindAttribLocation").arg(program).arg(index).arg(name);
+    checkProgram(program);
+    boundAttribs.put(name, index);
+  }
+
+  @Override
+  public void glProgramParameteri(int program, int pname, int value) {
+    call("glProgramParameteri").arg(program).arg(pname).arg(value);
+    checkGles3();
+    checkProgram(program);
+  }
+
+  @Override
+  public void glLinkProgram(int program) {
+    call("glLinkProgram").arg(program);
+    checkProgram(program);
+  }
+
+  @Override
+  public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+    call("glGetProgramiv").arg(program).arg(pname);
+    checkProgram(program);
+    params[offset] = pname == GLES20.GL_LINK_STATUS ? GLES20.GL_TRUE : 0;
+  }
+
+  @Override
+  public String glGetProgramInfoLog(int program) {
+    call("glGetProgramInfoLog").arg(program);
+    return "";
+  }
+
+  @Override
+  public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+      int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+    call("glGetProgramBinary").arg(program).arg(bufSize);
+    checkGles3();
+    checkProgram(program);
+    length[lengthOffset] = 0;
+    binaryFormat[binaryFormatOffset] = 0;
+  }
+
+  @Override
+  public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+    call("glProgramBinary").arg(program).arg(binaryFormat).arg(length);
+    checkGles3();
+    // No binary formats are supported.
+    setError(GLES20.GL_INVALID_ENUM);
+  }
+
+  @Override
+  public void glDeleteProgram(int program) {
+    call("glDeleteProgram").arg(program);
+    programs.remove(program);
+    if (this.program == program) {
+      this.program = 0;
+    }
+  }
+
+  @Override
+  public void glUseProgram(int program) {
+    state("glUseProgram").arg(program);
+    if (program == 0 || checkProgram(program)) {
+      this.program = program;
+    }
+  }
+
+  @Override
+  public int glGetAttribLocation(int program, String name) {
+    call("glGetAttribLocation").arg(program).arg(name);
+    if (!checkProgram(program)) {
+      return -1;
+    }
+    Integer bound = boundAttribs.get(name);
+    return bound != null ? bound : location(program, name);
+  }
+
+  @Override
+  public int glGetUniformLocation(int program, String name) {
+    call("glGetUniformLocation").arg(program).arg(name);
+    return checkProgram(program) ? location(program, name) : -1;
+  }
+
+  @Override
+  public void glUniform1i(int location, int x) {
+    uniform("glUniform1i", location, 1).arg(x);
+  }
+
+  @Override
+  public void glUniform3fv(int location, int count, float[] v, int offset) {
+    uniform("glUniform3fv", location, 3 * count).arg(v, offset, 3 * count);
+  }
+
+  @Override
+  public void glUniformMatrix4fv(
+      int location, int count, boolean transpose, float[] value, int offset) {
+    uniform("glUniformMatrix4fv", location, 16 * count).arg(transpose ? 1 : 0)
+        .arg(value, offset, 16 * count);
+  }
+
+  // Buffers and vertex arrays
+
+  @Override
+  public void glGenBuffers(int n, int[] buffers, int offset) {
+    call("glGenBuffers").arg(n);
+    for (int i = 0; i < n; i++) {
+      buffers[offset + i] = nextName++;
+      bufferSizes.put(buffers[offset + i], 0);
+    }
+  }
+
+  @Override
+  public void glDeleteBuffers(int n, int[] buffers, int offset) {
+    call("glDeleteBuffers").arg(n).arg(buffers, offset, n);
+    for (int i = 0; i < n; i++) {
+      int buffer = buffers[offset + i];
+      bufferSizes.remove(buffer);
+      if (arrayBuffer == buffer) {
+        arrayBuffer = 0;
+      }
+      if (elementBindings.get(vertexArray) == buffer) {
+        elementBindings.put(vertexArray, 0);
+      }
+    }
+  }
+
+  @Override
+  public void glBindBuffer(int target, int buffer) {
+    state("glBindBuffer").arg(target).arg(buffer);
+    if (buffer != 0 && !bufferSizes.containsKey(buffer)) {
+      setError(GLES20.GL_INVALID_OPERATION);
+    } else if (target == GLES20.GL_ARRAY_BUFFER) {
+      arrayBuffer = buffer;
+    } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+      elementBindings.put(vertexArray, buffer);
+    } else {
+      setError(GLES20.GL_INVALID_ENUM);
+    }
+  }
+
+  @Override
+  public void glBufferData(int target, int size, Buffer data, int usage) {
+    call("glBufferData").arg(target).arg(size).arg(data, size).arg(usage);
+    int buffer = boundBuffer(target);
+    if (buffer == 0) {
+      setError(GLES20.GL_INVALID_OPERATION);
+      return;
+    }
+    bufferSizes.put(buffer, size);
+    if (data != null) {
+      frame.bufferBytes += size;
+    }
+  }
+
+  @Override
+  public void glBufferSubData(int target, int offset, int size, Buffer data) {
+    call("glBufferSubData").arg(target).arg(offset).arg(size).arg(data, size);
+    int buffer = boundBuffer(target);
+    if (buffer == 0) {
+      setError(GLES20.GL_INVALID_OPERATION);
+    } else if (offset < 0 || offset + size > bufferSizes.get(buffer)) {
+      setError(GLES20.GL_INVALID_VALUE);
+    } else {
+      frame.bufferBytes += size;
+    }
+  }
+
+  @Override
+  public void glGenVertexArrays(int n, int[] arrays, int offset) {
+    call("glGenVertexArrays").arg(n);
+    checkGles3();
+    for (int i = 0; i < n; i++) {
+      arrays[offset + i] = nextName++;
+      elementBindings.put(arrays[offset + i], 0);
+    }
+  }
+
+  @Override
+  public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+    call("glDeleteVertexArrays").arg(n).arg(arrays, offset, n);
+    checkGles3();
+    for (int i = 0; i < n; i++) {
+      int array = arrays[offset + i];
+      if (array != 0) {
+        elementBindings.remove(array);
+        if (vertexArray == array) {
+          vertexArray = 0;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void glBindVertexArray(int array) {
+    state("glBindVertexArray").arg(array);
+    checkGles3();
+    if (!elementBindings.containsKey(array)) {
+      setError(GLES20.GL_INVALID_OPERATION);
+      return;
+    }
+    vertexArray = array;
+  }
+
+  @Override
+  public void glEnableVertexAttribArray(int index) {
+    state("glEnableVertexAttribArray").arg(index);
+  }
+
+  @Override
+  public void glDisableVertexAttribArray(int index) {
+    state("glDisableVertexAttribArray").arg(index);
+  }
+
+  @Override
+  public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+      int offset) {
+    state("glVertexAttribPointer").arg(index).arg(size).arg(type).arg(normalized ? 1 : 0)
+        .arg(stride).arg(offset);
+    if (arrayBuffer == 0) {
+      // A client-side array at address "offset"; only valid on the default vertex array.
+      setError(GLES20.GL_INVALID_OPERATION);
+    }
+  }
+
+  @Override
+  public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+      Buffer pointer) {
+    state("glVertexAttribPointer").arg(index).arg(size).arg(type).arg(normalized ? 1 : 0)
+        .arg(stride).arg(pointer, -1);
+    if (vertexArray != 0) {
+      setError(GLES20.GL_INVALID_OPERATION);
+    }
+  }
+
+  @Override
+  public void glVertexAttribDivisor(int index, int divisor) {
+    state("glVertexAttribDivisor").arg(index).arg(divisor);
+    checkGles3();
+  }
+
+  @Override
+  public void glVertexAttrib3fv(int index, float[] values, int offset) {
+    state("glVertexAttrib3fv").arg(index).arg(values, offset, 3);
+  }
+
+  @Override
+  public void glVertexAttrib4fv(int index, float[] values, int offset) {
+    state("glVertexAttrib4fv").arg(index).arg(values, offset, 4);
+  }
+
+  // Drawing
+
+  @Override
+  public void glDrawArrays(int mode, int first, int count) {
+    call("glDrawArrays").arg(mode).arg(first).arg(count);
+    if (checkDraw(false)) {
+      frame.drawCalls++;
+      frame.vertices += count;
+    }
+  }
+
+  @Override
+  public void glDrawElements(int mode, int count, int type, int offset) {
+    call("glDrawElements").arg(mode).arg(count).arg(type).arg(offset);
+    if (checkDraw(true)) {
+      frame.drawCalls++;
+      frame.vertices += count;
+    }
+  }
+
+  @Override
+  public void glDrawElementsInstanced(int mode, int count, int type, int offset,
+      int instanceCount) {
+    call("glDrawElementsInstanced").arg(mode).arg(count).arg(type).arg(offset)
+        .arg(instanceCount);
+    checkGles3();
+    if (checkDraw(true)) {
+      frame.drawCalls++;
+      frame.vertices += (long) count * instanceCount;
+    }
+  }
+
+  // Recording
+
+  private RecordingGlBackend call(String name) {
+    endTraceLine();
+    frame.calls++;
+    hashString(name);
+    if (trace != null) {
+      trace.print(name);
+      traceLine = true;
+    }
+    return this;
+  }
+
+  private RecordingGlBackend state(String name) {
+    frame.stateChanges++;
+    return call(name);
+  }
+
+  private RecordingGlBackend uniform(String name, int location, int floats) {
+    call(name).arg(location);
+    if (program == 0) {
+      setError(GLES20.GL_INVALID_OPERATION);
+    } else if (location != -1) {
+      frame.uniformUploads++;
+      frame.uniformBytes += 4 * floats;
+    }
+    return this;
+  }
+
+  private RecordingGlBackend arg(int value) {
+    hashInt(value);
+    if (trace != null) {
+      trace.print(' ');
+      trace.print(value);
+    }
+    return this;
+  }
+
+  private RecordingGlBackend arg(float value) {
+    hashFloat(value);
+    if (trace != null) {
+      trace.print(' ');
+      trace.print(value);
+    }
+    return this;
+  }
+
+  private RecordingGlBackend arg(String value) {
+    hashString(value);
+    if (trace != null) {
+      trace.print(" \"");
+      trace.print(value);
+      trace.print('"');
+    }
+    return this;
+  }
+
+  private RecordingGlBackend arg(int[] values, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      arg(values[offset + i]);
+    }
+    return this;
+  }
+
+  private RecordingGlBackend arg(float[] values, int offset, int count) {
+    for (int i = 0; i < count; i++) {
+      arg(values[offset + i]);
+    }
+    return this;
+  }
+
+  /** Hashes the remaining elements of {@code data}, up to {@code bytes} bytes unless negative. */
+  private RecordingGlBackend arg(Buffer data, int bytes) {
+    if (data == null) {
+      return arg(0);
+    }
+    int elements = data.remaining();
+    if (data instanceof FloatBuffer) {
+      FloatBuffer floats = (FloatBuffer) data;
+      int end = floats.position() + (bytes < 0 ? elements : Math.min(elements, bytes / 4));
+      for (int i = floats.position(); i < end; i++) {
+        hashFloat(floats.get(i));
+      }
+    } else if (data instanceof ShortBuffer) {
+      ShortBuffer shorts = (ShortBuffer) data;
+      int end = shorts.position() + (bytes < 0 ? elements : Math.min(elements, bytes / 2));
+      for (int i = shorts.position(); i < end; i++) {
+        hashInt(shorts.get(i));
+      }
+    } else if (data instanceof ByteBuffer) {
+      ByteBuffer buffer = (ByteBuffer) data;
+      int end = buffer.position() + (bytes < 0 ? elements : Math.min(elements, bytes));
+      for (int i = buffer.position(); i < end; i++) {
+        hashInt(buffer.get(i));
+      }
+    } else {
+      hashInt(elements);
+    }
+    if (trace != null) {
+      trace.print(" <");
+      trace.print(data.getClass().getSimpleName());
+      trace.print(' ');
+      trace.print(elements);
+      trace.print('>');
+    }
+    return this;
+  }
+
+  private void endTraceLine() {
+    if (traceLine) {
+      trace.println();
+      traceLine = false;
+    }
+  }
+
+  private void hashInt(int value) {
+    long h = frame.hash;
+    for (int i = 0; i < 4; i++) {
+      h = (h ^ (value & 0xff)) * FNV_PRIME;
+      value >>>= 8;
+    }
+    frame.hash = h;
+  }
+
+  // Last-bit differences, e.g. between the Math.sin of two JVMs, must not change the hash.
+  private void hashFloat(float value) {
+    hashInt(Math.round(value * FLOAT_RESOLUTION));
+  }
+
+  private void hashString(String value) {
+    if (value == null) {
+      hashInt(-1);
+      return;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      hashInt(value.charAt(i));
+    }
+  }
+
+  // Validation
+
+  private void setError(int code) {
+    frame.errors++;
+    // Like GL, keep the first error until it is read.
+    if (error == GLES20.GL_NO_ERROR) {
+      error = code;
+    }
+  }
+
+  private void checkGles3() {
+    if (!gles3) {
+      setError(GLES20.GL_INVALID_OPERATION);
+    }
+  }
+
+  private boolean checkShader(int shader) {
+    if (!shaders.contains(shader)) {
+      setError(GLES20.GL_INVALID_VALUE);
+      return false;
+    }
+    return true;
+  }
+
+  private boolean checkProgram(int program) {
+    if (!programs.containsKey(program)) {
+      setError(GLES20.GL_INVALID_VALUE);
+      return false;
+    }
+    return true;
+  }
+
+  private boolean checkDraw(boolean indexed) {
+    if (program == 0 || (indexed && elementBindings.get(vertexArray) == 0)) {
+      setError(GLES20.GL_INVALID_OPERATION);
+      return false;
+    }
+    return true;
+  }
+
+  private int boundBuffer(int target) {
+    if (target == GLES20.GL_ARRAY_BUFFER) {
+      return arrayBuffer;
+    }
+    if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+      return elementBindings.get(vertexArray);
+    }
+    setError(GLES20.GL_INVALID_ENUM);
+    return 0;
+  }
+
+  private int location(int program, String name) {
+    Map<String, Integer> locations = programs.get(program);
+    Integer location = locations.get(name);
+    if (location == null) {
+      location = locations.size();
+      locations.put(name, location);
+    }
+    return location;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-frame scene update driven by the sensors: sampling a {@link SampleHistory}, the reader
+ * side filter chain, and orienting the cube rack.
+ *
+ * <p>{@link #filterChain} runs each filter of {@link FilterComparison}, which reports what they
+ * buy for their cost in smoothness and lag. {@link #orientRack} runs from a single cube to far
+ * more than the sample shows; {@code HeadlessRenderHarness --scene} sweeps the same sizes through
+ * the whole frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SceneUpdateBenchmark {
+
+  private static final long PERIOD_NANOS = 20000000L;
+
+  private final SampleHistory history = new SampleHistory(64);
+  private final float[] sample = new float[SampleHistory.SIZE];
+  private final float[] orientation = new float[SampleHistory.SIZE];
+  private long sampleTime;
+  private long frameTime;
+
+  @Setup
+  public void setUp() {
+    for (int i = 0; i < 64; i++) {
+      Quaternions.setFromEulerXyz(sample, 0, i, 2 * i, 3 * i);
+      history.add(sampleTime, sample, 0);
+      sampleTime += PERIOD_NANOS;
+    }
+    frameTime = sampleTime - 2 * PERIOD_NANOS;
+  }
+
+  /** Interpolates the orientation for a frame time between the two newest samples. */
+  @Benchmark
+  public boolean sampleHistory() {
+    frameTime += 1;
+    if (frameTime > sampleTime - PERIOD_NANOS) {
+      frameTime = sampleTime - 2 * PERIOD_NANOS;
+    }
+    return history.sampleAt(frameTime, 50000000L, orientation, 0);
+  }
+
+  /** One sample through a filter, as on the reader thread. */
+  @Benchmark
+  public float filterChain(FilterState state) {
+    state.sampleTime += PERIOD_NANOS;
+    Quaternions.setFromEulerXyz(state.sample, 0, 1.0f, 2.0f, 3.0f);
+    if (state.filter != null) {
+      state.filter.filter(state.sampleTime, state.sample, 0);
+    }
+    return state.sample[3];
+  }
+
+  @Benchmark
+  public CubeScene orientRack(RackState rack) {
+    rack.scene.setAllOrientations(orientation, 0);
+    return rack.scene;
+  }
+
+  /** The cube rack, so that only {@link #orientRack} runs once per size. */
+  @State(Scope.Thread)
+  public static class RackState {
+    @Param({"1", "64", "1024", "4096"})
+    public int cubes;
+
+    CubeScene scene;
+
+    @Setup
+    public void setUp() {
+      scene = new CubeScene(cubes);
+    }
+  }
+
+  /** The filter under test, so that only {@link #filterChain} runs once per filter. */
+  @State(Scope.Thread)
+  public static class FilterState {
+    /** A {@link FilterComparison} name; {@code none} times converting the sample alone. */
+    @Param({"none", "exp", "euro", "kalman", "chain"})
+    public String name;
+
+    OrientationFilter filter;
+    final float[] sample = new float[SampleHistory.SIZE];
+    long sampleTime;
+
+    @Setup
+    public void setUp() {
+      filter = FilterComparison.create(name);
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding cost per sensor frame, for the path the reader threads of {@link SensorHub} run on
+ * every read. Each invocation feeds a buffer of {@link #FRAMES} frames in {@link #CHUNK} byte
+ * reads, as they arrive from the link.
+ *
+ * <p>{@link #replayedStream} instead feeds a captured byte stream with the read boundaries it was
+ * captured with: a {@link ReplaySensorTransport} recording or a {@link SessionRecorder} capture of
+ * an ASCII sensor, given with {@code -p capture=PATH} (and {@code -p device=N} for a session).
+ * Without one it replays the generated frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensorProtocolBenchmark {
+
+  static final int FRAMES = 1024;
+  // Typical size of one Bluetooth read.
+  static final int CHUNK = 64;
+
+  private static final int FEED_ASCII = 0;
+  private static final int FEED_BINARY = 1;
+  private static final int FEED_PROTOCOL = 2;
+
+  /** Recording or session capture to replay, empty for the generated frames. */
+  @Param({""})
+  public String capture;
+
+  /** Sensor of a session capture to replay. */
+  @Param({"0"})
+  public int device;
+
+  private byte[] ascii;
+  private int asciiLength;
+  private byte[] binary;
+  private final float[] values = new float[SensorFrameParser.AXES];
+  // Keeps the values of every frame, as the reader threads of SensorHub do.
+  private final SensorFrameSink sink = new SensorFrameSink() {
+    @Override
+    public void onFrame(float x, float y, float z) {
+      values[0] = x;
+      values[1] = y;
+      values[2] = z;
+    }
+  };
+  private final SensorFrameParser parser = new SensorFrameParser();
+  private final BinaryFrameCodec codec = new BinaryFrameCodec();
+  private final SensorProtocol protocol = new SensorProtocol();
+
+  // The replayed stream, and the length of each read in it.
+  private byte[] replay;
+  private int[] replayReads;
+  private int replayReadCount;
+
+  @Setup
+  public void setUp() throws IOException {
+    ascii = new byte[FRAMES * 32];
+    binary = new byte[FRAMES * BinaryFrameCodec.FRAME_LENGTH];
+    int pos = 0;
+    for (int i = 0; i < FRAMES; i++) {
+      float x = (float) (45.0 * Math.sin(i * 0.007));
+      float y = (float) (90.0 * Math.sin(i * 0.003));
+      float z = (float) (30.0 * Math.cos(i * 0.005));
+      ascii[pos++] = ' ';
+      pos = SyntheticSensorTransport.writeFixed2(ascii, pos, x);
+      ascii[pos++] = ' ';
+      pos = SyntheticSensorTransport.writeFixed2(ascii, pos, y);
+      ascii[pos++] = ' ';
+      pos = SyntheticSensorTransport.writeFixed2(ascii, pos, z);
+      ascii[pos++] = 'r';
+      BinaryFrameCodec.encode(binary, i * BinaryFrameCodec.FRAME_LENGTH, i, x, y, z);
+    }
+    asciiLength = pos;
+    loadReplay();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FRAMES)
+  public int asciiParser() {
+    return feed(ascii, asciiLength, FEED_ASCII);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FRAMES)
+  public int binaryCodec() {
+    return feed(binary, binary.length, FEED_BINARY);
+  }
+
+  /** The ASCII path through {@link SensorProtocol}, including the acknowledgement scan. */
+  @Benchmark
+  @OperationsPerInvocation(FRAMES)
+  public int protocolAscii() {
+    protocol.reset();
+    return feed(ascii, asciiLength, FEED_PROTOCOL);
+  }
+
+  /** A captured stream, read by read, until {@link #FRAMES} frames have been decoded. */
+  @Benchmark
+  @OperationsPerInvocation(FRAMES)
+  public int replayedStream() {
+    protocol.reset();
+    int frames = 0;
+    while (frames < FRAMES) {
+      int off = 0;
+      for (int i = 0; i < replayReadCount; i++) {
+        frames += protocol.feed(replay, off, replayReads[i], sink, 0L);
+        off += replayReads[i];
+      }
+    }
+    return frames;
+  }
+
+  private void loadReplay() throws IOException {
+    replay = new byte[4096];
+    replayReads = new int[256];
+    replayReadCount = 0;
+    int length = 0;
+    if (capture.isEmpty()) {
+      for (int off = 0; off < asciiLength; off += CHUNK) {
+        length = addRead(ascii, off, Math.min(CHUNK, asciiLength - off), length);
+      }
+    } else {
+      ReplaySensorTransport transport = new ReplaySensorTransport(new File(capture), device, 0f,
+          false);
+      transport.connect();
+      InputStream in = transport.getInputStream();
+      byte[] buffer = new byte[1024];
+      int bytes;
+      while ((bytes = in.read(buffer)) >= 0) {
+        length = addRead(buffer, 0, bytes, length);
+      }
+      transport.close();
+    }
+    SensorProtocol check = new SensorProtocol();
+    if (check.feed(replay, 0, length, sink, 0L) == 0) {
+      throw new IllegalStateException("No ASCII frames in " + capture);
+    }
+  }
+
+  private int addRead(byte[] data, int offset, int count, int length) {
+    if (length + count > replay.length) {
+      replay = Arrays.copyOf(replay, Math.max(replay.length * 2, length + count));
+    }
+    if (replayReadCount == replayReads.length) {
+      replayReads = Arrays.copyOf(replayReads, replayReadCount * 2);
+    }
+    System.arraycopy(data, offset, replay, length, count);
+    replayReads[replayReadCount++] = count;
+    return length + count;
+  }
+
+  private int feed(byte[] data, int length, int target) {
+    int frames = 0;
+    for (int off = 0; off < length; off += CHUNK) {
+      int n = Math.min(CHUNK, length - off);
+      switch (target) {
+        case FEED_ASCII:
+          frames += parser.feed(data, off, n, sink);
+          break;
+        case FEED_BINARY:
+          frames += codec.feed(data, off, n, sink);
+          break;
+        default:
+          frames += protocol.feed(data, off, n, sink, 0L);
+          break;
+      }
+    }
+    return frames;
+  }
+}
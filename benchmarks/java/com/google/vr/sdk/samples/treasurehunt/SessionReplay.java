@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Feeds a {@link SessionRecorder} capture to {@link HeadlessRenderHarness} one frame at a time.
+ *
+ * <p>The raw sensor bytes go through the same {@link SensorProtocol}, {@link SampleClock} and
+ * {@link SampleHistory} as on the reader threads of {@link SensorHub}, with the recorded receive
+ * times in place of the clock, so a replay is deterministic. Each decoded read is checked against
+ * the values the device decoded; a difference means the decoder changed, or the session was
+ * captured in binary mode and should be replayed with {@code binaryFrames}. The records are
+ * applied in file order, so every frame sees the reads captured before it.
+ */
+final class SessionReplay {
+
+  private static final int HISTORY_SAMPLES = 64;
+
+  private final SessionReader reader;
+  private final boolean binaryFrames;
+  private final float[] sample = new float[SampleHistory.SIZE];
+  private final float[] headRotation = new float[4];
+
+  private SensorProtocol[] protocols = new SensorProtocol[0];
+  private SampleClock[] clocks = new SampleClock[0];
+  private SampleHistory[] histories = new SampleHistory[0];
+  private float[][] lastValues = new float[0][];
+
+  // Device and receive time of the read being decoded.
+  private int readDevice;
+  private long readNanos;
+
+  // Publishes every frame of a read, as the reader threads of SensorHub do.
+  private final SensorFrameSink sink = new SensorFrameSink() {
+    @Override
+    public void onFrame(float x, float y, float z) {
+      float[] last = lastValues[readDevice];
+      last[0] = x;
+      last[1] = y;
+      last[2] = z;
+      // As in SensorHub: SRZ turns the cube around X, SRY around Y and SRX around Z.
+      Quaternions.setFromEulerXyz(sample, 0, z, y, x);
+      histories[readDevice].add(clocks[readDevice].onArrival(readNanos), sample, 0);
+    }
+  };
+
+  private long frameNanos;
+  private long firstFrameNanos = -1;
+  private long reads;
+  private long samples;
+  private long mismatches;
+
+  /**
+   * @param file The capture.
+   * @param binaryFrames Whether the devices were asked for binary frames when it was captured.
+   */
+  SessionReplay(File file, boolean binaryFrames) throws IOException {
+    reader = new SessionReader(file);
+    this.binaryFrames = binaryFrames;
+  }
+
+  /**
+   * Applies the sensor records up to the next frame.
+   *
+   * @return False at the end of the capture.
+   */
+  boolean nextFrame() throws IOException {
+    while (reader.next()) {
+      switch (reader.getType()) {
+        case SessionRecorder.TYPE_SENSOR_BYTES:
+          onRead(reader.getDevice(), reader.getNanos(), reader.getPayload(), reader.getLength());
+          break;
+        case SessionRecorder.TYPE_SENSOR_SAMPLE:
+          checkSample(reader.getDevice());
+          break;
+        case SessionRecorder.TYPE_FRAME:
+          frameNanos = reader.getNanos();
+          if (firstFrameNanos < 0) {
+            firstFrameNanos = frameNanos;
+          }
+          for (int i = 0; i < 4; i++) {
+            headRotation[i] = reader.getFloat(i);
+          }
+          return true;
+        default:
+          // Written by a newer version.
+          break;
+      }
+    }
+    return false;
+  }
+
+  /** Start time of the current frame, as captured. */
+  long getFrameNanos() {
+    return frameNanos;
+  }
+
+  /** Time from the first frame to the current one. */
+  long getElapsedNanos() {
+    return frameNanos - firstFrameNanos;
+  }
+
+  /** The head rotation of the current frame. */
+  float[] getHeadRotation() {
+    return headRotation;
+  }
+
+  /** Sensors seen so far. */
+  int getDeviceCount() {
+    return histories.length;
+  }
+
+  SampleHistory getHistory(int device) {
+    return histories[device];
+  }
+
+  /** Reads, decoded reads, and decoded reads that differ from the capture, for the log. */
+  String describe() {
+    return reads + " reads, " + samples + " decoded, " + mismatches + " differ from the capture";
+  }
+
+  long getMismatches() {
+    return mismatches;
+  }
+
+  private void onRead(int device, long nanos, byte[] buffer, int length) throws IOException {
+    ensureDevice(device);
+    reads++;
+    SensorProtocol protocol = protocols[device];
+    readDevice = device;
+    readNanos = nanos;
+    if (protocol.feed(buffer, 0, length, sink, nanos) > 0) {
+      samples++;
+    } else {
+      Arrays.fill(lastValues[device], Float.NaN);
+    }
+  }
+
+  // The device records the values of a read right after its bytes.
+  private void checkSample(int device) {
+    if (device >= lastValues.length) {
+      mismatches++;
+      return;
+    }
+    for (int i = 0; i < SensorFrameParser.AXES; i++) {
+      if (Float.compare(reader.getFloat(i), lastValues[device][i]) != 0) {
+        mismatches++;
+        return;
+      }
+    }
+  }
+
+  private void ensureDevice(int device) throws IOException {
+    int count = histories.length;
+    if (device < count) {
+      return;
+    }
+    protocols = Arrays.copyOf(protocols, device + 1);
+    clocks = Arrays.copyOf(clocks, device + 1);
+    histories = Arrays.copyOf(histories, device + 1);
+    lastValues = Arrays.copyOf(lastValues, device + 1);
+    for (int d = count; d <= device; d++) {
+      protocols[d] = new SensorProtocol();
+      if (binaryFrames) {
+        protocols[d].requestBinary(new OutputStream() {
+          @Override
+          public void write(int b) {}
+        }, reader.getNanos());
+      }
+      clocks[d] = new SampleClock();
+      histories[d] = new SampleHistory(HISTORY_SAMPLES);
+      lastValues[d] = new float[SensorFrameParser.AXES];
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.Arrays;
+
+/** Keeps every frame handed to it, for the decoder tests. */
+final class CollectingFrameSink implements SensorFrameSink {
+
+  private float[] frames = new float[16 * SensorFrameParser.AXES];
+  private int count;
+
+  @Override
+  public void onFrame(float x, float y, float z) {
+    if ((count + 1) * SensorFrameParser.AXES > frames.length) {
+      frames = Arrays.copyOf(frames, frames.length * 2);
+    }
+    frames[count * SensorFrameParser.AXES] = x;
+    frames[count * SensorFrameParser.AXES + 1] = y;
+    frames[count * SensorFrameParser.AXES + 2] = z;
+    count++;
+  }
+
+  /** Number of frames received. */
+  int getCount() {
+    return count;
+  }
+
+  /** The X, Y and Z values of frame {@code index}. */
+  float[] get(int index) {
+    return Arrays.copyOfRange(frames, index * SensorFrameParser.AXES,
+        (index + 1) * SensorFrameParser.AXES);
+  }
+
+  /** The values of the last frame, zeros before the first. */
+  float[] last() {
+    return count == 0 ? new float[SensorFrameParser.AXES] : get(count - 1);
+  }
+}
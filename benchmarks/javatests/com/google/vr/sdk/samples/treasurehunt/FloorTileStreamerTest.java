@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for {@link FloorTileStreamer}, uploading into a {@link RecordingGlBackend}. */
+public class FloorTileStreamerTest {
+
+  private static final float TILE_SIZE = 10f;
+  // Nine tiles: the viewer's at level 0 and the ring around it at level 1.
+  private static final int RADIUS = 1;
+  private static final int WANTED_TILES = 9;
+  private static final long TIMEOUT_MS = 10000;
+
+  private GlBackend previousBackend;
+  private FloorTileStreamer streamer;
+
+  @Before
+  public void setUp() {
+    previousBackend = Gl.getBackend();
+    Gl.setBackend(new RecordingGlBackend(true));
+  }
+
+  @After
+  public void tearDown() {
+    if (streamer != null) {
+      streamer.release();
+    }
+    Gl.setBackend(previousBackend);
+  }
+
+  @Test
+  public void streamsAllWantedTiles() throws InterruptedException {
+    streamer = newStreamer(new FailingSource(0, false));
+    assertTrue(awaitTilesBuilt(WANTED_TILES));
+  }
+
+  @Test
+  public void retriesFailedBuilds() throws InterruptedException {
+    // Twice as many failures as there are build slots, which used to stop streaming for good.
+    FailingSource source = new FailingSource(2, false);
+    streamer = newStreamer(source);
+    assertTrue(awaitTilesBuilt(WANTED_TILES));
+    assertEquals(WANTED_TILES * 3, source.getCalls());
+  }
+
+  @Test
+  public void brokenTileDoesNotBlockTheOthers() throws InterruptedException {
+    FailingSource source = new FailingSource(Integer.MAX_VALUE, true);
+    streamer = newStreamer(source);
+    assertTrue(awaitTilesBuilt(WANTED_TILES - 1));
+    // Retried with growing delays, not every frame.
+    long calls = source.getCalls();
+    Thread.sleep(FloorTileStreamer.INITIAL_RETRY_DELAY_MS);
+    update(100);
+    assertTrue(source.getCalls() - calls <= 2);
+  }
+
+  /** Walking across the floor evicts tiles rather than growing the cache past its capacity. */
+  @Test
+  public void residentTilesStayWithinCache() throws InterruptedException {
+    FlatFloorTileSource source =
+        new FlatFloorTileSource(SceneRenderer.TERRAIN_TILE_SIZE, SceneRenderer.TERRAIN_QUADS);
+    streamer = new FloorTileStreamer(source, SceneRenderer.TERRAIN_TILE_SIZE,
+        SceneRenderer.TERRAIN_RADIUS, 1, SceneRenderer.TERRAIN_MAX_LOD,
+        SceneRenderer.TERRAIN_CACHE_TILES, false);
+    float[] model = new float[16];
+    android.opengl.Matrix.setIdentityM(model, 0);
+    streamer.setModel(model);
+    long maxTileBytes = source.build(0, 0, 0).getCompiledBytes();
+
+    float x = 0f;
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    // Far enough to have built more tiles than the cache holds.
+    while (streamer.getTilesBuilt() <= 2 * SceneRenderer.TERRAIN_CACHE_TILES) {
+      assertTrue(streamer.describe(), System.currentTimeMillis() < deadline);
+      x += SceneRenderer.TERRAIN_TILE_SIZE / 4;
+      streamer.update(x, x / 2);
+      Thread.sleep(5);
+      int resident = streamer.getResidentTiles();
+      assertTrue(streamer.describe(), resident <= SceneRenderer.TERRAIN_CACHE_TILES);
+      assertTrue(streamer.describe(), streamer.getResidentBytes() <= resident * maxTileBytes);
+    }
+    assertEquals(SceneRenderer.TERRAIN_CACHE_TILES, streamer.getResidentTiles());
+  }
+
+  private FloorTileStreamer newStreamer(FloorTileSource source) {
+    FloorTileStreamer streamer = new FloorTileStreamer(source, TILE_SIZE, RADIUS, 1, 1,
+        WANTED_TILES * 2, false);
+    float[] model = new float[16];
+    android.opengl.Matrix.setIdentityM(model, 0);
+    streamer.setModel(model);
+    return streamer;
+  }
+
+  private boolean awaitTilesBuilt(int tiles) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (streamer.getTilesBuilt() < tiles) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      update(1);
+    }
+    return true;
+  }
+
+  // Runs frames of 5 ms.
+  private void update(int frames) throws InterruptedException {
+    for (int i = 0; i < frames; i++) {
+      streamer.update(TILE_SIZE / 2, TILE_SIZE / 2);
+      Thread.sleep(5);
+    }
+  }
+
+  /** Fails the first builds of every tile, or every build of the viewer's tile. */
+  private static final class FailingSource implements FloorTileSource {
+    private final FlatFloorTileSource tiles = new FlatFloorTileSource(TILE_SIZE, 4);
+    private final int failuresPerTile;
+    private final boolean onlyCenter;
+    private final Map<Long, Integer> calls = new HashMap<>();
+    private long totalCalls;
+
+    FailingSource(int failuresPerTile, boolean onlyCenter) {
+      this.failuresPerTile = failuresPerTile;
+      this.onlyCenter = onlyCenter;
+    }
+
+    @Override
+    public synchronized MeshData build(int tileX, int tileZ, int lod) {
+      totalCalls++;
+      long key = ((long) tileX << 32) ^ (tileZ & 0xFFFFFFFFL);
+      Integer previous = calls.get(key);
+      int call = previous == null ? 0 : previous;
+      calls.put(key, call + 1);
+      boolean target = !onlyCenter || (tileX == 0 && tileZ == 0);
+      if (target && call < failuresPerTile) {
+        throw new IllegalStateException("Tile " + tileX + "," + tileZ + " failed");
+      }
+      return tiles.build(tileX, tileZ, lod);
+    }
+
+    synchronized long getCalls() {
+      return totalCalls;
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.opengl.Matrix;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FrustumCuller}, mostly against a 90 degree symmetric frustum from 1 to 10 in
+ * front of a viewer at the origin looking down -Z.
+ */
+public class FrustumCullerTest {
+
+  private static final float NEAR = 1f;
+  private static final float FAR = 10f;
+  private static final float EPSILON = 1e-5f;
+  private static final float HALF_SQRT2 = (float) Math.sqrt(0.5);
+
+  private final FrustumCuller culler = new FrustumCuller();
+  private final float[] perspective = new float[16];
+  private final float[] viewProjection = new float[16];
+
+  @Before
+  public void setUp() {
+    // As Eye.getPerspective() gives it for a 90 degree field of view.
+    perspective[0] = 1f;
+    perspective[5] = 1f;
+    perspective[10] = -(FAR + NEAR) / (FAR - NEAR);
+    perspective[11] = -1f;
+    perspective[14] = -2f * FAR * NEAR / (FAR - NEAR);
+    culler.setViewProjection(perspective, 0);
+  }
+
+  @Test
+  public void extractsNormalizedPlanes() {
+    float[] expected = {
+        HALF_SQRT2, 0, -HALF_SQRT2, 0, // left: x >= z
+        -HALF_SQRT2, 0, -HALF_SQRT2, 0, // right: x <= -z
+        0, HALF_SQRT2, -HALF_SQRT2, 0, // bottom
+        0, -HALF_SQRT2, -HALF_SQRT2, 0, // top
+        0, 0, -1, -NEAR, // near: z <= -1
+        0, 0, 1, FAR, // far: z >= -10
+    };
+    assertArrayEquals(expected, culler.getPlanes(), EPSILON);
+  }
+
+  @Test
+  public void extractsPlanesAtMatrixOffset() {
+    float[] padded = new float[20];
+    System.arraycopy(perspective, 0, padded, 4, 16);
+    float[] expected = culler.getPlanes().clone();
+    culler.setViewProjection(new float[16], 0);
+    culler.setViewProjection(padded, 4);
+    assertArrayEquals(expected, culler.getPlanes(), 0);
+  }
+
+  @Test
+  public void testsSpheres() {
+    assertTrue(culler.isSphereVisible(0, 0, -5, 1));
+    // Entirely outside one plane each.
+    assertFalse(culler.isSphereVisible(-20, 0, -5, 1));
+    assertFalse(culler.isSphereVisible(20, 0, -5, 1));
+    assertFalse(culler.isSphereVisible(0, -20, -5, 1));
+    assertFalse(culler.isSphereVisible(0, 20, -5, 1));
+    assertFalse(culler.isSphereVisible(0, 0, 2, 1));
+    assertFalse(culler.isSphereVisible(0, 0, -12, 1));
+    // Straddling a plane, with the center outside.
+    assertTrue(culler.isSphereVisible(-5.5f, 0, -5, 1));
+    assertTrue(culler.isSphereVisible(0, 5.5f, -5, 1));
+    assertTrue(culler.isSphereVisible(0, 0, -0.5f, 1));
+    assertTrue(culler.isSphereVisible(0, 0, -10.5f, 1));
+  }
+
+  @Test
+  public void testsBoxes() {
+    assertTrue(isBoxVisible(-1, -1, -6, 1, 1, -4));
+    // Entirely outside one plane each.
+    assertFalse(isBoxVisible(-30, -1, -6, -20, 1, -4));
+    assertFalse(isBoxVisible(20, -1, -6, 30, 1, -4));
+    assertFalse(isBoxVisible(-1, -30, -6, 1, -20, -4));
+    assertFalse(isBoxVisible(-1, -1, 1, 1, 1, 3));
+    assertFalse(isBoxVisible(-1, -1, -20, 1, 1, -11));
+    // Straddling a plane.
+    assertTrue(isBoxVisible(-10, -1, -6, 0, 1, -4));
+    assertTrue(isBoxVisible(-1, -1, -2, 1, 1, 3));
+    assertTrue(isBoxVisible(-1, -1, -20, 1, 1, -9));
+    // Containing the whole frustum.
+    assertTrue(isBoxVisible(-100, -100, -100, 100, 100, 100));
+  }
+
+  @Test
+  public void followsTheView() {
+    // Moved to x = 5 and turned left by 90 degrees, looking down -X.
+    float[] view = new float[16];
+    Matrix.setRotateM(view, 0, -90, 0, 1, 0);
+    float[] move = new float[16];
+    Matrix.setIdentityM(move, 0);
+    move[12] = -5;
+    float[] turnedView = new float[16];
+    Matrix.multiplyMM(turnedView, 0, view, 0, move, 0);
+    Matrix.multiplyMM(viewProjection, 0, perspective, 0, turnedView, 0);
+    culler.setViewProjection(viewProjection, 0);
+
+    assertTrue(culler.isSphereVisible(0, 0, 0, 1));
+    assertFalse(culler.isSphereVisible(0, 0, -10, 1));
+    assertFalse(culler.isSphereVisible(10, 0, 0, 1));
+    assertTrue(isBoxVisible(-1, -1, -1, 1, 1, 1));
+    assertFalse(isBoxVisible(-1, -1, -30, 1, 1, -20));
+  }
+
+  @Test
+  public void appliesDistanceLimit() {
+    culler.setDistanceLimit(0, 0, 0, 3);
+    assertTrue(culler.isSphereVisible(0, 0, -2, 0.5f));
+    assertTrue(culler.isSphereVisible(0, 0, -3.5f, 1));
+    assertFalse(culler.isSphereVisible(0, 0, -5, 1));
+    // The closest point of the box counts, not its center.
+    assertTrue(isBoxVisible(-1, -1, -8, 1, 1, -2.5f));
+    assertFalse(isBoxVisible(-1, -1, -8, 1, 1, -4));
+  }
+
+  @Test
+  public void countsPerFrame() {
+    culler.beginFrame();
+    culler.isSphereVisible(0, 0, -5, 1);
+    culler.isSphereVisible(0, 0, 5, 1);
+    culler.isSphereVisible(0, 0, 50, 1);
+    culler.beginFrame();
+    assertEquals(1, culler.getLastFrameSubmitted());
+    assertEquals(2, culler.getLastFrameCulled());
+    culler.isSphereVisible(0, 0, -5, 1);
+    culler.beginFrame();
+    // A frame without tests doesn't count.
+    culler.beginFrame();
+    assertEquals(1f, culler.getAverageSubmitted(), 0);
+    assertEquals(1f, culler.getAverageCulled(), 0);
+  }
+
+  @Test
+  public void boundsGroupsOfVertices() {
+    float[] coords = {
+        0, 0, 0, 1, 2, 0, -1, 0, 3,
+        5, 5, 5, 6, 5, 5, 5, 7, 4,
+    };
+    float[] boxes = FrustumCuller.groupBounds(coords, 3);
+    assertArrayEquals(new float[] {-1, 0, 0, 1, 2, 3, 5, 5, 4, 6, 7, 5}, boxes, 0);
+  }
+
+  @Test
+  public void transformsBoxes() {
+    float[] m = new float[16];
+    Matrix.setRotateM(m, 0, 90, 0, 1, 0);
+    m[12] = 10;
+    m[13] = -20;
+    float[] boxes = {1, 2, 3, 4, 5, 6};
+    FrustumCuller.transformBoxes(m, boxes, boxes);
+    // (x, y, z) turns into (z, y, -x), then moves.
+    assertArrayEquals(new float[] {13, -18, -4, 16, -15, -1}, boxes, EPSILON);
+  }
+
+  private boolean isBoxVisible(
+      float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+    return culler.isBoxVisible(new float[] {minX, minY, minZ, maxX, maxY, maxZ}, 0);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.opengl.Matrix;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/** Tests for {@link GazeTarget}. */
+public class GazeTargetTest {
+
+  // Long enough for the scheduler to switch threads in the middle of the calls many times.
+  private static final long RACE_NANOS = 1000000000L;
+
+  private final GazeTarget gaze = new GazeTarget();
+  private final float[] headView = new float[16];
+
+  @Test
+  public void seesObjectStraightAhead() {
+    Matrix.setIdentityM(headView, 0);
+    assertTrue(gaze.isLookedAt(headView, modelAt(0, 0, -4)));
+    assertTrue(gaze.isLookedAt(headView, modelAt(0.3f, -0.3f, -4)));
+    assertFalse(gaze.isLookedAt(headView, modelAt(1, 0, -4)));
+    assertFalse(gaze.isLookedAt(headView, modelAt(0, 1, -4)));
+    assertFalse(gaze.isLookedAt(headView, modelAt(0, 0, 4)));
+  }
+
+  @Test
+  public void relocatesWithinDistanceAndOutOfSight() {
+    Random random = new Random(1);
+    float[] model = modelAt(0, 0, -4);
+    float[] position = new float[3];
+    float distance = 4;
+    for (int i = 0; i < 1000; i++) {
+      float newDistance = gaze.relocate(model, distance, 3, 7, random, position);
+      assertTrue(newDistance >= 3 && newDistance <= 7);
+      // Rotated 90 to 270 degrees away around Y, so behind or beside the viewer.
+      assertEquals(newDistance, Math.hypot(position[0], position[2]), 1e-3);
+      assertTrue(position[0] * model[12] + position[2] * model[14] <= 1e-3);
+      // At most 40 degrees up or down.
+      assertTrue(Math.abs(position[1]) <= Math.tan(Math.toRadians(40)) * newDistance + 1e-3);
+      Matrix.setIdentityM(model, 0);
+      model[12] = position[0];
+      model[13] = position[1];
+      model[14] = position[2];
+      distance = newDistance;
+    }
+  }
+
+  /**
+   * The trigger relocates the object on the UI thread while the GL thread keeps testing the gaze;
+   * the relocation must not disturb the test.
+   */
+  @Test
+  public void relocateDoesNotDisturbGazeTest() throws Exception {
+    Matrix.setIdentityM(headView, 0);
+    float[] ahead = modelAt(0, 0, -4);
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread trigger = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Random random = new Random(2);
+        float[] model = modelAt(5, 0, 0);
+        float[] position = new float[3];
+        while (!done.get()) {
+          gaze.relocate(model, 5, 3, 7, random, position);
+        }
+      }
+    });
+    trigger.start();
+    try {
+      long end = System.nanoTime() + RACE_NANOS;
+      for (long i = 0; System.nanoTime() - end < 0; i++) {
+        assertTrue("Check " + i, gaze.isLookedAt(headView, ahead));
+      }
+    } finally {
+      done.set(true);
+      trigger.join();
+    }
+  }
+
+  private static float[] modelAt(float x, float y, float z) {
+    float[] model = new float[16];
+    Matrix.setIdentityM(model, 0);
+    model[12] = x;
+    model[13] = y;
+    model[14] = z;
+    return model;
+  }
+}
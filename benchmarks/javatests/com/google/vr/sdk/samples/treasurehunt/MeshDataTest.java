@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/** Tests for {@link MeshData}. */
+public class MeshDataTest {
+
+  @Test
+  public void cubeRebuildsSameTriangles() {
+    MeshData mesh = compileAndCheck(WorldLayoutData.CUBE_COORDS, WorldLayoutData.CUBE_NORMALS,
+        WorldLayoutData.CUBE_COLORS);
+    // Each face has its own normal and its own colors.
+    assertEquals(MeshData.HAS_NORMALS | MeshData.HAS_COLORS, mesh.layout);
+    assertEquals(24, mesh.vertexCount);
+  }
+
+  @Test
+  public void foundCubeFoldsColor() {
+    MeshData mesh = compileAndCheck(WorldLayoutData.CUBE_COORDS, WorldLayoutData.CUBE_NORMALS,
+        WorldLayoutData.CUBE_FOUND_COLORS);
+    assertEquals(MeshData.HAS_NORMALS, mesh.layout);
+    assertArrayEquals(
+        Arrays.copyOf(WorldLayoutData.CUBE_FOUND_COLORS, Mesh.COLOR_SIZE),
+        mesh.constantColor, 0);
+  }
+
+  @Test
+  public void floorFoldsNormalAndColor() {
+    MeshData mesh = compileAndCheck(WorldLayoutData.FLOOR_COORDS, WorldLayoutData.FLOOR_NORMALS,
+        WorldLayoutData.FLOOR_COLORS);
+    assertEquals(0, mesh.layout);
+    assertArrayEquals(new float[] {0, 1, 0}, mesh.constantNormal, 0);
+    assertArrayEquals(new float[] {0.65f, 0.62f, 0.44f, 1.0f}, mesh.constantColor, 0);
+    assertTrue(mesh.getCompiledBytes() < mesh.sourceBytes);
+  }
+
+  @Test
+  public void keepsAttributeThatDiffersOnOneVertex() {
+    float[] positions = {0, 0, 0, 1, 0, 0, 0, 1, 0};
+    float[] normals = {0, 0, 1, 0, 0, 1, 0, 0, 1};
+    float[] colors = {1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0.5f};
+    MeshData mesh = compileAndCheck(positions, normals, colors);
+    assertEquals(MeshData.HAS_COLORS, mesh.layout);
+  }
+
+  @Test
+  public void mergesOnlyIdenticalVertices() {
+    // Two triangles of a quad, plus a copy of a corner with a different normal.
+    float[] positions = {0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 0, 0, 1, 1, 0, 0, 1, 0, 0, 0, 0};
+    float[] normals = {0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 1, 0};
+    float[] colors = new float[7 * Mesh.COLOR_SIZE];
+    MeshData mesh = compileAndCheck(positions, normals, colors);
+    assertEquals(5, mesh.vertexCount);
+    assertEquals(7, mesh.indexCount);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMismatchedArrays() {
+    MeshData.compile(new float[9], new float[6], new float[12]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMoreVerticesThanShortIndices() {
+    int count = (1 << 16) + 1;
+    float[] positions = new float[count * Mesh.POSITION_SIZE];
+    for (int i = 0; i < count; i++) {
+      positions[i * Mesh.POSITION_SIZE] = i;
+    }
+    MeshData.compile(positions, new float[count * Mesh.NORMAL_SIZE],
+        new float[count * Mesh.COLOR_SIZE]);
+  }
+
+  /**
+   * Compiles the arrays, then expands the indices again, with the constants in place of the
+   * folded attributes, and checks that this gives back exactly the vertices that were compiled.
+   */
+  private static MeshData compileAndCheck(float[] positions, float[] normals, float[] colors) {
+    MeshData mesh = MeshData.compile(positions, normals, colors);
+    int count = positions.length / Mesh.POSITION_SIZE;
+    assertEquals(count, mesh.indexCount);
+    assertEquals(mesh.vertexCount * mesh.floatsPerVertex, mesh.vertices.remaining());
+
+    float[] expandedPositions = new float[positions.length];
+    float[] expandedNormals = new float[normals.length];
+    float[] expandedColors = new float[colors.length];
+    for (int i = 0; i < count; i++) {
+      int index = mesh.indices.get(i) & 0xffff;
+      assertTrue(index < mesh.vertexCount);
+      int n = index * mesh.floatsPerVertex;
+      for (int k = 0; k < Mesh.POSITION_SIZE; k++) {
+        expandedPositions[i * Mesh.POSITION_SIZE + k] = mesh.vertices.get(n++);
+      }
+      for (int k = 0; k < Mesh.NORMAL_SIZE; k++) {
+        expandedNormals[i * Mesh.NORMAL_SIZE + k] = (mesh.layout & MeshData.HAS_NORMALS) != 0
+            ? mesh.vertices.get(n++) : mesh.constantNormal[k];
+      }
+      for (int k = 0; k < Mesh.COLOR_SIZE; k++) {
+        expandedColors[i * Mesh.COLOR_SIZE + k] = (mesh.layout & MeshData.HAS_COLORS) != 0
+            ? mesh.vertices.get(n++) : mesh.constantColor[k];
+      }
+    }
+    assertArrayEquals(positions, expandedPositions, 0);
+    assertArrayEquals(normals, expandedNormals, 0);
+    assertArrayEquals(colors, expandedColors, 0);
+    return mesh;
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Smoothness against lag of the {@link OrientationFilter}s, measured by {@link FilterComparison}
+ * on a noisy sensor held still and then turned.
+ */
+public class OrientationFilterTest {
+
+  // Bounds on the defaults compared by FilterComparison.
+  private static final float MAX_LAG_MILLIS = 100.0f;
+  private static final float MAX_VELOCITY_LAG_MILLIS = 10.0f;
+
+  @Test
+  public void unfilteredIsNoisyButOnTime() {
+    FilterComparison.Result none = FilterComparison.measure(null);
+    assertTrue(none.toString(), none.jitterDegrees > FilterComparison.NOISE_DEGREES);
+    assertTrue(none.toString(), Math.abs(none.lagMillis) < 1000.0f / FilterComparison.RATE_HZ);
+  }
+
+  @Test
+  public void everyFilterSmoothsWithBoundedLag() {
+    FilterComparison.Result none = FilterComparison.measure(null);
+    for (String name : FilterComparison.NAMES) {
+      if (name.equals("none")) {
+        continue;
+      }
+      FilterComparison.Result result = FilterComparison.measure(FilterComparison.create(name));
+      String message = name + ": " + result;
+      assertTrue(message, result.jitterDegrees < none.jitterDegrees / 4);
+      assertTrue(message, result.lagMillis < MAX_LAG_MILLIS);
+      // Never ahead of the sensor by more than the noise allows.
+      assertTrue(message, result.lagMillis > -1000.0f / FilterComparison.RATE_HZ);
+    }
+  }
+
+  /** The speed dependent cutoff buys smoothness at rest without adding lag in motion. */
+  @Test
+  public void oneEuroIsSmootherThanExponentialAtNoMoreLag() {
+    FilterComparison.Result exp = FilterComparison.measure(FilterComparison.create("exp"));
+    FilterComparison.Result euro = FilterComparison.measure(FilterComparison.create("euro"));
+    String message = "exp: " + exp + ", euro: " + euro;
+    assertTrue(message, euro.jitterDegrees < exp.jitterDegrees);
+    assertTrue(message, euro.lagMillis <= exp.lagMillis);
+  }
+
+  /** The velocity term of the Kalman filter keeps up with a steady turn. */
+  @Test
+  public void kalmanKeepsUpWithSteadyTurn() {
+    FilterComparison.Result kalman = FilterComparison.measure(FilterComparison.create("kalman"));
+    assertTrue(kalman.toString(), Math.abs(kalman.lagMillis) < MAX_VELOCITY_LAG_MILLIS);
+  }
+
+  @Test
+  public void resetRestartsFromNextSample() {
+    OrientationFilter filter = FilterComparison.create("chain");
+    float[] q = new float[4];
+    Quaternions.setFromEulerXyz(q, 0, 0f, 0f, 0f);
+    filter.filter(0, q, 0);
+    filter.reset();
+    float[] expected = new float[4];
+    Quaternions.setFromEulerXyz(expected, 0, 10f, 20f, 30f);
+    System.arraycopy(expected, 0, q, 0, 4);
+    filter.filter(10000000L, q, 0);
+    assertArrayEquals(expected, q, 1e-6f);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import android.opengl.Matrix;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Tests for {@link Quaternions}. */
+public class QuaternionsTest {
+
+  private static final float EPSILON = 1e-5f;
+
+  /** The quaternion path builds the same cube matrix as the Euler rotations it replaced. */
+  @Test
+  public void matchesEulerRotations() {
+    Random random = new Random(5);
+    float[] q = new float[4];
+    float[] expected = new float[16];
+    float[] actual = new float[16];
+    for (int i = 0; i < 1000; i++) {
+      float ax = random.nextFloat() * 360 - 180;
+      float ay = random.nextFloat() * 360 - 180;
+      float az = random.nextFloat() * 360 - 180;
+      Matrix.setIdentityM(expected, 0);
+      Matrix.translateM(expected, 0, 0f, 0f, 4.2f);
+      Matrix.rotateM(expected, 0, ax, 1.0f, 0.0f, 0.0f);
+      Matrix.rotateM(expected, 0, ay, 0.0f, 1.0f, 0.0f);
+      Matrix.rotateM(expected, 0, az, 0.0f, 0.0f, 1.0f);
+
+      Quaternions.setFromEulerXyz(q, 0, ax, ay, az);
+      Quaternions.toMatrix(actual, 0, q, 0, 0f, 0f, 4.2f);
+      assertArrayEquals(ax + " " + ay + " " + az, expected, actual, EPSILON);
+    }
+  }
+
+  @Test
+  public void slerpEndsAtInputs() {
+    float[] a = new float[4];
+    float[] b = new float[4];
+    float[] out = new float[4];
+    Quaternions.setFromEulerXyz(a, 0, 10f, 0f, 0f);
+    Quaternions.setFromEulerXyz(b, 0, 0f, 80f, 0f);
+    Quaternions.slerp(out, 0, a, 0, b, 0, 0f);
+    assertArrayEquals(a, out, EPSILON);
+    Quaternions.slerp(out, 0, a, 0, b, 0, 1f);
+    assertArrayEquals(b, out, EPSILON);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link SampleClock} on synthetic arrival traces: a sensor sampling at a steady rate
+ * behind a link that delays each read by a varying amount and delivers several frames per read.
+ */
+public class SampleClockTest {
+
+  private static final long MS = 1000000L;
+  private static final long PERIOD = 10 * MS;
+  private static final int SAMPLES = 2000;
+  // Samples before the average period has settled.
+  private static final int WARM_UP = 200;
+
+  private final SampleClock clock = new SampleClock();
+
+  @Test
+  public void smoothsBurstyArrivals() {
+    long[] arrivals = trace(PERIOD, 3, 8 * MS, 1);
+    long[] estimates = estimate(arrivals);
+    double arrivalJitter = stepDeviation(arrivals);
+    double estimateJitter = stepDeviation(estimates);
+    assertTrue("Arrival steps vary by " + arrivalJitter, arrivalJitter > 5 * MS);
+    assertTrue("Estimated steps vary by " + estimateJitter, estimateJitter < arrivalJitter / 4);
+    assertEquals(PERIOD, meanStep(estimates), PERIOD / 20);
+  }
+
+  @Test
+  public void neverPassesArrivalsNorGoesBack() {
+    long[] arrivals = trace(PERIOD, 4, 20 * MS, 2);
+    long previous = Long.MIN_VALUE;
+    for (long arrival : arrivals) {
+      long estimate = clock.onArrival(arrival);
+      assertTrue(estimate <= arrival);
+      assertTrue(estimate >= previous);
+      previous = estimate;
+    }
+  }
+
+  @Test
+  public void learnsThePeriodFromReadsOfSeveralFrames() {
+    // The first read holds several frames, whose interval of 0 must not become the period.
+    long[] arrivals = trace(PERIOD, 3, 0, 3);
+    estimate(arrivals);
+    assertEquals(PERIOD, clock.getPeriodNanos(), PERIOD / 10);
+  }
+
+  @Test
+  public void followsASlowerSensor() {
+    long period = PERIOD + PERIOD / 50;
+    long[] arrivals = trace(period, 2, 5 * MS, 4);
+    long[] estimates = estimate(arrivals);
+    assertEquals(period, meanStep(estimates), period / 100);
+    // Still close behind the arrivals, not drifting away from them.
+    assertTrue(arrivals[SAMPLES - 1] - estimates[SAMPLES - 1] < 20 * MS);
+  }
+
+  @Test
+  public void startsOverAfterReset() {
+    estimate(trace(PERIOD, 1, 0, 5));
+    clock.reset();
+    assertEquals(0, clock.getPeriodNanos());
+    long arrival = SAMPLES * PERIOD + 1000 * MS;
+    assertEquals(arrival, clock.onArrival(arrival));
+  }
+
+  // Arrival times of frames sampled every period; each read carries up to framesPerRead of them
+  // and is delayed by up to maxLatency more than the fixed transport delay.
+  private static long[] trace(long period, int framesPerRead, long maxLatency, long seed) {
+    Random random = new Random(seed);
+    long[] arrivals = new long[SAMPLES];
+    long lastRead = 0;
+    for (int i = 0; i < SAMPLES; i += framesPerRead) {
+      long lastSampled = (i + framesPerRead - 1) * period;
+      long latency = 5 * MS + (long) (random.nextDouble() * maxLatency);
+      // A read never overtakes the one before it.
+      long read = Math.max(lastRead, lastSampled + latency);
+      for (int j = i; j < Math.min(SAMPLES, i + framesPerRead); j++) {
+        arrivals[j] = read;
+      }
+      lastRead = read;
+    }
+    return arrivals;
+  }
+
+  private long[] estimate(long[] arrivals) {
+    long[] estimates = new long[arrivals.length];
+    for (int i = 0; i < arrivals.length; i++) {
+      estimates[i] = clock.onArrival(arrivals[i]);
+    }
+    return estimates;
+  }
+
+  private static double meanStep(long[] times) {
+    return (double) (times[SAMPLES - 1] - times[WARM_UP]) / (SAMPLES - 1 - WARM_UP);
+  }
+
+  private static double stepDeviation(long[] times) {
+    double mean = meanStep(times);
+    double sum = 0;
+    for (int i = WARM_UP + 1; i < SAMPLES; i++) {
+      double d = times[i] - times[i - 1] - mean;
+      sum += d * d;
+    }
+    return Math.sqrt(sum / (SAMPLES - 1 - WARM_UP));
+  }
+}
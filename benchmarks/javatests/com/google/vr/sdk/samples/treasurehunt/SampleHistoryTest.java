@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+/** Tests for {@link SampleHistory}. */
+public class SampleHistoryTest {
+
+  private static final int HANDOFF_SAMPLES = 2000;
+  // The activity's limit.
+  private static final long MAX_EXTRAPOLATION_NANOS = 50000000L;
+
+  /**
+   * Hands samples from a writer thread to a spinning reader thread, as from a sensor reader to the
+   * GL thread, and checks that every sample the reader sees is whole and arrives promptly.
+   */
+  @Test
+  public void handsOffSamplesBetweenThreads() throws Exception {
+    final SampleHistory history = new SampleHistory(8);
+    final long[] published = new long[HANDOFF_SAMPLES];
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        float[] sample = new float[SampleHistory.SIZE];
+        for (int i = 0; i < HANDOFF_SAMPLES; i++) {
+          // Rotations around Z, so that any mix of two samples is no unit quaternion.
+          double angle = i * 0.1;
+          sample[2] = (float) Math.sin(angle);
+          sample[3] = (float) Math.cos(angle);
+          published[i] = System.nanoTime();
+          history.add(published[i], sample, 0);
+          // A sensor is much slower than the reader.
+          LockSupport.parkNanos(50000);
+        }
+      }
+    });
+
+    long[] latencies = new long[HANDOFF_SAMPLES];
+    int seen = 0;
+    float[] out = new float[SampleHistory.SIZE];
+    writer.start();
+    long last = 0;
+    while (last < HANDOFF_SAMPLES) {
+      long count = history.getCount();
+      if (count == last) {
+        // The GL thread has other work, and the test may run on a single core.
+        Thread.yield();
+        continue;
+      }
+      latencies[seen++] = System.nanoTime() - published[(int) count - 1];
+      last = count;
+      assertTrue(history.sampleAt(Long.MAX_VALUE, 0, out, 0));
+      float norm = out[0] * out[0] + out[1] * out[1] + out[2] * out[2] + out[3] * out[3];
+      assertEquals("Torn sample " + Arrays.toString(out), 1f, norm, 1e-4f);
+    }
+    writer.join();
+
+    Arrays.sort(latencies, 0, seen);
+    long median = latencies[seen / 2];
+    // Typically a microsecond or less; the bound only guards against a blocking handoff.
+    assertTrue("Median handoff " + median + " ns", median < 1000000);
+    // The reader may miss samples when it isn't scheduled, but must keep up overall.
+    assertTrue("Saw " + seen + " of " + HANDOFF_SAMPLES, seen > HANDOFF_SAMPLES / 10);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTooSmallCapacity() {
+    new SampleHistory(2);
+  }
+
+  @Test
+  public void averagesIntervalsOfSmallestHistory() {
+    SampleHistory history = new SampleHistory(SampleHistory.MIN_CAPACITY);
+    float[] sample = {0, 0, 0, 1};
+    assertEquals(0, history.getAverageIntervalNanos());
+    history.add(0, sample, 0);
+    assertEquals(0, history.getAverageIntervalNanos());
+    for (int i = 1; i < 10; i++) {
+      history.add(i * 10, sample, 0);
+      assertEquals(10, history.getAverageIntervalNanos());
+    }
+  }
+
+  @Test
+  public void clearForgetsTheOutage() {
+    SampleHistory history = new SampleHistory(16);
+    float[] sample = {0, 0, 0, 1};
+    float[] out = new float[SampleHistory.SIZE];
+    history.add(0, sample, 0);
+    history.add(10, sample, 0);
+    history.clear();
+    assertEquals(0, history.getAverageIntervalNanos());
+    assertFalse(history.sampleAt(20, 0, out, 0));
+    // Reconnected after a long outage.
+    history.add(1000000, sample, 0);
+    assertTrue(history.sampleAt(1000000, 0, out, 0));
+    assertEquals(0, history.getAverageIntervalNanos());
+    history.add(1000010, sample, 0);
+    history.add(1000020, sample, 0);
+    assertEquals(10, history.getAverageIntervalNanos());
+    assertEquals(5, history.getCount());
+  }
+
+  @Test
+  public void interpolatesBetweenSamples() {
+    SampleHistory history = new SampleHistory(16);
+    history.add(0, rotationZ(0), 0);
+    history.add(100, rotationZ(90), 0);
+    history.add(200, rotationZ(180), 0);
+    float[] out = new float[SampleHistory.SIZE];
+    assertTrue(history.sampleAt(50, 0, out, 0));
+    assertEquals(45, angleZ(out), 1e-3f);
+    assertTrue(history.sampleAt(175, 0, out, 0));
+    assertEquals(157.5f, angleZ(out), 1e-3f);
+    // Exactly on a sample.
+    assertTrue(history.sampleAt(100, 0, out, 0));
+    assertEquals(90, angleZ(out), 1e-3f);
+    // Before the oldest sample.
+    assertTrue(history.sampleAt(-50, 0, out, 0));
+    assertEquals(0, angleZ(out), 1e-3f);
+  }
+
+  @Test
+  public void extrapolatesPastNewestSample() {
+    SampleHistory history = new SampleHistory(16);
+    history.add(0, rotationZ(0), 0);
+    history.add(10000000, rotationZ(10), 0);
+    float[] out = new float[SampleHistory.SIZE];
+    // Constant angular velocity from the last two samples.
+    assertTrue(history.sampleAt(25000000, MAX_EXTRAPOLATION_NANOS, out, 0));
+    assertEquals(25, angleZ(out), 1e-2f);
+    assertEquals(1, norm(out), 1e-5f);
+    // No extrapolation allowed.
+    assertTrue(history.sampleAt(25000000, 0, out, 0));
+    assertEquals(10, angleZ(out), 1e-3f);
+  }
+
+  @Test
+  public void clampsExtrapolation() {
+    SampleHistory history = new SampleHistory(16);
+    history.add(0, rotationZ(0), 0);
+    history.add(10000000, rotationZ(10), 0);
+    float[] out = new float[SampleHistory.SIZE];
+    // 50 ms past the newest sample at most, however late the frame is.
+    assertTrue(history.sampleAt(100000000, MAX_EXTRAPOLATION_NANOS, out, 0));
+    assertEquals(60, angleZ(out), 1e-2f);
+    assertTrue(history.sampleAt(Long.MAX_VALUE, MAX_EXTRAPOLATION_NANOS, out, 0));
+    assertEquals(60, angleZ(out), 1e-2f);
+    assertEquals(1, norm(out), 1e-5f);
+  }
+
+  private static float[] rotationZ(float degrees) {
+    double half = Math.toRadians(degrees) / 2;
+    return new float[] {0, 0, (float) Math.sin(half), (float) Math.cos(half)};
+  }
+
+  private static float angleZ(float[] q) {
+    return (float) Math.toDegrees(2 * Math.atan2(q[2], q[3]));
+  }
+
+  private static float norm(float[] q) {
+    return q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3];
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link SensorCommandChannel}, driven with explicit times against a sensor that records
+ * every write, and end to end through a {@link SensorHub} and a synthetic sensor.
+ */
+public class SensorCommandChannelTest {
+
+  private static final long TIMEOUT_MS = 5000;
+  private static final long ACK_TIMEOUT_NANOS = SensorCommandChannel.ACK_TIMEOUT_MS * 1000000L;
+
+  private SensorCommandChannel channel;
+  private LoopbackSensor sensor;
+  private int wakes;
+  private long now;
+  private SensorHub hub;
+
+  @Before
+  public void setUp() {
+    channel = new SensorCommandChannel(new Runnable() {
+      @Override
+      public void run() {
+        wakes++;
+      }
+    });
+    sensor = new LoopbackSensor();
+    now = System.nanoTime();
+  }
+
+  @After
+  public void tearDown() {
+    if (hub != null) {
+      hub.stop();
+    }
+  }
+
+  @Test
+  public void coalescesSettingsIntoOneBatch() throws Exception {
+    channel.setSampleRate(50);
+    channel.setSampleRate(100);
+    channel.setCalibration(1.5f, -2.0f, 0.25f);
+    assertEquals(3, wakes);
+    // Nothing to write to yet.
+    assertEquals(Long.MAX_VALUE, channel.service(now));
+
+    channel.onConnected(sensor);
+    channel.service(now);
+    assertEquals(1, sensor.writes.size());
+    assertEquals("f100\nc1.50,-2.00,0.25\n#0\n", sensor.writes.get(0));
+    assertEquals(1, channel.getSettingsCoalesced());
+    assertEquals(1, channel.getBatchesWritten());
+  }
+
+  @Test
+  public void waitsForTheMatchingAck() throws Exception {
+    channel.onConnected(sensor);
+    channel.setSampleRate(100);
+    channel.service(now);
+    assertEquals("f100\n#0\n", sensor.last());
+
+    // Changes made while a batch is in flight wait for its acknowledgement.
+    channel.setSampleRate(200);
+    channel.setCalibration(1, 2, 3);
+    channel.service(now + 1000);
+    assertEquals(1, sensor.writes.size());
+    channel.onAck(7, now + 2000);
+    channel.service(now + 3000);
+    assertEquals(1, sensor.writes.size());
+    assertEquals(0, channel.getAcks());
+
+    int wakesBefore = wakes;
+    channel.onAck(0, now + 4000);
+    assertEquals(1, channel.getAcks());
+    assertEquals(4000, channel.getLastRoundTripNanos());
+    // The pending changes need the writer.
+    assertEquals(wakesBefore + 1, wakes);
+    channel.service(now + 5000);
+    assertEquals("f200\nc1.00,2.00,3.00\n#1\n", sensor.last());
+  }
+
+  @Test
+  public void resendsUnacknowledgedBatch() throws Exception {
+    channel.onConnected(sensor);
+    channel.setSampleRate(100);
+    assertEquals(now + ACK_TIMEOUT_NANOS, channel.service(now));
+
+    channel.service(now + ACK_TIMEOUT_NANOS - 1);
+    assertEquals(1, sensor.writes.size());
+    // Lost, the current values go out under a new marker.
+    channel.setCalibration(0, 0, 1);
+    channel.service(now + ACK_TIMEOUT_NANOS);
+    assertEquals(2, sensor.writes.size());
+    assertEquals("f100\nc0.00,0.00,1.00\n#1\n", sensor.last());
+    assertEquals(1, channel.getAckTimeouts());
+    // The lost batch's answer arrives late and is ignored.
+    channel.onAck(0, now + ACK_TIMEOUT_NANOS + 1);
+    assertEquals(0, channel.getAcks());
+    channel.onAck(1, now + ACK_TIMEOUT_NANOS + 2);
+    assertEquals(1, channel.getAcks());
+  }
+
+  @Test
+  public void resendsConfigurationOnReconnect() throws Exception {
+    channel.onConnected(sensor);
+    channel.setSampleRate(100);
+    channel.setCalibration(1, 2, 3);
+    channel.requestAsciiFrames();
+    channel.service(now);
+    // The ASCII request goes first, so the rest is applied to ASCII frames.
+    assertEquals("a\nf100\nc1.00,2.00,3.00\n#0\n", sensor.last());
+    channel.onAck(0, now + 1000);
+
+    channel.onDisconnected();
+    assertEquals(Long.MAX_VALUE, channel.service(now + 2000));
+    LoopbackSensor reconnected = new LoopbackSensor();
+    channel.onConnected(reconnected);
+    channel.service(now + 3000);
+    // A reset sensor needs its settings again, but starts in ASCII anyway.
+    assertEquals(1, reconnected.writes.size());
+    assertEquals("f100\nc1.00,2.00,3.00\n#1\n", reconnected.last());
+  }
+
+  @Test
+  public void sendsKeepAliveWhenIdle() throws Exception {
+    channel.onConnected(sensor);
+    long keepAlive = SensorCommandChannel.KEEP_ALIVE_MS * 1000000L;
+    long due = channel.service(now);
+    assertTrue(due - now > 0);
+    assertEquals(0, sensor.writes.size());
+    // onConnected took its own time, a little after now.
+    channel.service(now + 2 * keepAlive);
+    assertEquals("#0\n", sensor.last());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNanCalibration() {
+    channel.setCalibration(0, Float.NaN, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInfiniteCalibration() {
+    channel.setCalibration(Float.NEGATIVE_INFINITY, 0, 0);
+  }
+
+  @Test
+  public void rejectsCalibrationBeyondAFullTurn() throws Exception {
+    float max = SensorCommandChannel.MAX_CALIBRATION_DEGREES;
+    channel.setCalibration(-max, max, 0);
+    try {
+      channel.setCalibration(0, 0, Math.nextUp(max));
+      throw new AssertionError("Accepted " + Math.nextUp(max));
+    } catch (IllegalArgumentException expected) {
+      // The earlier, valid offsets stay.
+    }
+    channel.onConnected(sensor);
+    channel.service(now);
+    assertEquals("c-360.00,360.00,0.00\n#0\n", sensor.last());
+  }
+
+  @Test
+  public void syntheticSensorAcknowledgesBatches() throws Exception {
+    hub = new SensorHub(new SensorHubTest.Events(1), 16);
+    hub.addDevice(new SyntheticSensorTransport(200), null, false);
+    SensorCommandChannel commands = hub.getCommands(0);
+    commands.setSampleRate(400);
+    commands.setCalibration(10, -20, 30);
+    hub.start();
+
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (commands.getAcks() < 1 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    // Keep-alives may have been answered as well.
+    assertTrue(hub.describe(), commands.getAcks() >= 1);
+    assertEquals(0, commands.getAckTimeouts());
+    assertTrue(commands.getLastRoundTripNanos() > 0);
+    assertTrue(commands.getLastRoundTripNanos() < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS));
+  }
+
+  /** Records each write the way the sensor receives it. */
+  private static final class LoopbackSensor extends OutputStream {
+    final List<String> writes = new ArrayList<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    @Override
+    public void write(int b) {
+      pending.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      // The channel writes a batch at once; a split one would show up as several writes.
+      pending.write(b, off, len);
+      writes.add(new String(pending.toByteArray(), StandardCharsets.ISO_8859_1));
+      pending.reset();
+    }
+
+    String last() {
+      return writes.get(writes.size() - 1);
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/** Tests for {@link SensorFrameParser}. */
+public class SensorFrameParserTest {
+
+  private static final float EPSILON = 1e-5f;
+
+  // Dropped by the parser, it may have been joined in the middle.
+  private static final String SYNC = "0 0 0 0r";
+
+  private final SensorFrameParser parser = new SensorFrameParser();
+  private final CollectingFrameSink sink = new CollectingFrameSink();
+
+  @Test
+  public void dropsFirstFrame() {
+    assertEquals(0, feed("7 1 2 3r"));
+    assertArrayEquals(new float[] {0, 0, 0}, sink.last(), 0);
+    assertEquals(1, feed("7 4 5 6r"));
+    assertArrayEquals(new float[] {4, 5, 6}, sink.last(), EPSILON);
+    assertEquals(1, parser.getFramesDecoded());
+    assertEquals(0, parser.getFramesDropped());
+  }
+
+  @Test
+  public void dropsFirstFrameAfterReset() {
+    feed(SYNC + "0 1 2 3r");
+    parser.reset();
+    assertEquals(0, feed("0 4 5 6r"));
+    assertArrayEquals(new float[] {1, 2, 3}, sink.last(), EPSILON);
+  }
+
+  @Test
+  public void mapsFieldsOneToThree() {
+    // Field 0 and anything past field 3 are ignored.
+    assertEquals(1, feed(SYNC + "99 -1.5 +2.25 0.125 42 43r"));
+    assertArrayEquals(new float[] {-1.5f, 2.25f, 0.125f}, sink.last(), EPSILON);
+  }
+
+  @Test
+  public void parsesLikeParseFloat() {
+    String[] fields = {"0", "-0", "12", "-179.99", "0.001", "359.5", "+7.", "1.2345678901234567"};
+    for (String field : fields) {
+      parser.reset();
+      assertEquals(field, 1, feed(SYNC + "0 " + field + " 0 0r"));
+      assertEquals(field, Float.parseFloat(field), sink.last()[0], EPSILON);
+    }
+  }
+
+  @Test
+  public void framesSplitAcrossReads() {
+    byte[] stream = bytes(SYNC + "0 10.5 -20.25 30r0 1 2 3r");
+    int frames = 0;
+    for (int i = 0; i < stream.length; i++) {
+      frames += parser.feed(stream, i, 1, sink);
+      if (i == stream.length - 9) {
+        // The second frame is still incomplete, the first one is out.
+        assertArrayEquals(new float[] {10.5f, -20.25f, 30}, sink.last(), EPSILON);
+      }
+    }
+    assertEquals(2, frames);
+    assertArrayEquals(new float[] {1, 2, 3}, sink.last(), EPSILON);
+  }
+
+  @Test
+  public void severalFramesInOneRead() {
+    assertEquals(3, feed(SYNC + "0 1 1 1r0 2 2 2r0 3 3 3r"));
+    // Every frame is handed over, in order, not only the last one.
+    assertEquals(3, sink.getCount());
+    for (int i = 0; i < 3; i++) {
+      assertArrayEquals(new float[] {i + 1, i + 1, i + 1}, sink.get(i), EPSILON);
+    }
+    assertEquals(3, parser.getFramesDecoded());
+  }
+
+  @Test
+  public void honorsOffsetAndLength() {
+    byte[] stream = bytes("xx" + SYNC + "0 1 2 3r" + "0 9 9 9r");
+    assertEquals(1, parser.feed(stream, 2, stream.length - 10, sink));
+    assertArrayEquals(new float[] {1, 2, 3}, sink.last(), EPSILON);
+  }
+
+  @Test
+  public void lineBreaksDoNotSplitFields() {
+    assertEquals(1, feed(SYNC + "0 1.5\r\n 2\t 3\nr"));
+    assertArrayEquals(new float[] {1.5f, 2, 3}, sink.last(), EPSILON);
+  }
+
+  @Test
+  public void dropsFramesWithGarbage() {
+    feed(SYNC + "0 1 2 3r");
+    assertEquals(0, feed("0 4 x5 6r"));
+    assertEquals(0, feed("0 4 5-5 6r"));
+    assertEquals(0, feed("0 4 1.2.3 6r"));
+    assertEquals(0, feed("0 4 \u00ff 6r"));
+    assertArrayEquals(new float[] {1, 2, 3}, sink.last(), EPSILON);
+    assertEquals(4, parser.getFramesDropped());
+    // The next good frame goes through.
+    assertEquals(1, feed("0 7 8 9r"));
+    assertArrayEquals(new float[] {7, 8, 9}, sink.last(), EPSILON);
+  }
+
+  @Test
+  public void dropsIncompleteFrames() {
+    feed(SYNC);
+    assertEquals(0, feed("0 1 2r"));
+    assertEquals(0, feed("0 1  3r"));
+    assertEquals(0, feed("0 - 2 3r"));
+    assertEquals(0, feed("r"));
+    assertEquals(4, parser.getFramesDropped());
+    assertEquals(0, parser.getFramesDecoded());
+  }
+
+  @Test
+  public void dropsOverlongIntegers() {
+    feed(SYNC);
+    assertEquals(0, feed("0 1234567890123456789 2 3r"));
+    assertEquals(1, parser.getFramesDropped());
+  }
+
+  @Test
+  public void doesNotAllocate() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return;
+    }
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    if (!threads.isThreadAllocatedMemorySupported()) {
+      return;
+    }
+    final float[] out = new float[SensorFrameParser.AXES];
+    SensorFrameSink copy = new SensorFrameSink() {
+      @Override
+      public void onFrame(float x, float y, float z) {
+        out[0] = x;
+        out[1] = y;
+        out[2] = z;
+      }
+    };
+    byte[] stream = bytes(SYNC + "0 -12.5 45.25 359.75r0 1 2 3r");
+    // Warm up, so that nothing the JIT or class loading does is counted.
+    for (int i = 0; i < 10000; i++) {
+      parser.feed(stream, 0, stream.length, copy);
+    }
+    long thread = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < 10000; i++) {
+      parser.feed(stream, 0, stream.length, copy);
+    }
+    long allocated = threads.getThreadAllocatedBytes(thread) - before;
+    // The measurement itself may allocate a few bytes, one per frame would be 30000.
+    assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    assertArrayEquals(new float[] {1, 2, 3}, out, EPSILON);
+  }
+
+  private int feed(String text) {
+    byte[] stream = bytes(text);
+    return parser.feed(stream, 0, stream.length, sink);
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.ISO_8859_1);
+  }
+}
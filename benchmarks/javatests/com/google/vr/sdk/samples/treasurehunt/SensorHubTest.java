@@ -0,0 +1,332 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/** Tests for {@link SensorHub}, driven through replayed and simulated links. */
+public class SensorHubTest {
+
+  private static final long TIMEOUT_MS = 5000;
+  // Long enough for a few simulated drops, some of which only the read timeout notices.
+  private static final long FLAKY_TIMEOUT_MS = 30000;
+  // Dozens of sensors sharing the CPU with the test, each at a typical sensor rate.
+  private static final int MANY_DEVICES = 32;
+  private static final int MANY_DEVICES_HZ = 100;
+  private static final int MANY_DEVICES_WINDOWS = 8;
+  private static final long MANY_DEVICES_WINDOW_MS = 250;
+
+  private SensorHub hub;
+  private File recording;
+
+  @After
+  public void tearDown() {
+    if (hub != null) {
+      hub.stop();
+    }
+    if (recording != null) {
+      recording.delete();
+    }
+  }
+
+  @Test
+  public void endOfStreamIsALostLink() throws Exception {
+    recording = writeRecording("0 0 0 0r0 1 2 3r", "0 4 5 6r");
+    Events events = new Events(1);
+    hub = new SensorHub(events, 16);
+    hub.addDevice(new ReplaySensorTransport(recording, 0, false), null, false);
+    hub.start();
+
+    assertTrue(events.disconnected.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertTrue(events.lastCause.getMessage().startsWith("Stream closed"));
+    assertEquals(2, hub.getSampleCount(0));
+    // The reader waits to reconnect instead of spinning on the ended stream.
+    assertTrue(awaitState(0, SensorHub.STATE_BACKOFF));
+  }
+
+  @Test
+  public void publishesEveryFrameOfARead() throws Exception {
+    recording = writeRecording("0 0 0 0r0 1 1 1r0 2 2 2r0 3 3 3r");
+    Events events = new Events(1);
+    hub = new SensorHub(events, 16);
+    hub.addDevice(new ReplaySensorTransport(recording, 0, false), null, false);
+    hub.start();
+
+    assertTrue(events.disconnected.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    assertEquals(3, hub.getSampleCount(0));
+  }
+
+  @Test
+  public void recoversFromFlakyLink() throws Exception {
+    Events events = new Events(1);
+    hub = new SensorHub(events, 16);
+    hub.addDevice(new FlakySensorTransport(new SyntheticSensorTransport(200), 150, 0.25f, 1),
+        null, false);
+    hub.start();
+
+    long deadline = System.currentTimeMillis() + FLAKY_TIMEOUT_MS;
+    while (hub.getRecoveryCount(0) < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(hub.describe(), hub.getRecoveryCount(0) >= 3);
+    assertTrue(hub.getAverageRecoveryNanos(0) > 0);
+    assertTrue(hub.getMaxRecoveryNanos(0) >= hub.getAverageRecoveryNanos(0));
+    // Every recovery follows at least one lost link or failed connect.
+    assertTrue(hub.getDisconnectCount(0) >= hub.getRecoveryCount(0));
+    long samples = hub.getSampleCount(0);
+    hub.stop();
+    assertTrue(awaitState(0, SensorHub.STATE_IDLE));
+    assertEquals(hub.getDisconnectCount(0), events.disconnects.get());
+    // One connect per recovery plus the first, and more for links that broke before a sample.
+    assertTrue(events.connects.get() >= hub.getRecoveryCount(0) + 1);
+    assertTrue(samples > 0);
+  }
+
+  @Test
+  public void fastStopStartLeavesOneReader() throws Exception {
+    SlowConnectTransport transport = new SlowConnectTransport(new SyntheticSensorTransport(200));
+    hub = new SensorHub(new Events(1), 16);
+    hub.addDevice(transport, null, false);
+    for (int i = 0; i < 20; i++) {
+      hub.start();
+      Thread.sleep(i % 4);
+      hub.stop();
+    }
+    hub.start();
+
+    // The last reader streams once all the earlier ones left.
+    long samples = hub.getSampleCount(0);
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (hub.getSampleCount(0) < samples + 50 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(hub.getSampleCount(0) >= samples + 50);
+    assertEquals(SensorHub.STATE_STREAMING, hub.getState(0));
+    assertEquals(1, transport.maxUsers.get());
+    int readers = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("sensor-0") && thread.isAlive()) {
+        readers++;
+      }
+    }
+    assertEquals(1, readers);
+  }
+
+  /**
+   * Runs dozens of sensors at once, one reader thread each, and checks that every one keeps its
+   * sample rate and that none stalls for a whole window while the others stream.
+   */
+  @Test
+  public void manyDevicesKeepTheirRate() throws Exception {
+    Events events = new Events(MANY_DEVICES);
+    hub = new SensorHub(events, 64);
+    for (int i = 0; i < MANY_DEVICES; i++) {
+      hub.addDevice(new SyntheticSensorTransport(MANY_DEVICES_HZ), null, false);
+    }
+    hub.start();
+    assertTrue(events.firstSample.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+    long[] startCounts = new long[MANY_DEVICES];
+    for (int i = 0; i < MANY_DEVICES; i++) {
+      startCounts[i] = hub.getSampleCount(i);
+    }
+    long start = System.nanoTime();
+    long[] windowCounts = startCounts.clone();
+    // A quarter of the window's samples at least, so a reader may lag but not stall.
+    long minPerWindow = MANY_DEVICES_HZ * MANY_DEVICES_WINDOW_MS / 1000 / 4;
+    for (int window = 0; window < MANY_DEVICES_WINDOWS; window++) {
+      Thread.sleep(MANY_DEVICES_WINDOW_MS);
+      for (int i = 0; i < MANY_DEVICES; i++) {
+        long count = hub.getSampleCount(i);
+        assertTrue("device " + i + " starved in window " + window + ": " + hub.describe(),
+            count - windowCounts[i] >= minPerWindow);
+        windowCounts[i] = count;
+        // Decoding and publishing a read stays quick even with all readers busy.
+        assertTrue(hub.getLastPublishNanos(i) < MANY_DEVICES_WINDOW_MS * 1000000L);
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    long expected = Math.round(seconds * MANY_DEVICES_HZ);
+    for (int i = 0; i < MANY_DEVICES; i++) {
+      long samples = hub.getSampleCount(i) - startCounts[i];
+      String message = "device " + i + ": " + samples + " samples, expected " + expected;
+      assertTrue(message, samples > expected * 8 / 10);
+      assertTrue(message, samples < expected * 12 / 10 + 2);
+      assertEquals(0, hub.getDisconnectCount(i));
+    }
+  }
+
+  private boolean awaitState(int device, int state) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (hub.getState(device) != state) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(1);
+    }
+    return true;
+  }
+
+  // One replay record per read.
+  static File writeRecording(String... reads) throws IOException {
+    File file = File.createTempFile("sensor", ".bin");
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+    try {
+      long time = 0;
+      for (String read : reads) {
+        byte[] bytes = read.getBytes(StandardCharsets.ISO_8859_1);
+        out.writeLong(time);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        time += 10000000L;
+      }
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  static final class Events implements SensorHub.Listener {
+    final CountDownLatch connected;
+    final CountDownLatch firstSample;
+    final CountDownLatch disconnected;
+    final AtomicInteger connects = new AtomicInteger();
+    final AtomicInteger disconnects = new AtomicInteger();
+    volatile IOException lastCause;
+
+    Events(int count) {
+      connected = new CountDownLatch(count);
+      firstSample = new CountDownLatch(count);
+      disconnected = new CountDownLatch(count);
+    }
+
+    @Override
+    public void onConnected(int device) {
+      connects.incrementAndGet();
+      connected.countDown();
+    }
+
+    @Override
+    public void onFirstSample(int device) {
+      firstSample.countDown();
+    }
+
+    @Override
+    public void onDisconnected(int device, IOException cause) {
+      lastCause = cause;
+      disconnects.incrementAndGet();
+      disconnected.countDown();
+    }
+  }
+
+  /**
+   * A link whose connect takes a while and ignores {@link #close()}, like an RFCOMM connect on
+   * some stacks, and which counts the threads using it at once.
+   */
+  static final class SlowConnectTransport implements SensorTransport {
+    private static final long CONNECT_MS = 20;
+
+    final AtomicInteger maxUsers = new AtomicInteger();
+    private final AtomicInteger users = new AtomicInteger();
+    private final SensorTransport inner;
+
+    SlowConnectTransport(SensorTransport inner) {
+      this.inner = inner;
+    }
+
+    @Override
+    public void connect() throws IOException {
+      enter();
+      try {
+        long end = System.nanoTime() + CONNECT_MS * 1000000L;
+        while (System.nanoTime() - end < 0) {
+          try {
+            Thread.sleep(1);
+          } catch (InterruptedException e) {
+            // Not abortable.
+          }
+        }
+        inner.connect();
+      } finally {
+        users.decrementAndGet();
+      }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      final InputStream in = inner.getInputStream();
+      return new InputStream() {
+        @Override
+        public int read() throws IOException {
+          byte[] b = new byte[1];
+          return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          enter();
+          try {
+            return in.read(b, off, len);
+          } finally {
+            users.decrementAndGet();
+          }
+        }
+      };
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      return inner.getOutputStream();
+    }
+
+    @Override
+    public String getName() {
+      return "slow:" + inner.getName();
+    }
+
+    @Override
+    public void close() throws IOException {
+      inner.close();
+    }
+
+    private void enter() {
+      int now = users.incrementAndGet();
+      while (true) {
+        int max = maxUsers.get();
+        if (now <= max || maxUsers.compareAndSet(max, now)) {
+          return;
+        }
+      }
+    }
+  }
+}
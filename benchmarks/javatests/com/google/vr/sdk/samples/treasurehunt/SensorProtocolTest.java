@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the mode negotiation and fallback of {@link SensorProtocol}. */
+public class SensorProtocolTest {
+
+  private static final float EPSILON = 0.01f;
+  private static final long MS = 1000000L;
+
+  private final SensorProtocol protocol = new SensorProtocol();
+  private final CollectingFrameSink sink = new CollectingFrameSink();
+  private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+  private int sequence;
+
+  @Before
+  public void setUp() throws IOException {
+    protocol.requestBinary(sent, 0);
+  }
+
+  @Test
+  public void switchesToBinaryAfterConfirmation() {
+    assertArrayEquals(SensorProtocol.COMMAND_BINARY, sent.toByteArray());
+    assertEquals(SensorProtocol.MODE_NEGOTIATING, protocol.getMode());
+    // Not delivered until confirmed, the bytes might be ASCII by chance.
+    assertEquals(0, feed(binary(1, 2, 3), 10 * MS));
+    assertEquals(SensorProtocol.MODE_NEGOTIATING, protocol.getMode());
+    assertEquals(1, feed(binary(4, 5, 6), 20 * MS));
+    assertEquals(SensorProtocol.MODE_BINARY, protocol.getMode());
+    assertEquals(1, sink.getCount());
+    assertArrayEquals(new float[] {4, 5, 6}, sink.last(), EPSILON);
+  }
+
+  @Test
+  public void confirmingReadDeliversItsLaterFrames() {
+    byte[] frames = new byte[3 * BinaryFrameCodec.FRAME_LENGTH];
+    System.arraycopy(binary(1, 1, 1), 0, frames, 0, BinaryFrameCodec.FRAME_LENGTH);
+    System.arraycopy(binary(2, 2, 2), 0, frames, BinaryFrameCodec.FRAME_LENGTH,
+        BinaryFrameCodec.FRAME_LENGTH);
+    System.arraycopy(binary(3, 3, 3), 0, frames, 2 * BinaryFrameCodec.FRAME_LENGTH,
+        BinaryFrameCodec.FRAME_LENGTH);
+    // The first frame is unconfirmed, the second confirms the link and the third follows it.
+    assertEquals(2, feed(frames, 10 * MS));
+    assertEquals(2, sink.getCount());
+    assertArrayEquals(new float[] {2, 2, 2}, sink.get(0), EPSILON);
+    assertArrayEquals(new float[] {3, 3, 3}, sink.get(1), EPSILON);
+  }
+
+  @Test
+  public void staysAsciiWhenBinaryIsNotUnderstood() {
+    feed(ascii("0 0 0 0r"), 10 * MS);
+    assertEquals(1, feed(ascii("0 1 2 3r"), 20 * MS));
+    assertArrayEquals(new float[] {1, 2, 3}, sink.last(), EPSILON);
+    feed(ascii("0 4 5 6r"), 600 * MS);
+    assertEquals(SensorProtocol.MODE_ASCII, protocol.getMode());
+  }
+
+  @Test
+  public void fallsBackOnCrcErrors() {
+    goBinary();
+    byte[] corrupt = binary(1, 2, 3);
+    corrupt[3] ^= 0x10;
+    for (int i = 0; i < 8; i++) {
+      assertEquals(0, feed(corrupt, 40 * MS));
+    }
+    assertEquals(SensorProtocol.MODE_ASCII, protocol.getMode());
+    // Reported once, so that the sensor is asked for ASCII.
+    assertTrue(protocol.takeFallback());
+    assertFalse(protocol.takeFallback());
+    // The burst is over and the sensor keeps sending binary: its frames are delivered again.
+    long now = 50 * MS;
+    assertEquals(0, feed(binary(1, 2, 3), now += 10 * MS));
+    assertEquals(1, feed(binary(4, 5, 6), now += 10 * MS));
+    assertEquals(SensorProtocol.MODE_BINARY, protocol.getMode());
+    assertArrayEquals(new float[] {4, 5, 6}, sink.last(), EPSILON);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(1, feed(binary(i % 90, 0, 0), now += 10 * MS));
+    }
+    assertEquals(1, protocol.getFallbacks());
+  }
+
+  @Test
+  public void decodesAsciiAfterFallback() {
+    goBinary();
+    // A gap, then the sensor answers the request for ASCII.
+    long now = 20 * MS + SensorProtocol.MAX_NANOS_WITHOUT_FRAME + 1;
+    feed(ascii("0 0 0 0r"), now);
+    assertEquals(SensorProtocol.MODE_ASCII, protocol.getMode());
+    assertTrue(protocol.takeFallback());
+    // The parser starts over and drops its first frame, which may be partial.
+    assertEquals(0, feed(ascii("0 0 0 0r"), now += 10 * MS));
+    for (int i = 1; i <= 100; i++) {
+      assertEquals(1, feed(ascii("0 " + i + " 2 3r"), now += 10 * MS));
+    }
+    assertArrayEquals(new float[] {100, 2, 3}, sink.last(), EPSILON);
+    assertEquals(SensorProtocol.MODE_ASCII, protocol.getMode());
+  }
+
+  @Test
+  public void recoversBinaryAfterNegotiationTimeout() {
+    // One binary frame, then nothing valid before the deadline.
+    assertEquals(0, feed(binary(1, 2, 3), 10 * MS));
+    feed(ascii("x"), 600 * MS);
+    assertEquals(SensorProtocol.MODE_ASCII, protocol.getMode());
+    assertTrue(protocol.takeFallback());
+    assertEquals(0, feed(binary(4, 5, 6), 610 * MS));
+    assertEquals(1, feed(binary(7, 8, 9), 620 * MS));
+    assertEquals(SensorProtocol.MODE_BINARY, protocol.getMode());
+  }
+
+  @Test
+  public void negotiationTimeoutWithoutBinaryIsNoFallback() {
+    feed(ascii("0 0 0 0r"), 10 * MS);
+    feed(ascii("0 1 2 3r"), 600 * MS);
+    assertEquals(SensorProtocol.MODE_ASCII, protocol.getMode());
+    assertFalse(protocol.takeFallback());
+    assertEquals(0, protocol.getFallbacks());
+  }
+
+  @Test
+  public void fallsBackWhenSensorResetsToAscii() {
+    goBinary();
+    // A reset sensor sends ASCII, which has no sync byte and so never fails a CRC. Reads come
+    // faster than the time limit, so only the byte count can notice.
+    long now = 20 * MS;
+    int bytes = 0;
+    while (protocol.getMode() == SensorProtocol.MODE_BINARY) {
+      byte[] frame = ascii("0 12.50 -3.25 45.00r");
+      assertEquals(0, feed(frame, now += MS));
+      bytes += frame.length;
+      assertTrue(bytes <= SensorProtocol.MAX_BYTES_WITHOUT_FRAME + frame.length);
+    }
+    assertEquals(SensorProtocol.MODE_ASCII, protocol.getMode());
+    // The ASCII parser starts over and drops the first frame, which may be partial.
+    assertEquals(0, feed(ascii("0 7 8 9r"), now += MS));
+    assertEquals(1, feed(ascii("0 1 2 3r"), now += MS));
+    assertArrayEquals(new float[] {1, 2, 3}, sink.last(), EPSILON);
+  }
+
+  @Test
+  public void fallsBackWhenBinaryFramesStopInTime() {
+    goBinary();
+    // A slow sensor: few bytes, but no frame for too long.
+    assertEquals(0, feed(ascii("0 1 2 3r"), 100 * MS));
+    assertEquals(SensorProtocol.MODE_BINARY, protocol.getMode());
+    feed(ascii("0 1 2 3r"), 20 * MS + SensorProtocol.MAX_NANOS_WITHOUT_FRAME + 1);
+    assertEquals(SensorProtocol.MODE_ASCII, protocol.getMode());
+  }
+
+  @Test
+  public void framesAndAcksKeepBinary() {
+    goBinary();
+    long now = 20 * MS;
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(1, feed(binary(i % 90, 0, 0), now += 10 * MS));
+      if (i % 10 == 0) {
+        feed(ascii("!" + i + "\n"), now);
+        assertEquals(i, protocol.takeAck());
+      }
+    }
+    assertEquals(SensorProtocol.MODE_BINARY, protocol.getMode());
+  }
+
+  private void goBinary() {
+    feed(binary(0, 0, 0), 10 * MS);
+    feed(binary(0, 0, 0), 20 * MS);
+    assertEquals(SensorProtocol.MODE_BINARY, protocol.getMode());
+  }
+
+  private int feed(byte[] bytes, long nowNanos) {
+    return protocol.feed(bytes, 0, bytes.length, sink, nowNanos);
+  }
+
+  private byte[] binary(float x, float y, float z) {
+    byte[] frame = new byte[BinaryFrameCodec.FRAME_LENGTH];
+    BinaryFrameCodec.encode(frame, 0, sequence++, x, y, z);
+    return frame;
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.ISO_8859_1);
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for {@link SpatialAudio}, against an engine that records every call. */
+public class SpatialAudioTest {
+
+  private static final long FRAME_NANOS = 16666667L;
+
+  private FakeEngine engine;
+  private SpatialAudio audio;
+  private final float[] head = new float[4];
+  private long now;
+
+  @Before
+  public void setUp() {
+    engine = new FakeEngine();
+    audio = new SpatialAudio(engine);
+    Quaternions.setIdentity(head, 0);
+  }
+
+  @Test
+  public void coalescesMovesBetweenTicks() {
+    int object = audio.createObject(0, 0, -8);
+    audio.playLooped(object, "cube.wav");
+    assertEquals(1, engine.positionCalls);
+
+    audio.setPosition(object, 1, 0, -8);
+    audio.setPosition(object, 2, 0, -8);
+    audio.setPosition(object, 3, 1, -7);
+    tick();
+    assertEquals(2, engine.positionCalls);
+    assertArrayEquals(new float[] {3, 1, -7}, engine.lastPosition, 0f);
+    assertTrue(audio.describe(), audio.describe().contains("1 moves (2 coalesced)"));
+
+    // Nothing moved since.
+    tick();
+    assertEquals(2, engine.positionCalls);
+  }
+
+  @Test
+  public void movesBeforePlaybackStartItThere() {
+    int object = audio.createObject(0, 0, -8);
+    audio.setPosition(object, 4, 5, 6);
+    // Not playing yet, so there is no engine source to move.
+    tick();
+    assertEquals(0, engine.positionCalls);
+
+    audio.playLooped(object, "cube.wav");
+    assertArrayEquals(new float[] {4, 5, 6}, engine.lastPosition, 0f);
+    assertTrue(engine.looped.contains(engine.lastId));
+    tick();
+    assertEquals(1, engine.positionCalls);
+  }
+
+  @Test
+  public void skipsHeadTurnsBelowThreshold() {
+    tick();
+    assertEquals(1, engine.rotationCalls);
+
+    float step = SpatialAudio.HEAD_ROTATION_THRESHOLD_DEGREES * 0.6f;
+    turnHead(step);
+    tick();
+    assertEquals(1, engine.rotationCalls);
+    // Measured from the rotation last sent, so slow turns still get through.
+    turnHead(step);
+    tick();
+    assertEquals(2, engine.rotationCalls);
+    assertArrayEquals(head, engine.lastRotation, 0f);
+    turnHead(step);
+    tick();
+    assertEquals(2, engine.rotationCalls);
+    assertTrue(audio.describe(), audio.describe().contains("sent 2 skipped 2"));
+    // The engine is updated every tick regardless.
+    assertEquals(4, engine.updates);
+  }
+
+  @Test
+  public void sendsLargeHeadTurnsAtOnce() {
+    tick();
+    turnHead(SpatialAudio.HEAD_ROTATION_THRESHOLD_DEGREES * 1.5f);
+    tick();
+    assertEquals(2, engine.rotationCalls);
+    assertArrayEquals(head, engine.lastRotation, 0f);
+  }
+
+  @Test
+  public void preloadsEachFileOnce() {
+    audio.preload("success.wav");
+    audio.preload("success.wav");
+    int object = audio.createObject(0, 0, 0);
+    audio.playLooped(object, "success.wav");
+    assertEquals(1, engine.preloads);
+  }
+
+  @Test
+  public void oneShotsStealTheOldestSlot() {
+    for (int i = 0; i < SpatialAudio.MAX_ONE_SHOTS + 2; i++) {
+      audio.playOneShot("success.wav");
+      tick();
+    }
+    assertEquals(SpatialAudio.MAX_ONE_SHOTS + 2, engine.stereoSources.size());
+    assertEquals(2, engine.stopped.size());
+    // The first two were stopped to make room.
+    assertTrue(engine.stopped.contains(engine.stereoSources.get(0)));
+    assertTrue(engine.stopped.contains(engine.stereoSources.get(1)));
+    assertEquals(SpatialAudio.MAX_ONE_SHOTS, audio.getActiveSources());
+  }
+
+  @Test
+  public void finishedOneShotsFreeTheirSlot() {
+    audio.playOneShot("success.wav");
+    tick();
+    assertEquals(1, audio.getActiveSources());
+    engine.finishAll();
+    // Looked for once a while, not every frame.
+    for (int i = 0; i < 20; i++) {
+      tick();
+    }
+    assertEquals(0, audio.getActiveSources());
+
+    for (int i = 0; i < SpatialAudio.MAX_ONE_SHOTS; i++) {
+      audio.playOneShot("success.wav");
+    }
+    tick();
+    assertTrue(engine.stopped.isEmpty());
+    assertEquals(SpatialAudio.MAX_ONE_SHOTS, audio.getActiveSources());
+  }
+
+  @Test
+  public void dropsOneShotsBeyondPoolPerTick() {
+    for (int i = 0; i < SpatialAudio.MAX_ONE_SHOTS * 2; i++) {
+      audio.playOneShot("success.wav");
+    }
+    tick();
+    assertEquals(SpatialAudio.MAX_ONE_SHOTS, engine.stereoSources.size());
+    assertTrue(engine.stopped.isEmpty());
+  }
+
+  @Test
+  public void failedSourceIsNotTracked() {
+    engine.failCreates = true;
+    audio.playOneShot("missing.wav");
+    tick();
+    assertEquals(0, audio.getActiveSources());
+    assertTrue(audio.describe(), audio.describe().contains("0 one-shots"));
+  }
+
+  private void tick() {
+    now += FRAME_NANOS;
+    audio.tick(now, head, 0);
+  }
+
+  // Turns the head further about Y.
+  private void turnHead(float degrees) {
+    float[] turn = new float[4];
+    Quaternions.setFromEulerXyz(turn, 0, 0f, degrees, 0f);
+    Quaternions.multiply(head, 0, head, 0, turn, 0);
+  }
+
+  /** Hands out increasing ids; sources stay valid until stopped or {@link #finishAll}. */
+  private static final class FakeEngine implements AudioBackend {
+    final List<Integer> stereoSources = new ArrayList<>();
+    final Set<Integer> looped = new HashSet<>();
+    final Set<Integer> stopped = new HashSet<>();
+    final float[] lastPosition = new float[3];
+    final float[] lastRotation = new float[4];
+    private final Set<Integer> valid = new HashSet<>();
+    int lastId;
+    int preloads;
+    int positionCalls;
+    int rotationCalls;
+    int updates;
+    boolean failCreates;
+
+    @Override
+    public boolean preloadSoundFile(String file) {
+      preloads++;
+      return true;
+    }
+
+    @Override
+    public int createSoundObject(String file) {
+      return create();
+    }
+
+    @Override
+    public int createStereoSound(String file) {
+      int id = create();
+      if (id != INVALID_ID) {
+        stereoSources.add(id);
+      }
+      return id;
+    }
+
+    @Override
+    public void setSoundObjectPosition(int id, float x, float y, float z) {
+      assertTrue(valid.contains(id));
+      positionCalls++;
+      lastPosition[0] = x;
+      lastPosition[1] = y;
+      lastPosition[2] = z;
+    }
+
+    @Override
+    public void playSound(int id, boolean looped) {
+      assertTrue(valid.contains(id));
+      if (looped) {
+        this.looped.add(id);
+      }
+    }
+
+    @Override
+    public void stopSound(int id) {
+      stopped.add(id);
+      valid.remove(id);
+    }
+
+    @Override
+    public boolean isSourceIdValid(int id) {
+      return valid.contains(id);
+    }
+
+    @Override
+    public void setHeadRotation(float x, float y, float z, float w) {
+      rotationCalls++;
+      lastRotation[0] = x;
+      lastRotation[1] = y;
+      lastRotation[2] = z;
+      lastRotation[3] = w;
+    }
+
+    @Override
+    public boolean update() {
+      updates++;
+      return true;
+    }
+
+    void finishAll() {
+      valid.clear();
+    }
+
+    private int create() {
+      if (failCreates) {
+        return INVALID_ID;
+      }
+      lastId++;
+      valid.add(lastId);
+      return lastId;
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.opengl;
+
+/**
+ * JVM stand-in for the subset of {@code android.opengl.Matrix} used by the benchmarked code, so the
+ * benchmarks run on a plain JDK. Same column-major layout and argument order as the platform
+ * class; it is a straightforward Java implementation, which is what the platform uses for all of
+ * these except {@code multiplyMM} and {@code multiplyMV}.
+ */
+public class Matrix {
+
+  // Scratch of rotateM, as in the platform class.
+  private static final float[] TEMP = new float[32];
+
+  public static void multiplyMM(float[] result, int resultOffset,
+      float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+    for (int i = 0; i < 4; i++) {
+      float r0 = rhs[rhsOffset + 4 * i];
+      float r1 = rhs[rhsOffset + 4 * i + 1];
+      float r2 = rhs[rhsOffset + 4 * i + 2];
+      float r3 = rhs[rhsOffset + 4 * i + 3];
+      for (int j = 0; j < 4; j++) {
+        result[resultOffset + 4 * i + j] = lhs[lhsOffset + j] * r0 + lhs[lhsOffset + 4 + j] * r1
+            + lhs[lhsOffset + 8 + j] * r2 + lhs[lhsOffset + 12 + j] * r3;
+      }
+    }
+  }
+
+  public static void multiplyMV(float[] resultVec, int resultVecOffset,
+      float[] lhsMat, int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+    float x = rhsVec[rhsVecOffset];
+    float y = rhsVec[rhsVecOffset + 1];
+    float z = rhsVec[rhsVecOffset + 2];
+    float w = rhsVec[rhsVecOffset + 3];
+    for (int j = 0; j < 4; j++) {
+      resultVec[resultVecOffset + j] = lhsMat[lhsMatOffset + j] * x
+          + lhsMat[lhsMatOffset + 4 + j] * y + lhsMat[lhsMatOffset + 8 + j] * z
+          + lhsMat[lhsMatOffset + 12 + j] * w;
+    }
+  }
+
+  public static void setIdentityM(float[] sm, int smOffset) {
+    for (int i = 0; i < 16; i++) {
+      sm[smOffset + i] = i % 5 == 0 ? 1.0f : 0.0f;
+    }
+  }
+
+  public static void scaleM(float[] m, int mOffset, float x, float y, float z) {
+    for (int i = 0; i < 4; i++) {
+      m[mOffset + i] *= x;
+      m[mOffset + 4 + i] *= y;
+      m[mOffset + 8 + i] *= z;
+    }
+  }
+
+  public static void translateM(float[] m, int mOffset, float x, float y, float z) {
+    for (int i = 0; i < 4; i++) {
+      m[mOffset + 12 + i] += m[mOffset + i] * x + m[mOffset + 4 + i] * y + m[mOffset + 8 + i] * z;
+    }
+  }
+
+  public static void setLookAtM(float[] rm, int rmOffset, float eyeX, float eyeY, float eyeZ,
+      float centerX, float centerY, float centerZ, float upX, float upY, float upZ) {
+    float fx = centerX - eyeX;
+    float fy = centerY - eyeY;
+    float fz = centerZ - eyeZ;
+    float rlf = 1.0f / length(fx, fy, fz);
+    fx *= rlf;
+    fy *= rlf;
+    fz *= rlf;
+    // s = f x up
+    float sx = fy * upZ - fz * upY;
+    float sy = fz * upX - fx * upZ;
+    float sz = fx * upY - fy * upX;
+    float rls = 1.0f / length(sx, sy, sz);
+    sx *= rls;
+    sy *= rls;
+    sz *= rls;
+    // u = s x f
+    float ux = sy * fz - sz * fy;
+    float uy = sz * fx - sx * fz;
+    float uz = sx * fy - sy * fx;
+    rm[rmOffset] = sx;
+    rm[rmOffset + 1] = ux;
+    rm[rmOffset + 2] = -fx;
+    rm[rmOffset + 3] = 0.0f;
+    rm[rmOffset + 4] = sy;
+    rm[rmOffset + 5] = uy;
+    rm[rmOffset + 6] = -fy;
+    rm[rmOffset + 7] = 0.0f;
+    rm[rmOffset + 8] = sz;
+    rm[rmOffset + 9] = uz;
+    rm[rmOffset + 10] = -fz;
+    rm[rmOffset + 11] = 0.0f;
+    rm[rmOffset + 12] = 0.0f;
+    rm[rmOffset + 13] = 0.0f;
+    rm[rmOffset + 14] = 0.0f;
+    rm[rmOffset + 15] = 1.0f;
+    translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+  }
+
+  public static float length(float x, float y, float z) {
+    return (float) Math.sqrt(x * x + y * y + z * z);
+  }
+
+  public static void rotateM(float[] m, int mOffset, float a, float x, float y, float z) {
+    synchronized (TEMP) {
+      setRotateM(TEMP, 0, a, x, y, z);
+      multiplyMM(TEMP, 16, m, mOffset, TEMP, 0);
+      System.arraycopy(TEMP, 16, m, mOffset, 16);
+    }
+  }
+
+  public static void setRotateM(float[] rm, int rmOffset, float a, float x, float y, float z) {
+    rm[rmOffset + 3] = 0;
+    rm[rmOffset + 7] = 0;
+    rm[rmOffset + 11] = 0;
+    rm[rmOffset + 12] = 0;
+    rm[rmOffset + 13] = 0;
+    rm[rmOffset + 14] = 0;
+    rm[rmOffset + 15] = 1;
+    a *= (float) (Math.PI / 180.0f);
+    float s = (float) Math.sin(a);
+    float c = (float) Math.cos(a);
+    float len = (float) Math.sqrt(x * x + y * y + z * z);
+    if (len != 1.0f) {
+      float recip = 1.0f / len;
+      x *= recip;
+      y *= recip;
+      z *= recip;
+    }
+    float nc = 1.0f - c;
+    float xy = x * y;
+    float yz = y * z;
+    float zx = z * x;
+    float xs = x * s;
+    float ys = y * s;
+    float zs = z * s;
+    rm[rmOffset] = x * x * nc + c;
+    rm[rmOffset + 4] = xy * nc - zs;
+    rm[rmOffset + 8] = zx * nc + ys;
+    rm[rmOffset + 1] = xy * nc + zs;
+    rm[rmOffset + 5] = y * y * nc + c;
+    rm[rmOffset + 9] = yz * nc - xs;
+    rm[rmOffset + 2] = zx * nc - ys;
+    rm[rmOffset + 6] = yz * nc + xs;
+    rm[rmOffset + 10] = z * z * nc + c;
+  }
+}
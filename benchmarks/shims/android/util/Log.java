@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+/**
+ * JVM stand-in for {@code android.util.Log}, so that the sensor classes can run in the tests.
+ * Warnings and errors go to standard error, everything else is dropped.
+ */
+public final class Log {
+
+  private Log() {}
+
+  public static int d(String tag, String msg) {
+    return 0;
+  }
+
+  public static int i(String tag, String msg) {
+    return 0;
+  }
+
+  public static int w(String tag, String msg) {
+    return print("W", tag, msg);
+  }
+
+  public static int w(String tag, String msg, Throwable tr) {
+    return print("W", tag, msg + ": " + tr);
+  }
+
+  public static int e(String tag, String msg) {
+    return print("E", tag, msg);
+  }
+
+  public static int e(String tag, String msg, Throwable tr) {
+    return print("E", tag, msg + ": " + tr);
+  }
+
+  private static int print(String level, String tag, String msg) {
+    System.err.println(level + "/" + tag + ": " + msg);
+    return 0;
+  }
+}
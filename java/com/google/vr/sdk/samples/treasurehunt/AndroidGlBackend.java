@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import java.nio.Buffer;
+
+/** Forwards every call to the {@code GLES20} and {@code GLES30} bindings of the current context. */
+final class AndroidGlBackend implements GlBackend {
+
+  @Override
+  public void glEnable(int cap) {
+    GLES20.glEnable(cap);
+  }
+
+  @Override
+  public void glDisable(int cap) {
+    GLES20.glDisable(cap);
+  }
+
+  @Override
+  public void glClearColor(float red, float green, float blue, float alpha) {
+    GLES20.glClearColor(red, green, blue, alpha);
+  }
+
+  @Override
+  public void glClear(int mask) {
+    GLES20.glClear(mask);
+  }
+
+  @Override
+  public int glGetError() {
+    return GLES20.glGetError();
+  }
+
+  @Override
+  public void glGetIntegerv(int pname, int[] params, int offset) {
+    GLES20.glGetIntegerv(pname, params, offset);
+  }
+
+  @Override
+  public String glGetString(int name) {
+    return GLES20.glGetString(name);
+  }
+
+  @Override
+  public int glCreateShader(int type) {
+    return GLES20.glCreateShader(type);
+  }
+
+  @Override
+  public void glShaderSource(int shader, String source) {
+    GLES20.glShaderSource(shader, source);
+  }
+
+  @Override
+  public void glCompileShader(int shader) {
+    GLES20.glCompileShader(shader);
+  }
+
+  @Override
+  public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+    GLES20.glGetShaderiv(shader, pname, params, offset);
+  }
+
+  @Override
+  public String glGetShaderInfoLog(int shader) {
+    return GLES20.glGetShaderInfoLog(shader);
+  }
+
+  @Override
+  public void glDeleteShader(int shader) {
+    GLES20.glDeleteShader(shader);
+  }
+
+  @Override
+  public int glCreateProgram() {
+    return GLES20.glCreateProgram();
+  }
+
+  @Override
+  public void glAttachShader(int program, int shader) {
+    GLES20.glAttachShader(program, shader);
+  }
+
+  @Override
+  public void glBindAttribLocation(int program, int index, String name) {
+    GLES20.glBindAttribLocation(program, index, name);
+  }
+
+  @Override
+  public void glProgramParameteri(int program, int pname, int value) {
+    GLES30.glProgramParameteri(program, pname, value);
+  }
+
+  @Override
+  public void glLinkProgram(int program) {
+    GLES20.glLinkProgram(program);
+  }
+
+  @Override
+  public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+    GLES20.glGetProgramiv(program, pname, params, offset);
+  }
+
+  @Override
+  public String glGetProgramInfoLog(int program) {
+    return GLES20.glGetProgramInfoLog(program);
+  }
+
+  @Override
+  public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+      int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+    GLES30.glGetProgramBinary(
+        program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+  }
+
+  @Override
+  public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+    GLES30.glProgramBinary(program, binaryFormat, binary, length);
+  }
+
+  @Override
+  public void glDeleteProgram(int program) {
+    GLES20.glDeleteProgram(program);
+  }
+
+  @Override
+  public void glUseProgram(int program) {
+    GLES20.glUseProgram(program);
+  }
+
+  @Override
+  public int glGetAttribLocation(int program, String name) {
+    return GLES20.glGetAttribLocation(program, name);
+  }
+
+  @Override
+  public int glGetUniformLocation(int program, String name) {
+    return GLES20.glGetUniformLocation(program, name);
+  }
+
+  @Override
+  public void glUniform1i(int location, int x) {
+    GLES20.glUniform1i(location, x);
+  }
+
+  @Override
+  public void glUniform3fv(int location, int count, float[] v, int offset) {
+    GLES20.glUniform3fv(location, count, v, offset);
+  }
+
+  @Override
+  public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+      int offset) {
+    GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+  }
+
+  @Override
+  public void glGenBuffers(int n, int[] buffers, int offset) {
+    GLES20.glGenBuffers(n, buffers, offset);
+  }
+
+  @Override
+  public void glDeleteBuffers(int n, int[] buffers, int offset) {
+    GLES20.glDeleteBuffers(n, buffers, offset);
+  }
+
+  @Override
+  public void glBindBuffer(int target, int buffer) {
+    GLES20.glBindBuffer(target, buffer);
+  }
+
+  @Override
+  public void glBufferData(int target, int size, Buffer data, int usage) {
+    GLES20.glBufferData(target, size, data, usage);
+  }
+
+  @Override
+  public void glBufferSubData(int target, int offset, int size, Buffer data) {
+    GLES20.glBufferSubData(target, offset, size, data);
+  }
+
+  @Override
+  public void glGenVertexArrays(int n, int[] arrays, int offset) {
+    GLES30.glGenVertexArrays(n, arrays, offset);
+  }
+
+  @Override
+  public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+    GLES30.glDeleteVertexArrays(n, arrays, offset);
+  }
+
+  @Override
+  public void glBindVertexArray(int array) {
+    GLES30.glBindVertexArray(array);
+  }
+
+  @Override
+  public void glEnableVertexAttribArray(int index) {
+    GLES20.glEnableVertexAttribArray(index);
+  }
+
+  @Override
+  public void glDisableVertexAttribArray(int index) {
+    GLES20.glDisableVertexAttribArray(index);
+  }
+
+  @Override
+  public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+      int offset) {
+    GLES20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+  }
+
+  @Override
+  public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+      Buffer pointer) {
+    GLES20.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+  }
+
+  @Override
+  public void glVertexAttribDivisor(int index, int divisor) {
+    GLES30.glVertexAttribDivisor(index, divisor);
+  }
+
+  @Override
+  public void glVertexAttrib3fv(int index, float[] values, int offset) {
+    GLES20.glVertexAttrib3fv(index, values, offset);
+  }
+
+  @Override
+  public void glVertexAttrib4fv(int index, float[] values, int offset) {
+    GLES20.glVertexAttrib4fv(index, values, offset);
+  }
+
+  @Override
+  public void glDrawArrays(int mode, int first, int count) {
+    GLES20.glDrawArrays(mode, first, count);
+  }
+
+  @Override
+  public void glDrawElements(int mode, int count, int type, int offset) {
+    GLES20.glDrawElements(mode, count, type, offset);
+  }
+
+  @Override
+  public void glDrawElementsInstanced(int mode, int count, int type, int offset,
+      int instanceCount) {
+    GLES30.glDrawElementsInstanced(mode, count, type, offset, instanceCount);
+  }
+}
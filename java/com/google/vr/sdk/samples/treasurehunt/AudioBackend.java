@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * The audio engine calls {@link SpatialAudio} makes, with the signatures of
+ * {@code GvrAudioEngine}.
+ *
+ * <p>On the device this is {@link GvrAudioBackend}; tests drive {@link SpatialAudio} with a fake
+ * so that it runs on a desktop JVM.
+ */
+interface AudioBackend {
+
+  /** Returned instead of a source id when a source could not be created. */
+  int INVALID_ID = -1;
+
+  boolean preloadSoundFile(String file);
+
+  int createSoundObject(String file);
+
+  int createStereoSound(String file);
+
+  void setSoundObjectPosition(int id, float x, float y, float z);
+
+  void playSound(int id, boolean looped);
+
+  void stopSound(int id);
+
+  boolean isSourceIdValid(int id);
+
+  void setHeadRotation(float x, float y, float z, float w);
+
+  boolean update();
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Compact fixed-width sensor frame, the optional alternative to the ASCII frames handled by
+ * {@link SensorFrameParser}.
+ *
+ * <pre>
+ *   byte 0     0xA5 sync
+ *   byte 1     sequence number, wraps at 256
+ *   byte 2-7   X, Y, Z rotation as little-endian int16 in hundredths of a degree
+ *   byte 8     CRC-8 (polynomial 0x07, init 0) over bytes 1-7
+ * </pre>
+ *
+ * <p>At 9 bytes a frame is roughly a third of the ASCII encoding of the same sample. The decoder is
+ * incremental like the ASCII parser: frames may be split across reads, and after a CRC failure it
+ * resynchronizes on the next sync byte. Nothing is allocated after construction.
+ */
+public final class BinaryFrameCodec {
+
+  public static final int FRAME_LENGTH = 9;
+  public static final byte SYNC = (byte) 0xA5;
+
+  private static final float SCALE = 100.0f;
+
+  private static final byte[] CRC_TABLE = new byte[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i;
+      for (int bit = 0; bit < 8; bit++) {
+        crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+      }
+      CRC_TABLE[i] = (byte) crc;
+    }
+  }
+
+  private final byte[] frame = new byte[FRAME_LENGTH];
+  private int length;
+
+  private int lastSequence = -1;
+  private long framesDecoded;
+  private long crcErrors;
+  private long framesLost;
+
+  /** Drops any partial frame. */
+  public void reset() {
+    length = 0;
+    lastSequence = -1;
+  }
+
+  /**
+   * Feeds bytes from the read buffer into the decoder.
+   *
+   * @param buffer The buffer filled by {@code InputStream.read}.
+   * @param offset Offset of the first valid byte.
+   * @param count Number of valid bytes.
+   * @param sink Receives every valid frame of this chunk.
+   * @return The number of valid frames decoded from this chunk.
+   */
+  public int feed(byte[] buffer, int offset, int count, SensorFrameSink sink) {
+    int frames = 0;
+    int end = offset + count;
+    for (int i = offset; i < end; i++) {
+      byte b = buffer[i];
+      if (length == 0 && b != SYNC) {
+        continue;
+      }
+      frame[length++] = b;
+      if (length == FRAME_LENGTH) {
+        if (crc8(frame, 1, FRAME_LENGTH - 2) == frame[FRAME_LENGTH - 1]) {
+          length = 0;
+          decode(sink);
+          frames++;
+        } else {
+          crcErrors++;
+          resync();
+        }
+      }
+    }
+    return frames;
+  }
+
+  /**
+   * Encodes one frame.
+   *
+   * @return The position after the frame, i.e. {@code offset + FRAME_LENGTH}.
+   */
+  public static int encode(byte[] dst, int offset, int sequence, float x, float y, float z) {
+    dst[offset] = SYNC;
+    dst[offset + 1] = (byte) sequence;
+    putInt16(dst, offset + 2, x);
+    putInt16(dst, offset + 4, y);
+    putInt16(dst, offset + 6, z);
+    dst[offset + 8] = crc8(dst, offset + 1, FRAME_LENGTH - 2);
+    return offset + FRAME_LENGTH;
+  }
+
+  static byte crc8(byte[] data, int offset, int count) {
+    int crc = 0;
+    for (int i = offset; i < offset + count; i++) {
+      crc = CRC_TABLE[(crc ^ data[i]) & 0xff] & 0xff;
+    }
+    return (byte) crc;
+  }
+
+  /** Number of valid frames seen since construction. */
+  public long getFramesDecoded() {
+    return framesDecoded;
+  }
+
+  /** Number of frames rejected because of a CRC mismatch. */
+  public long getCrcErrors() {
+    return crcErrors;
+  }
+
+  /** Number of frames missing according to the sequence numbers. */
+  public long getFramesLost() {
+    return framesLost;
+  }
+
+  private void decode(SensorFrameSink sink) {
+    int sequence = frame[1] & 0xff;
+    if (lastSequence >= 0) {
+      framesLost += (sequence - lastSequence - 1) & 0xff;
+    }
+    lastSequence = sequence;
+    framesDecoded++;
+    sink.onFrame(getInt16(frame, 2) / SCALE, getInt16(frame, 4) / SCALE,
+        getInt16(frame, 6) / SCALE);
+  }
+
+  // Keeps the bytes after the first byte that could start another frame.
+  private void resync() {
+    int start = 1;
+    while (start < length && frame[start] != SYNC) {
+      start++;
+    }
+    System.arraycopy(frame, start, frame, 0, length - start);
+    length -= start;
+  }
+
+  private static void putInt16(byte[] dst, int offset, float value) {
+    int v = Math.round(value * SCALE);
+    if (v > Short.MAX_VALUE) {
+      v = Short.MAX_VALUE;
+    } else if (v < Short.MIN_VALUE) {
+      v = Short.MIN_VALUE;
+    }
+    dst[offset] = (byte) v;
+    dst[offset + 1] = (byte) (v >> 8);
+  }
+
+  private static short getInt16(byte[] src, int offset) {
+    return (short) ((src[offset] & 0xff) | (src[offset + 1] << 8));
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A rack of sensor driven cubes, e.g. one per IMU.
+ *
+ * <p>Each object has a fixed slot on a wall in front of the user and its own orientation. The
+ * model matrices of all objects are packed back to back in one {@code float[]} so that they can
+ * be uploaded as a per-instance attribute in a single call. Nothing is allocated after
+ * construction.
+ */
+final class CubeScene {
+
+  static final int FLOATS_PER_OBJECT = 16;
+
+  /** Radius of the sphere enclosing one object in any orientation. */
+  static final float OBJECT_RADIUS = 0.2f * (float) Math.sqrt(3.0);
+
+  // Distance between neighbouring slots and the size of each cube relative to the model data.
+  private static final float SPACING = 0.6f;
+  private static final float SCALE = 0.2f;
+  private static final float WALL_Z = -8.0f;
+
+  private final int count;
+  private final float[] positions;
+  private final float[] models;
+  private final float[] bounds = new float[FrustumCuller.BOX_SIZE];
+  private final FloatBuffer buffer;
+  private boolean dirty = true;
+
+  /** Lays out {@code count} cubes in a roughly square grid, all facing the user. */
+  CubeScene(int count) {
+    this.count = count;
+    positions = new float[count * 3];
+    models = new float[count * FLOATS_PER_OBJECT];
+    buffer = ByteBuffer.allocateDirect(models.length * 4)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+
+    int columns = (int) Math.ceil(Math.sqrt(count));
+    int rows = (count + columns - 1) / columns;
+    float[] identity = new float[] {0f, 0f, 0f, 1f};
+    for (int i = 0; i < count; i++) {
+      positions[i * 3] = (i % columns - (columns - 1) / 2f) * SPACING;
+      positions[i * 3 + 1] = ((rows - 1) / 2f - i / columns) * SPACING;
+      positions[i * 3 + 2] = WALL_Z;
+      setOrientation(i, identity, 0);
+    }
+
+    for (int k = 0; k < 3; k++) {
+      bounds[k] = Float.POSITIVE_INFINITY;
+      bounds[3 + k] = Float.NEGATIVE_INFINITY;
+    }
+    for (int i = 0; i < count * 3; i++) {
+      bounds[i % 3] = Math.min(bounds[i % 3], positions[i] - OBJECT_RADIUS);
+      bounds[3 + i % 3] = Math.max(bounds[3 + i % 3], positions[i] + OBJECT_RADIUS);
+    }
+  }
+
+  int getCount() {
+    return count;
+  }
+
+  /** Sets the orientation of object {@code index} from the unit quaternion at {@code q[qOffset]}. */
+  void setOrientation(int index, float[] q, int qOffset) {
+    int m = index * FLOATS_PER_OBJECT;
+    Quaternions.toMatrix(models, m, q, qOffset,
+        positions[index * 3], positions[index * 3 + 1], positions[index * 3 + 2]);
+    // Scale the rotation part; the translation column stays as is.
+    for (int i = 0; i < 12; i++) {
+      models[m + i] *= SCALE;
+    }
+    dirty = true;
+  }
+
+  /** Gives every object the same orientation. */
+  void setAllOrientations(float[] q, int qOffset) {
+    for (int i = 0; i < count; i++) {
+      setOrientation(i, q, qOffset);
+    }
+  }
+
+  /** The world space box enclosing every object, see {@link FrustumCuller#BOX_SIZE}. */
+  float[] getBounds() {
+    return bounds;
+  }
+
+  /** The packed model matrices, {@link #FLOATS_PER_OBJECT} floats per object. */
+  float[] getModels() {
+    return models;
+  }
+
+  /**
+   * Returns the model matrices in a direct buffer for upload, or null if nothing changed since
+   * the previous call.
+   */
+  FloatBuffer takeChanges() {
+    if (!dirty) {
+      return null;
+    }
+    dirty = false;
+    buffer.position(0);
+    buffer.put(models);
+    buffer.position(0);
+    return buffer;
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * First order low-pass filter on the sphere: each sample moves the output a fixed fraction of the
+ * way towards it, scaled by the sample interval so the response does not depend on the rate.
+ */
+public final class ExponentialOrientationFilter implements OrientationFilter {
+
+  private final double timeConstantNanos;
+  private final float[] state = new float[4];
+  private boolean primed;
+  private long lastTimestamp;
+
+  /** @param timeConstantSeconds Time for the output to cover 63% of a step. */
+  public ExponentialOrientationFilter(float timeConstantSeconds) {
+    if (!(timeConstantSeconds > 0f)) {
+      throw new IllegalArgumentException("Time constant must be positive: " + timeConstantSeconds);
+    }
+    timeConstantNanos = timeConstantSeconds * 1e9;
+  }
+
+  @Override
+  public void filter(long timestampNanos, float[] q, int offset) {
+    if (primed) {
+      float alpha = (float) (1.0 - Math.exp(-(timestampNanos - lastTimestamp) / timeConstantNanos));
+      Quaternions.slerp(state, 0, state, 0, q, offset, alpha);
+    } else {
+      System.arraycopy(q, offset, state, 0, 4);
+      primed = true;
+    }
+    lastTimestamp = timestampNanos;
+    System.arraycopy(state, 0, q, offset, 4);
+  }
+
+  @Override
+  public void reset() {
+    primed = false;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Wraps another {@link SensorTransport} and breaks it the way a Bluetooth link breaks, to exercise
+ * the reconnect path of {@link SensorHub} without hardware.
+ *
+ * <p>A connect fails with probability {@code connectFailureRate}. A successful connection lives
+ * for a random, exponentially distributed time around {@code meanUptimeMs}, after which the link
+ * fails in one of three ways: the read throws, the stream ends, or the stream stalls without an
+ * error until it is closed, which only a read timeout detects.
+ */
+public final class FlakySensorTransport implements SensorTransport {
+
+  static final float DEFAULT_CONNECT_FAILURE_RATE = 0.25f;
+
+  private static final int FAIL_THROW = 0;
+  private static final int FAIL_END = 1;
+  private static final int FAIL_STALL = 2;
+
+  private final SensorTransport inner;
+  private final long meanUptimeMs;
+  private final float connectFailureRate;
+  private final Random random;
+
+  private final Object lock = new Object();
+  private volatile boolean closed;
+  private InputStream input;
+
+  public FlakySensorTransport(
+      SensorTransport inner, long meanUptimeMs, float connectFailureRate, long seed) {
+    this.inner = inner;
+    this.meanUptimeMs = meanUptimeMs;
+    this.connectFailureRate = connectFailureRate;
+    this.random = new Random(seed);
+  }
+
+  @Override
+  public void connect() throws IOException {
+    closed = false;
+    if (random.nextFloat() < connectFailureRate) {
+      throw new IOException("Simulated connect failure");
+    }
+    inner.connect();
+    long uptimeNanos = (long) (-Math.log(1.0 - random.nextDouble()) * meanUptimeMs * 1000000L);
+    input = new FlakyInputStream(inner.getInputStream(),
+        System.nanoTime() + uptimeNanos, random.nextInt(3));
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return input;
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return inner.getOutputStream();
+  }
+
+  @Override
+  public String getName() {
+    return "flaky:" + meanUptimeMs + ":" + inner.getName();
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+    inner.close();
+  }
+
+  private final class FlakyInputStream extends InputStream {
+    private final InputStream in;
+    private final long failAtNanos;
+    private final int failure;
+
+    FlakyInputStream(InputStream in, long failAtNanos, int failure) {
+      this.in = in;
+      this.failAtNanos = failAtNanos;
+      this.failure = failure;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (System.nanoTime() - failAtNanos < 0) {
+        return in.read(b, off, len);
+      }
+      if (failure == FAIL_THROW) {
+        throw new IOException("Simulated link drop");
+      } else if (failure == FAIL_END) {
+        return -1;
+      }
+      synchronized (lock) {
+        while (!closed) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+        }
+      }
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * The flat, grid shaded floor of {@link WorldLayoutData} cut into square tiles.
+ *
+ * <p>A tile at level of detail 0 is a grid of {@code maxQuadsPerSide} squared quads; every further
+ * level halves the quads per side, down to a single quad. The quads share the winding, normal and
+ * color of {@code FLOOR_COORDS}.
+ */
+final class FlatFloorTileSource implements FloorTileSource {
+
+  private final float tileSize;
+  private final int maxQuadsPerSide;
+
+  /**
+   * @param tileSize Edge length of a tile in floor model units.
+   * @param maxQuadsPerSide Quads per tile edge at level of detail 0.
+   */
+  FlatFloorTileSource(float tileSize, int maxQuadsPerSide) {
+    if (maxQuadsPerSide < 1 || (maxQuadsPerSide + 1) * (maxQuadsPerSide + 1) > 0xFFFF) {
+      throw new IllegalArgumentException("Unsupported tile resolution: " + maxQuadsPerSide);
+    }
+    this.tileSize = tileSize;
+    this.maxQuadsPerSide = maxQuadsPerSide;
+  }
+
+  @Override
+  public MeshData build(int tileX, int tileZ, int lod) {
+    int quads = Math.max(1, maxQuadsPerSide >> lod);
+    int vertices = quads * quads * 6;
+    float[] positions = new float[vertices * Mesh.POSITION_SIZE];
+    float[] normals = new float[vertices * Mesh.NORMAL_SIZE];
+    float[] colors = new float[vertices * Mesh.COLOR_SIZE];
+
+    float step = tileSize / quads;
+    float originX = tileX * tileSize;
+    float originZ = tileZ * tileSize;
+    int p = 0;
+    for (int row = 0; row < quads; row++) {
+      float z0 = originZ + row * step;
+      float z1 = row == quads - 1 ? originZ + tileSize : z0 + step;
+      for (int column = 0; column < quads; column++) {
+        float x0 = originX + column * step;
+        float x1 = column == quads - 1 ? originX + tileSize : x0 + step;
+        p = putVertex(positions, p, x1, z0);
+        p = putVertex(positions, p, x0, z0);
+        p = putVertex(positions, p, x0, z1);
+        p = putVertex(positions, p, x1, z0);
+        p = putVertex(positions, p, x0, z1);
+        p = putVertex(positions, p, x1, z1);
+      }
+    }
+    for (int v = 0; v < vertices; v++) {
+      System.arraycopy(WorldLayoutData.FLOOR_NORMALS, 0, normals, v * Mesh.NORMAL_SIZE,
+          Mesh.NORMAL_SIZE);
+      System.arraycopy(WorldLayoutData.FLOOR_COLORS, 0, colors, v * Mesh.COLOR_SIZE,
+          Mesh.COLOR_SIZE);
+    }
+    return MeshData.compile(positions, normals, colors);
+  }
+
+  private static int putVertex(float[] positions, int offset, float x, float z) {
+    positions[offset] = x;
+    positions[offset + 1] = 0f;
+    positions[offset + 2] = z;
+    return offset + 3;
+  }
+}
@@ -119,7 +119,7 @@ public class Floor extends TreasureHuntActivity{
             0.65f, 0.62f, 0.44f, 1.0f,
     };
 
-    public void init(){
+    public void init(ShaderRegistry shaderRegistry){
         modelFloor = new float[16];
 
         ByteBuffer bbFloorVertices = ByteBuffer.allocateDirect(FLOOR_COORDS.length * 4);
@@ -140,26 +140,20 @@ public class Floor extends TreasureHuntActivity{
         floorColors.put(FLOOR_COLORS);
         floorColors.position(0);
 
-        int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
-        int gridShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.grid_fragment);
-        //int passthroughShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.passthrough_fragment);
-
-        floorProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(floorProgram, vertexShader);
-        GLES20.glAttachShader(floorProgram, gridShader);
-        GLES20.glLinkProgram(floorProgram);
-        GLES20.glUseProgram(floorProgram);
+        // Shares the program the activity already linked for its own floor.
+        floorProgram = shaderRegistry.getProgram(R.raw.light_vertex, R.raw.grid_fragment);
+        GlState.useProgram(floorProgram);
 
         //checkGLError("Floor program");
 
-        floorModelParam = GLES20.glGetUniformLocation(floorProgram, "u_Model");
-        floorModelViewParam = GLES20.glGetUniformLocation(floorProgram, "u_MVMatrix");
-        floorModelViewProjectionParam = GLES20.glGetUniformLocation(floorProgram, "u_MVP");
-        floorLightPosParam = GLES20.glGetUniformLocation(floorProgram, "u_LightPos");
+        floorModelParam = Gl.glGetUniformLocation(floorProgram, "u_Model");
+        floorModelViewParam = Gl.glGetUniformLocation(floorProgram, "u_MVMatrix");
+        floorModelViewProjectionParam = Gl.glGetUniformLocation(floorProgram, "u_MVP");
+        floorLightPosParam = Gl.glGetUniformLocation(floorProgram, "u_LightPos");
 
-        floorPositionParam = GLES20.glGetAttribLocation(floorProgram, "a_Position");
-        floorNormalParam = GLES20.glGetAttribLocation(floorProgram, "a_Normal");
-        floorColorParam = GLES20.glGetAttribLocation(floorProgram, "a_Color");
+        floorPositionParam = Gl.glGetAttribLocation(floorProgram, "a_Position");
+        floorNormalParam = Gl.glGetAttribLocation(floorProgram, "a_Normal");
+        floorColorParam = Gl.glGetAttribLocation(floorProgram, "a_Color");
 
         //checkGLError("Floor program params");
 
@@ -168,27 +162,27 @@ public class Floor extends TreasureHuntActivity{
     }
 
     public void draw(){
-        GLES20.glUseProgram(floorProgram);
+        GlState.useProgram(floorProgram);
 
         // Set ModelView, MVP, position, normals, and color.
-        GLES20.glUniform3fv(floorLightPosParam, 1, lightPosInEyeSpace, 0);
-        GLES20.glUniformMatrix4fv(floorModelParam, 1, false, modelFloor, 0);
-        GLES20.glUniformMatrix4fv(floorModelViewParam, 1, false, modelView, 0);
-        GLES20.glUniformMatrix4fv(floorModelViewProjectionParam, 1, false, modelViewProjection, 0);
-        GLES20.glVertexAttribPointer(
+        Gl.glUniform3fv(floorLightPosParam, 1, lightPosInEyeSpace, 0);
+        Gl.glUniformMatrix4fv(floorModelParam, 1, false, modelFloor, 0);
+        Gl.glUniformMatrix4fv(floorModelViewParam, 1, false, modelView, 0);
+        Gl.glUniformMatrix4fv(floorModelViewProjectionParam, 1, false, modelViewProjection, 0);
+        Gl.glVertexAttribPointer(
                 floorPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, floorVertices);
-        GLES20.glVertexAttribPointer(floorNormalParam, 3, GLES20.GL_FLOAT, false, 0, floorNormals);
-        GLES20.glVertexAttribPointer(floorColorParam, 4, GLES20.GL_FLOAT, false, 0, floorColors);
+        Gl.glVertexAttribPointer(floorNormalParam, 3, GLES20.GL_FLOAT, false, 0, floorNormals);
+        Gl.glVertexAttribPointer(floorColorParam, 4, GLES20.GL_FLOAT, false, 0, floorColors);
 
-        GLES20.glEnableVertexAttribArray(floorPositionParam);
-        GLES20.glEnableVertexAttribArray(floorNormalParam);
-        GLES20.glEnableVertexAttribArray(floorColorParam);
+        Gl.glEnableVertexAttribArray(floorPositionParam);
+        Gl.glEnableVertexAttribArray(floorNormalParam);
+        Gl.glEnableVertexAttribArray(floorColorParam);
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 24);
+        Gl.glDrawArrays(GLES20.GL_TRIANGLES, 0, 24);
 
-        GLES20.glDisableVertexAttribArray(floorPositionParam);
-        GLES20.glDisableVertexAttribArray(floorNormalParam);
-        GLES20.glDisableVertexAttribArray(floorColorParam);
+        Gl.glDisableVertexAttribArray(floorPositionParam);
+        Gl.glDisableVertexAttribArray(floorNormalParam);
+        Gl.glDisableVertexAttribArray(floorColorParam);
 
         //checkGLError("drawing floor");
     }
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Produces the geometry of one floor tile for {@link FloorTileStreamer}.
+ *
+ * <p>Called on a background thread, possibly for several tiles at once, so implementations must
+ * be thread-safe and must not touch GL.
+ */
+interface FloorTileSource {
+
+  /**
+   * Builds a tile.
+   *
+   * @param tileX Tile column; the tile covers {@code [tileX, tileX + 1) * tileSize} along X.
+   * @param tileZ Tile row, likewise along Z.
+   * @param lod Level of detail, 0 being the finest.
+   * @return The tile in floor model space.
+   */
+  MeshData build(int tileX, int tileZ, int lod);
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.Matrix;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the floor tiles around the viewer resident and draws the visible ones.
+ *
+ * <p>The ground is an unbounded grid of square tiles. Every tile within {@code radius} tiles of
+ * the viewer is wanted, at a level of detail that grows by one every {@code lodRingWidth} rings.
+ * Missing tiles are built by a {@link FloorTileSource} on one low-priority background thread, at
+ * most {@link #MAX_IN_FLIGHT} at a time, and uploaded on the GL thread at most {@link
+ * #MAX_UPLOADS_PER_FRAME} per frame so a burst of arrivals never stalls a frame. Until a tile
+ * arrives at the wanted level, any other resident level of it is drawn instead. A tile whose build
+ * failed is requested again after a delay that doubles with every failure, up to {@link
+ * #MAX_RETRY_DELAY_MS}.
+ *
+ * <p>Uploaded tiles live in an LRU cache of {@code capacity} tiles; the least recently wanted tile
+ * is released when it is full, so memory stays bounded however far the viewer travels. Apart
+ * from the constructor, all methods must be called on the GL thread.
+ */
+final class FloorTileStreamer {
+
+  private static final String TAG = "FloorTileStreamer";
+
+  /** Maximum number of tiles queued or being built at once. */
+  static final int MAX_IN_FLIGHT = 4;
+
+  /** Maximum number of tiles uploaded in one {@link #update}. */
+  static final int MAX_UPLOADS_PER_FRAME = 2;
+
+  /** Delay before a failed tile is requested again, doubled after each further failure. */
+  static final long INITIAL_RETRY_DELAY_MS = 250;
+  static final long MAX_RETRY_DELAY_MS = 8000;
+
+  /** Number of independent draw lists, one per eye. */
+  static final int SLOTS = 2;
+
+  private final FloorTileSource source;
+  private final float tileSize;
+  private final int radius;
+  private final int lodRingWidth;
+  private final int maxLod;
+  private final boolean useVertexArrays;
+
+  private final ThreadPoolExecutor executor;
+  private final ConcurrentLinkedQueue<Built> built = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<Long> failed = new ConcurrentLinkedQueue<>();
+  private final Set<Long> pending = new HashSet<>();
+  // Tiles whose last build failed, and when they may be requested again.
+  private final Map<Long, Failure> failures = new HashMap<>();
+  private final int capacity;
+  private final LinkedHashMap<Long, Tile> cache;
+
+  private final float[] model = new float[16];
+  private final Tile[] wanted;
+  private int wantedCount;
+  private final Tile[][] drawLists;
+  private final int[] drawCounts = new int[SLOTS];
+
+  private int centerX = Integer.MIN_VALUE;
+  private int centerZ = Integer.MIN_VALUE;
+  // 解像度の合っていないタイルが残っている間は毎フレーム見直す
+  private boolean dirty = true;
+
+  private long tilesBuilt;
+  private long buildNanos;
+  private long evicted;
+  private long buildFailures;
+  private long residentBytes;
+  private long peakResidentBytes;
+
+  /**
+   * @param source Builds the tiles.
+   * @param tileSize Edge length of a tile, the same value {@code source} uses.
+   * @param radius Tiles wanted in each direction from the viewer's tile.
+   * @param lodRingWidth Rings of tiles per level of detail.
+   * @param maxLod Coarsest level of detail.
+   * @param capacity Tiles kept resident, at least {@code (2 * radius + 1)^2}.
+   * @param useVertexArrays Whether tiles are uploaded with vertex array objects.
+   */
+  FloorTileStreamer(FloorTileSource source, float tileSize, int radius, int lodRingWidth,
+      int maxLod, final int capacity, boolean useVertexArrays) {
+    int wantedTiles = (2 * radius + 1) * (2 * radius + 1);
+    if (capacity < wantedTiles) {
+      throw new IllegalArgumentException(
+          "Cache of " + capacity + " tiles can't hold the " + wantedTiles + " wanted tiles");
+    }
+    this.source = source;
+    this.tileSize = tileSize;
+    this.radius = radius;
+    this.lodRingWidth = Math.max(1, lodRingWidth);
+    this.maxLod = maxLod;
+    this.useVertexArrays = useVertexArrays;
+    this.capacity = capacity;
+    Matrix.setIdentityM(model, 0);
+
+    wanted = new Tile[wantedTiles];
+    drawLists = new Tile[SLOTS][wantedTiles];
+    cache = new LinkedHashMap<Long, Tile>(capacity * 4 / 3 + 1, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+        if (size() <= capacity) {
+          return false;
+        }
+        release(eldest.getValue());
+        evicted++;
+        return true;
+      }
+    };
+
+    executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "floor-tiles");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Sets the floor model matrix, which the tile bounds are tested in. */
+  void setModel(float[] model) {
+    System.arraycopy(model, 0, this.model, 0, 16);
+    for (Tile tile : cache.values()) {
+      updateBounds(tile);
+    }
+  }
+
+  /**
+   * Uploads tiles that finished building and requests the ones now wanted. Call once per frame.
+   *
+   * @param viewerX The viewer's X position in floor model space.
+   * @param viewerZ The viewer's Z position in floor model space.
+   */
+  void update(float viewerX, float viewerZ) {
+    int x = (int) Math.floor(viewerX / tileSize);
+    int z = (int) Math.floor(viewerZ / tileSize);
+    if (x != centerX || z != centerZ) {
+      centerX = x;
+      centerZ = z;
+      dirty = true;
+    }
+
+    Long key;
+    while ((key = failed.poll()) != null) {
+      onBuildFailed(key);
+    }
+
+    Built result;
+    for (int uploads = 0; uploads < MAX_UPLOADS_PER_FRAME && (result = built.poll()) != null;
+        uploads++) {
+      pending.remove(result.key);
+      failures.remove(result.key);
+      tilesBuilt++;
+      buildNanos += result.nanos;
+      Tile tile = new Tile(result.tileX, result.tileZ,
+          Mesh.upload(result.data, useVertexArrays), result.data.getCompiledBytes());
+      updateBounds(tile);
+      residentBytes += tile.bytes;
+      peakResidentBytes = Math.max(peakResidentBytes, residentBytes);
+      cache.put(result.key, tile);
+      dirty = true;
+    }
+
+    if (dirty) {
+      resolve();
+    }
+  }
+
+  /**
+   * Collects the resident tiles inside the culler's frustum into the draw list of {@code slot}.
+   *
+   * @return The number of tiles to draw.
+   */
+  int cull(FrustumCuller culler, int slot) {
+    Tile[] list = drawLists[slot];
+    int count = 0;
+    for (int i = 0; i < wantedCount; i++) {
+      if (culler.isBoxVisible(wanted[i].bounds, 0)) {
+        list[count++] = wanted[i];
+      }
+    }
+    drawCounts[slot] = count;
+    return count;
+  }
+
+  /** Draws the tiles collected by the last {@link #cull} into {@code slot}. */
+  void draw(int slot) {
+    Tile[] list = drawLists[slot];
+    for (int i = 0; i < drawCounts[slot]; i++) {
+      list[i].mesh.draw();
+    }
+  }
+
+  /** Releases every resident tile and stops the builder thread. */
+  void release() {
+    executor.shutdownNow();
+    for (Tile tile : cache.values()) {
+      release(tile);
+    }
+    abandon();
+  }
+
+  /**
+   * Stops the builder thread and forgets every tile without releasing it, for when the GL context
+   * that held the tiles is already gone.
+   */
+  void abandon() {
+    executor.shutdownNow();
+    cache.clear();
+    residentBytes = 0;
+    built.clear();
+    failed.clear();
+    pending.clear();
+    failures.clear();
+    wantedCount = 0;
+    drawCounts[0] = 0;
+    drawCounts[1] = 0;
+  }
+
+  /** Number of uploaded tiles, at most the capacity. */
+  int getResidentTiles() {
+    return cache.size();
+  }
+
+  /** Bytes of vertex and index data currently uploaded. */
+  long getResidentBytes() {
+    return residentBytes;
+  }
+
+  /** Number of tiles built and uploaded since construction. */
+  long getTilesBuilt() {
+    return tilesBuilt;
+  }
+
+  /** Average background time to build one tile, in microseconds. */
+  float getAverageBuildMicros() {
+    return tilesBuilt > 0 ? buildNanos / 1000f / tilesBuilt : 0f;
+  }
+
+  /** Summary for the log. */
+  String describe() {
+    return cache.size() + " tiles resident, " + residentBytes / 1024 + " KB (peak "
+        + peakResidentBytes / 1024 + " KB), " + tilesBuilt + " built in "
+        + getAverageBuildMicros() + " us each, " + evicted + " evicted, " + buildFailures
+        + " failed";
+  }
+
+  // Picks a resident tile for every wanted position and requests the missing levels.
+  private void resolve() {
+    boolean complete = true;
+    wantedCount = 0;
+    for (int dz = -radius; dz <= radius; dz++) {
+      for (int dx = -radius; dx <= radius; dx++) {
+        int tileX = centerX + dx;
+        int tileZ = centerZ + dz;
+        int lod = Math.min(maxLod, Math.max(Math.abs(dx), Math.abs(dz)) / lodRingWidth);
+        Tile tile = cache.get(key(tileX, tileZ, lod));
+        if (tile == null) {
+          complete = false;
+          request(tileX, tileZ, lod);
+          tile = findOtherLod(tileX, tileZ, lod);
+        }
+        if (tile != null) {
+          wanted[wantedCount++] = tile;
+        }
+      }
+    }
+    dirty = !complete;
+  }
+
+  private Tile findOtherLod(int tileX, int tileZ, int lod) {
+    for (int delta = 1; delta <= maxLod; delta++) {
+      Tile tile = lod - delta >= 0 ? cache.get(key(tileX, tileZ, lod - delta)) : null;
+      if (tile == null && lod + delta <= maxLod) {
+        tile = cache.get(key(tileX, tileZ, lod + delta));
+      }
+      if (tile != null) {
+        return tile;
+      }
+    }
+    return null;
+  }
+
+  private void request(final int tileX, final int tileZ, final int lod) {
+    final long key = key(tileX, tileZ, lod);
+    if (pending.size() >= MAX_IN_FLIGHT || pending.contains(key) || executor.isShutdown()) {
+      return;
+    }
+    Failure failure = failures.get(key);
+    if (failure != null && System.nanoTime() - failure.retryNanos < 0) {
+      return;
+    }
+    pending.add(key);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        long start = System.nanoTime();
+        MeshData data;
+        try {
+          data = source.build(tileX, tileZ, lod);
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Failed to build tile " + tileX + "," + tileZ + " lod " + lod, e);
+          failed.add(key);
+          return;
+        }
+        built.add(new Built(key, tileX, tileZ, data, System.nanoTime() - start));
+      }
+    });
+  }
+
+  // Frees the in-flight slot of a failed tile and delays its next request.
+  private void onBuildFailed(long key) {
+    pending.remove(key);
+    buildFailures++;
+    Failure failure = failures.get(key);
+    if (failure == null) {
+      if (failures.size() >= capacity) {
+        // Only tiles near the viewer matter; forget the rest rather than grow without bound.
+        failures.clear();
+      }
+      failure = new Failure();
+      failures.put(key, failure);
+    } else {
+      failure.delayMs = Math.min(failure.delayMs * 2, MAX_RETRY_DELAY_MS);
+    }
+    failure.retryNanos = System.nanoTime() + failure.delayMs * 1000000L;
+    dirty = true;
+  }
+
+  private void updateBounds(Tile tile) {
+    float[] bounds = tile.bounds;
+    bounds[0] = tile.tileX * tileSize;
+    bounds[1] = 0f;
+    bounds[2] = tile.tileZ * tileSize;
+    bounds[3] = bounds[0] + tileSize;
+    bounds[4] = 0f;
+    bounds[5] = bounds[2] + tileSize;
+    FrustumCuller.transformBoxes(model, bounds, bounds);
+  }
+
+  private void release(Tile tile) {
+    tile.mesh.release();
+    residentBytes -= tile.bytes;
+  }
+
+  private static long key(int tileX, int tileZ, int lod) {
+    return ((long) tileX << 40) ^ ((long) (tileZ & 0xFFFFFF) << 8) ^ (lod & 0xFF);
+  }
+
+  private static final class Tile {
+    final int tileX;
+    final int tileZ;
+    final Mesh mesh;
+    final int bytes;
+    final float[] bounds = new float[FrustumCuller.BOX_SIZE];
+
+    Tile(int tileX, int tileZ, Mesh mesh, int bytes) {
+      this.tileX = tileX;
+      this.tileZ = tileZ;
+      this.mesh = mesh;
+      this.bytes = bytes;
+    }
+  }
+
+  private static final class Failure {
+    long delayMs = INITIAL_RETRY_DELAY_MS;
+    long retryNanos;
+  }
+
+  private static final class Built {
+    final long key;
+    final int tileX;
+    final int tileZ;
+    final MeshData data;
+    final long nanos;
+
+    Built(long key, int tileX, int tileZ, MeshData data, long nanos) {
+      this.key = key;
+      this.tileX = tileX;
+      this.tileZ = tileZ;
+      this.data = data;
+      this.nanos = nanos;
+    }
+  }
+}
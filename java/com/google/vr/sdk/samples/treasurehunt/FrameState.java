@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Eye-invariant results computed once in {@code onNewFrame} and shared by both
+ * {@code onDrawEye} calls, plus counts of the matrix operations and the CPU time spent submitting
+ * draw calls per frame.
+ */
+final class FrameState {
+
+  /**
+   * Matrix operations per frame of the original pipeline: one setLookAtM, then per eye
+   * view/light (2), setIdentity + translate + three rotates for the cube (5), cube and floor
+   * ModelView/MVP (4) and the gaze test inside drawCube (2).
+   */
+  static final int LEGACY_MATRIX_OPS_PER_FRAME = 1 + 2 * (2 + 5 + 4 + 2);
+
+  /** Whether the user looks at the cube, decided once per frame for both eyes. */
+  volatile boolean lookingAtObject;
+
+  private int matrixOps;
+  private int lastFrameMatrixOps;
+  private long totalMatrixOps;
+  private long frames;
+
+  private long submitNanos;
+  private long totalSubmitNanos;
+
+  /** Closes the previous frame's counters. Called at the top of {@code onNewFrame}. */
+  void beginFrame() {
+    if (frames > 0) {
+      lastFrameMatrixOps = matrixOps;
+      totalMatrixOps += matrixOps;
+      totalSubmitNanos += submitNanos;
+    }
+    frames++;
+    matrixOps = 0;
+    submitNanos = 0;
+  }
+
+  /** Records {@code count} matrix multiplies, rotations or conversions. */
+  void countMatrixOps(int count) {
+    matrixOps += count;
+  }
+
+  /** Records CPU time spent issuing GL calls for the current frame. */
+  void addSubmitNanos(long nanos) {
+    submitNanos += nanos;
+  }
+
+  /** Matrix operations spent on the last complete frame. */
+  int getLastFrameMatrixOps() {
+    return lastFrameMatrixOps;
+  }
+
+  /** Average matrix operations per complete frame. */
+  float getAverageMatrixOps() {
+    return frames > 1 ? (float) totalMatrixOps / (frames - 1) : 0f;
+  }
+
+  /** Average CPU time per complete frame spent issuing GL calls, in microseconds. */
+  float getAverageSubmitMicros() {
+    return frames > 1 ? totalSubmitNanos / 1000f / (frames - 1) : 0f;
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Decides which objects can be skipped for an eye.
+ *
+ * <p>The six clip planes are extracted from the eye's view-projection matrix (Gribb/Hartmann),
+ * so bounds are tested in world space. An optional distance limit around the viewer culls
+ * anything farther away regardless of direction. Every test is counted as submitted or culled;
+ * {@link #beginFrame()} rolls the counts over. The per-frame tests do not allocate.
+ */
+final class FrustumCuller {
+
+  /** Number of floats per box: min x, y, z, then max x, y, z. */
+  static final int BOX_SIZE = 6;
+
+  // a, b, c, d per plane, in the order left, right, bottom, top, near, far.
+  private final float[] planes = new float[24];
+
+  private float eyeX;
+  private float eyeY;
+  private float eyeZ;
+  private float maxDistanceSquared = Float.POSITIVE_INFINITY;
+  private float maxDistance = Float.POSITIVE_INFINITY;
+
+  private int submitted;
+  private int culled;
+  private int lastSubmitted;
+  private int lastCulled;
+  private long totalSubmitted;
+  private long totalCulled;
+  private long frames;
+
+  /**
+   * Extracts the frustum planes of a column-major view-projection matrix.
+   *
+   * @param m The matrix, i.e. {@code perspective * view}.
+   * @param offset Offset of the matrix in {@code m}.
+   */
+  void setViewProjection(float[] m, int offset) {
+    for (int i = 0; i < 3; i++) {
+      for (int sign = 0; sign < 2; sign++) {
+        // Row 3 plus or minus row i.
+        int p = (i * 2 + sign) * 4;
+        float s = sign == 0 ? 1f : -1f;
+        for (int c = 0; c < 4; c++) {
+          planes[p + c] = m[offset + c * 4 + 3] + s * m[offset + c * 4 + i];
+        }
+        normalizePlane(p);
+      }
+    }
+  }
+
+  /** Limits visibility to {@code maxDistance} around the viewer at {@code (x, y, z)}. */
+  void setDistanceLimit(float x, float y, float z, float maxDistance) {
+    eyeX = x;
+    eyeY = y;
+    eyeZ = z;
+    this.maxDistance = maxDistance;
+    maxDistanceSquared = maxDistance * maxDistance;
+  }
+
+  /** Tests a world space bounding sphere. */
+  boolean isSphereVisible(float x, float y, float z, float radius) {
+    boolean visible = sphereInside(x, y, z, radius);
+    count(visible);
+    return visible;
+  }
+
+  /** Tests a world space axis-aligned box, laid out as described by {@link #BOX_SIZE}. */
+  boolean isBoxVisible(float[] box, int offset) {
+    boolean visible = boxInside(box, offset);
+    count(visible);
+    return visible;
+  }
+
+  /** Closes the counts of the previous frame. */
+  void beginFrame() {
+    if (submitted + culled > 0) {
+      lastSubmitted = submitted;
+      lastCulled = culled;
+      totalSubmitted += submitted;
+      totalCulled += culled;
+      frames++;
+    }
+    submitted = 0;
+    culled = 0;
+  }
+
+  int getLastFrameSubmitted() {
+    return lastSubmitted;
+  }
+
+  int getLastFrameCulled() {
+    return lastCulled;
+  }
+
+  /** Average objects drawn per frame. */
+  float getAverageSubmitted() {
+    return frames > 0 ? (float) totalSubmitted / frames : 0f;
+  }
+
+  /** Average objects skipped per frame. */
+  float getAverageCulled() {
+    return frames > 0 ? (float) totalCulled / frames : 0f;
+  }
+
+  /** The normalized planes, four floats each. Exposed for checking the extraction. */
+  float[] getPlanes() {
+    return planes;
+  }
+
+  /**
+   * Computes the bounds of consecutive groups of vertices, e.g. the two triangles of each floor
+   * tile.
+   *
+   * @param coords Positions, three floats per vertex.
+   * @param verticesPerGroup Number of vertices in a group.
+   * @return {@link #BOX_SIZE} floats per group.
+   */
+  static float[] groupBounds(float[] coords, int verticesPerGroup) {
+    int groups = coords.length / 3 / verticesPerGroup;
+    float[] boxes = new float[groups * BOX_SIZE];
+    for (int g = 0; g < groups; g++) {
+      int b = g * BOX_SIZE;
+      for (int k = 0; k < 3; k++) {
+        boxes[b + k] = Float.POSITIVE_INFINITY;
+        boxes[b + 3 + k] = Float.NEGATIVE_INFINITY;
+      }
+      for (int v = 0; v < verticesPerGroup; v++) {
+        int c = (g * verticesPerGroup + v) * 3;
+        for (int k = 0; k < 3; k++) {
+          boxes[b + k] = Math.min(boxes[b + k], coords[c + k]);
+          boxes[b + 3 + k] = Math.max(boxes[b + 3 + k], coords[c + k]);
+        }
+      }
+    }
+    return boxes;
+  }
+
+  /**
+   * Transforms boxes by an affine column-major matrix, producing the boxes enclosing the results.
+   * {@code out} may be {@code in}.
+   */
+  static void transformBoxes(float[] m, float[] in, float[] out) {
+    for (int b = 0; b < in.length; b += BOX_SIZE) {
+      float minX = in[b];
+      float minY = in[b + 1];
+      float minZ = in[b + 2];
+      float maxX = in[b + 3];
+      float maxY = in[b + 4];
+      float maxZ = in[b + 5];
+      for (int row = 0; row < 3; row++) {
+        float lo = m[12 + row];
+        float hi = lo;
+        float e = m[row];
+        lo += Math.min(e * minX, e * maxX);
+        hi += Math.max(e * minX, e * maxX);
+        e = m[4 + row];
+        lo += Math.min(e * minY, e * maxY);
+        hi += Math.max(e * minY, e * maxY);
+        e = m[8 + row];
+        lo += Math.min(e * minZ, e * maxZ);
+        hi += Math.max(e * minZ, e * maxZ);
+        out[b + row] = lo;
+        out[b + 3 + row] = hi;
+      }
+    }
+  }
+
+  private boolean sphereInside(float x, float y, float z, float radius) {
+    for (int p = 0; p < 24; p += 4) {
+      if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < -radius) {
+        return false;
+      }
+    }
+    if (maxDistance != Float.POSITIVE_INFINITY) {
+      float dx = x - eyeX;
+      float dy = y - eyeY;
+      float dz = z - eyeZ;
+      float reach = maxDistance + radius;
+      return dx * dx + dy * dy + dz * dz <= reach * reach;
+    }
+    return true;
+  }
+
+  private boolean boxInside(float[] box, int offset) {
+    for (int p = 0; p < 24; p += 4) {
+      // The corner farthest along the plane normal.
+      float x = planes[p] >= 0 ? box[offset + 3] : box[offset];
+      float y = planes[p + 1] >= 0 ? box[offset + 4] : box[offset + 1];
+      float z = planes[p + 2] >= 0 ? box[offset + 5] : box[offset + 2];
+      if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < 0) {
+        return false;
+      }
+    }
+    if (maxDistanceSquared != Float.POSITIVE_INFINITY) {
+      // Distance from the viewer to the closest point of the box.
+      float dx = Math.max(Math.max(box[offset] - eyeX, 0f), eyeX - box[offset + 3]);
+      float dy = Math.max(Math.max(box[offset + 1] - eyeY, 0f), eyeY - box[offset + 4]);
+      float dz = Math.max(Math.max(box[offset + 2] - eyeZ, 0f), eyeZ - box[offset + 5]);
+      return dx * dx + dy * dy + dz * dz <= maxDistanceSquared;
+    }
+    return true;
+  }
+
+  private void normalizePlane(int p) {
+    float len = (float) Math.sqrt(
+        planes[p] * planes[p] + planes[p + 1] * planes[p + 1] + planes[p + 2] * planes[p + 2]);
+    if (len > 0f) {
+      planes[p] /= len;
+      planes[p + 1] /= len;
+      planes[p + 2] /= len;
+      planes[p + 3] /= len;
+    }
+  }
+
+  private void count(boolean visible) {
+    if (visible) {
+      submitted++;
+    } else {
+      culled++;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+import java.util.Random;
+
+/**
+ * The gaze test and the placement of the object to find, kept apart from the activity so that
+ * they can be measured on a plain JVM.
+ *
+ * <p>{@link #isLookedAt} runs on the GL thread and {@link #relocate} on the UI thread, from the
+ * trigger callback, so each has scratch arrays of its own. Neither may be called from two threads
+ * at once.
+ */
+final class GazeTarget {
+
+  static final float YAW_LIMIT = 0.12f;
+  static final float PITCH_LIMIT = 0.12f;
+
+  // Convenience vector for extracting the position from a matrix via multiplication.
+  private static final float[] POS_MATRIX_MULTIPLY_VEC = {0, 0, 0, 1.0f};
+
+  // Scratch of isLookedAt.
+  private final float[] headModel = new float[16];
+  private final float[] position = new float[4];
+
+  // Scratch of relocate.
+  private final float[] relocatePosition = new float[4];
+  private final float[] relocateRotation = new float[16];
+
+  /**
+   * Check if user is looking at object by calculating where the object is in eye-space.
+   *
+   * @param headView The head view from {@code onNewFrame}.
+   * @param model The model matrix of the object.
+   * @return true if the user is looking at the object.
+   */
+  boolean isLookedAt(float[] headView, float[] model) {
+    // Convert object space to camera space.
+    Matrix.multiplyMM(headModel, 0, headView, 0, model, 0);
+    Matrix.multiplyMV(position, 0, headModel, 0, POS_MATRIX_MULTIPLY_VEC, 0);
+
+    float pitch = (float) Math.atan2(position[1], -position[2]);
+    float yaw = (float) Math.atan2(position[0], -position[2]);
+
+    return Math.abs(pitch) < PITCH_LIMIT && Math.abs(yaw) < YAW_LIMIT;
+  }
+
+  /**
+   * Find a new random position for the object.
+   *
+   * <p>We'll rotate it around the Y-axis so it's out of sight, and then up or down by a little
+   * bit.
+   *
+   * @param model The current model matrix of the object.
+   * @param distance The current distance of the object.
+   * @param out Receives the new position.
+   * @return The new distance.
+   */
+  float relocate(float[] model, float distance, float minDistance, float maxDistance,
+      Random random, float[] out) {
+    // First rotate in XZ plane, between 90 and 270 deg away, and scale so that we vary
+    // the object's distance from the user.
+    float angleXZ = random.nextFloat() * 180 + 90;
+    Matrix.setRotateM(relocateRotation, 0, angleXZ, 0f, 1f, 0f);
+    float newDistance = random.nextFloat() * (maxDistance - minDistance) + minDistance;
+    float scale = newDistance / distance;
+    Matrix.scaleM(relocateRotation, 0, scale, scale, scale);
+    Matrix.multiplyMV(relocatePosition, 0, relocateRotation, 0, model, 12);
+
+    float angleY = random.nextFloat() * 80 - 40; // Angle in Y plane, between -40 and 40.
+    angleY = (float) Math.toRadians(angleY);
+
+    out[0] = relocatePosition[0];
+    out[1] = (float) Math.tan(angleY) * newDistance;
+    out[2] = relocatePosition[2];
+    return newDistance;
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.nio.Buffer;
+
+/**
+ * Static entry point for every GL call made by the renderer.
+ *
+ * <p>Call sites read like the {@code GLES20} bindings ({@code Gl.glUseProgram(p)}), and the
+ * constants still come from {@code GLES20}. The calls are forwarded to the installed
+ * {@link GlBackend}, which is {@link AndroidGlBackend} unless the headless harness replaced it
+ * before the surface was created. The backend has a single implementation while rendering, so the
+ * forwarding call is monomorphic and cheap next to the JNI call behind it.
+ */
+final class Gl {
+
+  private static GlBackend backend = new AndroidGlBackend();
+
+  private Gl() {}
+
+  /** Installs the backend used by all later calls. Only call while no context is in use. */
+  static void setBackend(GlBackend newBackend) {
+    if (newBackend == null) {
+      throw new IllegalArgumentException("backend == null");
+    }
+    backend = newBackend;
+  }
+
+  static GlBackend getBackend() {
+    return backend;
+  }
+
+  static void glEnable(int cap) {
+    backend.glEnable(cap);
+  }
+
+  static void glDisable(int cap) {
+    backend.glDisable(cap);
+  }
+
+  static void glClearColor(float red, float green, float blue, float alpha) {
+    backend.glClearColor(red, green, blue, alpha);
+  }
+
+  static void glClear(int mask) {
+    backend.glClear(mask);
+  }
+
+  static int glGetError() {
+    return backend.glGetError();
+  }
+
+  static void glGetIntegerv(int pname, int[] params, int offset) {
+    backend.glGetIntegerv(pname, params, offset);
+  }
+
+  static String glGetString(int name) {
+    return backend.glGetString(name);
+  }
+
+  static int glCreateShader(int type) {
+    return backend.glCreateShader(type);
+  }
+
+  static void glShaderSource(int shader, String source) {
+    backend.glShaderSource(shader, source);
+  }
+
+  static void glCompileShader(int shader) {
+    backend.glCompileShader(shader);
+  }
+
+  static void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+    backend.glGetShaderiv(shader, pname, params, offset);
+  }
+
+  static String glGetShaderInfoLog(int shader) {
+    return backend.glGetShaderInfoLog(shader);
+  }
+
+  static void glDeleteShader(int shader) {
+    backend.glDeleteShader(shader);
+  }
+
+  static int glCreateProgram() {
+    return backend.glCreateProgram();
+  }
+
+  static void glAttachShader(int program, int shader) {
+    backend.glAttachShader(program, shader);
+  }
+
+  static void glBindAttribLocation(int program, int index, String name) {
+    backend.glBindAttribLocation(program, index, name);
+  }
+
+  static void glProgramParameteri(int program, int pname, int value) {
+    backend.glProgramParameteri(program, pname, value);
+  }
+
+  static void glLinkProgram(int program) {
+    backend.glLinkProgram(program);
+  }
+
+  static void glGetProgramiv(int program, int pname, int[] params, int offset) {
+    backend.glGetProgramiv(program, pname, params, offset);
+  }
+
+  static String glGetProgramInfoLog(int program) {
+    return backend.glGetProgramInfoLog(program);
+  }
+
+  static void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+      int[] binaryFormat, int binaryFormatOffset, Buffer binary) {
+    backend.glGetProgramBinary(
+        program, bufSize, length, lengthOffset, binaryFormat, binaryFormatOffset, binary);
+  }
+
+  static void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+    backend.glProgramBinary(program, binaryFormat, binary, length);
+  }
+
+  static void glDeleteProgram(int program) {
+    backend.glDeleteProgram(program);
+  }
+
+  static void glUseProgram(int program) {
+    backend.glUseProgram(program);
+  }
+
+  static int glGetAttribLocation(int program, String name) {
+    return backend.glGetAttribLocation(program, name);
+  }
+
+  static int glGetUniformLocation(int program, String name) {
+    return backend.glGetUniformLocation(program, name);
+  }
+
+  static void glUniform1i(int location, int x) {
+    backend.glUniform1i(location, x);
+  }
+
+  static void glUniform3fv(int location, int count, float[] v, int offset) {
+    backend.glUniform3fv(location, count, v, offset);
+  }
+
+  static void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+      int offset) {
+    backend.glUniformMatrix4fv(location, count, transpose, value, offset);
+  }
+
+  static void glGenBuffers(int n, int[] buffers, int offset) {
+    backend.glGenBuffers(n, buffers, offset);
+  }
+
+  static void glDeleteBuffers(int n, int[] buffers, int offset) {
+    backend.glDeleteBuffers(n, buffers, offset);
+  }
+
+  static void glBindBuffer(int target, int buffer) {
+    backend.glBindBuffer(target, buffer);
+  }
+
+  static void glBufferData(int target, int size, Buffer data, int usage) {
+    backend.glBufferData(target, size, data, usage);
+  }
+
+  static void glBufferSubData(int target, int offset, int size, Buffer data) {
+    backend.glBufferSubData(target, offset, size, data);
+  }
+
+  static void glGenVertexArrays(int n, int[] arrays, int offset) {
+    backend.glGenVertexArrays(n, arrays, offset);
+  }
+
+  static void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+    backend.glDeleteVertexArrays(n, arrays, offset);
+  }
+
+  static void glBindVertexArray(int array) {
+    backend.glBindVertexArray(array);
+  }
+
+  static void glEnableVertexAttribArray(int index) {
+    backend.glEnableVertexAttribArray(index);
+  }
+
+  static void glDisableVertexAttribArray(int index) {
+    backend.glDisableVertexAttribArray(index);
+  }
+
+  static void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+      int offset) {
+    backend.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+  }
+
+  static void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+      Buffer pointer) {
+    backend.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+  }
+
+  static void glVertexAttribDivisor(int index, int divisor) {
+    backend.glVertexAttribDivisor(index, divisor);
+  }
+
+  static void glVertexAttrib3fv(int index, float[] values, int offset) {
+    backend.glVertexAttrib3fv(index, values, offset);
+  }
+
+  static void glVertexAttrib4fv(int index, float[] values, int offset) {
+    backend.glVertexAttrib4fv(index, values, offset);
+  }
+
+  static void glDrawArrays(int mode, int first, int count) {
+    backend.glDrawArrays(mode, first, count);
+  }
+
+  static void glDrawElements(int mode, int count, int type, int offset) {
+    backend.glDrawElements(mode, count, type, offset);
+  }
+
+  static void glDrawElementsInstanced(int mode, int count, int type, int offset,
+      int instanceCount) {
+    backend.glDrawElementsInstanced(mode, count, type, offset, instanceCount);
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.nio.Buffer;
+
+/**
+ * The GL entry points the renderer uses, with the signatures of {@code GLES20} and {@code GLES30}.
+ *
+ * <p>All GL calls go through {@link Gl}, which forwards to one of these. On the device that is
+ * {@link AndroidGlBackend}; the headless harness installs {@code RecordingGlBackend} instead so
+ * that the renderer can run on a desktop JVM. Adding a GL call to the renderer means adding it
+ * here and to every backend.
+ */
+interface GlBackend {
+
+  // State
+
+  void glEnable(int cap);
+
+  void glDisable(int cap);
+
+  void glClearColor(float red, float green, float blue, float alpha);
+
+  void glClear(int mask);
+
+  int glGetError();
+
+  void glGetIntegerv(int pname, int[] params, int offset);
+
+  String glGetString(int name);
+
+  // Shaders and programs
+
+  int glCreateShader(int type);
+
+  void glShaderSource(int shader, String source);
+
+  void glCompileShader(int shader);
+
+  void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+  String glGetShaderInfoLog(int shader);
+
+  void glDeleteShader(int shader);
+
+  int glCreateProgram();
+
+  void glAttachShader(int program, int shader);
+
+  void glBindAttribLocation(int program, int index, String name);
+
+  void glProgramParameteri(int program, int pname, int value);
+
+  void glLinkProgram(int program);
+
+  void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+  String glGetProgramInfoLog(int program);
+
+  void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset,
+      int[] binaryFormat, int binaryFormatOffset, Buffer binary);
+
+  void glProgramBinary(int program, int binaryFormat, Buffer binary, int length);
+
+  void glDeleteProgram(int program);
+
+  void glUseProgram(int program);
+
+  int glGetAttribLocation(int program, String name);
+
+  int glGetUniformLocation(int program, String name);
+
+  void glUniform1i(int location, int x);
+
+  void glUniform3fv(int location, int count, float[] v, int offset);
+
+  void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+  // Buffers and vertex arrays
+
+  void glGenBuffers(int n, int[] buffers, int offset);
+
+  void glDeleteBuffers(int n, int[] buffers, int offset);
+
+  void glBindBuffer(int target, int buffer);
+
+  void glBufferData(int target, int size, Buffer data, int usage);
+
+  void glBufferSubData(int target, int offset, int size, Buffer data);
+
+  void glGenVertexArrays(int n, int[] arrays, int offset);
+
+  void glDeleteVertexArrays(int n, int[] arrays, int offset);
+
+  void glBindVertexArray(int array);
+
+  void glEnableVertexAttribArray(int index);
+
+  void glDisableVertexAttribArray(int index);
+
+  void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+      int offset);
+
+  void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+      Buffer pointer);
+
+  void glVertexAttribDivisor(int index, int divisor);
+
+  void glVertexAttrib3fv(int index, float[] values, int offset);
+
+  void glVertexAttrib4fv(int index, float[] values, int offset);
+
+  // Drawing
+
+  void glDrawArrays(int mode, int first, int count);
+
+  void glDrawElements(int mode, int count, int type, int offset);
+
+  void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount);
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+/**
+ * Queries about the current GL context. Call on the GL thread.
+ */
+final class GlInfo {
+
+  private GlInfo() {}
+
+  /** Whether the current context is GLES3 or newer. */
+  static boolean isGles3() {
+    String version = Gl.glGetString(GLES20.GL_VERSION);
+    // "OpenGL ES <major>.<minor> <vendor specific>"
+    return version != null
+        && version.startsWith("OpenGL ES ")
+        && version.length() > 10
+        && version.charAt(10) >= '3';
+  }
+
+  /** Identifies the driver build; anything compiled by the driver is only valid for this key. */
+  static String driverKey() {
+    return Gl.glGetString(GLES20.GL_VENDOR) + "|"
+        + Gl.glGetString(GLES20.GL_RENDERER) + "|"
+        + Gl.glGetString(GLES20.GL_VERSION);
+  }
+}
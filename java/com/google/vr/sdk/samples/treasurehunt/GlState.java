@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Shadow of the GL state the renderer touches, so that redundant calls never reach the driver.
+ *
+ * <p>The current program, the depth test, the buffer and vertex array bindings and recently set
+ * uniform values are remembered; a call that would not change anything is dropped. Every call
+ * that goes through here is counted per frame, issued or filtered, so the effect can be read off
+ * the log. {@link #checkError} only calls {@code glGetError}, which stalls the pipeline, when
+ * error checks are enabled for debug builds.
+ *
+ * <p>Like the GL context itself this is only used from the GL thread. Every GL call that changes
+ * the tracked state must go through this class, and {@link #onContextCreated()} must be called
+ * for a new context.
+ */
+final class GlState {
+
+  private static final String TAG = "GlState";
+
+  // Uniform values remembered per program and location, with round-robin replacement.
+  private static final int UNIFORM_SLOTS = 32;
+  private static final int MAX_UNIFORM_FLOATS = 16;
+
+  private static boolean errorChecks;
+
+  private static int program = -1;
+  private static int depthTest = -1;
+  private static int arrayBuffer = -1;
+  private static int elementBuffer = -1;
+  private static int vertexArray = -1;
+
+  private static final int[] uniformPrograms = new int[UNIFORM_SLOTS];
+  private static final int[] uniformLocations = new int[UNIFORM_SLOTS];
+  private static final int[] uniformLengths = new int[UNIFORM_SLOTS];
+  private static final float[] uniformValues = new float[UNIFORM_SLOTS * MAX_UNIFORM_FLOATS];
+  private static int nextUniformSlot;
+
+  private static int issued;
+  private static int filtered;
+  private static int lastFrameIssued;
+  private static int lastFrameFiltered;
+  private static long totalIssued;
+  private static long totalFiltered;
+  private static long frames;
+
+  private GlState() {}
+
+  /** Forgets all shadowed state. Call from {@code onSurfaceCreated}, i.e. for a new context. */
+  static void onContextCreated() {
+    program = -1;
+    depthTest = -1;
+    arrayBuffer = -1;
+    elementBuffer = -1;
+    vertexArray = -1;
+    for (int i = 0; i < UNIFORM_SLOTS; i++) {
+      uniformLengths[i] = 0;
+    }
+  }
+
+  /** Enables {@code glGetError} checks in {@link #checkError}; meant for debug builds only. */
+  static void setErrorChecks(boolean enabled) {
+    errorChecks = enabled;
+  }
+
+  /** Closes the previous frame's call counts. Called at the top of {@code onNewFrame}. */
+  static void beginFrame() {
+    if (issued + filtered > 0) {
+      lastFrameIssued = issued;
+      lastFrameFiltered = filtered;
+      totalIssued += issued;
+      totalFiltered += filtered;
+      frames++;
+    }
+    issued = 0;
+    filtered = 0;
+  }
+
+  /** Records GL calls made directly, e.g. draw calls, so they show up in the counts. */
+  static void count(int calls) {
+    issued += calls;
+  }
+
+  static void useProgram(int id) {
+    if (program == id) {
+      filtered++;
+      return;
+    }
+    program = id;
+    Gl.glUseProgram(id);
+    issued++;
+  }
+
+  static void setDepthTest(boolean enabled) {
+    int state = enabled ? 1 : 0;
+    if (depthTest == state) {
+      filtered++;
+      return;
+    }
+    depthTest = state;
+    if (enabled) {
+      Gl.glEnable(GLES20.GL_DEPTH_TEST);
+    } else {
+      Gl.glDisable(GLES20.GL_DEPTH_TEST);
+    }
+    issued++;
+  }
+
+  static void bindArrayBuffer(int buffer) {
+    if (arrayBuffer == buffer) {
+      filtered++;
+      return;
+    }
+    arrayBuffer = buffer;
+    Gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+    issued++;
+  }
+
+  /** Binds the element buffer, which is part of the bound vertex array's state. */
+  static void bindElementArrayBuffer(int buffer) {
+    if (elementBuffer == buffer) {
+      filtered++;
+      return;
+    }
+    elementBuffer = buffer;
+    Gl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffer);
+    issued++;
+  }
+
+  /** Binds a vertex array object. GLES3 only. */
+  static void bindVertexArray(int id) {
+    if (vertexArray == id) {
+      filtered++;
+      return;
+    }
+    vertexArray = id;
+    // The element buffer binding comes with the VAO.
+    elementBuffer = -1;
+    Gl.glBindVertexArray(id);
+    issued++;
+  }
+
+  /** Forgets a deleted buffer or vertex array, whose name may be reused. */
+  static void onDeleted(int buffer, int array) {
+    if (arrayBuffer == buffer) {
+      arrayBuffer = -1;
+    }
+    if (elementBuffer == buffer) {
+      elementBuffer = -1;
+    }
+    if (vertexArray == array) {
+      vertexArray = -1;
+    }
+  }
+
+  static void uniform1i(int location, int value) {
+    int slot = findUniform(location, 1);
+    if (slot >= 0 && uniformValues[slot * MAX_UNIFORM_FLOATS] == value) {
+      filtered++;
+      return;
+    }
+    storeUniform(slot, location, value);
+    Gl.glUniform1i(location, value);
+    issued++;
+  }
+
+  static void uniform3fv(int location, int count, float[] value, int offset) {
+    if (sameUniform(location, value, offset, count * 3)) {
+      filtered++;
+      return;
+    }
+    Gl.glUniform3fv(location, count, value, offset);
+    issued++;
+  }
+
+  static void uniformMatrix4fv(int location, int count, float[] value, int offset) {
+    if (sameUniform(location, value, offset, count * 16)) {
+      filtered++;
+      return;
+    }
+    Gl.glUniformMatrix4fv(location, count, false, value, offset);
+    issued++;
+  }
+
+  /**
+   * Throws if GL reported an error. Does nothing unless error checks are enabled, because {@code
+   * glGetError} waits for the pipeline.
+   *
+   * @param label Label to report in case of error.
+   */
+  static void checkError(String label) {
+    if (!errorChecks) {
+      return;
+    }
+    int error;
+    while ((error = Gl.glGetError()) != GLES20.GL_NO_ERROR) {
+      Log.e(TAG, label + ": glError " + error);
+      throw new RuntimeException(label + ": glError " + error);
+    }
+  }
+
+  /** GL calls issued during the last complete frame. */
+  static int getLastFrameIssued() {
+    return lastFrameIssued;
+  }
+
+  /** Redundant GL calls dropped during the last complete frame. */
+  static int getLastFrameFiltered() {
+    return lastFrameFiltered;
+  }
+
+  /** Summary of the average calls per frame for the log. */
+  static String describe() {
+    if (frames == 0) {
+      return "no frames";
+    }
+    return (float) totalIssued / frames + " issued, " + (float) totalFiltered / frames
+        + " filtered per frame";
+  }
+
+  // Compares against the remembered value and remembers the new one if it differs.
+  private static boolean sameUniform(int location, float[] value, int offset, int length) {
+    if (length > MAX_UNIFORM_FLOATS) {
+      return false;
+    }
+    int slot = findUniform(location, length);
+    if (slot >= 0) {
+      int base = slot * MAX_UNIFORM_FLOATS;
+      boolean same = true;
+      for (int i = 0; i < length; i++) {
+        if (uniformValues[base + i] != value[offset + i]) {
+          same = false;
+          uniformValues[base + i] = value[offset + i];
+        }
+      }
+      return same;
+    }
+    slot = claimUniform(location, length);
+    System.arraycopy(value, offset, uniformValues, slot * MAX_UNIFORM_FLOATS, length);
+    return false;
+  }
+
+  private static void storeUniform(int slot, int location, int value) {
+    if (slot < 0) {
+      slot = claimUniform(location, 1);
+    }
+    uniformValues[slot * MAX_UNIFORM_FLOATS] = value;
+  }
+
+  private static int findUniform(int location, int length) {
+    for (int i = 0; i < UNIFORM_SLOTS; i++) {
+      if (uniformLengths[i] == length && uniformLocations[i] == location
+          && uniformPrograms[i] == program) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int claimUniform(int location, int length) {
+    int slot = nextUniformSlot;
+    nextUniformSlot = (nextUniformSlot + 1) % UNIFORM_SLOTS;
+    uniformPrograms[slot] = program;
+    uniformLocations[slot] = location;
+    uniformLengths[slot] = length;
+    return slot;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import com.google.vr.sdk.audio.GvrAudioEngine;
+
+/** Forwards every call to a {@link GvrAudioEngine}. */
+final class GvrAudioBackend implements AudioBackend {
+
+  private final GvrAudioEngine engine;
+
+  GvrAudioBackend(GvrAudioEngine engine) {
+    this.engine = engine;
+  }
+
+  @Override
+  public boolean preloadSoundFile(String file) {
+    return engine.preloadSoundFile(file);
+  }
+
+  @Override
+  public int createSoundObject(String file) {
+    return toId(engine.createSoundObject(file));
+  }
+
+  @Override
+  public int createStereoSound(String file) {
+    return toId(engine.createStereoSound(file));
+  }
+
+  @Override
+  public void setSoundObjectPosition(int id, float x, float y, float z) {
+    engine.setSoundObjectPosition(id, x, y, z);
+  }
+
+  @Override
+  public void playSound(int id, boolean looped) {
+    engine.playSound(id, looped);
+  }
+
+  @Override
+  public void stopSound(int id) {
+    engine.stopSound(id);
+  }
+
+  @Override
+  public boolean isSourceIdValid(int id) {
+    return engine.isSourceIdValid(id);
+  }
+
+  @Override
+  public void setHeadRotation(float x, float y, float z, float w) {
+    engine.setHeadRotation(x, y, z, w);
+  }
+
+  @Override
+  public boolean update() {
+    return engine.update();
+  }
+
+  private static int toId(int engineId) {
+    return engineId == GvrAudioEngine.INVALID_ID ? INVALID_ID : engineId;
+  }
+}
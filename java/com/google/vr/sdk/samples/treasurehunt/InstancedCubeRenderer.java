@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Draws every object of a {@link CubeScene}.
+ *
+ * <p>On GLES3 the packed model matrices are streamed into one instance buffer when they change
+ * and the whole scene is a single {@code glDrawElementsInstanced}. On GLES2 it falls back to one
+ * draw per object with the regular {@code light_vertex} program, skipping objects outside the eye's
+ * frustum; the instanced path only tests the bounds of the whole rack. Must be used on the GL
+ * thread.
+ */
+final class InstancedCubeRenderer {
+
+  private final CubeScene scene;
+  private final boolean instanced;
+  private final Mesh mesh;
+  private final int program;
+
+  private int instanceBuffer;
+  private int viewParam;
+  private int projectionParam;
+  private int lightPosParam;
+
+  private int modelParam;
+  private int modelViewParam;
+  private int modelViewProjectionParam;
+  private final float[] modelView = new float[16];
+  private final float[] modelViewProjection = new float[16];
+
+  /**
+   * @param scene The objects to draw.
+   * @param cubeData The cube geometry.
+   * @param program The {@code instanced_light_vertex} program on GLES3, otherwise the {@code
+   *     light_vertex} program.
+   * @param gles3 Whether the context supports instancing, see {@link GlInfo#isGles3()}.
+   */
+  InstancedCubeRenderer(CubeScene scene, MeshData cubeData, int program, boolean gles3) {
+    this.scene = scene;
+    this.instanced = gles3;
+    this.program = program;
+    if (instanced) {
+      int[] ids = new int[1];
+      Gl.glGenBuffers(1, ids, 0);
+      instanceBuffer = ids[0];
+      GlState.bindArrayBuffer(instanceBuffer);
+      Gl.glBufferData(GLES20.GL_ARRAY_BUFFER,
+          scene.getCount() * CubeScene.FLOATS_PER_OBJECT * 4, null, GLES20.GL_DYNAMIC_DRAW);
+      mesh = Mesh.uploadInstanced(cubeData, instanceBuffer);
+
+      viewParam = Gl.glGetUniformLocation(program, "u_View");
+      projectionParam = Gl.glGetUniformLocation(program, "u_Projection");
+      lightPosParam = Gl.glGetUniformLocation(program, "u_LightPos");
+    } else {
+      mesh = Mesh.upload(cubeData, false);
+
+      modelParam = Gl.glGetUniformLocation(program, "u_Model");
+      modelViewParam = Gl.glGetUniformLocation(program, "u_MVMatrix");
+      modelViewProjectionParam = Gl.glGetUniformLocation(program, "u_MVP");
+      lightPosParam = Gl.glGetUniformLocation(program, "u_LightPos");
+    }
+  }
+
+  /**
+   * Draws the scene for one eye.
+   *
+   * @param view The eye's view matrix.
+   * @param perspective The eye's projection matrix.
+   * @param lightPosInEyeSpace The light position in the eye's space.
+   * @param culler The culler, already set up for this eye.
+   */
+  void draw(float[] view, float[] perspective, float[] lightPosInEyeSpace,
+      FrustumCuller culler) {
+    if (instanced && !culler.isBoxVisible(scene.getBounds(), 0)) {
+      return;
+    }
+    GlState.useProgram(program);
+    GlState.uniform3fv(lightPosParam, 1, lightPosInEyeSpace, 0);
+
+    if (instanced) {
+      FloatBuffer changes = scene.takeChanges();
+      if (changes != null) {
+        GlState.bindArrayBuffer(instanceBuffer);
+        Gl.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, changes.remaining() * 4, changes);
+        GlState.count(1);
+      }
+      GlState.uniformMatrix4fv(viewParam, 1, view, 0);
+      GlState.uniformMatrix4fv(projectionParam, 1, perspective, 0);
+      mesh.drawInstanced(scene.getCount());
+      return;
+    }
+
+    float[] models = scene.getModels();
+    for (int i = 0; i < scene.getCount(); i++) {
+      int offset = i * CubeScene.FLOATS_PER_OBJECT;
+      if (!culler.isSphereVisible(models[offset + 12], models[offset + 13], models[offset + 14],
+          CubeScene.OBJECT_RADIUS)) {
+        continue;
+      }
+      Matrix.multiplyMM(modelView, 0, view, 0, models, offset);
+      Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
+      GlState.uniformMatrix4fv(modelParam, 1, models, offset);
+      GlState.uniformMatrix4fv(modelViewParam, 1, modelView, 0);
+      GlState.uniformMatrix4fv(modelViewProjectionParam, 1, modelViewProjection, 0);
+      mesh.draw();
+    }
+  }
+}
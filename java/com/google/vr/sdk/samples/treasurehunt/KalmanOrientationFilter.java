@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Kalman filter on the quaternion components with a constant velocity model.
+ *
+ * <p>Each of the four components has a value and a rate, driven by white noise acceleration and
+ * observed with white measurement noise. All components share the model, so they share one 2x2
+ * covariance and the gain is computed once per sample. The state is kept in the hemisphere of
+ * the measurements and the output is normalized. Unlike the low-pass filters the velocity term
+ * lets the estimate keep up with steady turns.
+ */
+public final class KalmanOrientationFilter implements OrientationFilter {
+
+  private final float processNoise;
+  private final float measurementNoise;
+
+  private final float[] value = new float[4];
+  private final float[] rate = new float[4];
+  // Covariance of (value, rate).
+  private float p00;
+  private float p01;
+  private float p11;
+  private boolean primed;
+  private long lastTimestamp;
+
+  /**
+   * @param processNoise Spectral density of the acceleration of a component, per second cubed.
+   * @param measurementNoise Variance of a measured component.
+   */
+  public KalmanOrientationFilter(float processNoise, float measurementNoise) {
+    if (!(processNoise > 0f) || !(measurementNoise > 0f)) {
+      throw new IllegalArgumentException("Kalman noise parameters must be positive");
+    }
+    this.processNoise = processNoise;
+    this.measurementNoise = measurementNoise;
+  }
+
+  @Override
+  public void filter(long timestampNanos, float[] q, int offset) {
+    if (!primed) {
+      System.arraycopy(q, offset, value, 0, 4);
+      for (int i = 0; i < 4; i++) {
+        rate[i] = 0f;
+      }
+      p00 = measurementNoise;
+      p01 = 0f;
+      p11 = measurementNoise;
+      primed = true;
+      lastTimestamp = timestampNanos;
+      return;
+    }
+
+    // Predict.
+    float dt = (timestampNanos - lastTimestamp) * 1e-9f;
+    lastTimestamp = timestampNanos;
+    for (int i = 0; i < 4; i++) {
+      value[i] += rate[i] * dt;
+    }
+    float dt2 = dt * dt;
+    p00 += 2f * dt * p01 + dt2 * p11 + processNoise * dt2 * dt / 3f;
+    p01 += dt * p11 + processNoise * dt2 / 2f;
+    p11 += processNoise * dt;
+
+    // Update with the measurement in the same hemisphere as the state.
+    float sign = Quaternions.dot(value, 0, q, offset) < 0f ? -1f : 1f;
+    float innovationVariance = p00 + measurementNoise;
+    float k0 = p00 / innovationVariance;
+    float k1 = p01 / innovationVariance;
+    for (int i = 0; i < 4; i++) {
+      float residual = sign * q[offset + i] - value[i];
+      value[i] += k0 * residual;
+      rate[i] += k1 * residual;
+    }
+    p11 -= k1 * p01;
+    p00 *= 1f - k0;
+    p01 *= 1f - k0;
+
+    System.arraycopy(value, 0, q, offset, 4);
+    Quaternions.normalize(q, offset);
+  }
+
+  @Override
+  public void reset() {
+    primed = false;
+  }
+}
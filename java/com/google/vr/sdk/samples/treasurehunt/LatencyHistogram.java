@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size histogram of non-negative values with about 3% relative precision, in the style of
+ * HdrHistogram.
+ *
+ * <p>Values below 64 get a bucket each. Above that every power of two is split into 32 linear
+ * buckets, so a bucket is never wider than 1/32 of its values, up to {@link #MAX_VALUE}, which
+ * covers over an hour in nanoseconds; larger values are clamped. Recording is a few shifts and an
+ * atomic increment with no allocation or locking, so any number of threads may record while
+ * another reads. Reads are not a consistent snapshot, which is fine for diagnostics.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int MAX_SHIFT = 36;
+
+  /** Largest value recorded exactly to bucket precision. */
+  public static final long MAX_VALUE = (1L << (MAX_SHIFT + SUB_BITS + 1)) - 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray((MAX_SHIFT + 2) * SUB_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /** Adds {@code value}; negative values count as 0. */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    } else if (value > MAX_VALUE) {
+      value = MAX_VALUE;
+    }
+    counts.incrementAndGet(indexOf(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    long current;
+    while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      // Another thread raised the maximum, try again against its value.
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public long getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : sum.get() / n;
+  }
+
+  /**
+   * The value below which {@code percentile} percent of the recorded values fall, rounded up to
+   * the end of its bucket. 0 when nothing was recorded.
+   */
+  public long getValueAtPercentile(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= target) {
+        return Math.min(highestValueOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /** Forgets everything recorded. Values recorded concurrently may be partly kept. */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /** Count, mean, median, p99 and maximum, divided by {@code unit} for display. */
+  public String describe(long unit) {
+    return getCount() + " x, mean " + getMean() / unit + ", p50 "
+        + getValueAtPercentile(50) / unit + ", p99 " + getValueAtPercentile(99) / unit
+        + ", max " + getMax() / unit;
+  }
+
+  static int indexOf(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  static long highestValueOf(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+    return ((sub + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.GLES20;
+
+/**
+ * Static indexed geometry uploaded once into vertex and index buffer objects.
+ *
+ * <p>The data comes from {@link MeshData}: positions plus whichever of normal and color vary per
+ * vertex, interleaved, with the others supplied as constant attribute values. Programs drawing a
+ * mesh must bind their attributes to {@link #ATTRIB_POSITION}, {@link #ATTRIB_NORMAL} and
+ * {@link #ATTRIB_COLOR} before linking, so every program shares the same layout. On GLES3 the
+ * layout is captured in a vertex array object and a draw is one bind; on GLES2 the buffers are
+ * bound and the pointers are set when a different mesh is drawn, and arrays are only toggled when
+ * the layout changes. Bindings go through {@link GlState}.
+ * GLES3 meshes may also carry a per-instance model matrix at {@link #ATTRIB_INSTANCE_MODEL}.
+ */
+final class Mesh {
+
+  static final int ATTRIB_POSITION = 0;
+  static final int ATTRIB_NORMAL = 1;
+  static final int ATTRIB_COLOR = 2;
+  /** First of the four consecutive locations taken by a per-instance {@code mat4}. */
+  static final int ATTRIB_INSTANCE_MODEL = 3;
+
+  static final int POSITION_SIZE = 3;
+  static final int NORMAL_SIZE = 3;
+  static final int COLOR_SIZE = 4;
+
+  private static final int BYTES_PER_FLOAT = 4;
+
+  // Vertex attribute arrays enabled outside of any VAO, as a MeshData layout.
+  private static int enabledLayout = -1;
+  // GLES2 mesh whose pointers are currently set, and the constant attribute values last set.
+  private static Mesh pointersFor;
+  private static float[] currentNormal;
+  private static float[] currentColor;
+
+  private final MeshData data;
+  private final boolean useVertexArray;
+  private int vertexBuffer;
+  private int indexBuffer;
+  private int vertexArray;
+
+  private Mesh(MeshData data, boolean useVertexArray) {
+    this.data = data;
+    this.useVertexArray = useVertexArray;
+  }
+
+  /** Forgets the cached array state. Call from {@code onSurfaceCreated}, i.e. for a new context. */
+  static void onContextCreated() {
+    enabledLayout = -1;
+    pointersFor = null;
+    currentNormal = null;
+    currentColor = null;
+  }
+
+  /**
+   * Uploads compiled mesh data. Call on the GL thread.
+   *
+   * @param data The compiled mesh.
+   * @param useVertexArray Whether to record the layout in a VAO, see {@link GlInfo#isGles3()}.
+   */
+  static Mesh upload(MeshData data, boolean useVertexArray) {
+    Mesh mesh = create(data, useVertexArray);
+    if (useVertexArray) {
+      GlState.bindVertexArray(0);
+    }
+    return mesh;
+  }
+
+  /**
+   * Uploads compiled mesh data into a VAO that also sources a per-instance model matrix from
+   * {@code instanceBuffer}, one {@code mat4} per instance. GLES3 only. Call on the GL thread.
+   */
+  static Mesh uploadInstanced(MeshData data, int instanceBuffer) {
+    Mesh mesh = create(data, true);
+    GlState.bindArrayBuffer(instanceBuffer);
+    int stride = 16 * BYTES_PER_FLOAT;
+    for (int column = 0; column < 4; column++) {
+      int attrib = ATTRIB_INSTANCE_MODEL + column;
+      Gl.glVertexAttribPointer(
+          attrib, 4, GLES20.GL_FLOAT, false, stride, column * 4 * BYTES_PER_FLOAT);
+      Gl.glVertexAttribDivisor(attrib, 1);
+      Gl.glEnableVertexAttribArray(attrib);
+    }
+    GlState.bindVertexArray(0);
+    return mesh;
+  }
+
+  // Leaves the new VAO bound, if any, so callers can add to it.
+  private static Mesh create(MeshData data, boolean useVertexArray) {
+    Mesh mesh = new Mesh(data, useVertexArray);
+    int[] ids = new int[2];
+
+    if (useVertexArray) {
+      Gl.glGenVertexArrays(1, ids, 0);
+      mesh.vertexArray = ids[0];
+      // The element buffer binding is part of the VAO, so bind it first.
+      GlState.bindVertexArray(mesh.vertexArray);
+    }
+
+    Gl.glGenBuffers(2, ids, 0);
+    mesh.vertexBuffer = ids[0];
+    mesh.indexBuffer = ids[1];
+    GlState.bindArrayBuffer(mesh.vertexBuffer);
+    Gl.glBufferData(GLES20.GL_ARRAY_BUFFER, data.vertices.remaining() * BYTES_PER_FLOAT,
+        data.vertices, GLES20.GL_STATIC_DRAW);
+    GlState.bindElementArrayBuffer(mesh.indexBuffer);
+    Gl.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, data.indices.remaining() * 2,
+        data.indices, GLES20.GL_STATIC_DRAW);
+
+    if (useVertexArray) {
+      mesh.setPointers();
+      applyLayout(data.layout, -1);
+    }
+    return mesh;
+  }
+
+  /** Binds the three attributes of a program to the shared locations. Call before linking. */
+  static void bindAttribLocations(int program) {
+    Gl.glBindAttribLocation(program, ATTRIB_POSITION, "a_Position");
+    Gl.glBindAttribLocation(program, ATTRIB_NORMAL, "a_Normal");
+    Gl.glBindAttribLocation(program, ATTRIB_COLOR, "a_Color");
+  }
+
+  /** Draws the whole mesh as triangles with the current program. */
+  void draw() {
+    bind();
+    Gl.glDrawElements(GLES20.GL_TRIANGLES, data.indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+    GlState.count(1);
+  }
+
+  /**
+   * Draws part of the index list, e.g. the visible tiles of the floor.
+   *
+   * @param firstIndex The first index to draw.
+   * @param indexCount The number of indices, a multiple of three.
+   */
+  void drawRange(int firstIndex, int indexCount) {
+    bind();
+    Gl.glDrawElements(
+        GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, firstIndex * 2);
+    GlState.count(1);
+  }
+
+  /** Draws {@code instances} copies of a mesh created by {@link #uploadInstanced}. */
+  void drawInstanced(int instances) {
+    bind();
+    Gl.glDrawElementsInstanced(
+        GLES20.GL_TRIANGLES, data.indexCount, GLES20.GL_UNSIGNED_SHORT, 0, instances);
+    GlState.count(1);
+  }
+
+  private void bind() {
+    if (useVertexArray) {
+      GlState.bindVertexArray(vertexArray);
+    } else {
+      GlState.bindElementArrayBuffer(indexBuffer);
+      if (pointersFor != this) {
+        GlState.bindArrayBuffer(vertexBuffer);
+        setPointers();
+        pointersFor = this;
+      }
+      if (enabledLayout != data.layout) {
+        applyLayout(data.layout, enabledLayout);
+        enabledLayout = data.layout;
+      }
+    }
+    // Current attribute values are context state, not VAO state. They are undefined after a draw
+    // that sourced the attribute from an array, so only skip them while no array was used.
+    if ((data.layout & MeshData.HAS_NORMALS) == 0) {
+      if (currentNormal != data.constantNormal) {
+        Gl.glVertexAttrib3fv(ATTRIB_NORMAL, data.constantNormal, 0);
+        currentNormal = data.constantNormal;
+        GlState.count(1);
+      }
+    } else {
+      currentNormal = null;
+    }
+    if ((data.layout & MeshData.HAS_COLORS) == 0) {
+      if (currentColor != data.constantColor) {
+        Gl.glVertexAttrib4fv(ATTRIB_COLOR, data.constantColor, 0);
+        currentColor = data.constantColor;
+        GlState.count(1);
+      }
+    } else {
+      currentColor = null;
+    }
+    // Left bound: every draw binds what it needs, so unbinding would only add calls.
+  }
+
+  MeshData getData() {
+    return data;
+  }
+
+  /** Frees the GL objects. Call on the GL thread while the context is alive. */
+  void release() {
+    int[] ids = new int[] {vertexBuffer, indexBuffer};
+    Gl.glDeleteBuffers(2, ids, 0);
+    if (useVertexArray) {
+      ids[0] = vertexArray;
+      Gl.glDeleteVertexArrays(1, ids, 0);
+    }
+    GlState.onDeleted(vertexBuffer, vertexArray);
+    GlState.onDeleted(indexBuffer, vertexArray);
+    if (pointersFor == this) {
+      pointersFor = null;
+    }
+    vertexBuffer = 0;
+    indexBuffer = 0;
+    vertexArray = 0;
+  }
+
+  private void setPointers() {
+    int stride = data.floatsPerVertex * BYTES_PER_FLOAT;
+    int offset = 0;
+    Gl.glVertexAttribPointer(
+        ATTRIB_POSITION, POSITION_SIZE, GLES20.GL_FLOAT, false, stride, offset);
+    offset += POSITION_SIZE * BYTES_PER_FLOAT;
+    if ((data.layout & MeshData.HAS_NORMALS) != 0) {
+      Gl.glVertexAttribPointer(
+          ATTRIB_NORMAL, NORMAL_SIZE, GLES20.GL_FLOAT, false, stride, offset);
+      offset += NORMAL_SIZE * BYTES_PER_FLOAT;
+    }
+    if ((data.layout & MeshData.HAS_COLORS) != 0) {
+      Gl.glVertexAttribPointer(
+          ATTRIB_COLOR, COLOR_SIZE, GLES20.GL_FLOAT, false, stride, offset);
+    }
+  }
+
+  /**
+   * Enables the arrays used by {@code layout} and disables the others.
+   *
+   * @param previous The layout currently enabled, or -1 if unknown.
+   */
+  private static void applyLayout(int layout, int previous) {
+    if (previous < 0) {
+      // Position is always an array.
+      Gl.glEnableVertexAttribArray(ATTRIB_POSITION);
+    }
+    applyArray(ATTRIB_NORMAL, MeshData.HAS_NORMALS, layout, previous);
+    applyArray(ATTRIB_COLOR, MeshData.HAS_COLORS, layout, previous);
+  }
+
+  private static void applyArray(int attrib, int flag, int layout, int previous) {
+    if (previous >= 0 && ((layout ^ previous) & flag) == 0) {
+      return;
+    }
+    if ((layout & flag) != 0) {
+      Gl.glEnableVertexAttribArray(attrib);
+    } else {
+      Gl.glDisableVertexAttribArray(attrib);
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Indexed, interleaved vertex data ready for upload by {@link Mesh}.
+ *
+ * <p>{@link #compile} takes the flat per-vertex arrays of {@link WorldLayoutData} and folds every
+ * attribute that has the same value on all vertices into a constant, which {@link Mesh} feeds
+ * through {@code glVertexAttrib} instead of a vertex array. The remaining attributes are
+ * interleaved, identical vertices are merged and triangles are described by {@code short}
+ * indices. Compiling doesn't touch GL, so it may run on any thread.
+ */
+final class MeshData {
+
+  static final int HAS_NORMALS = 1;
+  static final int HAS_COLORS = 2;
+
+  private static final int MAX_VERTICES = 1 << 16;
+
+  /** Combination of {@link #HAS_NORMALS} and {@link #HAS_COLORS}; positions are always present. */
+  final int layout;
+  /** Normal for all vertices if {@link #HAS_NORMALS} isn't set. */
+  final float[] constantNormal = new float[Mesh.NORMAL_SIZE];
+  /** Color for all vertices if {@link #HAS_COLORS} isn't set. */
+  final float[] constantColor = new float[Mesh.COLOR_SIZE];
+
+  final int floatsPerVertex;
+  final int vertexCount;
+  final int indexCount;
+  final FloatBuffer vertices;
+  final ShortBuffer indices;
+
+  /** Size of the arrays the mesh was compiled from. */
+  final int sourceBytes;
+
+  private MeshData(int layout, int vertexCount, float[] vertexData, short[] indexData,
+      int sourceBytes) {
+    this.layout = layout;
+    this.floatsPerVertex = floatsPerVertex(layout);
+    this.vertexCount = vertexCount;
+    this.indexCount = indexData.length;
+    this.sourceBytes = sourceBytes;
+
+    vertices = ByteBuffer.allocateDirect(vertexCount * floatsPerVertex * 4)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+    vertices.put(vertexData, 0, vertexCount * floatsPerVertex);
+    vertices.position(0);
+
+    indices = ByteBuffer.allocateDirect(indexData.length * 2)
+        .order(ByteOrder.nativeOrder())
+        .asShortBuffer();
+    indices.put(indexData);
+    indices.position(0);
+  }
+
+  /**
+   * Compiles a triangle list given as separate position (3), normal (3) and color (4) arrays.
+   *
+   * @throws IllegalArgumentException If the arrays disagree on the vertex count or the mesh has
+   *     more unique vertices than a {@code short} index can address.
+   */
+  static MeshData compile(float[] positions, float[] normals, float[] colors) {
+    int count = positions.length / Mesh.POSITION_SIZE;
+    if (normals.length != count * Mesh.NORMAL_SIZE || colors.length != count * Mesh.COLOR_SIZE) {
+      throw new IllegalArgumentException("Attribute arrays have different vertex counts");
+    }
+
+    int layout = 0;
+    if (!isConstant(normals, Mesh.NORMAL_SIZE)) {
+      layout |= HAS_NORMALS;
+    }
+    if (!isConstant(colors, Mesh.COLOR_SIZE)) {
+      layout |= HAS_COLORS;
+    }
+    int stride = floatsPerVertex(layout);
+
+    // Build each vertex in the compiled layout, then merge duplicates through a hash table of
+    // indices into the unique vertex array.
+    float[] unique = new float[count * stride];
+    short[] indexData = new short[count];
+    int[] table = new int[Integer.highestOneBit(Math.max(count, 1) * 2) * 2];
+    Arrays.fill(table, -1);
+    float[] vertex = new float[stride];
+    int uniqueCount = 0;
+
+    for (int i = 0; i < count; i++) {
+      int n = 0;
+      for (int k = 0; k < Mesh.POSITION_SIZE; k++) {
+        vertex[n++] = positions[i * Mesh.POSITION_SIZE + k];
+      }
+      if ((layout & HAS_NORMALS) != 0) {
+        for (int k = 0; k < Mesh.NORMAL_SIZE; k++) {
+          vertex[n++] = normals[i * Mesh.NORMAL_SIZE + k];
+        }
+      }
+      if ((layout & HAS_COLORS) != 0) {
+        for (int k = 0; k < Mesh.COLOR_SIZE; k++) {
+          vertex[n++] = colors[i * Mesh.COLOR_SIZE + k];
+        }
+      }
+
+      int slot = hash(vertex) & (table.length - 1);
+      int index;
+      while (true) {
+        index = table[slot];
+        if (index < 0) {
+          if (uniqueCount == MAX_VERTICES) {
+            throw new IllegalArgumentException("Too many unique vertices for short indices");
+          }
+          index = uniqueCount++;
+          System.arraycopy(vertex, 0, unique, index * stride, stride);
+          table[slot] = index;
+          break;
+        }
+        if (equals(unique, index * stride, vertex, stride)) {
+          break;
+        }
+        slot = (slot + 1) & (table.length - 1);
+      }
+      indexData[i] = (short) index;
+    }
+
+    MeshData mesh = new MeshData(layout, uniqueCount, unique, indexData, (positions.length
+        + normals.length + colors.length) * 4);
+    System.arraycopy(normals, 0, mesh.constantNormal, 0, Mesh.NORMAL_SIZE);
+    System.arraycopy(colors, 0, mesh.constantColor, 0, Mesh.COLOR_SIZE);
+    return mesh;
+  }
+
+  static int floatsPerVertex(int layout) {
+    return Mesh.POSITION_SIZE
+        + ((layout & HAS_NORMALS) != 0 ? Mesh.NORMAL_SIZE : 0)
+        + ((layout & HAS_COLORS) != 0 ? Mesh.COLOR_SIZE : 0);
+  }
+
+  /** Bytes held in GPU buffers once uploaded. */
+  int getCompiledBytes() {
+    return vertexCount * floatsPerVertex * 4 + indexCount * 2;
+  }
+
+  /** One line summary for the log. */
+  String describe() {
+    return vertexCount + " vertices, " + indexCount + " indices, " + getCompiledBytes()
+        + " bytes (was " + sourceBytes + ")";
+  }
+
+  private static boolean isConstant(float[] values, int size) {
+    for (int i = size; i < values.length; i++) {
+      if (values[i] != values[i % size]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hash(float[] vertex) {
+    int h = 0;
+    for (float v : vertex) {
+      h = 31 * h + Float.floatToIntBits(v);
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean equals(float[] data, int offset, float[] vertex, int stride) {
+    for (int k = 0; k < stride; k++) {
+      if (data[offset + k] != vertex[k]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * The One Euro filter (Casiez et al., CHI 2012) applied to rotations.
+ *
+ * <p>A low-pass filter whose cutoff rises with the angular speed: slow movements are smoothed
+ * heavily, which hides noise while the cube is held still, and fast ones barely at all, which
+ * keeps lag low when it is turned. The speed is measured as the angle between the new sample and
+ * the previous output.
+ */
+public final class OneEuroOrientationFilter implements OrientationFilter {
+
+  // Samples with identical timestamps are treated as this far apart.
+  private static final float MIN_INTERVAL_SECONDS = 1e-3f;
+
+  private final float minCutoff;
+  private final float beta;
+  private final float speedCutoff;
+  private final float[] state = new float[4];
+  private boolean primed;
+  private long lastTimestamp;
+  private float speed;
+
+  /**
+   * @param minCutoff Cutoff frequency at rest in Hz; lower is smoother.
+   * @param beta Cutoff increase per radian per second of speed; higher is less laggy.
+   * @param speedCutoff Cutoff frequency in Hz of the speed estimate itself.
+   */
+  public OneEuroOrientationFilter(float minCutoff, float beta, float speedCutoff) {
+    if (!(minCutoff > 0f) || !(speedCutoff > 0f) || beta < 0f) {
+      throw new IllegalArgumentException("Bad One Euro parameters");
+    }
+    this.minCutoff = minCutoff;
+    this.beta = beta;
+    this.speedCutoff = speedCutoff;
+  }
+
+  @Override
+  public void filter(long timestampNanos, float[] q, int offset) {
+    if (!primed) {
+      System.arraycopy(q, offset, state, 0, 4);
+      primed = true;
+      speed = 0f;
+    } else {
+      float dt = Math.max(MIN_INTERVAL_SECONDS, (timestampNanos - lastTimestamp) * 1e-9f);
+      float cos = Math.min(1f, Math.abs(Quaternions.dot(state, 0, q, offset)));
+      float rawSpeed = 2f * (float) Math.acos(cos) / dt;
+      speed += alpha(speedCutoff, dt) * (rawSpeed - speed);
+      Quaternions.slerp(state, 0, state, 0, q, offset, alpha(minCutoff + beta * speed, dt));
+    }
+    lastTimestamp = timestampNanos;
+    System.arraycopy(state, 0, q, offset, 4);
+  }
+
+  @Override
+  public void reset() {
+    primed = false;
+  }
+
+  private static float alpha(float cutoff, float dt) {
+    float tau = 1f / (2f * (float) Math.PI * cutoff);
+    return 1f / (1f + tau / dt);
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * One stage of the filtering between the sensor and the renderer.
+ *
+ * <p>Filters see every sample, as a unit quaternion with its estimated sample time, on the reader
+ * thread. Implementations must not allocate and must run in constant time per sample.
+ */
+public interface OrientationFilter {
+
+  /**
+   * Filters a sample in place.
+   *
+   * @param timestampNanos Sample time, not decreasing between calls.
+   * @param q The sample quaternion at {@code offset}; replaced by the filtered one.
+   */
+  void filter(long timestampNanos, float[] q, int offset);
+
+  /** Forgets the history, e.g. after reconnecting. */
+  void reset();
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Runs samples through several filters in order, and creates chains from a short text spec so
+ * they can be picked with an intent extra, e.g. {@code --es sensor_filter euro:1,0.5}.
+ *
+ * <ul>
+ *   <li>{@code exp:SECONDS}, see {@link ExponentialOrientationFilter}
+ *   <li>{@code euro:MINCUTOFF,BETA[,SPEEDCUTOFF]}, SPEEDCUTOFF defaults to 1 Hz, see {@link
+ *       OneEuroOrientationFilter}
+ *   <li>{@code kalman:PROCESS,MEASUREMENT}, see {@link KalmanOrientationFilter}
+ * </ul>
+ */
+public final class OrientationFilterChain implements OrientationFilter {
+
+  private final OrientationFilter[] filters;
+
+  public OrientationFilterChain(OrientationFilter... filters) {
+    this.filters = filters.clone();
+  }
+
+  /**
+   * Parses a chain of filters separated by {@code '+'}.
+   *
+   * @param spec The spec, see the class comment.
+   * @throws IllegalArgumentException If the spec is malformed.
+   */
+  public static OrientationFilterChain fromSpec(String spec) {
+    String[] stages = spec.split("\\+");
+    OrientationFilter[] filters = new OrientationFilter[stages.length];
+    for (int i = 0; i < stages.length; i++) {
+      filters[i] = parseStage(stages[i].trim());
+    }
+    return new OrientationFilterChain(filters);
+  }
+
+  @Override
+  public void filter(long timestampNanos, float[] q, int offset) {
+    for (OrientationFilter filter : filters) {
+      filter.filter(timestampNanos, q, offset);
+    }
+  }
+
+  @Override
+  public void reset() {
+    for (OrientationFilter filter : filters) {
+      filter.reset();
+    }
+  }
+
+  private static OrientationFilter parseStage(String stage) {
+    int colon = stage.indexOf(':');
+    if (colon < 0) {
+      throw new IllegalArgumentException("Bad orientation filter: " + stage);
+    }
+    String name = stage.substring(0, colon);
+    String[] args = stage.substring(colon + 1).split(",");
+    try {
+      if (name.equals("exp") && args.length == 1) {
+        return new ExponentialOrientationFilter(Float.parseFloat(args[0]));
+      } else if (name.equals("euro") && (args.length == 2 || args.length == 3)) {
+        return new OneEuroOrientationFilter(Float.parseFloat(args[0]), Float.parseFloat(args[1]),
+            args.length == 3 ? Float.parseFloat(args[2]) : 1f);
+      } else if (name.equals("kalman") && args.length == 2) {
+        return new KalmanOrientationFilter(Float.parseFloat(args[0]), Float.parseFloat(args[1]));
+      }
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Bad orientation filter: " + stage, e);
+    }
+    throw new IllegalArgumentException("Unknown orientation filter: " + stage);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame and sensor pipeline timings, recorded on the hot paths and read on demand.
+ *
+ * <p>Everything is a {@link LatencyHistogram} or an atomic counter, so recording costs tens of
+ * nanoseconds without locks or allocation, and the GL thread, the sensor reader threads and the
+ * thread dumping the numbers never wait for each other. Durations are in nanoseconds.
+ *
+ * <p>A frame counts as dropped when {@code onNewFrame} comes more than one and a half display
+ * periods after the previous one; each missed period is counted. The sensor-to-photon latency is
+ * an estimate: the age of the sensor time shown by a frame when that frame is expected on screen,
+ * one display period after {@code onNewFrame}. It does not include the time the sensor needed to
+ * deliver the sample.
+ */
+public final class PipelineMetrics {
+
+  private static final long DEFAULT_FRAME_PERIOD_NANOS = 1000000000L / 60;
+
+  private final LatencyHistogram newFrameNanos = new LatencyHistogram();
+  private final LatencyHistogram drawEyeNanos = new LatencyHistogram();
+  private final LatencyHistogram frameIntervalNanos = new LatencyHistogram();
+  private final LatencyHistogram sensorReadBytes = new LatencyHistogram();
+  private final LatencyHistogram sensorParseNanos = new LatencyHistogram();
+  private final LatencyHistogram sensorToPhotonNanos = new LatencyHistogram();
+  private final AtomicLong droppedFrames = new AtomicLong();
+
+  private volatile long framePeriodNanos = DEFAULT_FRAME_PERIOD_NANOS;
+
+  // GL thread only.
+  private long lastFrameNanos;
+
+  /** The display refresh period, used to detect dropped frames. */
+  public void setFramePeriodNanos(long nanos) {
+    framePeriodNanos = nanos;
+  }
+
+  public long getFramePeriodNanos() {
+    return framePeriodNanos;
+  }
+
+  /** Called at the top of {@code onNewFrame}. GL thread. */
+  public void onFrameStart(long nowNanos) {
+    if (lastFrameNanos != 0) {
+      long interval = nowNanos - lastFrameNanos;
+      frameIntervalNanos.record(interval);
+      long period = framePeriodNanos;
+      if (2 * interval > 3 * period) {
+        droppedFrames.addAndGet((interval + period / 2) / period - 1);
+      }
+    }
+    lastFrameNanos = nowNanos;
+  }
+
+  public void recordNewFrame(long nanos) {
+    newFrameNanos.record(nanos);
+  }
+
+  public void recordDrawEye(long nanos) {
+    drawEyeNanos.record(nanos);
+  }
+
+  /** One read from a sensor link and the time spent decoding it. Reader threads. */
+  public void recordSensorRead(int bytes, long parseNanos) {
+    sensorReadBytes.record(bytes);
+    sensorParseNanos.record(parseNanos);
+  }
+
+  public void recordSensorToPhoton(long nanos) {
+    sensorToPhotonNanos.record(nanos);
+  }
+
+  public long getDroppedFrames() {
+    return droppedFrames.get();
+  }
+
+  public LatencyHistogram getNewFrameNanos() {
+    return newFrameNanos;
+  }
+
+  public LatencyHistogram getDrawEyeNanos() {
+    return drawEyeNanos;
+  }
+
+  public LatencyHistogram getFrameIntervalNanos() {
+    return frameIntervalNanos;
+  }
+
+  public LatencyHistogram getSensorReadBytes() {
+    return sensorReadBytes;
+  }
+
+  public LatencyHistogram getSensorParseNanos() {
+    return sensorParseNanos;
+  }
+
+  public LatencyHistogram getSensorToPhotonNanos() {
+    return sensorToPhotonNanos;
+  }
+
+  /** Starts all numbers over. */
+  public void reset() {
+    newFrameNanos.reset();
+    drawEyeNanos.reset();
+    frameIntervalNanos.reset();
+    sensorReadBytes.reset();
+    sensorParseNanos.reset();
+    sensorToPhotonNanos.reset();
+    droppedFrames.set(0);
+  }
+
+  /** Writes one line per metric. */
+  public void dump(String prefix, PrintWriter writer) {
+    writer.println(prefix + "onNewFrame us: " + newFrameNanos.describe(1000));
+    writer.println(prefix + "onDrawEye us: " + drawEyeNanos.describe(1000));
+    writer.println(prefix + "frame interval us: " + frameIntervalNanos.describe(1000));
+    writer.println(prefix + "dropped frames: " + droppedFrames.get() + " (period "
+        + framePeriodNanos / 1000 + " us)");
+    writer.println(prefix + "sensor read bytes: " + sensorReadBytes.describe(1));
+    writer.println(prefix + "sensor parse ns: " + sensorParseNanos.describe(1));
+    writer.println(prefix + "sensor to photon us: " + sensorToPhotonNanos.describe(1000));
+  }
+}
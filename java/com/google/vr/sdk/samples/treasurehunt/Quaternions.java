@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Quaternion helpers in the style of {@link android.opengl.Matrix}: quaternions are stored as
+ * {@code (x, y, z, w)} in a float array at a given offset, and no method allocates.
+ */
+public final class Quaternions {
+
+  private static final float DEG_TO_HALF_RAD = (float) (Math.PI / 360.0);
+
+  // Below this angle between the inputs slerp is numerically no better than nlerp.
+  private static final float SLERP_THRESHOLD = 0.9995f;
+
+  private Quaternions() {}
+
+  /** Sets {@code q} to the identity rotation. */
+  public static void setIdentity(float[] q, int qOffset) {
+    q[qOffset] = 0f;
+    q[qOffset + 1] = 0f;
+    q[qOffset + 2] = 0f;
+    q[qOffset + 3] = 1f;
+  }
+
+  /**
+   * Sets {@code q} to a rotation about X, then Y, then Z, applied in that order to the model,
+   * i.e. the same result as {@code Matrix.rotateM} about X, Y and Z on an identity matrix.
+   *
+   * @param q The result.
+   * @param qOffset Offset into {@code q}.
+   * @param ax Angle around the X axis in degrees.
+   * @param ay Angle around the Y axis in degrees.
+   * @param az Angle around the Z axis in degrees.
+   */
+  public static void setFromEulerXyz(float[] q, int qOffset, float ax, float ay, float az) {
+    float hx = ax * DEG_TO_HALF_RAD;
+    float hy = ay * DEG_TO_HALF_RAD;
+    float hz = az * DEG_TO_HALF_RAD;
+    float sx = (float) Math.sin(hx);
+    float cx = (float) Math.cos(hx);
+    float sy = (float) Math.sin(hy);
+    float cy = (float) Math.cos(hy);
+    float sz = (float) Math.sin(hz);
+    float cz = (float) Math.cos(hz);
+
+    // qX * qY * qZ expanded.
+    q[qOffset] = sx * cy * cz + cx * sy * sz;
+    q[qOffset + 1] = cx * sy * cz - sx * cy * sz;
+    q[qOffset + 2] = cx * cy * sz + sx * sy * cz;
+    q[qOffset + 3] = cx * cy * cz - sx * sy * sz;
+  }
+
+  /** Sets {@code result} to {@code lhs * rhs}. {@code result} may alias either input. */
+  public static void multiply(
+      float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+    float ax = lhs[lhsOffset];
+    float ay = lhs[lhsOffset + 1];
+    float az = lhs[lhsOffset + 2];
+    float aw = lhs[lhsOffset + 3];
+    float bx = rhs[rhsOffset];
+    float by = rhs[rhsOffset + 1];
+    float bz = rhs[rhsOffset + 2];
+    float bw = rhs[rhsOffset + 3];
+    result[resultOffset] = aw * bx + ax * bw + ay * bz - az * by;
+    result[resultOffset + 1] = aw * by - ax * bz + ay * bw + az * bx;
+    result[resultOffset + 2] = aw * bz + ax * by - ay * bx + az * bw;
+    result[resultOffset + 3] = aw * bw - ax * bx - ay * by - az * bz;
+  }
+
+  /** Scales {@code q} to unit length. */
+  public static void normalize(float[] q, int qOffset) {
+    float x = q[qOffset];
+    float y = q[qOffset + 1];
+    float z = q[qOffset + 2];
+    float w = q[qOffset + 3];
+    float len = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+    if (len == 0f) {
+      setIdentity(q, qOffset);
+      return;
+    }
+    float inv = 1f / len;
+    q[qOffset] = x * inv;
+    q[qOffset + 1] = y * inv;
+    q[qOffset + 2] = z * inv;
+    q[qOffset + 3] = w * inv;
+  }
+
+  /**
+   * Normalized linear interpolation along the shorter arc. Cheap, and close enough to slerp for
+   * the small steps between consecutive sensor samples.
+   */
+  public static void nlerp(
+      float[] result, int resultOffset, float[] from, int fromOffset, float[] to, int toOffset,
+      float t) {
+    float sign = dot(from, fromOffset, to, toOffset) < 0f ? -1f : 1f;
+    float s = 1f - t;
+    float u = t * sign;
+    result[resultOffset] = s * from[fromOffset] + u * to[toOffset];
+    result[resultOffset + 1] = s * from[fromOffset + 1] + u * to[toOffset + 1];
+    result[resultOffset + 2] = s * from[fromOffset + 2] + u * to[toOffset + 2];
+    result[resultOffset + 3] = s * from[fromOffset + 3] + u * to[toOffset + 3];
+    normalize(result, resultOffset);
+  }
+
+  /** Spherical linear interpolation along the shorter arc. {@code result} may alias an input. */
+  public static void slerp(
+      float[] result, int resultOffset, float[] from, int fromOffset, float[] to, int toOffset,
+      float t) {
+    float cos = dot(from, fromOffset, to, toOffset);
+    float sign = 1f;
+    if (cos < 0f) {
+      cos = -cos;
+      sign = -1f;
+    }
+    if (cos > SLERP_THRESHOLD) {
+      nlerp(result, resultOffset, from, fromOffset, to, toOffset, t);
+      return;
+    }
+    double theta = Math.acos(cos);
+    double sin = Math.sin(theta);
+    float s = (float) (Math.sin((1.0 - t) * theta) / sin);
+    float u = (float) (Math.sin(t * theta) / sin) * sign;
+    float x = s * from[fromOffset] + u * to[toOffset];
+    float y = s * from[fromOffset + 1] + u * to[toOffset + 1];
+    float z = s * from[fromOffset + 2] + u * to[toOffset + 2];
+    float w = s * from[fromOffset + 3] + u * to[toOffset + 3];
+    result[resultOffset] = x;
+    result[resultOffset + 1] = y;
+    result[resultOffset + 2] = z;
+    result[resultOffset + 3] = w;
+  }
+
+  public static float dot(float[] a, int aOffset, float[] b, int bOffset) {
+    return a[aOffset] * b[bOffset]
+        + a[aOffset + 1] * b[bOffset + 1]
+        + a[aOffset + 2] * b[bOffset + 2]
+        + a[aOffset + 3] * b[bOffset + 3];
+  }
+
+  /**
+   * Writes the rotation matrix of unit quaternion {@code q} into the column-major 4x4 matrix
+   * {@code m}, with a translation of {@code (tx, ty, tz)}.
+   */
+  public static void toMatrix(
+      float[] m, int mOffset, float[] q, int qOffset, float tx, float ty, float tz) {
+    float x = q[qOffset];
+    float y = q[qOffset + 1];
+    float z = q[qOffset + 2];
+    float w = q[qOffset + 3];
+    float xx = x * x;
+    float yy = y * y;
+    float zz = z * z;
+    float xy = x * y;
+    float xz = x * z;
+    float yz = y * z;
+    float xw = x * w;
+    float yw = y * w;
+    float zw = z * w;
+
+    m[mOffset] = 1f - 2f * (yy + zz);
+    m[mOffset + 1] = 2f * (xy + zw);
+    m[mOffset + 2] = 2f * (xz - yw);
+    m[mOffset + 3] = 0f;
+
+    m[mOffset + 4] = 2f * (xy - zw);
+    m[mOffset + 5] = 1f - 2f * (xx + zz);
+    m[mOffset + 6] = 2f * (yz + xw);
+    m[mOffset + 7] = 0f;
+
+    m[mOffset + 8] = 2f * (xz + yw);
+    m[mOffset + 9] = 2f * (yz - xw);
+    m[mOffset + 10] = 1f - 2f * (xx + yy);
+    m[mOffset + 11] = 0f;
+
+    m[mOffset + 12] = tx;
+    m[mOffset + 13] = ty;
+    m[mOffset + 14] = tz;
+    m[mOffset + 15] = 1f;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets a log statement through at most once per interval, for messages that may repeat at the
+ * frame or sample rate. Check {@link #allow()} before building the message so that suppressed
+ * messages cost nothing:
+ *
+ * <pre>
+ *   if (linkLog.allow()) {
+ *     Log.w(TAG, name + ": " + e + linkLog.suppressedSuffix());
+ *   }
+ * </pre>
+ *
+ * Thread-safe.
+ */
+final class RateLimitedLog {
+
+  private final long intervalNanos;
+  private final AtomicLong nextAllowedNanos = new AtomicLong(Long.MIN_VALUE);
+  private final AtomicLong suppressed = new AtomicLong();
+
+  RateLimitedLog(long intervalMs) {
+    this.intervalNanos = intervalMs * 1000000L;
+  }
+
+  /** Whether to log now; counts the message as suppressed otherwise. */
+  boolean allow() {
+    long now = System.nanoTime();
+    long next = nextAllowedNanos.get();
+    if ((next == Long.MIN_VALUE || now - next >= 0)
+        && nextAllowedNanos.compareAndSet(next, now + intervalNanos)) {
+      return true;
+    }
+    suppressed.incrementAndGet();
+    return false;
+  }
+
+  /** " (N suppressed)" for the messages dropped since the last allowed one, or "". */
+  String suppressedSuffix() {
+    long n = suppressed.getAndSet(0);
+    return n == 0 ? "" : " (" + n + " suppressed)";
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Replays a recorded byte stream as if it came from the sensor.
+ *
+ * <p>The file is a sequence of records, each a big-endian {@code long} receive time in
+ * nanoseconds, a big-endian {@code int} length and that many raw bytes, i.e. one record per
+ * {@code InputStream.read} of the original session. Chunks are released at their original
+ * spacing divided by {@code timeScale}; a scale of 0 replays as fast as the reader can consume.
+ * Bytes written to the sensor are discarded.
+ *
+ * <p>A {@link SessionRecorder} capture is replayed as well: its {@code TYPE_SENSOR_BYTES} records
+ * of one device, which have the same layout behind a type and device byte, and nothing else.
+ */
+public final class ReplaySensorTransport implements SensorTransport {
+
+  private final File file;
+  private final int device;
+  private final float timeScale;
+  private final boolean loop;
+
+  private final Object lock = new Object();
+  private volatile boolean closed;
+  private ReplayInputStream input;
+
+  /**
+   * @param file The recording to replay.
+   * @param timeScale Playback speed, 1 for original timing, 0 for unthrottled.
+   * @param loop Whether to start over at the end of the file instead of reporting EOF.
+   */
+  public ReplaySensorTransport(File file, float timeScale, boolean loop) {
+    this(file, 0, timeScale, loop);
+  }
+
+  /**
+   * @param file The recording or session capture to replay.
+   * @param device Which sensor of a session capture to replay; ignored for plain recordings.
+   * @param timeScale Playback speed, 1 for original timing, 0 for unthrottled.
+   * @param loop Whether to start over at the end of the file instead of reporting EOF.
+   */
+  public ReplaySensorTransport(File file, int device, float timeScale, boolean loop) {
+    this.file = file;
+    this.device = device;
+    this.timeScale = timeScale;
+    this.loop = loop;
+  }
+
+  @Override
+  public void connect() throws IOException {
+    closed = false;
+    input = new ReplayInputStream();
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return input;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return new OutputStream() {
+      @Override
+      public void write(int b) {}
+
+      @Override
+      public void write(byte[] b, int off, int len) {}
+    };
+  }
+
+  @Override
+  public String getName() {
+    return "replay:" + file.getName();
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+    ReplayInputStream in = input;
+    if (in != null) {
+      in.closeFile();
+    }
+  }
+
+  private final class ReplayInputStream extends InputStream {
+    private DataInputStream data;
+    // Set instead of data for a session capture.
+    private SessionReader session;
+    private byte[] chunk = new byte[1024];
+    private int chunkPos;
+    private int chunkLen;
+
+    private long firstTimestamp;
+    private long startNanos;
+
+    ReplayInputStream() throws IOException {
+      open();
+    }
+
+    private void open() throws IOException {
+      BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+      data = new DataInputStream(in);
+      session = null;
+      in.mark(4);
+      try {
+        if (data.readInt() == SessionRecorder.MAGIC) {
+          in.reset();
+          session = new SessionReader(in);
+        }
+      } catch (EOFException e) {
+        // Shorter than a header, so empty either way.
+      }
+      if (session == null) {
+        in.reset();
+      }
+      firstTimestamp = -1;
+    }
+
+    void closeFile() throws IOException {
+      data.close();
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (chunkPos == chunkLen && !nextChunk()) {
+        return -1;
+      }
+      int n = Math.min(len, chunkLen - chunkPos);
+      System.arraycopy(chunk, chunkPos, b, off, n);
+      chunkPos += n;
+      return n;
+    }
+
+    private boolean nextChunk() throws IOException {
+      long timestamp;
+      int length;
+      while (true) {
+        if (closed) {
+          return false;
+        }
+        if (session != null) {
+          if (nextSessionChunk()) {
+            timestamp = session.getNanos();
+            length = session.getLength();
+            break;
+          }
+        } else {
+          try {
+            timestamp = data.readLong();
+            length = data.readInt();
+            if (length > chunk.length) {
+              chunk = new byte[length];
+            }
+            data.readFully(chunk, 0, length);
+            break;
+          } catch (EOFException e) {
+            // Handled below.
+          }
+        }
+        if (!loop) {
+          return false;
+        }
+        data.close();
+        open();
+      }
+      chunkPos = 0;
+      chunkLen = length;
+
+      if (firstTimestamp < 0) {
+        firstTimestamp = timestamp;
+        startNanos = System.nanoTime();
+      } else if (timeScale > 0) {
+        long due = startNanos + (long) ((timestamp - firstTimestamp) / timeScale);
+        waitUntil(due);
+      }
+      return !closed;
+    }
+
+    // Skips to the next read of the device and copies it into chunk.
+    private boolean nextSessionChunk() throws IOException {
+      while (session.next()) {
+        if (session.getType() == SessionRecorder.TYPE_SENSOR_BYTES
+            && session.getDevice() == device) {
+          if (session.getLength() > chunk.length) {
+            chunk = new byte[session.getLength()];
+          }
+          System.arraycopy(session.getPayload(), 0, chunk, 0, session.getLength());
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void waitUntil(long dueNanos) throws IOException {
+      synchronized (lock) {
+        long remaining;
+        while (!closed && (remaining = dueNanos - System.nanoTime()) > 0) {
+          try {
+            lock.wait(remaining / 1000000, (int) (remaining % 1000000));
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+        }
+      }
+    }
+  }
+}
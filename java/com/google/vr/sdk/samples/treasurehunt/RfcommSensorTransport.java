@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Bluetooth SPP link to a paired module such as the HC-06.
+ */
+public final class RfcommSensorTransport implements SensorTransport {
+
+  /** Serial Port Profile UUID. */
+  public static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+  private final BluetoothDevice device;
+  private final UUID uuid;
+
+  // ソケット
+  private volatile BluetoothSocket socket;
+
+  public RfcommSensorTransport(BluetoothDevice device) {
+    this(device, SPP_UUID);
+  }
+
+  public RfcommSensorTransport(BluetoothDevice device, UUID uuid) {
+    this.device = device;
+    this.uuid = uuid;
+  }
+
+  @Override
+  public void connect() throws IOException {
+    // 取得したデバイスを使ってBluetoothでSocket接続
+    BluetoothSocket s = device.createRfcommSocketToServiceRecord(uuid);
+    socket = s;
+    s.connect();
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return socket.getInputStream();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return socket.getOutputStream();
+  }
+
+  @Override
+  public String getName() {
+    return "rfcomm:" + device.getName();
+  }
+
+  @Override
+  public void close() throws IOException {
+    BluetoothSocket s = socket;
+    if (s != null) {
+      s.close();
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Estimates when sensor samples were taken from the times they arrived.
+ *
+ * <p>Bluetooth delivers samples late by a varying amount and often in bursts, so arrival times
+ * are a poor timeline to interpolate on. The sensor itself samples at a steady rate, which makes
+ * the lower envelope of the arrivals a good estimate: each estimate is the previous one plus the
+ * average sample period, pulled slightly towards the arrival to follow drift, and never later
+ * than the arrival itself. Used from the reader thread only.
+ */
+public final class SampleClock {
+
+  // Weight of a new interval in the average period, and of the arrival in the estimate.
+  private static final int PERIOD_SMOOTHING = 64;
+  private static final int ARRIVAL_PULL = 16;
+
+  private long lastArrival;
+  private long estimate;
+  private long period;
+  private int samples;
+
+  /** Starts over, e.g. after reconnecting. */
+  public void reset() {
+    samples = 0;
+    period = 0;
+  }
+
+  /**
+   * Returns the estimated sample time of a sample that arrived at {@code arrivalNanos}. Arrival
+   * times must not decrease; the estimates don't either.
+   */
+  public long onArrival(long arrivalNanos) {
+    if (samples == 0) {
+      estimate = arrivalNanos;
+    } else {
+      long interval = arrivalNanos - lastArrival;
+      // Frames decoded from one read arrive together; the first real interval seeds the period.
+      period = period == 0 ? interval : period + (interval - period) / PERIOD_SMOOTHING;
+      long predicted = estimate + period;
+      estimate = Math.max(estimate,
+          Math.min(arrivalNanos, predicted + (arrivalNanos - predicted) / ARRIVAL_PULL));
+    }
+    lastArrival = arrivalNanos;
+    samples++;
+    return estimate;
+  }
+
+  /** The average sample period, or 0 until two samples arrived apart. */
+  public long getPeriodNanos() {
+    return period;
+  }
+}
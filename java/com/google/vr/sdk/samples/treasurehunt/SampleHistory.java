@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timestamped history of sensor orientations, written by the reader thread and sampled by the
+ * GL thread at display time.
+ *
+ * <p>Samples are unit quaternions kept in a fixed ring of primitive arrays. The writer fills the
+ * next slot and then publishes it by bumping a volatile counter; the reader copies the samples it
+ * needs and retries if the writer lapped them meanwhile. Neither side locks or allocates. Exactly
+ * one writer thread and one reader thread may use an instance.
+ *
+ * <p>The retry only works if the copy is complete before the counter is read again. Plain reads
+ * may be reordered after a volatile read, and Java 7 has no load fence, so the slots are atomic
+ * arrays: their reads are volatile as well, and stay ordered before the re-check. A reader that
+ * saw a slot overwritten then also sees the counter bump that preceded the overwrite.
+ *
+ * <p>{@link #sampleAt} interpolates between the two samples around the requested time, so the
+ * displayed orientation moves smoothly even when samples arrive in bursts, and extrapolates past
+ * the newest sample at constant angular velocity to hide transport latency.
+ */
+public final class SampleHistory {
+
+  /** Number of values in a sample, a quaternion (x, y, z, w). */
+  public static final int SIZE = 4;
+
+  /**
+   * Smallest capacity. The writer may be filling the slot after the newest sample, so a smaller
+   * ring would leave the reader too few samples to interpolate or to average an interval over.
+   */
+  public static final int MIN_CAPACITY = 4;
+
+  private final int mask;
+  private final AtomicLongArray timestamps;
+  // Float.floatToRawIntBits of the samples, SIZE per slot.
+  private final AtomicIntegerArray values;
+
+  // Number of samples ever written; slot (n & mask) holds sample n. The slot of sample
+  // (written - capacity) is the one the writer fills next, so capacity - 1 samples are readable.
+  private volatile long written;
+  // Index of the first sample written after the last clear(); older ones are not read.
+  private volatile long start;
+
+  // Reader side scratch.
+  private final float[] older = new float[SIZE];
+  private final float[] newer = new float[SIZE];
+  private long olderTime;
+  private long newerTime;
+
+  /**
+   * @param capacity A power of two of at least {@link #MIN_CAPACITY}; one sample less than this is
+   *     readable.
+   */
+  public SampleHistory(int capacity) {
+    if (capacity < MIN_CAPACITY || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException(
+          "Capacity must be a power of two of at least " + MIN_CAPACITY + ": " + capacity);
+    }
+    mask = capacity - 1;
+    timestamps = new AtomicLongArray(capacity);
+    values = new AtomicIntegerArray(capacity * SIZE);
+  }
+
+  /**
+   * Appends a sample. Called from the writer thread only. Timestamps must not decrease.
+   *
+   * @param timestampNanos {@link System#nanoTime()} at which the sample was taken or received.
+   */
+  public void add(long timestampNanos, float[] sample, int offset) {
+    long n = written;
+    int slot = (int) (n & mask);
+    timestamps.set(slot, timestampNanos);
+    for (int i = 0; i < SIZE; i++) {
+      values.set(slot * SIZE + i, Float.floatToRawIntBits(sample[offset + i]));
+    }
+    written = n + 1;
+  }
+
+  /**
+   * Forgets the samples written so far, e.g. after a reconnect, so the gap of the outage neither
+   * stretches {@link #getAverageIntervalNanos} nor gets interpolated across. Called from the writer
+   * thread only; {@link #getCount} keeps counting.
+   */
+  public void clear() {
+    start = written;
+  }
+
+  /** Number of samples ever written. */
+  public long getCount() {
+    return written;
+  }
+
+  /**
+   * Mean interval between the retained samples, or 0 with fewer than two since the last
+   * {@link #clear}. Called from the reader thread only.
+   */
+  public long getAverageIntervalNanos() {
+    while (true) {
+      // Read before written, so it is never past it.
+      long cleared = start;
+      long n = written;
+      long first = Math.max(cleared, n - mask);
+      if (n - first < 2) {
+        return 0;
+      }
+      long span = timestamps.get((int) ((n - 1) & mask)) - timestamps.get((int) (first & mask));
+      if (written - first <= mask) {
+        return span / (n - 1 - first);
+      }
+    }
+  }
+
+  /**
+   * Computes the orientation at {@code timeNanos}. Called from the reader thread only.
+   *
+   * <p>Between two samples the result is interpolated along the shorter arc. Past the newest
+   * sample it is extrapolated from the last two, by at most {@code maxExtrapolationNanos}; before
+   * the oldest retained sample it is the oldest one.
+   *
+   * @param out Receives the quaternion at {@code outOffset}. Left untouched if nothing was
+   *     written since construction or the last {@link #clear}.
+   * @return false if nothing was written since construction or the last {@link #clear}.
+   */
+  public boolean sampleAt(long timeNanos, long maxExtrapolationNanos, float[] out, int outOffset) {
+    long cleared;
+    long n;
+    do {
+      cleared = start;
+      n = written;
+      if (n == cleared) {
+        return false;
+      }
+    } while (!copyBracket(Math.max(cleared, n - mask), n, timeNanos));
+
+    if (newerTime <= olderTime) {
+      System.arraycopy(newer, 0, out, outOffset, SIZE);
+      return true;
+    }
+    long clamped = Math.min(timeNanos, newerTime + maxExtrapolationNanos);
+    float t = (float) (clamped - olderTime) / (newerTime - olderTime);
+    if (t <= 0f) {
+      System.arraycopy(older, 0, out, outOffset, SIZE);
+    } else {
+      Quaternions.slerp(out, outOffset, older, 0, newer, 0, t);
+      if (t > 1f) {
+        Quaternions.normalize(out, outOffset);
+      }
+    }
+    return true;
+  }
+
+  // Copies the samples around timeNanos into older/newer. Returns false if the writer lapped them.
+  private boolean copyBracket(long oldest, long n, long timeNanos) {
+    long index = n - 1;
+    // Newest sample not after timeNanos, or the oldest retained one.
+    while (index > oldest && timestamps.get((int) (index & mask)) > timeNanos) {
+      index--;
+    }
+    long newerIndex = index < n - 1 ? index + 1 : index;
+    long olderIndex = index < n - 1 ? index : Math.max(oldest, index - 1);
+    if (timestamps.get((int) (index & mask)) > timeNanos) {
+      // Before everything retained.
+      newerIndex = index;
+      olderIndex = index;
+    }
+    olderTime = timestamps.get((int) (olderIndex & mask));
+    newerTime = timestamps.get((int) (newerIndex & mask));
+    copySample((int) (olderIndex & mask), older);
+    copySample((int) (newerIndex & mask), newer);
+    // The writer may be filling slot (written & mask), i.e. the one of sample written - capacity.
+    return written - olderIndex <= mask;
+  }
+
+  private void copySample(int slot, float[] out) {
+    for (int i = 0; i < SIZE; i++) {
+      out[i] = Float.intBitsToFloat(values.get(slot * SIZE + i));
+    }
+  }
+}
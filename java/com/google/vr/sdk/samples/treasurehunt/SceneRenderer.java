@@ -0,0 +1,533 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import java.util.Random;
+
+/**
+ * Draws the treasure hunt scene: the sensor driven cube, the floor, optionally streamed, and the
+ * cube rack.
+ *
+ * <p>This is the GL side of {@code TreasureHuntActivity} without GVR: the caller passes in the
+ * head and eye matrices GVR hands it, the sensor orientations of the frame and, for the
+ * single-pass renderer, a way to set each eye's viewport. The activity draws through it, and so
+ * does the headless render harness, which checks the GL stream of every frame against golden
+ * files. Must be used on the GL thread, except for {@link #relocateCube}.
+ */
+final class SceneRenderer {
+
+  static final float Z_NEAR = 0.1f;
+  static final float Z_FAR = 100.0f;
+
+  static final float CAMERA_Z = 0.01f;
+
+  // We keep the light always position just above the user.
+  private static final float[] LIGHT_POS_IN_WORLD_SPACE = new float[] {0.0f, 2.0f, 0.0f, 1.0f};
+
+  // Where the sensor driven cube sits in front of the user.
+  private static final float[] CUBE_POSITION = new float[] {0.0f, 0.0f, 4.2f};
+
+  // Radius of the sphere enclosing CUBE_COORDS in any orientation.
+  private static final float CUBE_RADIUS = (float) Math.sqrt(3.0);
+
+  // FLOOR_COORDS is made of tiles of two triangles each.
+  private static final int FLOOR_TILE_VERTICES = 6;
+
+  private static final float FLOOR_DEPTH = 20.0f;
+
+  // Streamed floor: tile edge, tiles in each direction, LOD 0 quads per edge and coarsest LOD.
+  static final float TERRAIN_TILE_SIZE = 25.0f;
+  static final int TERRAIN_RADIUS = 4;
+  static final int TERRAIN_QUADS = 16;
+  static final int TERRAIN_MAX_LOD = 4;
+  static final int TERRAIN_CACHE_TILES = 2 * (2 * TERRAIN_RADIUS + 1) * (2 * TERRAIN_RADIUS + 1);
+
+  /** Program constants for {@link Programs#getProgram}. */
+  static final int PROGRAM_CUBE = 0;
+  static final int PROGRAM_FLOOR = 1;
+  static final int PROGRAM_STEREO_CUBE = 2;
+  static final int PROGRAM_STEREO_FLOOR = 3;
+  static final int PROGRAM_INSTANCED = 4;
+
+  /** Links the shader programs of the scene. */
+  interface Programs {
+    /**
+     * Returns the linked program for one of the {@code PROGRAM_} constants: {@code light_vertex}
+     * with {@code passthrough_fragment} or {@code grid_fragment}, the same fragments with {@code
+     * stereo_light_vertex}, or {@code instanced_light_vertex} with {@code instanced_fragment}.
+     */
+    int getProgram(int program);
+  }
+
+  /** Sets the viewport of an eye for the single-pass renderer. */
+  interface Viewports {
+    void setViewport(int eye);
+  }
+
+  private final FrameState frameState;
+  private final CubeScene cubeScene;
+  private final boolean singlePass;
+  private final boolean terrainEnabled;
+
+  private final float[] camera = new float[16];
+  private final float[] view = new float[16];
+  private final float[] viewProjection = new float[16];
+  private final float[] modelCube = new float[16];
+  private final float[] modelFloor = new float[16];
+  private final float[] modelView = new float[16];
+  private final float[] modelViewProjection = new float[16];
+  private final float[] lightPosInEyeSpace = new float[4];
+
+  // 視錐台の外にある物体と床のタイルは描画しない
+  private final FrustumCuller culler = new FrustumCuller();
+  // World space bounds of each floor tile, in index order.
+  private float[] floorTileBounds;
+  // 床をタイルに分けて視点の周りだけ読み込む
+  private FloorTileStreamer terrain;
+
+  // The gaze test keeps its own scratch, so it doesn't clobber modelView.
+  private final GazeTarget gaze = new GazeTarget();
+
+  private boolean useVertexArrays;
+  private Mesh cubeMesh;
+  private Mesh cubeFoundMesh;
+  private Mesh floorMesh;
+  private MeshData cubeData;
+
+  private int cubeProgram;
+  private int cubeModelParam;
+  private int cubeModelViewParam;
+  private int cubeModelViewProjectionParam;
+  private int cubeLightPosParam;
+
+  private int floorProgram;
+  private int floorModelParam;
+  private int floorModelViewParam;
+  private int floorModelViewProjectionParam;
+  private int floorLightPosParam;
+
+  private StereoProgram stereoCubeProgram;
+  private StereoProgram stereoFloorProgram;
+  private InstancedCubeRenderer cubeSceneRenderer;
+
+  // Single-pass per-eye state.
+  private final float[][] eyeViews = new float[StereoProgram.EYES][16];
+  private final float[][] eyeLightPositions = new float[StereoProgram.EYES][4];
+  private final float[][] eyeViewProjections = new float[StereoProgram.EYES][16];
+  // Per eye: 1 if the cube is visible, and the mask of visible floor tiles.
+  private final int[] cubeVisible = new int[StereoProgram.EYES];
+  private final int[] floorTiles = new int[StereoProgram.EYES];
+
+  /**
+   * @param frameState Receives the gaze test and the matrix operation counts.
+   * @param cubeScene The cube rack, or null for none.
+   * @param singlePass Whether {@link #drawFrame} rather than {@link #drawEye} draws the frames.
+   * @param terrainEnabled Whether the floor is streamed by a {@link FloorTileStreamer}.
+   */
+  SceneRenderer(FrameState frameState, CubeScene cubeScene, boolean singlePass,
+      boolean terrainEnabled) {
+    this.frameState = frameState;
+    this.cubeScene = cubeScene;
+    this.singlePass = singlePass;
+    this.terrainEnabled = terrainEnabled;
+    // The camera never moves, the head pose is applied through the eye view.
+    Matrix.setLookAtM(camera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+    culler.setDistanceLimit(0.0f, 0.0f, CAMERA_Z, Z_FAR);
+  }
+
+  /** The cube's model matrix, updated by {@link #updateScene}. */
+  float[] getModelCube() {
+    return modelCube;
+  }
+
+  /** The ModelView matrix of the last object drawn by {@link #drawEye}. */
+  float[] getModelView() {
+    return modelView;
+  }
+
+  /** The ModelViewProjection matrix of the last object drawn by {@link #drawEye}. */
+  float[] getModelViewProjection() {
+    return modelViewProjection;
+  }
+
+  /** The light position in the space of the last eye drawn by {@link #drawEye}. */
+  float[] getLightPosInEyeSpace() {
+    return lightPosInEyeSpace;
+  }
+
+  FrustumCuller getCuller() {
+    return culler;
+  }
+
+  /** The streamed floor, or null if it is off or the surface was not created yet. */
+  FloorTileStreamer getTerrain() {
+    return terrain;
+  }
+
+  /**
+   * Starts on a new context and uploads the static geometry; draws only bind the buffers
+   * afterwards.
+   */
+  void onContextCreated(MeshData cubeData, MeshData cubeFoundData, MeshData floorData) {
+    Gl.glClearColor(0.28f, 0.25f, 0.17f, 1.0f);     // 71,65,43
+
+    GlState.onContextCreated();
+    Mesh.onContextCreated();
+    useVertexArrays = GlInfo.isGles3();
+    this.cubeData = cubeData;
+    cubeMesh = Mesh.upload(cubeData, useVertexArrays);
+    cubeFoundMesh = Mesh.upload(cubeFoundData, useVertexArrays);
+    floorMesh = Mesh.upload(floorData, useVertexArrays);
+
+    GlState.checkError("Meshes");
+  }
+
+  /** Links the programs and looks up their uniforms, after {@link #onContextCreated}. */
+  void createPrograms(Programs programs) {
+    cubeProgram = programs.getProgram(PROGRAM_CUBE);
+    GlState.useProgram(cubeProgram);
+
+    GlState.checkError("Cube program");
+
+    cubeModelParam = Gl.glGetUniformLocation(cubeProgram, "u_Model");
+    cubeModelViewParam = Gl.glGetUniformLocation(cubeProgram, "u_MVMatrix");
+    cubeModelViewProjectionParam = Gl.glGetUniformLocation(cubeProgram, "u_MVP");
+    cubeLightPosParam = Gl.glGetUniformLocation(cubeProgram, "u_LightPos");
+
+    GlState.checkError("Cube program params");
+
+    floorProgram = programs.getProgram(PROGRAM_FLOOR);
+    GlState.useProgram(floorProgram);
+
+    GlState.checkError("Floor program");
+
+    floorModelParam = Gl.glGetUniformLocation(floorProgram, "u_Model");
+    floorModelViewParam = Gl.glGetUniformLocation(floorProgram, "u_MVMatrix");
+    floorModelViewProjectionParam = Gl.glGetUniformLocation(floorProgram, "u_MVP");
+    floorLightPosParam = Gl.glGetUniformLocation(floorProgram, "u_LightPos");
+
+    GlState.checkError("Floor program params");
+
+    if (singlePass) {
+      stereoCubeProgram = new StereoProgram(programs.getProgram(PROGRAM_STEREO_CUBE));
+      stereoFloorProgram = new StereoProgram(programs.getProgram(PROGRAM_STEREO_FLOOR));
+      GlState.checkError("Stereo programs");
+    }
+    if (cubeScene != null) {
+      int sceneProgram = useVertexArrays ? programs.getProgram(PROGRAM_INSTANCED) : cubeProgram;
+      cubeSceneRenderer =
+          new InstancedCubeRenderer(cubeScene, cubeData, sceneProgram, useVertexArrays);
+      GlState.checkError("Scene");
+    }
+  }
+
+  /** Places the floor and starts streaming it, after {@link #createPrograms}. */
+  void createFloor() {
+    Matrix.setIdentityM(modelFloor, 0);
+    Matrix.translateM(modelFloor, 0, 0, -FLOOR_DEPTH, 0); // Floor appears below user.
+    floorTileBounds = FrustumCuller.groupBounds(WorldLayoutData.FLOOR_COORDS, FLOOR_TILE_VERTICES);
+    FrustumCuller.transformBoxes(modelFloor, floorTileBounds, floorTileBounds);
+    if (terrain != null) {
+      // A new surface comes with a new context, the old tiles went with the previous one.
+      terrain.abandon();
+      terrain = null;
+    }
+    if (terrainEnabled) {
+      terrain = new FloorTileStreamer(
+          new FlatFloorTileSource(TERRAIN_TILE_SIZE, TERRAIN_QUADS), TERRAIN_TILE_SIZE,
+          TERRAIN_RADIUS, 1, TERRAIN_MAX_LOD, TERRAIN_CACHE_TILES, useVertexArrays);
+      terrain.setModel(modelFloor);
+    }
+  }
+
+  /** Deletes the streamed floor's tiles, when the renderer shuts down. */
+  void releaseTerrain() {
+    if (terrain != null) {
+      terrain.release();
+      terrain = null;
+    }
+  }
+
+  /** Closes the previous frame's counters. Called at the top of {@code onNewFrame}. */
+  void beginFrame() {
+    culler.beginFrame();
+    GlState.beginFrame();
+    if (terrain != null) {
+      // The floor is only moved down, so the camera's X and Z are its floor model position.
+      terrain.update(0.0f, CAMERA_Z);
+    }
+  }
+
+  /**
+   * Moves the scene to this frame's sensor orientations and decides whether the user looks at the
+   * cube, once for both eyes.
+   *
+   * @param headView The head view of the frame.
+   * @param cubeOrientation The orientation of the first sensor, which drives the main cube.
+   * @param deviceOrientations {@link SampleHistory#SIZE} floats per sensor; the first is unused.
+   * @param deviceCount The number of sensors. Every cube in the rack follows the main cube until
+   *     there are more, then cube i follows sensor i modulo the sensor count.
+   */
+  void updateScene(float[] headView, float[] cubeOrientation, float[] deviceOrientations,
+      int deviceCount) {
+    // Build the cube model matrix shared by both eyes.
+    Quaternions.toMatrix(modelCube, 0, cubeOrientation, 0,
+        CUBE_POSITION[0], CUBE_POSITION[1], CUBE_POSITION[2]);
+    frameState.countMatrixOps(2);
+
+    if (cubeScene != null) {
+      cubeScene.setAllOrientations(cubeOrientation, 0);
+      if (deviceCount > 1) {
+        for (int i = 0; i < cubeScene.getCount(); i++) {
+          int d = i % deviceCount;
+          if (d != 0) {
+            cubeScene.setOrientation(i, deviceOrientations, d * SampleHistory.SIZE);
+          }
+        }
+      }
+    }
+
+    // The gaze test only depends on the head pose and the cube, not on the eye.
+    frameState.countMatrixOps(2);
+    frameState.lookingAtObject = gaze.isLookedAt(headView, modelCube);
+  }
+
+  /**
+   * Finds a new random position for the cube, see {@link GazeTarget#relocate}. May be called from
+   * the UI thread.
+   */
+  float relocateCube(float distance, float minDistance, float maxDistance, Random random,
+      float[] out) {
+    return gaze.relocate(modelCube, distance, minDistance, maxDistance, random, out);
+  }
+
+  /**
+   * Draws a frame for an eye.
+   *
+   * @param eyeView The eye's view matrix, from GVR.
+   * @param perspective The eye's projection for {@link #Z_NEAR} and {@link #Z_FAR}.
+   */
+  void drawEye(float[] eyeView, float[] perspective) {
+    GlState.setDepthTest(true);
+    Gl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+    GlState.count(1);
+
+    GlState.checkError("colorParam");
+
+    // Apply the eye transformation to the camera.
+    Matrix.multiplyMM(view, 0, eyeView, 0, camera, 0);
+
+    // Set the position of the light
+    Matrix.multiplyMV(lightPosInEyeSpace, 0, view, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
+
+    // Build the ModelView and ModelViewProjection matrices
+    // for calculating cube position and light.
+    Matrix.multiplyMM(viewProjection, 0, perspective, 0, view, 0);
+    culler.setViewProjection(viewProjection, 0);
+    frameState.countMatrixOps(3);
+
+    if (culler.isSphereVisible(modelCube[12], modelCube[13], modelCube[14], CUBE_RADIUS)) {
+      Matrix.multiplyMM(modelView, 0, view, 0, modelCube, 0);
+      Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
+      frameState.countMatrixOps(2);
+      drawCube();
+    }
+
+    int tiles = cullFloorTiles(0);
+    if (tiles != 0) {
+      // Set modelView for the floor, so we draw floor in the correct location
+      Matrix.multiplyMM(modelView, 0, view, 0, modelFloor, 0);
+      Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
+      frameState.countMatrixOps(2);
+      drawFloor(0, tiles);
+    }
+    if (cubeSceneRenderer != null) {
+      cubeSceneRenderer.draw(view, perspective, lightPosInEyeSpace, culler);
+    }
+  }
+
+  /**
+   * Draws both eyes at once instead of one {@link #drawEye} per eye.
+   *
+   * <p>The framebuffer is cleared once, and each program is made current once per frame with the
+   * matrices of both eyes uploaded as uniform arrays; per eye only the viewport and the eye index
+   * change. GLES has no viewport arrays, and instanced stereo into the side-by-side buffer would
+   * need clip distances, so the two eyes remain separate draw calls.
+   *
+   * @param gvrEyeViews The view matrix of each eye, from GVR.
+   * @param perspectives The projection of each eye for {@link #Z_NEAR} and {@link #Z_FAR}.
+   * @param viewports Sets an eye's viewport before its draws.
+   */
+  void drawFrame(float[][] gvrEyeViews, float[][] perspectives, Viewports viewports) {
+    GlState.setDepthTest(true);
+    Gl.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+    GlState.count(1);
+
+    for (int eye = 0; eye < StereoProgram.EYES; eye++) {
+      prepareEye(eye, gvrEyeViews[eye], perspectives[eye]);
+    }
+
+    if ((cubeVisible[0] | cubeVisible[1]) != 0) {
+      stereoCubeProgram.upload();
+      drawEyes(stereoCubeProgram,
+          frameState.lookingAtObject ? cubeFoundMesh : cubeMesh, cubeVisible, viewports);
+    }
+    if ((floorTiles[0] | floorTiles[1]) != 0) {
+      stereoFloorProgram.upload();
+      drawEyes(stereoFloorProgram, floorMesh, floorTiles, viewports);
+    }
+
+    if (cubeSceneRenderer != null) {
+      for (int eye = 0; eye < StereoProgram.EYES; eye++) {
+        viewports.setViewport(eye);
+        GlState.count(1);
+        culler.setViewProjection(eyeViewProjections[eye], 0);
+        cubeSceneRenderer.draw(eyeViews[eye], perspectives[eye], eyeLightPositions[eye], culler);
+      }
+    }
+
+    GlState.checkError("onDrawFrame");
+  }
+
+  private void prepareEye(int eye, float[] gvrEyeView, float[] perspective) {
+    float[] eyeView = eyeViews[eye];
+    float[] eyeLightPos = eyeLightPositions[eye];
+    Matrix.multiplyMM(eyeView, 0, gvrEyeView, 0, camera, 0);
+    Matrix.multiplyMV(eyeLightPos, 0, eyeView, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
+    stereoCubeProgram.setEye(eye, modelCube, eyeView, perspective, eyeLightPos);
+    stereoFloorProgram.setEye(eye, modelFloor, eyeView, perspective, eyeLightPos);
+    Matrix.multiplyMM(eyeViewProjections[eye], 0, perspective, 0, eyeView, 0);
+    frameState.countMatrixOps(7);
+
+    culler.setViewProjection(eyeViewProjections[eye], 0);
+    cubeVisible[eye] =
+        culler.isSphereVisible(modelCube[12], modelCube[13], modelCube[14], CUBE_RADIUS) ? 1 : 0;
+    floorTiles[eye] = cullFloorTiles(eye);
+  }
+
+  /** Draws the tiles of {@code mesh} set in each eye's mask; for the cube any non-zero mask. */
+  private void drawEyes(StereoProgram program, Mesh mesh, int[] tileMasks, Viewports viewports) {
+    for (int eye = 0; eye < StereoProgram.EYES; eye++) {
+      if (tileMasks[eye] == 0) {
+        continue;
+      }
+      viewports.setViewport(eye);
+      GlState.count(1);
+      program.selectEye(eye);
+      if (mesh == floorMesh) {
+        drawFloorTiles(eye, tileMasks[eye]);
+      } else {
+        mesh.draw();
+      }
+    }
+  }
+
+  /**
+   * Draw the cube.
+   *
+   * <p>We've set all of our transformation matrices. Now we simply pass them into the shader.
+   */
+  private void drawCube() {
+    GlState.useProgram(cubeProgram);
+
+    GlState.uniform3fv(cubeLightPosParam, 1, lightPosInEyeSpace, 0);
+
+    // Set the Model in the shader, used to calculate lighting
+    GlState.uniformMatrix4fv(cubeModelParam, 1, modelCube, 0);
+
+    // Set the ModelView in the shader, used to calculate lighting
+    GlState.uniformMatrix4fv(cubeModelViewParam, 1, modelView, 0);
+
+    // Set the ModelViewProjection matrix in the shader.
+    GlState.uniformMatrix4fv(cubeModelViewProjectionParam, 1, modelViewProjection, 0);
+
+    (frameState.lookingAtObject ? cubeFoundMesh : cubeMesh).draw();
+
+    GlState.checkError("Drawing cube");
+  }
+
+  /**
+   * Draw the floor.
+   *
+   * <p>This feeds in data for the floor into the shader. Note that this doesn't feed in data about
+   * position of the light, so if we rewrite our code to draw the floor first, the lighting might
+   * look strange.
+   *
+   * @param eye The eye index the tiles were culled for.
+   * @param tiles The floor tiles to draw, see {@link #cullFloorTiles}.
+   */
+  private void drawFloor(int eye, int tiles) {
+    GlState.useProgram(floorProgram);
+
+    // Set ModelView and MVP, the vertex data lives in floorMesh.
+    GlState.uniform3fv(floorLightPosParam, 1, lightPosInEyeSpace, 0);
+    GlState.uniformMatrix4fv(floorModelParam, 1, modelFloor, 0);
+    GlState.uniformMatrix4fv(floorModelViewParam, 1, modelView, 0);
+    GlState.uniformMatrix4fv(floorModelViewProjectionParam, 1, modelViewProjection, 0);
+
+    drawFloorTiles(eye, tiles);
+
+    GlState.checkError("drawing floor");
+  }
+
+  /**
+   * Culls the floor against the frustum the culler was last set up with.
+   *
+   * @return The mask of visible floor tiles, or the number of visible streamed tiles; 0 if
+   *     nothing is visible.
+   */
+  private int cullFloorTiles(int eye) {
+    if (terrain != null) {
+      return terrain.cull(culler, eye);
+    }
+    int mask = 0;
+    for (int t = 0; t * FrustumCuller.BOX_SIZE < floorTileBounds.length; t++) {
+      if (culler.isBoxVisible(floorTileBounds, t * FrustumCuller.BOX_SIZE)) {
+        mask |= 1 << t;
+      }
+    }
+    return mask;
+  }
+
+  /** Draws the floor tiles in {@code mask}, merging neighbouring tiles into one draw call. */
+  private void drawFloorTiles(int eye, int mask) {
+    if (terrain != null) {
+      terrain.draw(eye);
+      return;
+    }
+    int tiles = floorTileBounds.length / FrustumCuller.BOX_SIZE;
+    if (mask == (1 << tiles) - 1) {
+      floorMesh.draw();
+      return;
+    }
+    int t = 0;
+    while (t < tiles) {
+      if ((mask & (1 << t)) == 0) {
+        t++;
+        continue;
+      }
+      int first = t;
+      while (t < tiles && (mask & (1 << t)) != 0) {
+        t++;
+      }
+      floorMesh.drawRange(first * FLOOR_TILE_VERTICES, (t - first) * FLOOR_TILE_VERTICES);
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Configuration commands for one sensor, written by the {@link SensorHub} writer thread.
+ *
+ * <p>Setters only record the wanted value and wake the writer, so they never block and may be
+ * called from any thread, including the GL thread. A setting that changes again before it was
+ * written is sent once with its latest value. The writer sends everything that changed as one
+ * batch of newline terminated commands in a single write, closed by a sequence marker:
+ *
+ * <pre>
+ *   a\n                 back to ASCII frames, after the binary stream went bad
+ *   f100\n              sample rate in Hz
+ *   c1.50,-2.00,0.25\n  calibration offsets for X, Y and Z in degrees
+ *   #17\n               sequence marker, answered with !17\n once the batch was applied
+ * </pre>
+ *
+ * <p>Only one batch is in flight; changes made meanwhile wait for its acknowledgement, which
+ * coalesces them further. A batch that is not acknowledged within {@link #ACK_TIMEOUT_MS} is sent
+ * again with the current values. An idle link gets a bare sequence marker every
+ * {@link #KEEP_ALIVE_MS}, whose answer also measures the round trip. After a reconnect every
+ * configured setting is sent again, because the sensor may have been reset; the request for ASCII
+ * frames is not, the new connection negotiates the format afresh.
+ */
+public final class SensorCommandChannel {
+
+  static final long ACK_TIMEOUT_MS = 500;
+  static final long KEEP_ALIVE_MS = 1000;
+
+  /** Largest calibration offset in degrees, a full turn. */
+  public static final float MAX_CALIBRATION_DEGREES = 360.0f;
+
+  private static final int SET_RATE = 1;
+  private static final int SET_CALIBRATION = 2;
+  private static final int SET_ASCII = 4;
+
+  // Longest batch: ASCII request, rate, calibration and marker.
+  private static final int MAX_BATCH_BYTES = 96;
+
+  private final Runnable wakeWriter;
+
+  // Guarded by this.
+  private int sampleRate;
+  private final float[] calibration = new float[SensorFrameParser.AXES];
+  private int configured;
+  private int dirty;
+  private OutputStream output;
+  private int nextSequence;
+  private int inFlightSequence = -1;
+  private int inFlight;
+  private long inFlightSentNanos;
+  private long lastWriteNanos;
+
+  // Writer thread only.
+  private final byte[] batch = new byte[MAX_BATCH_BYTES];
+
+  private volatile long batchesWritten;
+  private volatile long settingsCoalesced;
+  private volatile long acks;
+  private volatile long ackTimeouts;
+  private volatile long lastRoundTripNanos;
+
+  SensorCommandChannel(Runnable wakeWriter) {
+    this.wakeWriter = wakeWriter;
+  }
+
+  /** Asks the sensor to sample at {@code hz}. */
+  public void setSampleRate(int hz) {
+    if (hz <= 0) {
+      throw new IllegalArgumentException("Bad sample rate: " + hz);
+    }
+    synchronized (this) {
+      sampleRate = hz;
+      markDirty(SET_RATE);
+    }
+    wakeWriter.run();
+  }
+
+  /**
+   * Offsets in degrees the sensor subtracts from its X, Y and Z readings. They are sent with two
+   * decimals.
+   *
+   * @throws IllegalArgumentException If an offset is not a number or beyond
+   *     {@link #MAX_CALIBRATION_DEGREES} either way.
+   */
+  public void setCalibration(float x, float y, float z) {
+    checkCalibration(x);
+    checkCalibration(y);
+    checkCalibration(z);
+    synchronized (this) {
+      calibration[0] = x;
+      calibration[1] = y;
+      calibration[2] = z;
+      markDirty(SET_CALIBRATION);
+    }
+    wakeWriter.run();
+  }
+
+  private static void checkCalibration(float degrees) {
+    // Also false for NaN.
+    if (!(Math.abs(degrees) <= MAX_CALIBRATION_DEGREES)) {
+      throw new IllegalArgumentException("Bad calibration offset: " + degrees);
+    }
+  }
+
+  /**
+   * Asks the sensor for ASCII frames, after {@link SensorProtocol} fell back from binary ones.
+   * Only for the current connection.
+   */
+  public void requestAsciiFrames() {
+    synchronized (this) {
+      markDirty(SET_ASCII);
+    }
+    wakeWriter.run();
+  }
+
+  /** Batches written, including keep-alives. */
+  public long getBatchesWritten() {
+    return batchesWritten;
+  }
+
+  /** Setter calls that replaced a value that had not been written yet. */
+  public long getSettingsCoalesced() {
+    return settingsCoalesced;
+  }
+
+  public long getAcks() {
+    return acks;
+  }
+
+  public long getAckTimeouts() {
+    return ackTimeouts;
+  }
+
+  /** Time from writing the last acknowledged batch to its acknowledgement. */
+  public long getLastRoundTripNanos() {
+    return lastRoundTripNanos;
+  }
+
+  public String describe() {
+    return batchesWritten + " batches, " + settingsCoalesced + " coalesced, " + acks + " acks, "
+        + ackTimeouts + " timeouts, rtt " + lastRoundTripNanos / 1000 + " us";
+  }
+
+  private void markDirty(int setting) {
+    if ((dirty & setting) != 0) {
+      settingsCoalesced++;
+    }
+    configured |= setting;
+    dirty |= setting;
+  }
+
+  /** The link is up; everything configured so far is sent again. Reader thread. */
+  void onConnected(OutputStream output) {
+    synchronized (this) {
+      this.output = output;
+      configured &= ~SET_ASCII;
+      dirty = configured;
+      inFlightSequence = -1;
+      inFlight = 0;
+      lastWriteNanos = System.nanoTime();
+    }
+    wakeWriter.run();
+  }
+
+  void onDisconnected() {
+    synchronized (this) {
+      output = null;
+    }
+  }
+
+  /** The sensor answered the marker {@code sequence}. Reader thread. */
+  void onAck(int sequence, long nowNanos) {
+    synchronized (this) {
+      if (sequence != inFlightSequence) {
+        return;
+      }
+      lastRoundTripNanos = nowNanos - inFlightSentNanos;
+      inFlightSequence = -1;
+      inFlight = 0;
+      acks++;
+      if (dirty == 0) {
+        return;
+      }
+    }
+    wakeWriter.run();
+  }
+
+  /**
+   * Writes a batch if one is due. Writer thread.
+   *
+   * @return When to call again at the latest, as a {@link System#nanoTime()} value.
+   * @throws IOException If the write failed; the link is broken.
+   */
+  long service(long nowNanos) throws IOException {
+    OutputStream out;
+    int length;
+    synchronized (this) {
+      out = output;
+      if (out == null) {
+        return Long.MAX_VALUE;
+      }
+      if (inFlightSequence >= 0) {
+        long due = inFlightSentNanos + ACK_TIMEOUT_MS * 1000000L;
+        if (nowNanos - due < 0) {
+          return due;
+        }
+        // Lost, send the current values of whatever it carried.
+        ackTimeouts++;
+        dirty |= inFlight;
+        inFlightSequence = -1;
+      }
+      long keepAliveDue = lastWriteNanos + KEEP_ALIVE_MS * 1000000L;
+      if (dirty == 0 && nowNanos - keepAliveDue < 0) {
+        return keepAliveDue;
+      }
+      length = encode();
+      inFlight = dirty;
+      dirty = 0;
+      inFlightSequence = nextSequence;
+      nextSequence = (nextSequence + 1) & Integer.MAX_VALUE;
+      inFlightSentNanos = nowNanos;
+      lastWriteNanos = nowNanos;
+    }
+    out.write(batch, 0, length);
+    out.flush();
+    batchesWritten++;
+    return nowNanos + ACK_TIMEOUT_MS * 1000000L;
+  }
+
+  private int encode() {
+    int pos = 0;
+    if ((dirty & SET_ASCII) != 0) {
+      System.arraycopy(SensorProtocol.COMMAND_ASCII, 0, batch, pos,
+          SensorProtocol.COMMAND_ASCII.length);
+      pos += SensorProtocol.COMMAND_ASCII.length;
+    }
+    if ((dirty & SET_RATE) != 0) {
+      batch[pos++] = 'f';
+      pos = writeInt(batch, pos, sampleRate);
+      batch[pos++] = '\n';
+    }
+    if ((dirty & SET_CALIBRATION) != 0) {
+      batch[pos++] = 'c';
+      for (int i = 0; i < calibration.length; i++) {
+        if (i > 0) {
+          batch[pos++] = ',';
+        }
+        pos = SyntheticSensorTransport.writeFixed2(batch, pos, calibration[i]);
+      }
+      batch[pos++] = '\n';
+    }
+    batch[pos++] = '#';
+    pos = writeInt(batch, pos, nextSequence);
+    batch[pos++] = '\n';
+    return pos;
+  }
+
+  /**
+   * Writes the decimal digits of a non-negative {@code value} at {@code pos}.
+   *
+   * @return The position after the last written byte.
+   */
+  static int writeInt(byte[] dst, int pos, int value) {
+    int start = pos;
+    do {
+      dst[pos++] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value > 0);
+    // Digits were written least significant first.
+    for (int i = start, j = pos - 1; i < j; i++, j--) {
+      byte t = dst[i];
+      dst[i] = dst[j];
+      dst[j] = t;
+    }
+    return pos;
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Incremental parser for the ASCII frames sent by the HC-06 sensor module.
+ *
+ * <p>A frame is a list of space separated fields terminated by a literal {@code 'r'}. Fields 1, 2
+ * and 3 carry the X, Y and Z rotation in degrees (field 0 is ignored), which matches the layout
+ * the old {@code InputVal.split(" ")} code expected. Bytes are consumed straight out of the read
+ * buffer, so frames may be split across reads and several frames may arrive in a single read.
+ * Nothing is allocated after construction.
+ */
+public final class SensorFrameParser {
+
+  /** Number of values carried by a frame. */
+  public static final int AXES = 3;
+
+  private static final byte FIELD_SEPARATOR = ' ';
+  private static final byte FRAME_TERMINATOR = 'r';
+
+  // Digits beyond this are dropped so that the mantissa never overflows a long.
+  private static final int MAX_DIGITS = 18;
+
+  private static final double[] POW10 = new double[MAX_DIGITS + 1];
+
+  static {
+    POW10[0] = 1.0;
+    for (int i = 1; i < POW10.length; i++) {
+      POW10[i] = POW10[i - 1] * 10.0;
+    }
+  }
+
+  private final float[] pending = new float[AXES];
+
+  // 現在のフィールド番号
+  private int fieldIndex;
+  private int validFields;
+
+  private long mantissa;
+  private int digits;
+  private int fractionDigits;
+  private boolean negative;
+  private boolean inFraction;
+  private boolean fieldInvalid;
+
+  // 最初のフレームは途中から受信している可能性があるので捨てる
+  private boolean synced;
+
+  private long framesDecoded;
+  private long framesDropped;
+
+  public SensorFrameParser() {
+    reset();
+  }
+
+  /**
+   * Forgets any partial frame. The next complete frame is discarded as well, because the stream
+   * may have been joined in the middle of it.
+   */
+  public void reset() {
+    synced = false;
+    startFrame();
+  }
+
+  /**
+   * Feeds bytes from the read buffer into the parser.
+   *
+   * @param buffer The buffer filled by {@code InputStream.read}.
+   * @param offset Offset of the first valid byte.
+   * @param length Number of valid bytes.
+   * @param sink Receives every complete frame of this chunk.
+   * @return The number of complete frames decoded from this chunk.
+   */
+  public int feed(byte[] buffer, int offset, int length, SensorFrameSink sink) {
+    int frames = 0;
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      byte b = buffer[i];
+      if (b == FRAME_TERMINATOR) {
+        endField();
+        if (endFrame(sink)) {
+          frames++;
+        }
+      } else if (b == FIELD_SEPARATOR) {
+        endField();
+        fieldIndex++;
+      } else {
+        accept(b);
+      }
+    }
+    return frames;
+  }
+
+  /** Total number of frames delivered since construction. */
+  public long getFramesDecoded() {
+    return framesDecoded;
+  }
+
+  /** Total number of malformed or incomplete frames discarded since construction. */
+  public long getFramesDropped() {
+    return framesDropped;
+  }
+
+  private void accept(byte b) {
+    if (b >= '0' && b <= '9') {
+      if (digits < MAX_DIGITS) {
+        mantissa = mantissa * 10 + (b - '0');
+        digits++;
+        if (inFraction) {
+          fractionDigits++;
+        }
+      } else if (!inFraction) {
+        // Too many integer digits to represent; the value is meaningless for a rotation anyway.
+        fieldInvalid = true;
+      }
+    } else if (b == '.' && !inFraction) {
+      inFraction = true;
+    } else if (b == '-' && digits == 0 && !inFraction && !negative) {
+      negative = true;
+    } else if (b == '+' && digits == 0 && !inFraction && !negative) {
+      // Explicit plus sign, nothing to do.
+    } else if (b == '\r' || b == '\n' || b == '\t') {
+      // Float.parseFloat used to trim these, so they never split a field.
+    } else {
+      fieldInvalid = true;
+    }
+  }
+
+  private void endField() {
+    if (fieldIndex >= 1 && fieldIndex <= AXES && digits > 0 && !fieldInvalid) {
+      double value = mantissa / POW10[fractionDigits];
+      pending[fieldIndex - 1] = (float) (negative ? -value : value);
+      validFields |= 1 << (fieldIndex - 1);
+    }
+    mantissa = 0;
+    digits = 0;
+    fractionDigits = 0;
+    negative = false;
+    inFraction = false;
+    fieldInvalid = false;
+  }
+
+  private boolean endFrame(SensorFrameSink sink) {
+    boolean complete = validFields == (1 << AXES) - 1;
+    boolean delivered = false;
+    if (!synced) {
+      synced = true;
+    } else if (complete) {
+      framesDecoded++;
+      sink.onFrame(pending[0], pending[1], pending[2]);
+      delivered = true;
+    } else {
+      framesDropped++;
+    }
+    startFrame();
+    return delivered;
+  }
+
+  private void startFrame() {
+    fieldIndex = 0;
+    validFields = 0;
+    endField();
+  }
+}
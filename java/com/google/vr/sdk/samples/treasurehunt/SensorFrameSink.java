@@ -0,0 +1,28 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+/**
+ * Receives the frames decoded by {@link SensorFrameParser}, {@link BinaryFrameCodec} and
+ * {@link SensorProtocol}, one call per frame in stream order, so a read that holds several frames
+ * hands over every one of them.
+ */
+public interface SensorFrameSink {
+
+  /** Called with the X, Y and Z values of one frame, on the thread that feeds the decoder. */
+  void onFrame(float x, float y, float z);
+}
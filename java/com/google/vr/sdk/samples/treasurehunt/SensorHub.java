@@ -0,0 +1,549 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reads several sensors at once, each over its own {@link SensorTransport}.
+ *
+ * <p>Every device gets a reader thread that parses its stream, converts the frames to
+ * orientations, runs its own filter and publishes them into its own {@link SampleHistory}, so the
+ * renderer samples each device without locks and a slow device never holds up the others.
+ *
+ * <p>Each device runs a small state machine on its reader thread: {@link #STATE_CONNECTING},
+ * {@link #STATE_STREAMING}, and after a failure {@link #STATE_BACKOFF}, which waits an
+ * exponentially growing, jittered delay before connecting again. The same thread is reused for
+ * every attempt. A failed read, the end of the stream and a link that stays silent for longer than
+ * {@link #READ_TIMEOUT_MS} all count as a lost link; the silence is detected by a shared watchdog
+ * thread which closes the transport to unblock the read. The time from losing a link to the first
+ * sample of the next connection is recorded as the recovery time.
+ *
+ * <p>Configuration goes the other way through each device's {@link SensorCommandChannel}. One
+ * writer thread serves all of them, so neither the reader threads nor the GL thread ever wait for
+ * a write.
+ *
+ * <p>Devices are added before {@link #start()}. {@link #start()} and {@link #stop()} are called
+ * from one controlling thread and never block; the histories and counters may be read from any
+ * thread.
+ */
+public final class SensorHub {
+
+  private static final String TAG = "SensorHub";
+
+  public static final int STATE_IDLE = 0;
+  public static final int STATE_CONNECTING = 1;
+  public static final int STATE_STREAMING = 2;
+  public static final int STATE_BACKOFF = 3;
+
+  private static final String[] STATE_NAMES = {"idle", "connecting", "streaming", "backoff"};
+
+  /** Delay before the first reconnect, doubled after each failed attempt. */
+  static final long INITIAL_BACKOFF_MS = 250;
+  static final long MAX_BACKOFF_MS = 8000;
+
+  /** A streaming link with no bytes for this long is treated as lost. */
+  static final long READ_TIMEOUT_MS = 2000;
+
+  /** A connect still pending after this long is abandoned. */
+  static final long CONNECT_TIMEOUT_MS = 15000;
+
+  private static final long WATCHDOG_PERIOD_MS = 250;
+
+  // Link warnings of all devices share one budget, dozens of devices may fail at once.
+  private static final long LINK_LOG_INTERVAL_MS = 1000;
+
+  /**
+   * Receives device events. Called on the device's reader thread, so implementations must be
+   * quick and thread-safe.
+   */
+  public interface Listener {
+
+    /** The device connected, or reconnected. */
+    void onConnected(int device);
+
+    /** The first sample of a connection was published. */
+    void onFirstSample(int device);
+
+    /** A connect failed or the link was lost; the device will retry after a backoff. */
+    void onDisconnected(int device, IOException cause);
+  }
+
+  private final Listener listener;
+  private final int historySamples;
+  private final List<Device> devices = new ArrayList<>();
+  private volatile boolean running;
+  // Bumped by every start(); threads of an earlier start exit even though the hub runs again.
+  private volatile int generation;
+  private volatile PipelineMetrics metrics;
+  private volatile SessionRecorder recorder;
+  private final RateLimitedLog linkLog = new RateLimitedLog(LINK_LOG_INTERVAL_MS);
+  private Thread watchdog;
+  private Thread writer;
+
+  // Set by the channels when they have something to write, guarded by itself.
+  private final boolean[] writePending = new boolean[1];
+  private final Runnable wakeWriter = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (writePending) {
+        writePending[0] = true;
+        writePending.notifyAll();
+      }
+    }
+  };
+
+  /**
+   * @param listener Receives the device events.
+   * @param historySamples Capacity of each device's {@link SampleHistory}, a power of two of at
+   *     least {@link SampleHistory#MIN_CAPACITY}.
+   */
+  public SensorHub(Listener listener, int historySamples) {
+    this.listener = listener;
+    this.historySamples = historySamples;
+  }
+
+  /**
+   * Adds a device. Must be called before {@link #start()}.
+   *
+   * @param transport The link to the sensor.
+   * @param filter Filter for its samples, or null; not shared with other devices.
+   * @param requestBinary Whether to ask the sensor for binary frames.
+   * @return The device index.
+   */
+  public int addDevice(SensorTransport transport, OrientationFilter filter, boolean requestBinary) {
+    if (running) {
+      throw new IllegalStateException("Devices must be added before start()");
+    }
+    devices.add(new Device(devices.size(), transport, filter, requestBinary));
+    return devices.size() - 1;
+  }
+
+  /** Where the reader threads record read sizes and parse times, or null. */
+  public void setMetrics(PipelineMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /** Where the reader threads capture what they read and decode, or null. */
+  public void setRecorder(SessionRecorder recorder) {
+    this.recorder = recorder;
+  }
+
+  public int getDeviceCount() {
+    return devices.size();
+  }
+
+  /** The samples of {@code device}, for the renderer. */
+  public SampleHistory getHistory(int device) {
+    return devices.get(device).history;
+  }
+
+  public SensorTransport getTransport(int device) {
+    return devices.get(device).transport;
+  }
+
+  /** Commands for {@code device}; settings made before it connects are sent once it does. */
+  public SensorCommandChannel getCommands(int device) {
+    return devices.get(device).commands;
+  }
+
+  /** One of the {@code STATE_} constants. */
+  public int getState(int device) {
+    return devices.get(device).state;
+  }
+
+  /** Samples published by {@code device} since construction. */
+  public long getSampleCount(int device) {
+    return devices.get(device).history.getCount();
+  }
+
+  /** Number of times {@code device} lost its link or failed to connect. */
+  public int getDisconnectCount(int device) {
+    return devices.get(device).disconnects;
+  }
+
+  /** Nanoseconds from receiving the newest frame of {@code device} to publishing its sample. */
+  public long getLastPublishNanos(int device) {
+    return devices.get(device).lastPublishNanos;
+  }
+
+  /** Number of times {@code device} delivered samples again after losing its link. */
+  public int getRecoveryCount(int device) {
+    return devices.get(device).recoveries;
+  }
+
+  /** Average time from losing the link to the next sample, or 0 before the first recovery. */
+  public long getAverageRecoveryNanos(int device) {
+    Device d = devices.get(device);
+    int recoveries = d.recoveries;
+    return recoveries == 0 ? 0 : d.totalRecoveryNanos / recoveries;
+  }
+
+  public long getMaxRecoveryNanos(int device) {
+    return devices.get(device).maxRecoveryNanos;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Starts one reader thread per device and the watchdog. Does nothing if already running. After a
+   * {@link #stop()} each new reader first waits for the previous reader of its device to exit, so
+   * a transport is never used by two threads.
+   */
+  public void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    final int started = ++generation;
+    for (final Device device : devices) {
+      final Thread previous = device.thread;
+      device.thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          // It may still be leaving a connect() or read() that stop() aborted. Waiting even when
+          // this start was stopped too keeps the readers of all starts in line.
+          boolean interrupted = false;
+          while (previous != null && previous.isAlive()) {
+            try {
+              previous.join();
+            } catch (InterruptedException e) {
+              interrupted = true;
+            }
+          }
+          if (interrupted) {
+            Thread.currentThread().interrupt();
+          }
+          device.read(started);
+        }
+      }, "sensor-" + device.index);
+      device.thread.start();
+    }
+    watchdog = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watch(started);
+      }
+    }, "sensor-watchdog");
+    watchdog.setDaemon(true);
+    watchdog.start();
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        write(started);
+      }
+    }, "sensor-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /** Closes every link and stops the threads without waiting for them. */
+  public void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    watchdog.interrupt();
+    writer.interrupt();
+    for (Device device : devices) {
+      device.close();
+      device.thread.interrupt();
+    }
+  }
+
+  /** One line per device for the log. */
+  public String describe() {
+    StringBuilder sb = new StringBuilder();
+    for (Device device : devices) {
+      sb.append(device.index).append(' ').append(device.transport.getName()).append(": ")
+          .append(STATE_NAMES[device.state]).append(", ")
+          .append(device.history.getCount()).append(" samples, ")
+          .append(device.disconnects).append(" disconnects, ")
+          .append(device.recoveries).append(" recoveries");
+      if (device.recoveries > 0) {
+        sb.append(" (avg ").append(getAverageRecoveryNanos(device.index) / 1000000)
+            .append(" ms, max ").append(device.maxRecoveryNanos / 1000000).append(" ms)");
+      }
+      sb.append("; commands: ").append(device.commands.describe()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  // Whether threads of the start that returned startedGeneration should keep going.
+  private boolean isCurrent(int startedGeneration) {
+    return running && generation == startedGeneration;
+  }
+
+  // Closes links that stopped delivering, which makes their blocked read fail.
+  private void watch(int started) {
+    long readTimeoutNanos = READ_TIMEOUT_MS * 1000000L;
+    long connectTimeoutNanos = CONNECT_TIMEOUT_MS * 1000000L;
+    while (isCurrent(started)) {
+      try {
+        Thread.sleep(WATCHDOG_PERIOD_MS);
+      } catch (InterruptedException e) {
+        return;
+      }
+      long now = System.nanoTime();
+      for (Device device : devices) {
+        int state = device.state;
+        long idle = now - device.lastActivityNanos;
+        if ((state == STATE_STREAMING && idle > readTimeoutNanos)
+            || (state == STATE_CONNECTING && idle > connectTimeoutNanos)) {
+          device.timedOut = true;
+          device.close();
+        }
+      }
+    }
+  }
+
+  // Services the command channels until stopped, sleeping until the earliest deadline or until a
+  // channel has something new.
+  private void write(int started) {
+    while (isCurrent(started)) {
+      long now = System.nanoTime();
+      long next = Long.MAX_VALUE;
+      for (Device device : devices) {
+        try {
+          long due = device.commands.service(now);
+          if (due - next < 0) {
+            next = due;
+          }
+        } catch (IOException e) {
+          // The reader notices too, closing just makes it notice sooner.
+          if (linkLog.allow()) {
+            Log.w(TAG, device.transport.getName() + ": write failed: " + e
+                + linkLog.suppressedSuffix());
+          }
+          device.commands.onDisconnected();
+          device.close();
+        }
+      }
+      synchronized (writePending) {
+        long wait = next == Long.MAX_VALUE ? 0 : next - System.nanoTime();
+        while (!writePending[0] && (next == Long.MAX_VALUE || wait > 0)) {
+          try {
+            writePending.wait(wait / 1000000, (int) (wait % 1000000));
+          } catch (InterruptedException e) {
+            return;
+          }
+          wait = next == Long.MAX_VALUE ? 0 : next - System.nanoTime();
+        }
+        writePending[0] = false;
+      }
+    }
+  }
+
+  private final class Device implements SensorFrameSink {
+    final int index;
+    final SensorTransport transport;
+    final OrientationFilter filter;
+    final boolean requestBinary;
+    final SampleHistory history = new SampleHistory(historySamples);
+    final SensorCommandChannel commands = new SensorCommandChannel(wakeWriter);
+
+    // Reader thread only.
+    private final SensorProtocol protocol = new SensorProtocol();
+    private final SampleClock clock = new SampleClock();
+    // The last frame decoded, for the recorder.
+    private final float[] values = new float[SensorFrameParser.AXES];
+    private final float[] sample = new float[SampleHistory.SIZE];
+    private final byte[] buffer = new byte[1024];
+    private final Random jitter;
+    private long backoffMs = INITIAL_BACKOFF_MS;
+    // When the link was lost, or 0 while it is up or was never up.
+    private long lostNanos;
+    // Receive time of the read being decoded, and whether no sample was published on this link.
+    private long readNanos;
+    private boolean firstSample;
+
+    Thread thread;
+    volatile int state = STATE_IDLE;
+    // Start of the current connect, or the last read while streaming; for the watchdog.
+    volatile long lastActivityNanos;
+    volatile boolean timedOut;
+    volatile int disconnects;
+    volatile long lastPublishNanos;
+    volatile int recoveries;
+    volatile long totalRecoveryNanos;
+    volatile long maxRecoveryNanos;
+
+    Device(int index, SensorTransport transport, OrientationFilter filter,
+        boolean requestBinary) {
+      this.index = index;
+      this.transport = transport;
+      this.filter = filter;
+      this.requestBinary = requestBinary;
+      this.jitter = new Random(index);
+    }
+
+    // The reader thread of the start that returned started.
+    void read(int started) {
+      while (isCurrent(started)) {
+        try {
+          timedOut = false;
+          lastActivityNanos = System.nanoTime();
+          state = STATE_CONNECTING;
+          transport.connect();
+          if (!isCurrent(started)) {
+            break;
+          }
+          listener.onConnected(index);
+          lastActivityNanos = System.nanoTime();
+          state = STATE_STREAMING;
+          stream(transport.getInputStream(), started);
+          if (isCurrent(started)) {
+            throw new IOException("Stream closed by " + transport.getName());
+          }
+        } catch (IOException e) {
+          if (isCurrent(started)) {
+            onLinkLost(timedOut ? new IOException("Timed out: " + transport.getName()) : e);
+          }
+        } finally {
+          commands.onDisconnected();
+          close();
+        }
+        if (isCurrent(started) && !backoff()) {
+          break;
+        }
+      }
+      state = STATE_IDLE;
+    }
+
+    private void onLinkLost(IOException cause) {
+      disconnects++;
+      if (lostNanos == 0) {
+        lostNanos = System.nanoTime();
+      }
+      if (linkLog.allow()) {
+        Log.w(TAG, transport.getName() + ": " + cause + ", retry in " + backoffMs + " ms"
+            + linkLog.suppressedSuffix());
+      }
+      listener.onDisconnected(index, cause);
+    }
+
+    // Waits before the next attempt; false if interrupted by stop().
+    private boolean backoff() {
+      state = STATE_BACKOFF;
+      // Up to a quarter of jitter keeps devices that failed together from retrying together.
+      long delay = backoffMs + (long) (jitter.nextFloat() * backoffMs / 4);
+      backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+      try {
+        Thread.sleep(delay);
+        return true;
+      } catch (InterruptedException e) {
+        return false;
+      }
+    }
+
+    // Reads until the stream ends; failures are thrown.
+    private void stream(InputStream in, int started) throws IOException {
+      protocol.reset();
+      clock.reset();
+      // The samples of the previous link would bridge the outage.
+      history.clear();
+      if (filter != null) {
+        filter.reset();
+      }
+      if (requestBinary) {
+        protocol.requestBinary(transport.getOutputStream(), System.nanoTime());
+      }
+      // Written to only by the writer thread from here on.
+      commands.onConnected(transport.getOutputStream());
+      firstSample = true;
+      int bytes;
+      while (isCurrent(started) && (bytes = in.read(buffer)) >= 0) {
+        long received = System.nanoTime();
+        lastActivityNanos = received;
+        readNanos = received;
+        int frames = protocol.feed(buffer, 0, bytes, this, received);
+        int ack = protocol.takeAck();
+        if (ack >= 0) {
+          commands.onAck(ack, received);
+        }
+        if (protocol.takeFallback()) {
+          // The sensor may still send binary frames the decoder no longer expects.
+          commands.requestAsciiFrames();
+          if (linkLog.allow()) {
+            Log.w(TAG, transport.getName() + ": binary frames went bad, back to ASCII"
+                + linkLog.suppressedSuffix());
+          }
+        }
+        PipelineMetrics m = metrics;
+        if (m != null) {
+          m.recordSensorRead(bytes, System.nanoTime() - received);
+        }
+        SessionRecorder r = recorder;
+        if (r != null) {
+          r.recordSensorBytes(index, received, buffer, 0, bytes);
+          if (frames > 0) {
+            r.recordSample(index, received, values, 0);
+          }
+        }
+      }
+    }
+
+    // Publishes one decoded frame; every frame of a read is timestamped and kept.
+    @Override
+    public void onFrame(float x, float y, float z) {
+      values[0] = x;
+      values[1] = y;
+      values[2] = z;
+      // SRZ turns the cube around X, SRY around Y and SRX around Z.
+      Quaternions.setFromEulerXyz(sample, 0, z, y, x);
+      long sampleTime = clock.onArrival(readNanos);
+      if (filter != null) {
+        filter.filter(sampleTime, sample, 0);
+      }
+      history.add(sampleTime, sample, 0);
+      lastPublishNanos = System.nanoTime() - readNanos;
+      if (firstSample) {
+        firstSample = false;
+        onFirstSample(readNanos);
+      }
+    }
+
+    private void onFirstSample(long now) {
+      // Only a connection that delivers data resets the backoff.
+      backoffMs = INITIAL_BACKOFF_MS;
+      if (lostNanos != 0) {
+        long recovery = now - lostNanos;
+        lostNanos = 0;
+        totalRecoveryNanos += recovery;
+        maxRecoveryNanos = Math.max(maxRecoveryNanos, recovery);
+        recoveries++;
+      }
+      listener.onFirstSample(index);
+    }
+
+    void close() {
+      try {
+        transport.close();
+      } catch (IOException e) {
+        // Nothing left to do with a broken link.
+      }
+    }
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Chooses between the ASCII and the binary frame format for one connection.
+ *
+ * <p>The link always starts in ASCII. {@link #requestBinary} sends {@link #COMMAND_BINARY} to the
+ * sensor; firmware that understands it answers with binary frames, anything else keeps sending
+ * ASCII. While negotiating both decoders run, and the link switches to binary after
+ * {@link #FRAMES_TO_CONFIRM} valid binary frames. If none arrive before the deadline, or the binary
+ * stream later goes bad, the link falls back to ASCII. A sensor that was reset sends ASCII, which
+ * has no sync bytes and so never fails a CRC; the link also falls back when no valid binary frame
+ * arrived within {@link #MAX_BYTES_WITHOUT_FRAME} bytes or {@link #MAX_NANOS_WITHOUT_FRAME}.
+ *
+ * <p>A fallback from binary frames that did arrive is reported by {@link #takeFallback()}, so
+ * that the caller sends {@link #COMMAND_ASCII} and the sensor agrees with the decoder. Until then,
+ * or if the sensor never gets the command, the binary decoder keeps watching the ASCII stream,
+ * which has no sync bytes, and {@link #FRAMES_TO_CONFIRM} valid binary frames switch the link
+ * back to binary.
+ *
+ * <p>In every mode the stream may also carry acknowledgements for {@link SensorCommandChannel}
+ * batches, {@code !SEQUENCE\n} sent between frames. The ASCII parser sees them as part of the
+ * ignored field 0 and the binary decoder skips them while looking for a sync byte, so they are
+ * picked out separately and read with {@link #takeAck()}. A binary frame that happens to contain
+ * the same bytes is harmless, the channel only accepts the sequence number it waits for.
+ */
+public final class SensorProtocol {
+
+  /** Asks the sensor to switch to binary frames. */
+  public static final byte[] COMMAND_BINARY = {'b', '\n'};
+  /** Asks the sensor to go back to ASCII frames. */
+  public static final byte[] COMMAND_ASCII = {'a', '\n'};
+
+  /** Mode constants. */
+  public static final int MODE_ASCII = 0;
+  public static final int MODE_NEGOTIATING = 1;
+  public static final int MODE_BINARY = 2;
+
+  static final int FRAMES_TO_CONFIRM = 2;
+  private static final long NEGOTIATION_TIMEOUT_NANOS = 500000000L;
+  // CRC errors in a row after which the binary stream is considered broken.
+  private static final int MAX_CONSECUTIVE_ERRORS = 8;
+  // Bytes, and time while bytes keep arriving, without a valid binary frame after which the sensor
+  // is assumed to have gone back to ASCII.
+  static final int MAX_BYTES_WITHOUT_FRAME = 16 * BinaryFrameCodec.FRAME_LENGTH;
+  static final long MAX_NANOS_WITHOUT_FRAME = 500000000L;
+
+  private final SensorFrameParser asciiParser = new SensorFrameParser();
+  private final BinaryFrameCodec binaryDecoder = new BinaryFrameCodec();
+
+  // Longest sequence number accepted in an acknowledgement.
+  private static final int MAX_ACK_DIGITS = 9;
+
+  private int mode = MODE_ASCII;
+  private long negotiationDeadline;
+  private int binaryFramesSeen;
+  private long crcErrorsAtLastFrame;
+  private int bytesSinceFrame;
+  private long lastFrameNanos;
+  // Set by a fallback from binary: watch for binary frames while decoding ASCII.
+  private boolean watchingBinary;
+  private boolean fallbackPending;
+  private long fallbacks;
+
+  // Counts the binary frames until the format is confirmed and passes on those from the
+  // confirming one on.
+  private final SensorFrameSink negotiationSink = new SensorFrameSink() {
+    @Override
+    public void onFrame(float x, float y, float z) {
+      binaryFramesSeen++;
+      if (binaryFramesSeen >= FRAMES_TO_CONFIRM) {
+        negotiationTarget.onFrame(x, y, z);
+      }
+    }
+  };
+  private SensorFrameSink negotiationTarget;
+
+  // Digits of the acknowledgement being scanned, -1 outside of one.
+  private int ackDigits = -1;
+  private int ackValue;
+  private int lastAck = -1;
+
+  /** Starts over in ASCII mode, e.g. after a reconnect. */
+  public void reset() {
+    mode = MODE_ASCII;
+    asciiParser.reset();
+    binaryDecoder.reset();
+    binaryFramesSeen = 0;
+    watchingBinary = false;
+    fallbackPending = false;
+    ackDigits = -1;
+    lastAck = -1;
+  }
+
+  /**
+   * Sends the binary mode request and starts negotiating.
+   *
+   * @param output Stream to the sensor.
+   * @param nowNanos Current {@link System#nanoTime()}.
+   */
+  public void requestBinary(OutputStream output, long nowNanos) throws IOException {
+    output.write(COMMAND_BINARY);
+    output.flush();
+    mode = MODE_NEGOTIATING;
+    negotiationDeadline = nowNanos + NEGOTIATION_TIMEOUT_NANOS;
+    binaryFramesSeen = 0;
+    watchingBinary = false;
+    binaryDecoder.reset();
+  }
+
+  /**
+   * Feeds bytes from the read buffer to the decoder for the current mode.
+   *
+   * @param buffer The buffer filled by {@code InputStream.read}.
+   * @param offset Offset of the first valid byte.
+   * @param length Number of valid bytes.
+   * @param sink Receives every complete frame of this chunk.
+   * @param nowNanos Current {@link System#nanoTime()}.
+   * @return The number of complete frames decoded from this chunk.
+   */
+  public int feed(byte[] buffer, int offset, int length, SensorFrameSink sink, long nowNanos) {
+    scanAcks(buffer, offset, length);
+    switch (mode) {
+      case MODE_BINARY:
+        return feedBinary(buffer, offset, length, sink, nowNanos);
+      case MODE_NEGOTIATING:
+        return feedNegotiating(buffer, offset, length, sink, nowNanos);
+      default:
+        return watchingBinary
+            ? feedWatching(buffer, offset, length, sink, nowNanos)
+            : asciiParser.feed(buffer, offset, length, sink);
+    }
+  }
+
+  /**
+   * Whether the link fell back from binary to ASCII since the previous call. The sensor may still
+   * be sending binary frames, so it should be sent {@link #COMMAND_ASCII}.
+   */
+  public boolean takeFallback() {
+    boolean pending = fallbackPending;
+    fallbackPending = false;
+    return pending;
+  }
+
+  /** Number of fallbacks from binary frames since construction. */
+  public long getFallbacks() {
+    return fallbacks;
+  }
+
+  /** The sequence number of the last acknowledgement fed since the previous call, or -1. */
+  public int takeAck() {
+    int ack = lastAck;
+    lastAck = -1;
+    return ack;
+  }
+
+  /** One of {@link #MODE_ASCII}, {@link #MODE_NEGOTIATING} or {@link #MODE_BINARY}. */
+  public int getMode() {
+    return mode;
+  }
+
+  public SensorFrameParser getAsciiParser() {
+    return asciiParser;
+  }
+
+  public BinaryFrameCodec getBinaryDecoder() {
+    return binaryDecoder;
+  }
+
+  private void scanAcks(byte[] buffer, int offset, int length) {
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      byte b = buffer[i];
+      if (b == '!') {
+        ackDigits = 0;
+        ackValue = 0;
+      } else if (ackDigits < 0) {
+        continue;
+      } else if (b >= '0' && b <= '9' && ackDigits < MAX_ACK_DIGITS) {
+        ackValue = ackValue * 10 + (b - '0');
+        ackDigits++;
+      } else {
+        if (b == '\n' && ackDigits > 0) {
+          lastAck = ackValue;
+        }
+        ackDigits = -1;
+      }
+    }
+  }
+
+  private int feedBinary(byte[] buffer, int offset, int length, SensorFrameSink sink,
+      long nowNanos) {
+    int frames = binaryDecoder.feed(buffer, offset, length, sink);
+    if (frames > 0) {
+      onBinaryFrame(nowNanos);
+    } else {
+      bytesSinceFrame += length;
+      if (binaryDecoder.getCrcErrors() - crcErrorsAtLastFrame >= MAX_CONSECUTIVE_ERRORS
+          || bytesSinceFrame > MAX_BYTES_WITHOUT_FRAME
+          || nowNanos - lastFrameNanos > MAX_NANOS_WITHOUT_FRAME) {
+        // The sensor was reset or never really switched, go back to ASCII.
+        fallBack();
+      }
+    }
+    return frames;
+  }
+
+  private void onBinaryFrame(long nowNanos) {
+    crcErrorsAtLastFrame = binaryDecoder.getCrcErrors();
+    bytesSinceFrame = 0;
+    lastFrameNanos = nowNanos;
+  }
+
+  private int feedNegotiating(byte[] buffer, int offset, int length, SensorFrameSink sink,
+      long nowNanos) {
+    int binaryFrames = confirmBinary(buffer, offset, length, sink, nowNanos);
+    if (binaryFrames >= 0) {
+      return binaryFrames;
+    }
+    // Once a binary frame showed up the ASCII parser may be fed binary garbage, so ignore it.
+    int asciiFrames = binaryFramesSeen == 0 ? asciiParser.feed(buffer, offset, length, sink) : 0;
+    if (nowNanos - negotiationDeadline > 0) {
+      if (binaryFramesSeen > 0) {
+        // The sensor did switch, make sure it switches back.
+        fallBack();
+      } else {
+        mode = MODE_ASCII;
+      }
+    }
+    return asciiFrames;
+  }
+
+  private int feedWatching(byte[] buffer, int offset, int length, SensorFrameSink sink,
+      long nowNanos) {
+    int seenBefore = binaryFramesSeen;
+    int binaryFrames = confirmBinary(buffer, offset, length, sink, nowNanos);
+    if (binaryFrames >= 0) {
+      return binaryFrames;
+    }
+    // A chunk that held a binary frame is no ASCII.
+    return binaryFramesSeen == seenBefore ? asciiParser.feed(buffer, offset, length, sink) : 0;
+  }
+
+  // Feeds the binary decoder until FRAMES_TO_CONFIRM frames confirmed the binary format. Returns
+  // the frames delivered from the confirming one on, or -1 while unconfirmed.
+  private int confirmBinary(byte[] buffer, int offset, int length, SensorFrameSink sink,
+      long nowNanos) {
+    int seenBefore = binaryFramesSeen;
+    negotiationTarget = sink;
+    binaryDecoder.feed(buffer, offset, length, negotiationSink);
+    negotiationTarget = null;
+    if (binaryFramesSeen < FRAMES_TO_CONFIRM) {
+      return -1;
+    }
+    mode = MODE_BINARY;
+    watchingBinary = false;
+    onBinaryFrame(nowNanos);
+    return binaryFramesSeen - Math.max(seenBefore, FRAMES_TO_CONFIRM - 1);
+  }
+
+  private void fallBack() {
+    mode = MODE_ASCII;
+    asciiParser.reset();
+    binaryDecoder.reset();
+    binaryFramesSeen = 0;
+    watchingBinary = true;
+    fallbackPending = true;
+    fallbacks++;
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A byte stream link to the sensor module.
+ *
+ * <p>The reader thread calls {@link #connect()}, then reads from {@link #getInputStream()} until it
+ * fails or the transport is closed, and may connect again after closing it. {@link #close()} may
+ * be called from any thread and must unblock a pending read or connect.
+ */
+public interface SensorTransport extends Closeable {
+
+  /** Opens the link. Blocks until connected. */
+  void connect() throws IOException;
+
+  /** Stream of bytes sent by the sensor. Only valid after {@link #connect()}. */
+  InputStream getInputStream() throws IOException;
+
+  /** Stream of bytes sent to the sensor. Only valid after {@link #connect()}. */
+  OutputStream getOutputStream() throws IOException;
+
+  /** Short human readable description, used in status messages. */
+  String getName();
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.File;
+
+/**
+ * Creates the non-Bluetooth {@link SensorTransport}s from a short text spec, so they can be picked
+ * with an intent extra, e.g. {@code adb shell am start ... --es sensor synthetic:2000}.
+ *
+ * <ul>
+ *   <li>{@code tcp:HOST:PORT}
+ *   <li>{@code replay:PATH[#DEVICE][@SCALE][:loop]}, SCALE defaults to 1, 0 replays unthrottled;
+ *       DEVICE picks the sensor of a {@link SessionRecorder} capture and defaults to 0
+ *   <li>{@code synthetic:RATE}, RATE in samples per second, 0 for unthrottled
+ *   <li>{@code flaky:UPTIME_MS:SPEC}, the transport given by SPEC with a link that drops after
+ *       about UPTIME_MS, see {@link FlakySensorTransport}
+ * </ul>
+ *
+ * <p>Several specs separated by commas give one transport per sensor, see {@link #listFromSpec}.
+ */
+public final class SensorTransports {
+
+  private SensorTransports() {}
+
+  /**
+   * Parses a transport spec.
+   *
+   * @param spec The spec, see the class comment.
+   * @return The transport, not yet connected.
+   * @throws IllegalArgumentException If the spec is malformed.
+   */
+  public static SensorTransport fromSpec(String spec) {
+    int colon = spec.indexOf(':');
+    if (colon < 0) {
+      throw new IllegalArgumentException("Bad sensor transport: " + spec);
+    }
+    String scheme = spec.substring(0, colon);
+    String rest = spec.substring(colon + 1);
+    try {
+      if (scheme.equals("tcp")) {
+        int port = rest.lastIndexOf(':');
+        return new TcpSensorTransport(
+            rest.substring(0, port), Integer.parseInt(rest.substring(port + 1)));
+      } else if (scheme.equals("replay")) {
+        boolean loop = rest.endsWith(":loop");
+        if (loop) {
+          rest = rest.substring(0, rest.length() - ":loop".length());
+        }
+        float scale = 1.0f;
+        int at = rest.lastIndexOf('@');
+        if (at >= 0) {
+          scale = Float.parseFloat(rest.substring(at + 1));
+          rest = rest.substring(0, at);
+        }
+        int device = 0;
+        int hash = rest.lastIndexOf('#');
+        if (hash >= 0) {
+          device = Integer.parseInt(rest.substring(hash + 1));
+          rest = rest.substring(0, hash);
+        }
+        return new ReplaySensorTransport(new File(rest), device, scale, loop);
+      } else if (scheme.equals("synthetic")) {
+        return new SyntheticSensorTransport(Integer.parseInt(rest));
+      } else if (scheme.equals("flaky")) {
+        int colon2 = rest.indexOf(':');
+        return new FlakySensorTransport(fromSpec(rest.substring(colon2 + 1)),
+            Long.parseLong(rest.substring(0, colon2)),
+            FlakySensorTransport.DEFAULT_CONNECT_FAILURE_RATE, System.nanoTime());
+      }
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Bad sensor transport: " + spec, e);
+    }
+    throw new IllegalArgumentException("Unknown sensor transport: " + scheme);
+  }
+
+  /**
+   * Parses a comma separated list of transport specs, one per sensor.
+   *
+   * @throws IllegalArgumentException If any of the specs is malformed.
+   */
+  public static SensorTransport[] listFromSpec(String spec) {
+    String[] parts = spec.split(",");
+    SensorTransport[] transports = new SensorTransport[parts.length];
+    for (int i = 0; i < parts.length; i++) {
+      transports[i] = fromSpec(parts[i].trim());
+    }
+    return transports;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a capture written by {@link SessionRecorder} one record at a time, in file order.
+ *
+ * <p>The payload array is reused, so a record's contents are only valid until the next call to
+ * {@link #next()}. A record cut short at the end of the file, as left by a crash, reads as the end
+ * of the capture.
+ */
+public final class SessionReader {
+
+  private final DataInputStream in;
+
+  private int type;
+  private int device;
+  private long nanos;
+  private int length;
+  private byte[] payload = new byte[1024];
+
+  public SessionReader(File file) throws IOException {
+    this(new BufferedInputStream(new FileInputStream(file)));
+  }
+
+  /**
+   * @param input Positioned at the start of a capture.
+   * @throws IOException If the input is not a capture or of a newer version.
+   */
+  public SessionReader(InputStream input) throws IOException {
+    in = new DataInputStream(input);
+    int magic;
+    int version;
+    try {
+      magic = in.readInt();
+      version = in.readInt();
+    } catch (EOFException e) {
+      throw new IOException("Not a session capture", e);
+    }
+    if (magic != SessionRecorder.MAGIC) {
+      throw new IOException("Not a session capture");
+    }
+    if (version > SessionRecorder.VERSION) {
+      throw new IOException("Unsupported capture version " + version);
+    }
+  }
+
+  /**
+   * Advances to the next record.
+   *
+   * @return False at the end of the capture.
+   */
+  public boolean next() throws IOException {
+    try {
+      type = in.readUnsignedByte();
+      device = in.readUnsignedByte();
+      nanos = in.readLong();
+      length = in.readInt();
+      if (length < 0) {
+        throw new IOException("Corrupt capture record, length " + length);
+      }
+      if (length > payload.length) {
+        payload = new byte[Math.max(length, 2 * payload.length)];
+      }
+      in.readFully(payload, 0, length);
+      return true;
+    } catch (EOFException e) {
+      return false;
+    }
+  }
+
+  /** One of the {@code SessionRecorder.TYPE_} constants; unknown types should be skipped. */
+  public int getType() {
+    return type;
+  }
+
+  public int getDevice() {
+    return device;
+  }
+
+  public long getNanos() {
+    return nanos;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /** The payload, in the first {@link #getLength()} bytes. */
+  public byte[] getPayload() {
+    return payload;
+  }
+
+  /** The {@code index}-th big-endian {@code float} of the payload. */
+  public float getFloat(int index) {
+    int p = index * 4;
+    int bits = (payload[p] & 0xff) << 24 | (payload[p + 1] & 0xff) << 16
+        | (payload[p + 2] & 0xff) << 8 | (payload[p + 3] & 0xff);
+    return Float.intBitsToFloat(bits);
+  }
+
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Captures a session into an append-only binary file: the raw bytes read from every sensor, the
+ * values decoded from them, and the head pose and start time of every frame.
+ *
+ * <p>The file starts with {@link #MAGIC} and {@link #VERSION} as big-endian {@code int}s, followed
+ * by records of a {@code byte} type, a {@code byte} device index, and then, like a
+ * {@link ReplaySensorTransport} recording, a big-endian {@code long} time in nanoseconds, an
+ * {@code int} payload length and the payload:
+ *
+ * <ul>
+ *   <li>{@link #TYPE_SENSOR_BYTES}: the bytes of one read, as received.
+ *   <li>{@link #TYPE_SENSOR_SAMPLE}: the X, Y and Z values of the last frame of that read, as
+ *       {@code float}s.
+ *   <li>{@link #TYPE_FRAME}: the head rotation quaternion at the start of the frame, as four
+ *       {@code float}s; the device index is 0.
+ * </ul>
+ *
+ * <p>The record methods only copy into an in-memory buffer under a short lock and never wait for
+ * the disk. A writer thread swaps the buffer for an empty one every {@link #FLUSH_INTERVAL_MS} or
+ * when it is half full and writes it out through a {@link FileChannel}. A record that does not fit
+ * because the disk fell behind is dropped and counted. Read captures with {@link SessionReader}.
+ */
+public final class SessionRecorder {
+
+  private static final String TAG = "SessionRecorder";
+
+  /** First {@code int} of a capture, "VRS1". */
+  public static final int MAGIC = 0x56525331;
+  public static final int VERSION = 1;
+
+  public static final int TYPE_SENSOR_BYTES = 1;
+  public static final int TYPE_SENSOR_SAMPLE = 2;
+  public static final int TYPE_FRAME = 3;
+
+  /** Bytes in front of every payload. */
+  public static final int RECORD_HEADER_BYTES = 1 + 1 + 8 + 4;
+
+  /** Longest time a record stays in memory, unless the writer is behind. */
+  public static final long FLUSH_INTERVAL_MS = 100;
+
+  private final File file;
+  private final Object lock = new Object();
+  private ByteBuffer active;
+  private ByteBuffer spare;
+  private FileChannel channel;
+  private Thread writer;
+  private boolean running;
+
+  // Guarded by lock.
+  private long records;
+  private long dropped;
+
+  private volatile long bytesWritten;
+  private volatile IOException failure;
+
+  /**
+   * @param file The capture to create; an existing file is overwritten.
+   * @param bufferBytes Size of each of the two buffers. Records arriving while both are full are
+   *     dropped, so this should hold a few flush intervals of data.
+   */
+  public SessionRecorder(File file, int bufferBytes) {
+    this.file = file;
+    active = ByteBuffer.allocate(bufferBytes);
+    spare = ByteBuffer.allocate(bufferBytes);
+  }
+
+  /** Creates the file and starts the writer thread. */
+  public void start() throws IOException {
+    synchronized (lock) {
+      if (running) {
+        return;
+      }
+      channel = new FileOutputStream(file).getChannel();
+      ByteBuffer header = ByteBuffer.allocate(8);
+      header.putInt(MAGIC).putInt(VERSION).flip();
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      bytesWritten = header.limit();
+      running = true;
+      writer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          writeLoop();
+        }
+      }, "session-writer");
+      writer.setDaemon(true);
+      writer.start();
+    }
+  }
+
+  /**
+   * Writes out what is buffered and closes the file. Blocks for the final write, so call it from
+   * a lifecycle callback, not a hot path. Records arriving afterwards are ignored.
+   */
+  public void stop() {
+    Thread thread;
+    synchronized (lock) {
+      if (!running) {
+        return;
+      }
+      running = false;
+      thread = writer;
+      writer = null;
+      lock.notifyAll();
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /** Records the bytes of one read from {@code device}, received at {@code nanos}. */
+  public void recordSensorBytes(int device, long nanos, byte[] buffer, int offset, int length) {
+    synchronized (lock) {
+      if (!reserve(length)) {
+        return;
+      }
+      putHeader(TYPE_SENSOR_BYTES, device, nanos, length);
+      active.put(buffer, offset, length);
+    }
+  }
+
+  /** Records the values decoded from the read of {@code device} received at {@code nanos}. */
+  public void recordSample(int device, long nanos, float[] values, int offset) {
+    synchronized (lock) {
+      if (!reserve(SensorFrameParser.AXES * 4)) {
+        return;
+      }
+      putHeader(TYPE_SENSOR_SAMPLE, device, nanos, SensorFrameParser.AXES * 4);
+      for (int i = 0; i < SensorFrameParser.AXES; i++) {
+        active.putFloat(values[offset + i]);
+      }
+    }
+  }
+
+  /** Records the start of a frame at {@code nanos} with the head rotation {@code quaternion}. */
+  public void recordFrame(long nanos, float[] quaternion, int offset) {
+    synchronized (lock) {
+      if (!reserve(16)) {
+        return;
+      }
+      putHeader(TYPE_FRAME, 0, nanos, 16);
+      for (int i = 0; i < 4; i++) {
+        active.putFloat(quaternion[offset + i]);
+      }
+    }
+  }
+
+  /** Records, dropped records and bytes on disk, for the log. */
+  public String describe() {
+    long recorded;
+    long lost;
+    synchronized (lock) {
+      recorded = records;
+      lost = dropped;
+    }
+    IOException error = failure;
+    return file.getName() + ": " + recorded + " records, " + lost + " dropped, "
+        + bytesWritten / 1024 + " KiB written" + (error != null ? ", failed: " + error : "");
+  }
+
+  // Must hold lock. Counts the record as dropped if it can't be taken now.
+  private boolean reserve(int payloadBytes) {
+    if (!running) {
+      return false;
+    }
+    if (active.remaining() < RECORD_HEADER_BYTES + payloadBytes) {
+      dropped++;
+      return false;
+    }
+    records++;
+    if (active.position() + RECORD_HEADER_BYTES + payloadBytes > active.capacity() / 2
+        && active.position() <= active.capacity() / 2) {
+      lock.notifyAll();
+    }
+    return true;
+  }
+
+  private void putHeader(int type, int device, long nanos, int length) {
+    active.put((byte) type).put((byte) device).putLong(nanos).putInt(length);
+  }
+
+  private void writeLoop() {
+    boolean last = false;
+    while (!last) {
+      ByteBuffer full;
+      synchronized (lock) {
+        if (running && active.position() <= active.capacity() / 2) {
+          try {
+            lock.wait(FLUSH_INTERVAL_MS);
+          } catch (InterruptedException e) {
+            running = false;
+          }
+        }
+        last = !running;
+        full = active;
+        active = spare;
+        spare = full;
+      }
+      full.flip();
+      try {
+        while (full.hasRemaining()) {
+          bytesWritten += channel.write(full);
+        }
+      } catch (IOException e) {
+        failure = e;
+        Log.w(TAG, "Capture stopped: " + e);
+        synchronized (lock) {
+          running = false;
+        }
+        last = true;
+      }
+      full.clear();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Closing the capture failed: " + e);
+    }
+  }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.content.res.Resources;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles each shader source and links each shader pair at most once per GL context, so objects
+ * drawing with the same shaders share one program.
+ *
+ * <p>On GLES3 linked programs are also written to {@code cacheDir} as driver binaries, keyed by a
+ * hash of both sources and the driver identity. A warm start loads the binary instead of compiling,
+ * and falls back to compiling if the driver rejects it. All methods except {@link
+ * #preloadSources} must be called on the GL thread.
+ */
+final class ShaderRegistry {
+
+  private static final String TAG = "ShaderRegistry";
+
+  // Format and length in front of the binary in a cache file.
+  private static final int BINARY_HEADER_BYTES = 8;
+
+  private final Resources resources;
+  private final File cacheDir;
+
+  private final SparseArray<String> sources = new SparseArray<>();
+  private final SparseArray<Integer> shaders = new SparseArray<>();
+  private final Map<Long, Integer> programs = new HashMap<>();
+
+  private boolean binariesSupported;
+  private String driverKey;
+
+  private int compiledShaders;
+  private int linkedPrograms;
+  private int cachedPrograms;
+
+  /**
+   * @param resources Where the raw shader sources live.
+   * @param cacheDir Directory for program binaries, or null to disable persistence.
+   */
+  ShaderRegistry(Resources resources, File cacheDir) {
+    this.resources = resources;
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * Forgets all GL objects, which died with the previous context. Call from {@code
+   * onSurfaceCreated} before requesting programs.
+   */
+  void onContextCreated() {
+    shaders.clear();
+    programs.clear();
+    binariesSupported = cacheDir != null && GlInfo.isGles3() && hasBinaryFormats();
+    driverKey = GlInfo.driverKey();
+  }
+
+  /**
+   * Returns the program linking the two raw resources, creating it on first use. Attributes are
+   * bound to the {@link Mesh} locations.
+   *
+   * @param vertexResId Raw resource of the vertex shader.
+   * @param fragmentResId Raw resource of the fragment shader.
+   * @return The program handle.
+   */
+  int getProgram(int vertexResId, int fragmentResId) {
+    Long key = ((long) vertexResId << 32) | (fragmentResId & 0xffffffffL);
+    Integer cached = programs.get(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    File binaryFile = binariesSupported ? binaryFile(vertexResId, fragmentResId) : null;
+    int program = binaryFile != null ? loadBinary(binaryFile) : 0;
+    if (program != 0) {
+      cachedPrograms++;
+    } else {
+      program = link(vertexResId, fragmentResId, binaryFile != null);
+      if (binaryFile != null) {
+        saveBinary(program, binaryFile);
+      }
+    }
+    programs.put(key, program);
+    return program;
+  }
+
+  /**
+   * Reads shader sources ahead of time so the GL thread doesn't have to. May be called from any
+   * thread.
+   */
+  void preloadSources(int... resIds) {
+    for (int resId : resIds) {
+      getSource(resId);
+    }
+  }
+
+  /** Shaders compiled, programs linked and programs loaded from binaries in this context. */
+  String describe() {
+    return compiledShaders + " shaders compiled, " + linkedPrograms + " programs linked, "
+        + cachedPrograms + " programs from cache";
+  }
+
+  private int link(int vertexResId, int fragmentResId, boolean retrievable) {
+    int program = Gl.glCreateProgram();
+    Gl.glAttachShader(program, getShader(GLES20.GL_VERTEX_SHADER, vertexResId));
+    Gl.glAttachShader(program, getShader(GLES20.GL_FRAGMENT_SHADER, fragmentResId));
+    Mesh.bindAttribLocations(program);
+    if (retrievable) {
+      Gl.glProgramParameteri(
+          program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+    }
+    Gl.glLinkProgram(program);
+
+    final int[] linkStatus = new int[1];
+    Gl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+    if (linkStatus[0] == 0) {
+      Log.e(TAG, "Error linking program: " + Gl.glGetProgramInfoLog(program));
+      Gl.glDeleteProgram(program);
+      throw new RuntimeException("Error linking program.");
+    }
+    linkedPrograms++;
+    return program;
+  }
+
+  private int getShader(int type, int resId) {
+    Integer cached = shaders.get(resId);
+    if (cached != null) {
+      return cached;
+    }
+    int shader = Gl.glCreateShader(type);
+    Gl.glShaderSource(shader, getSource(resId));
+    Gl.glCompileShader(shader);
+
+    // Get the compilation status.
+    final int[] compileStatus = new int[1];
+    Gl.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+
+    // If the compilation failed, delete the shader.
+    if (compileStatus[0] == 0) {
+      Log.e(TAG, "Error compiling shader: " + Gl.glGetShaderInfoLog(shader));
+      Gl.glDeleteShader(shader);
+      throw new RuntimeException("Error creating shader.");
+    }
+    compiledShaders++;
+    shaders.put(resId, shader);
+    return shader;
+  }
+
+  // Sources don't depend on the context, so they are read once per registry.
+  private String getSource(int resId) {
+    synchronized (sources) {
+      String source = sources.get(resId);
+      if (source == null) {
+        source = readRawTextFile(resId);
+        sources.put(resId, source);
+      }
+      return source;
+    }
+  }
+
+  private String readRawTextFile(int resId) {
+    InputStream inputStream = resources.openRawResource(resId);
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+      StringBuilder sb = new StringBuilder();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        sb.append(line).append("\n");
+      }
+      reader.close();
+      return sb.toString();
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading shader source.", e);
+    }
+  }
+
+  private File binaryFile(int vertexResId, int fragmentResId) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(getSource(vertexResId).getBytes("UTF-8"));
+      digest.update((byte) 0);
+      digest.update(getSource(fragmentResId).getBytes("UTF-8"));
+      digest.update((byte) 0);
+      digest.update(driverKey.getBytes("UTF-8"));
+      StringBuilder name = new StringBuilder();
+      for (byte b : digest.digest()) {
+        name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return new File(cacheDir, "program_" + name + ".bin");
+    } catch (NoSuchAlgorithmException | IOException e) {
+      return null;
+    }
+  }
+
+  private static boolean hasBinaryFormats() {
+    int[] formats = new int[1];
+    Gl.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+    return formats[0] > 0;
+  }
+
+  private int loadBinary(File file) {
+    if (!file.exists()) {
+      return 0;
+    }
+    int program = 0;
+    try {
+      DataInputStream in = new DataInputStream(new FileInputStream(file));
+      try {
+        int format = in.readInt();
+        int length = in.readInt();
+        // A truncated or corrupt file must not make us allocate whatever its header says.
+        if (length <= 0 || length > file.length() - BINARY_HEADER_BYTES) {
+          throw new IOException("Bad length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        ByteBuffer binary = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.nativeOrder());
+        binary.put(bytes).position(0);
+
+        program = Gl.glCreateProgram();
+        Gl.glProgramBinary(program, format, binary, bytes.length);
+        final int[] linkStatus = new int[1];
+        Gl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] != 0) {
+          return program;
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException | RuntimeException e) {
+      // Whatever is wrong with the file, compiling from source still works.
+      Log.w(TAG, "Unreadable program binary " + file, e);
+    }
+    // Rejected, e.g. after a driver update that kept the version string.
+    if (program != 0) {
+      Gl.glDeleteProgram(program);
+    }
+    file.delete();
+    return 0;
+  }
+
+  private void saveBinary(int program, File file) {
+    final int[] length = new int[1];
+    Gl.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+    if (length[0] <= 0) {
+      return;
+    }
+    ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+    final int[] format = new int[1];
+    Gl.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+    byte[] bytes = new byte[length[0]];
+    binary.get(bytes);
+
+    try {
+      DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+      try {
+        out.writeInt(format[0]);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Could not save program binary " + file, e);
+      file.delete();
+    }
+  }
+}
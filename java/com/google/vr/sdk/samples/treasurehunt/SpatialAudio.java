@@ -0,0 +1,286 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Drives the audio engine, through an {@link AudioBackend}, from one batched tick per frame.
+ *
+ * <p>Sources can be positioned and one-shot sounds started from any thread; the requests are only
+ * recorded, and {@link #tick} applies them on the GL thread together with the head rotation and
+ * the engine's {@code update()}. Several moves of a source between two ticks cost one
+ * {@code setSoundObjectPosition}. The head rotation is only passed on when it turned by more than
+ * {@link #HEAD_ROTATION_THRESHOLD_DEGREES} since the last one sent, which is below what binaural
+ * rendering can resolve.
+ *
+ * <p>One-shot sounds share a pool of {@link #MAX_ONE_SHOTS} sources. The engine releases a source
+ * when it finishes; if all slots still play, the oldest is stopped to make room, so quick repeated
+ * triggers can't pile up sources. Each file is preloaded only once. A slot takes a new source per
+ * sound: the engine destroys a source that finished or was stopped and can't rewind one, so there
+ * is no source to restart. Creating one from a preloaded file does not decode it again.
+ */
+final class SpatialAudio {
+
+  /** Head turns below this are not sent to the engine. */
+  static final float HEAD_ROTATION_THRESHOLD_DEGREES = 0.5f;
+
+  /** One-shot sounds playing at the same time. */
+  static final int MAX_ONE_SHOTS = 4;
+
+  /** Maximum number of positioned sources. */
+  static final int MAX_OBJECTS = 8;
+
+  // Finished one-shots are looked for at most this often, it's a call into the engine each.
+  private static final long PRUNE_INTERVAL_NANOS = 250000000L;
+
+  // |dot| of two unit quaternions at least this far apart is below this.
+  private static final float MIN_ROTATION_DOT =
+      (float) Math.cos(Math.toRadians(HEAD_ROTATION_THRESHOLD_DEGREES) / 2.0);
+
+  private final AudioBackend engine;
+  private final Object lock = new Object();
+
+  // Guarded by lock.
+  private final Set<String> preloaded = new HashSet<>();
+  private final int[] objectIds = new int[MAX_OBJECTS];
+  private final float[] positions = new float[MAX_OBJECTS * 3];
+  private int dirtyObjects;
+  private int objectCount;
+  private final String[] pendingOneShots = new String[MAX_ONE_SHOTS];
+  private int pendingOneShotCount;
+  private long coalescedMoves;
+
+  // GL thread only.
+  private final int[] ids = new int[MAX_OBJECTS];
+  private final float[] applied = new float[MAX_OBJECTS * 3];
+  private final String[] starting = new String[MAX_ONE_SHOTS];
+  private final int[] oneShotIds = new int[MAX_ONE_SHOTS];
+  // Oldest first.
+  private int oneShotCount;
+  private final float[] sentRotation = new float[4];
+  private boolean rotationSent;
+  private long lastPruneNanos;
+
+  private volatile int activeSources;
+  private volatile long headRotationsSent;
+  private volatile long headRotationsSkipped;
+  private volatile long movesApplied;
+  private volatile long oneShotsPlayed;
+  private volatile long oneShotsStolen;
+  private final LatencyHistogram tickNanos = new LatencyHistogram();
+
+  SpatialAudio(AudioBackend engine) {
+    this.engine = engine;
+    for (int i = 0; i < MAX_OBJECTS; i++) {
+      objectIds[i] = AudioBackend.INVALID_ID;
+    }
+  }
+
+  /**
+   * Decodes {@code file} ahead of its first use, unless it was already. Blocks while decoding, so
+   * call it off the GL and UI threads.
+   */
+  void preload(String file) {
+    synchronized (lock) {
+      if (!preloaded.add(file)) {
+        return;
+      }
+    }
+    engine.preloadSoundFile(file);
+  }
+
+  /**
+   * Reserves a positioned source at the given position; it is silent until {@link #playLooped}.
+   *
+   * @return The handle for {@link #setPosition} and {@link #playLooped}.
+   * @throws IllegalStateException If all {@link #MAX_OBJECTS} are in use.
+   */
+  int createObject(float x, float y, float z) {
+    synchronized (lock) {
+      if (objectCount == MAX_OBJECTS) {
+        throw new IllegalStateException("Too many audio objects");
+      }
+      int object = objectCount++;
+      positions[object * 3] = x;
+      positions[object * 3 + 1] = y;
+      positions[object * 3 + 2] = z;
+      return object;
+    }
+  }
+
+  /**
+   * Starts {@code file} looping at the position of {@code object}. Preloads it first if needed,
+   * so like {@link #preload} this belongs on a background thread.
+   */
+  void playLooped(int object, String file) {
+    preload(file);
+    int id = engine.createSoundObject(file);
+    if (id == AudioBackend.INVALID_ID) {
+      return;
+    }
+    synchronized (lock) {
+      engine.setSoundObjectPosition(
+          id, positions[object * 3], positions[object * 3 + 1], positions[object * 3 + 2]);
+      objectIds[object] = id;
+      dirtyObjects &= ~(1 << object);
+    }
+    engine.playSound(id, true /* looped playback */);
+  }
+
+  /** Moves {@code object}; applied by the next {@link #tick}. May be called from any thread. */
+  void setPosition(int object, float x, float y, float z) {
+    synchronized (lock) {
+      if ((dirtyObjects & (1 << object)) != 0) {
+        coalescedMoves++;
+      }
+      positions[object * 3] = x;
+      positions[object * 3 + 1] = y;
+      positions[object * 3 + 2] = z;
+      dirtyObjects |= 1 << object;
+    }
+  }
+
+  /**
+   * Plays {@code file} once, unspatialized, from the next {@link #tick}. It should have been
+   * preloaded. May be called from any thread; requests beyond {@link #MAX_ONE_SHOTS} per tick are
+   * dropped.
+   */
+  void playOneShot(String file) {
+    synchronized (lock) {
+      if (pendingOneShotCount < MAX_ONE_SHOTS) {
+        pendingOneShots[pendingOneShotCount++] = file;
+      }
+    }
+  }
+
+  /**
+   * Applies the requests since the last tick, the head rotation, and updates the engine. Call
+   * once per frame on the GL thread.
+   *
+   * @param headRotation The head rotation quaternion from {@code HeadTransform.getQuaternion}.
+   */
+  void tick(long nowNanos, float[] headRotation, int offset) {
+    long start = System.nanoTime();
+
+    int moves;
+    int starts;
+    int objectsCreated;
+    synchronized (lock) {
+      moves = 0;
+      objectsCreated = objectCount;
+      for (int object = 0; object < objectCount; object++) {
+        ids[object] = objectIds[object];
+        if ((dirtyObjects & (1 << object)) != 0 && objectIds[object] != AudioBackend.INVALID_ID) {
+          System.arraycopy(positions, object * 3, applied, object * 3, 3);
+          dirtyObjects &= ~(1 << object);
+          moves |= 1 << object;
+        }
+      }
+      starts = pendingOneShotCount;
+      System.arraycopy(pendingOneShots, 0, starting, 0, starts);
+      for (int i = 0; i < starts; i++) {
+        pendingOneShots[i] = null;
+      }
+      pendingOneShotCount = 0;
+    }
+
+    int objects = 0;
+    for (int object = 0; object < objectsCreated; object++) {
+      int id = ids[object];
+      if (id == AudioBackend.INVALID_ID) {
+        continue;
+      }
+      objects++;
+      if ((moves & (1 << object)) != 0) {
+        engine.setSoundObjectPosition(
+            id, applied[object * 3], applied[object * 3 + 1], applied[object * 3 + 2]);
+        movesApplied++;
+      }
+    }
+
+    if (oneShotCount > 0 && (starts > 0 || nowNanos - lastPruneNanos >= PRUNE_INTERVAL_NANOS)) {
+      pruneOneShots();
+      lastPruneNanos = nowNanos;
+    }
+    for (int i = 0; i < starts; i++) {
+      startOneShot(starting[i]);
+      starting[i] = null;
+    }
+
+    if (!rotationSent || Math.abs(Quaternions.dot(sentRotation, 0, headRotation, offset))
+        < MIN_ROTATION_DOT) {
+      engine.setHeadRotation(headRotation[offset], headRotation[offset + 1],
+          headRotation[offset + 2], headRotation[offset + 3]);
+      System.arraycopy(headRotation, offset, sentRotation, 0, 4);
+      rotationSent = true;
+      headRotationsSent++;
+    } else {
+      headRotationsSkipped++;
+    }
+    engine.update();
+
+    activeSources = objects + oneShotCount;
+    tickNanos.record(System.nanoTime() - start);
+  }
+
+  /** Sources playing or about to, as of the last tick. */
+  int getActiveSources() {
+    return activeSources;
+  }
+
+  /** Counters and the tick cost, for the log. */
+  String describe() {
+    long coalesced;
+    synchronized (lock) {
+      coalesced = coalescedMoves;
+    }
+    return activeSources + " active sources, head rotation sent " + headRotationsSent
+        + " skipped " + headRotationsSkipped + ", " + movesApplied + " moves (" + coalesced
+        + " coalesced), " + oneShotsPlayed + " one-shots (" + oneShotsStolen + " cut short), tick "
+        + tickNanos.describe(1000) + " us";
+  }
+
+  // Forgets the one-shots the engine has released after they finished.
+  private void pruneOneShots() {
+    int kept = 0;
+    for (int i = 0; i < oneShotCount; i++) {
+      if (engine.isSourceIdValid(oneShotIds[i])) {
+        oneShotIds[kept++] = oneShotIds[i];
+      }
+    }
+    oneShotCount = kept;
+  }
+
+  private void startOneShot(String file) {
+    if (oneShotCount == MAX_ONE_SHOTS) {
+      // Reuse the slot of the oldest, which is the closest to finishing anyway.
+      engine.stopSound(oneShotIds[0]);
+      System.arraycopy(oneShotIds, 1, oneShotIds, 0, --oneShotCount);
+      oneShotsStolen++;
+    }
+    int id = engine.createStereoSound(file);
+    if (id == AudioBackend.INVALID_ID) {
+      return;
+    }
+    engine.playSound(id, false /* looping disabled */);
+    oneShotIds[oneShotCount++] = id;
+    oneShotsPlayed++;
+  }
+}
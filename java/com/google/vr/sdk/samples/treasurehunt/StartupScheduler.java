@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the non-GL parts of start-up in parallel on a small bounded pool and records a timeline.
+ *
+ * <p>Work that needs neither the GL context nor the UI thread, such as packing meshes, reading
+ * shader sources, decoding sounds or scanning Bluetooth devices, is submitted from {@code
+ * onCreate}. The GL thread later collects the results with {@link #await}, so only the GL calls
+ * themselves sit on its critical path. Every task and every GL thread phase marked with {@link
+ * #begin}/{@link #end} ends up in the timeline written by {@link #logTimeline()}.
+ */
+final class StartupScheduler {
+
+  private static final String TAG = "StartupScheduler";
+
+  private final ThreadPoolExecutor executor;
+  private final long originNanos;
+  private final List<Span> spans = new ArrayList<>();
+
+  StartupScheduler(long originNanos) {
+    this.originNanos = originNanos;
+    int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          private int count;
+
+          @Override
+          public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "startup-" + count++);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+          }
+        });
+    // Nothing runs here after start-up, so don't keep idle threads around.
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Queues a named task. */
+  <T> Future<T> submit(final String name, final Callable<T> task) {
+    return executor.submit(new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        Span span = begin(name);
+        try {
+          return task.call();
+        } finally {
+          end(span);
+        }
+      }
+    });
+  }
+
+  /** Queues a named task without a result. */
+  Future<?> submit(final String name, final Runnable task) {
+    return submit(name, new Callable<Void>() {
+      @Override
+      public Void call() {
+        task.run();
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Waits for a task and returns its result. Time spent blocked shows up as "wait NAME" in the
+   * timeline.
+   *
+   * @throws RuntimeException If the task failed.
+   */
+  <T> T await(String name, Future<T> future) {
+    Span span = begin("wait " + name);
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted waiting for " + name, e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Startup task " + name + " failed", e.getCause());
+    } finally {
+      end(span);
+    }
+  }
+
+  /** Starts a timeline span on the calling thread. */
+  Span begin(String name) {
+    return new Span(name, Thread.currentThread().getName(), System.nanoTime());
+  }
+
+  /** Ends a span started with {@link #begin}. */
+  void end(Span span) {
+    span.endNanos = System.nanoTime();
+    synchronized (spans) {
+      spans.add(span);
+    }
+  }
+
+  /** Logs every recorded span, in start order, relative to the origin. */
+  void logTimeline() {
+    List<Span> copy;
+    synchronized (spans) {
+      copy = new ArrayList<>(spans);
+    }
+    Collections.sort(copy, new Comparator<Span>() {
+      @Override
+      public int compare(Span a, Span b) {
+        return Long.compare(a.startNanos, b.startNanos);
+      }
+    });
+    for (Span span : copy) {
+      Log.i(TAG, String.format("%7.1f ms %7.1f ms  %-10s %s",
+          (span.startNanos - originNanos) / 1e6,
+          (span.endNanos - span.startNanos) / 1e6,
+          span.thread, span.name));
+    }
+  }
+
+  /** A named interval on one thread. */
+  static final class Span {
+    final String name;
+    final String thread;
+    final long startNanos;
+    long endNanos;
+
+    Span(String name, String thread, long startNanos) {
+      this.name = name;
+      this.thread = thread;
+      this.startNanos = startNanos;
+    }
+  }
+}
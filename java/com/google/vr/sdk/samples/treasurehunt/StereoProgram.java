@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import android.opengl.Matrix;
+
+/**
+ * A program built on {@code stereo_light_vertex} together with the per-eye uniforms of one object.
+ *
+ * <p>The matrices of both eyes are computed into uniform arrays with {@link #setEye} and uploaded
+ * by a single {@link #upload()}; afterwards each eye only needs {@link #selectEye}.
+ */
+final class StereoProgram {
+
+  static final int EYES = 2;
+
+  final int program;
+
+  private final int modelParam;
+  private final int modelViewParam;
+  private final int modelViewProjectionParam;
+  private final int lightPosParam;
+  private final int eyeParam;
+
+  private final float[] modelViews = new float[16 * EYES];
+  private final float[] modelViewProjections = new float[16 * EYES];
+  private final float[] lightPositions = new float[3 * EYES];
+  private float[] model;
+
+  StereoProgram(int program) {
+    this.program = program;
+    modelParam = Gl.glGetUniformLocation(program, "u_Model");
+    modelViewParam = Gl.glGetUniformLocation(program, "u_MVMatrix");
+    modelViewProjectionParam = Gl.glGetUniformLocation(program, "u_MVP");
+    lightPosParam = Gl.glGetUniformLocation(program, "u_LightPos");
+    eyeParam = Gl.glGetUniformLocation(program, "u_Eye");
+  }
+
+  /**
+   * Computes the matrices of one eye for the object with model matrix {@code model}.
+   *
+   * @param eye 0 for the left eye, 1 for the right.
+   * @param model The object's model matrix; kept by reference until {@link #upload()}.
+   * @param view The eye's view matrix.
+   * @param perspective The eye's projection matrix.
+   * @param lightPosInEyeSpace The light position in the eye's space.
+   */
+  void setEye(int eye, float[] model, float[] view, float[] perspective,
+      float[] lightPosInEyeSpace) {
+    this.model = model;
+    Matrix.multiplyMM(modelViews, eye * 16, view, 0, model, 0);
+    Matrix.multiplyMM(modelViewProjections, eye * 16, perspective, 0, modelViews, eye * 16);
+    System.arraycopy(lightPosInEyeSpace, 0, lightPositions, eye * 3, 3);
+  }
+
+  /** Makes the program current and uploads the uniforms of both eyes. */
+  void upload() {
+    GlState.useProgram(program);
+    GlState.uniformMatrix4fv(modelParam, 1, model, 0);
+    GlState.uniformMatrix4fv(modelViewParam, EYES, modelViews, 0);
+    GlState.uniformMatrix4fv(modelViewProjectionParam, EYES, modelViewProjections, 0);
+    GlState.uniform3fv(lightPosParam, EYES, lightPositions, 0);
+  }
+
+  /** Selects the eye the next draw renders for. */
+  void selectEye(int eye) {
+    GlState.uniform1i(eyeParam, eye);
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Generates sensor frames in the HC-06 ASCII format without any hardware.
+ *
+ * <p>The orientation sweeps slowly around all three axes so the cube visibly moves. Frames are
+ * produced at {@code samplesPerSecond}, or as fast as the reader consumes them when that is 0, which
+ * makes this the load generator for parser and renderer throughput measurements. No allocation
+ * happens per frame. Like binary capable firmware it switches to {@link BinaryFrameCodec} frames
+ * when it receives {@link SensorProtocol#COMMAND_BINARY}, and it stands in for the firmware side of
+ * {@link SensorCommandChannel}: it applies sample rate and calibration commands and acknowledges
+ * sequence markers ahead of the next frame.
+ */
+public final class SyntheticSensorTransport implements SensorTransport {
+
+  // "!2147483647\n" followed by " -123.45 -123.45 -123.45r"
+  private static final int MAX_FRAME_BYTES = 48;
+
+  // Longest command line kept, longer ones are ignored.
+  private static final int MAX_COMMAND_BYTES = 64;
+
+  // Bound of writeFixed2, whose hundredths must fit an int.
+  private static final float MAX_FIXED2 = Integer.MAX_VALUE / 100.0f;
+
+  private final int samplesPerSecond;
+
+  private final Object lock = new Object();
+  private volatile boolean closed;
+  private volatile boolean binary;
+  // Settings received over the command channel.
+  private volatile int rate;
+  private volatile float offsetX;
+  private volatile float offsetY;
+  private volatile float offsetZ;
+  private volatile int pendingAck = -1;
+  private InputStream input;
+
+  public SyntheticSensorTransport(int samplesPerSecond) {
+    this.samplesPerSecond = samplesPerSecond;
+    this.rate = samplesPerSecond;
+  }
+
+  @Override
+  public void connect() {
+    closed = false;
+    binary = false;
+    // A new connection finds the sensor freshly reset.
+    rate = samplesPerSecond;
+    offsetX = 0.0f;
+    offsetY = 0.0f;
+    offsetZ = 0.0f;
+    pendingAck = -1;
+    input = new GeneratorInputStream();
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return input;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return new OutputStream() {
+      private final byte[] line = new byte[MAX_COMMAND_BYTES];
+      private int length;
+
+      @Override
+      public void write(int b) {
+        // A letter and its argument, terminated by a newline.
+        if (b != '\n') {
+          if (length < line.length) {
+            line[length] = (byte) b;
+          }
+          length++;
+          return;
+        }
+        if (length > 0 && length <= line.length) {
+          execute(new String(line, 0, length));
+        }
+        length = 0;
+      }
+    };
+  }
+
+  private void execute(String command) {
+    String argument = command.substring(1);
+    try {
+      switch (command.charAt(0)) {
+        case 'b':
+          binary = true;
+          break;
+        case 'a':
+          binary = false;
+          break;
+        case 'f':
+          rate = Integer.parseInt(argument);
+          break;
+        case 'c':
+          String[] offsets = argument.split(",");
+          offsetX = Float.parseFloat(offsets[0]);
+          offsetY = Float.parseFloat(offsets[1]);
+          offsetZ = Float.parseFloat(offsets[2]);
+          break;
+        case '#':
+          pendingAck = Integer.parseInt(argument);
+          break;
+        default:
+          // Unknown commands are ignored like the firmware does.
+          break;
+      }
+    } catch (RuntimeException e) {
+      // Malformed, ignore it as well.
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "synthetic:" + samplesPerSecond;
+  }
+
+  @Override
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Writes {@code value} with two decimals at {@code pos}.
+   *
+   * @return The position after the last written byte.
+   * @throws IllegalArgumentException If {@code value} is not a number or its hundredths don't fit
+   *     an int.
+   */
+  static int writeFixed2(byte[] dst, int pos, float value) {
+    // Also false for NaN.
+    if (!(Math.abs(value) < MAX_FIXED2)) {
+      throw new IllegalArgumentException("Cannot write " + value);
+    }
+    int hundredths = Math.round(value * 100f);
+    if (hundredths < 0) {
+      dst[pos++] = '-';
+      hundredths = -hundredths;
+    }
+    int whole = hundredths / 100;
+    int frac = hundredths % 100;
+    int start = pos;
+    do {
+      dst[pos++] = (byte) ('0' + whole % 10);
+      whole /= 10;
+    } while (whole > 0);
+    // Digits were written least significant first.
+    for (int i = start, j = pos - 1; i < j; i++, j--) {
+      byte t = dst[i];
+      dst[i] = dst[j];
+      dst[j] = t;
+    }
+    dst[pos++] = '.';
+    dst[pos++] = (byte) ('0' + frac / 10);
+    dst[pos++] = (byte) ('0' + frac % 10);
+    return pos;
+  }
+
+  private final class GeneratorInputStream extends InputStream {
+    private final byte[] frame = new byte[MAX_FRAME_BYTES];
+    private int framePos;
+    private int frameLen;
+
+    private long sample;
+    // Frames are due at startRate from startNanos on, counted from startSample.
+    private long startNanos = System.nanoTime();
+    private long startSample;
+    private int startRate = rate;
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      int n = 0;
+      while (n < len) {
+        if (framePos == frameLen) {
+          // Block for the first frame only, then hand back whatever is already due.
+          if (!nextFrame(n == 0)) {
+            break;
+          }
+        }
+        int count = Math.min(len - n, frameLen - framePos);
+        System.arraycopy(frame, framePos, b, off + n, count);
+        framePos += count;
+        n += count;
+      }
+      if (n == 0 && closed) {
+        return -1;
+      }
+      return n;
+    }
+
+    private boolean nextFrame(boolean block) throws IOException {
+      if (closed) {
+        return false;
+      }
+      int currentRate = rate;
+      if (currentRate != startRate) {
+        startRate = currentRate;
+        startNanos = System.nanoTime();
+        startSample = sample;
+      }
+      if (currentRate > 0) {
+        long due = startNanos + (sample - startSample) * 1000000000L / currentRate;
+        if (due - System.nanoTime() > 0) {
+          if (!block) {
+            return false;
+          }
+          waitUntil(due);
+          if (closed) {
+            return false;
+          }
+        }
+      }
+
+      double t = sample / 100.0;
+      float x = (float) (45.0 * Math.sin(t * 0.7));
+      float y = (float) (90.0 * Math.sin(t * 0.3));
+      float z = (float) (30.0 * Math.cos(t * 0.5));
+      x -= offsetX;
+      y -= offsetY;
+      z -= offsetZ;
+      framePos = 0;
+      int pos = 0;
+      int ack = pendingAck;
+      if (ack >= 0) {
+        pendingAck = -1;
+        frame[pos++] = '!';
+        pos = SensorCommandChannel.writeInt(frame, pos, ack);
+        frame[pos++] = '\n';
+      }
+      if (binary) {
+        frameLen = BinaryFrameCodec.encode(frame, pos, (int) sample++, x, y, z);
+        return true;
+      }
+
+      sample++;
+      frame[pos++] = ' ';
+      pos = writeFixed2(frame, pos, x);
+      frame[pos++] = ' ';
+      pos = writeFixed2(frame, pos, y);
+      frame[pos++] = ' ';
+      pos = writeFixed2(frame, pos, z);
+      frame[pos++] = 'r';
+      frameLen = pos;
+      return true;
+    }
+
+    private void waitUntil(long dueNanos) throws IOException {
+      synchronized (lock) {
+        long remaining;
+        while (!closed && (remaining = dueNanos - System.nanoTime()) > 0) {
+          try {
+            lock.wait(remaining / 1000000, (int) (remaining % 1000000));
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.vr.sdk.samples.treasurehunt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * TCP link to a sensor bridge or a local stand-in, e.g. {@code socat} forwarding a serial port or
+ * a script replaying a capture on the loopback interface.
+ */
+public final class TcpSensorTransport implements SensorTransport {
+
+  private static final int CONNECT_TIMEOUT_MS = 5000;
+
+  private final String host;
+  private final int port;
+
+  private volatile Socket socket;
+
+  public TcpSensorTransport(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  @Override
+  public void connect() throws IOException {
+    Socket s = new Socket();
+    socket = s;
+    // Frames are tiny, don't let Nagle hold them back.
+    s.setTcpNoDelay(true);
+    s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return socket.getInputStream();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return socket.getOutputStream();
+  }
+
+  @Override
+  public String getName() {
+    return "tcp:" + host + ":" + port;
+  }
+
+  @Override
+  public void close() throws IOException {
+    Socket s = socket;
+    if (s != null) {
+      s.close();
+    }
+  }
+}
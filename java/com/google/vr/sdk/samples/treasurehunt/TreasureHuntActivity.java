@@ -18,10 +18,8 @@ package com.google.vr.sdk.samples.treasurehunt;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.Context;
-import android.opengl.GLES20;
-import android.opengl.Matrix;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -39,41 +37,33 @@ import com.google.vr.sdk.base.GvrActivity;
 import com.google.vr.sdk.base.GvrView;
 import com.google.vr.sdk.base.HeadTransform;
 import com.google.vr.sdk.base.Viewport;
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
-public class TreasureHuntActivity extends GvrActivity implements Runnable, View.OnClickListener, GvrView.StereoRenderer {
+public class TreasureHuntActivity extends GvrActivity implements View.OnClickListener, GvrView.StereoRenderer {
 
   protected float[] modelCube;
   protected float[] modelPosition;
 
   private static final String TAG = "TreasureHuntActivity";
 
-  private static final float Z_NEAR = 0.1f;
-  private static final float Z_FAR = 100.0f;
+  // Sensor samples kept for interpolation, and the furthest they are extrapolated.
+  private static final int SENSOR_HISTORY_SAMPLES = 64;
+  private static final long MAX_SENSOR_EXTRAPOLATION_NANOS = 50000000L;
 
-  private static final float CAMERA_Z = 0.01f;
-
-  private static final float YAW_LIMIT = 0.12f;
-  private static final float PITCH_LIMIT = 0.12f;
-
-  private static final int COORDS_PER_VERTEX = 3;
-
-  // We keep the light always position just above the user.
-  private static final float[] LIGHT_POS_IN_WORLD_SPACE = new float[] {0.0f, 2.0f, 0.0f, 1.0f};
-
-  // Convenience vector for extracting the position from a matrix via multiplication.
-  private static final float[] POS_MATRIX_MULTIPLY_VEC = {0, 0, 0, 1.0f};
+  // At most one status line per interval reaches the log.
+  private static final long STATUS_LOG_INTERVAL_MS = 1000;
 
   private static final float MIN_MODEL_DISTANCE = 3.0f;
   private static final float MAX_MODEL_DISTANCE = 7.0f;
@@ -81,76 +71,80 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
   private static final String OBJECT_SOUND_FILE = "cube_sound.wav";
   private static final String SUCCESS_SOUND_FILE = "success.wav";
 
-  public final float[] lightPosInEyeSpace = new float[4];//
-
-  private FloatBuffer floorVertices;
-  private FloatBuffer floorColors;
-  private FloatBuffer floorNormals;
-
-  private FloatBuffer cubeVertices;
-  private FloatBuffer cubeColors;
-  private FloatBuffer cubeFoundColors;
-  private FloatBuffer cubeNormals;
-
-  private int cubeProgram;
-  private int floorProgram;
-
-  private int cubePositionParam;
-  private int cubeNormalParam;
-  private int cubeColorParam;
-  private int cubeModelParam;
-  private int cubeModelViewParam;
-  private int cubeModelViewProjectionParam;
-  private int cubeLightPosParam;
-
-  private int floorPositionParam;
-  private int floorNormalParam;
-  private int floorColorParam;
-  private int floorModelParam;
-  private int floorModelViewParam;
-  private int floorModelViewProjectionParam;
-  private int floorLightPosParam;
-
-  private float[] camera;
-  private float[] view;
-  private float[] headView;
+  // The matrices of sceneRenderer.
+  public float[] lightPosInEyeSpace;//
   public float[] modelViewProjection;//
   public float[] modelView;//
-  private float[] modelFloor;
 
-  private float[] tempPosition;
+  private float[] headView;
+
   private float[] headRotation;
+  private final Random random = new Random();
+
+  private final FrameState frameState = new FrameState();
+
+  // フレームとセンサの計測値 (adb shell dumpsys activity で表示)
+  private final PipelineMetrics metrics = new PipelineMetrics();
+
+  // GVRに依存しない描画処理 (ヘッドレスのハーネスと共通)
+  private SceneRenderer sceneRenderer;
 
   private float objectDistance = MAX_MODEL_DISTANCE / 2.0f;
-  private float floorDepth = 20f;
 
   private Vibrator vibrator;
 
   private GvrAudioEngine gvrAudioEngine;
-  private volatile int sourceId = GvrAudioEngine.INVALID_ID;
-  private volatile int successSourceId = GvrAudioEngine.INVALID_ID;
+  // 音源の管理 (GLスレッドでフレームごとにまとめて反映する)
+  private SpatialAudio spatialAudio;
+  private int cubeSound;
 
 
   // Bluetooth Adapter
   private BluetoothAdapter mAdapter;
 
-  // Bluetoothデバイス
-  private BluetoothDevice mDevice;
+  // Bluetoothデバイス (見つかったHC-06すべて)
+  private final List<BluetoothDevice> mDevices = new ArrayList<>();
 
   // Bluetooth UUID
-  private final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+  private final UUID MY_UUID = RfcommSensorTransport.SPP_UUID;
 
   // デバイス名
   private final String DEVICE_NAME = "HC-06";
 
-  // ソケット
-  private BluetoothSocket mSocket;
+  /**
+   * Intent extra selecting non-Bluetooth sensor transports, see {@link SensorTransports}. Several
+   * comma separated transports connect several sensors.
+   */
+  public static final String EXTRA_SENSOR_TRANSPORT = "sensor";
+
+  /** Intent extra asking the sensor for binary frames, see {@link SensorProtocol}. */
+  public static final String EXTRA_BINARY_FRAMES = "binary_frames";
+
+  // バイナリフォーマットを要求するかどうか
+  private boolean requestBinaryFrames;
+
+  /** Intent extra selecting the single-pass stereo renderer, see {@link SinglePassRenderer}. */
+  public static final String EXTRA_SINGLE_PASS = "single_pass";
+
+  // 両目を一度に描画するかどうか
+  private boolean singlePass;
+
+  /** Intent extra with the number of cubes to show in a rack, see {@link CubeScene}. */
+  public static final String EXTRA_SCENE_OBJECTS = "scene_objects";
 
-  // Thread
-  private Thread mThread;
+  // 複数のキューブを並べて表示する
+  private CubeScene cubeScene;
 
-  // Threadの状態を表す
-  private boolean isRunning;
+  /** Intent extra replacing the fixed floor with streamed tiles, see {@link FloorTileStreamer}. */
+  public static final String EXTRA_TERRAIN = "terrain";
+
+  // 床をタイルに分けて視点の周りだけ読み込む
+  private boolean terrainEnabled;
+
+  // センサとの接続 (デフォルトはBluetooth)、センサごとに受信スレッドを持つ
+  private volatile SensorHub sensorHub;
+  // 接続ボタンが押された後は、onPauseで止めたセンサをonResumeで再接続する (UIスレッドのみ)
+  private boolean sensorsStarted;
 
   /** 接続ボタン. */
   private Button connectButton;
@@ -161,51 +155,54 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
   /** Action(取得文字列). */
   private static final int VIEW_INPUT = 1;
 
-  /** Connect確認用フラグ */
-  private boolean connectFlg = false;
+  /** Intent extra with the filters applied to the sensor, see {@link OrientationFilterChain}. */
+  public static final String EXTRA_SENSOR_FILTER = "sensor_filter";
 
-  /** BluetoothのOutputStream. */
-  OutputStream mmOutputStream = null;
+  // センサの値のノイズを除くフィルタ (センサごとに作る、未指定ならnull)
+  private String sensorFilterSpec;
 
-  // センサの値
-  String InputVal = "";
+  /** Intent extra with the sample rate in Hz pushed to every sensor once it connects. */
+  public static final String EXTRA_SENSOR_RATE = "sensor_rate";
 
-  float SRX = 0.0f;
-  float SRY = 0.0f;
-  float SRZ = 0.0f;
+  // センサに設定するサンプリング周波数 (0なら設定しない)
+  private int sensorRate;
 
-  //Floor f1 = new Floor();
+  /** Intent extra with how far ahead to predict the sensor orientation, in milliseconds. */
+  public static final String EXTRA_SENSOR_PREDICTION_MS = "sensor_prediction_ms";
 
-  public int loadGLShader(int type, int resId) {
-    /**
-     * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
-     *
-     * @param type The type of shader we will be creating.
-     * @param resId The resource ID of the raw text file about to be turned into a shader.
-     * @return The shader object handler.
-     */
-    String code = readRawTextFile(resId);
-    int shader = GLES20.glCreateShader(type);
-    GLES20.glShaderSource(shader, code);
-    GLES20.glCompileShader(shader);
+  private long sensorPredictionNanos;
 
-    // Get the compilation status.
-    final int[] compileStatus = new int[1];
-    GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+  /**
+   * Intent extra recording the sensor input and head pose into the app's external files, see
+   * {@link SessionRecorder}. Replay it with {@code --es sensor replay:PATH} or the headless harness.
+   */
+  public static final String EXTRA_CAPTURE = "capture";
 
-    // If the compilation failed, delete the shader.
-    if (compileStatus[0] == 0) {
-      Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
-      GLES20.glDeleteShader(shader);
-      shader = 0;
-    }
+  // Each of the two buffers holds about 25 seconds of one ASCII sensor at 100 Hz plus the frames,
+  // far more than a flush interval, so only a stalled disk loses records.
+  private static final int CAPTURE_BUFFER_BYTES = 256 * 1024;
 
-    if (shader == 0) {
-      throw new RuntimeException("Error creating shader.");
-    }
+  // セッションの記録 (未指定ならnull)
+  private volatile SessionRecorder sessionRecorder;
 
-    return shader;
-  }
+  // 表示時刻でのセンサの姿勢 (クォータニオン)
+  private final float[] cubeOrientation = new float[4];
+
+  // 2台目以降のセンサの姿勢 (GLスレッド専用)
+  private float[] deviceOrientations = new float[0];
+
+  //Floor f1 = new Floor();
+
+  // シェーダとプログラムのキャッシュ
+  private ShaderRegistry shaderRegistry;
+
+  // 起動時間の計測用
+  private long createNanos;
+  private boolean firstFrameReported;
+
+  // 起動処理を並列に実行する
+  private StartupScheduler startupScheduler;
+  private Future<MeshData[]> meshDataFuture;
 
   private static void checkGLError(String label) {
     /**
@@ -213,11 +210,8 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
      *
      * @param label Label to report in case of error.
      */
-    int error;
-    while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-      Log.e(TAG, label + ": glError " + error);
-      throw new RuntimeException(label + ": glError " + error);
-    }
+    // glGetErrorはパイプラインを止めるので、デバッグビルドでのみ確認する
+    GlState.checkError(label);
   }
 
   @Override
@@ -227,6 +221,9 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
      * to render our scene.
      */
     super.onCreate(savedInstanceState);
+    createNanos = System.nanoTime();
+    metrics.setFramePeriodNanos(
+        (long) (1e9f / getWindowManager().getDefaultDisplay().getRefreshRate()));
 
     //initializeGvrView();
     setContentView(R.layout.common_ui);
@@ -234,49 +231,196 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
     GvrView gvrView = (GvrView) findViewById(R.id.gvr_view);
     gvrView.setEGLConfigChooser(8, 8, 8, 8, 16, 8);
 
-    gvrView.setRenderer(this);
+    GlState.setErrorChecks((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+    singlePass = getIntent().getBooleanExtra(EXTRA_SINGLE_PASS, false);
+    int sceneObjects = getIntent().getIntExtra(EXTRA_SCENE_OBJECTS, 0);
+    terrainEnabled = getIntent().getBooleanExtra(EXTRA_TERRAIN, false);
+    sensorPredictionNanos = getIntent().getIntExtra(EXTRA_SENSOR_PREDICTION_MS, 0) * 1000000L;
+    if (sceneObjects > 0) {
+      cubeScene = new CubeScene(sceneObjects);
+    }
+    sceneRenderer = new SceneRenderer(frameState, cubeScene, singlePass, terrainEnabled);
+    if (singlePass) {
+      gvrView.setRenderer(new SinglePassRenderer());
+    } else {
+      gvrView.setRenderer(this);
+    }
     gvrView.setTransitionViewEnabled(true);
 
     setGvrView(gvrView);
 
-    modelCube = new float[16];
-    camera = new float[16];
-    view = new float[16];
-    modelViewProjection = new float[16];
-    modelView = new float[16];
-    modelFloor = new float[16];
-    tempPosition = new float[4];
+    modelCube = sceneRenderer.getModelCube();
+    modelView = sceneRenderer.getModelView();
+    modelViewProjection = sceneRenderer.getModelViewProjection();
+    lightPosInEyeSpace = sceneRenderer.getLightPosInEyeSpace();
     // Model first appears directly in front of user.
     modelPosition = new float[] {0.0f, 0.0f, -MAX_MODEL_DISTANCE / 2.0f};
     headRotation = new float[4];
     headView = new float[16];
+    Quaternions.setIdentity(cubeOrientation, 0);
     vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
 
+    startupScheduler = new StartupScheduler(createNanos);
+
+    // Pack the geometry while the GL context is being created.
+    meshDataFuture = startupScheduler.submit("pack meshes", new Callable<MeshData[]>() {
+      @Override
+      public MeshData[] call() {
+        return new MeshData[] {
+            MeshData.compile(WorldLayoutData.CUBE_COORDS,
+                WorldLayoutData.CUBE_NORMALS, WorldLayoutData.CUBE_COLORS),
+            MeshData.compile(WorldLayoutData.CUBE_COORDS,
+                WorldLayoutData.CUBE_NORMALS, WorldLayoutData.CUBE_FOUND_COLORS),
+            // make a floor
+            MeshData.compile(WorldLayoutData.FLOOR_COORDS,
+                WorldLayoutData.FLOOR_NORMALS, WorldLayoutData.FLOOR_COLORS)
+        };
+      }
+    });
+
+    File shaderCache = new File(getCacheDir(), "shaders");
+    shaderRegistry = new ShaderRegistry(
+        getResources(), shaderCache.isDirectory() || shaderCache.mkdirs() ? shaderCache : null);
+    startupScheduler.submit("read shaders", new Runnable() {
+      @Override
+      public void run() {
+        shaderRegistry.preloadSources(
+            R.raw.light_vertex, R.raw.passthrough_fragment, R.raw.grid_fragment);
+      }
+    });
+
     // Initialize 3D audio engine.
     gvrAudioEngine = new GvrAudioEngine(this, GvrAudioEngine.RenderingMode.BINAURAL_HIGH_QUALITY);
+    spatialAudio = new SpatialAudio(new GvrAudioBackend(gvrAudioEngine));
+    cubeSound = spatialAudio.createObject(modelPosition[0], modelPosition[1], modelPosition[2]);
+
+    // Avoid any delays during start-up due to decoding of sound files.
+    startupScheduler.submit("preload audio", new Runnable() {
+      @Override
+      public void run() {
+        // Start spatial audio playback of OBJECT_SOUND_FILE at the model position. The sound
+        // follows the cube through setPosition whenever the cube position changes.
+        spatialAudio.playLooped(cubeSound, OBJECT_SOUND_FILE);
+        // Preload an unspatialized sound to be played on a successful trigger on the cube.
+        spatialAudio.preload(SUCCESS_SOUND_FILE);
+      }
+    });
 
 
     connectButton = (Button)findViewById(R.id.connectButton);
     // ボタンのイベントハンドラ
     connectButton.setOnClickListener(this);
 
+    requestBinaryFrames = getIntent().getBooleanExtra(EXTRA_BINARY_FRAMES, false);
+
+    sensorRate = getIntent().getIntExtra(EXTRA_SENSOR_RATE, 0);
+    sensorFilterSpec = getIntent().getStringExtra(EXTRA_SENSOR_FILTER);
+    if (sensorFilterSpec != null) {
+      // Fail here rather than on the first connect.
+      OrientationFilterChain.fromSpec(sensorFilterSpec);
+    }
+
+    if (getIntent().getBooleanExtra(EXTRA_CAPTURE, false)) {
+      startCapture();
+    }
+
+    String transportSpec = getIntent().getStringExtra(EXTRA_SENSOR_TRANSPORT);
+    if (transportSpec != null) {
+      SensorTransport[] transports = SensorTransports.listFromSpec(transportSpec);
+      sensorHub = createSensorHub(transports);
+      Toast.makeText(this, "use: " + describeTransports(transports), Toast.LENGTH_LONG).show();
+      return;
+    }
+
+    // Scanning the bonded devices can take a while, keep it off the UI thread.
+    startupScheduler.submit("find device", new Runnable() {
+      @Override
+      public void run() {
+        findDevice();
+      }
+    });
+  }
+
+  private void findDevice() {
     // Bluetoothのデバイス名を取得
     // デバイス名は、RNBT-XXXXになるため、
     // DVICE_NAMEでデバイス名を定義
     mAdapter = BluetoothAdapter.getDefaultAdapter();
+    if (mAdapter == null) {
+      return;
+    }
     //mStatusTextView.setText("SearchDevice");
     System.out.println("SearchDevice");
-    Toast.makeText(this, "SearchDevice", Toast.LENGTH_LONG).show();
+    showToast("SearchDevice");
     Set< BluetoothDevice > devices = mAdapter.getBondedDevices();
     for ( BluetoothDevice device : devices){
 
       if(device.getName().equals(DEVICE_NAME)){
         //mStatusTextView.setText("find: " + device.getName());
         System.out.println("find: " + device.getName());
-        Toast.makeText(this, "find: " + device.getName(), Toast.LENGTH_LONG).show();
-        mDevice = device;
+        showToast("find: " + device.getName());
+        mDevices.add(device);
+      }
+    }
+    if (!mDevices.isEmpty()) {
+      SensorTransport[] transports = new SensorTransport[mDevices.size()];
+      for (int i = 0; i < transports.length; i++) {
+        transports[i] = new RfcommSensorTransport(mDevices.get(i), MY_UUID);
+      }
+      sensorHub = createSensorHub(transports);
+    }
+  }
+
+  private void startCapture() {
+    File dir = getExternalFilesDir(null);
+    File file = new File(dir != null ? dir : getFilesDir(),
+        "session-" + System.currentTimeMillis() + ".vrs");
+    SessionRecorder recorder = new SessionRecorder(file, CAPTURE_BUFFER_BYTES);
+    try {
+      recorder.start();
+    } catch (IOException e) {
+      Log.w(TAG, "Cannot capture to " + file + ": " + e);
+      return;
+    }
+    Log.i(TAG, "capturing to " + file);
+    sessionRecorder = recorder;
+  }
+
+  private SensorHub createSensorHub(SensorTransport[] transports) {
+    SensorHub hub = new SensorHub(sensorListener, SENSOR_HISTORY_SAMPLES);
+    hub.setMetrics(metrics);
+    hub.setRecorder(sessionRecorder);
+    for (SensorTransport transport : transports) {
+      // Filters keep state, so every sensor gets its own chain.
+      OrientationFilter filter = sensorFilterSpec == null
+          ? null : OrientationFilterChain.fromSpec(sensorFilterSpec);
+      int device = hub.addDevice(transport, filter, requestBinaryFrames);
+      if (sensorRate > 0) {
+        // Sent by the hub's writer whenever the sensor (re)connects.
+        hub.getCommands(device).setSampleRate(sensorRate);
+      }
+    }
+    return hub;
+  }
+
+  private static String describeTransports(SensorTransport[] transports) {
+    StringBuilder sb = new StringBuilder();
+    for (SensorTransport transport : transports) {
+      if (sb.length() > 0) {
+        sb.append(", ");
       }
+      sb.append(transport.getName());
     }
+    return sb.toString();
+  }
+
+  private void showToast(final String text) {
+    runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        Toast.makeText(TreasureHuntActivity.this, text, Toast.LENGTH_LONG).show();
+      }
+    });
   }
 
   @Override
@@ -288,7 +432,7 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
    * Creates the buffers we use to store information about the 3D world.
    *
    * <p>OpenGL doesn't use Java arrays, but rather needs data in a format it can understand.
-   * Hence we use ByteBuffers.
+   * Hence we pack the arrays once and upload them into vertex buffer objects.
    *
    * @param config The EGL configuration used when creating the surface.
    */
@@ -297,143 +441,53 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
     Log.i(TAG, "onSurfaceCreated");
     //GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
     //GLES20.glClearColor(0.65f, 0.62f, 0.44f, 1.0f);     // 168,157,112
-    GLES20.glClearColor(0.28f, 0.25f, 0.17f, 1.0f);     // 71,65,43
-
-    ByteBuffer bbVertices = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COORDS.length * 4);
-    bbVertices.order(ByteOrder.nativeOrder());
-    cubeVertices = bbVertices.asFloatBuffer();
-    cubeVertices.put(WorldLayoutData.CUBE_COORDS);
-    cubeVertices.position(0);
-
-    ByteBuffer bbColors = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COLORS.length * 4);
-    bbColors.order(ByteOrder.nativeOrder());
-    cubeColors = bbColors.asFloatBuffer();
-    cubeColors.put(WorldLayoutData.CUBE_COLORS);
-    cubeColors.position(0);
-
-    ByteBuffer bbFoundColors =
-            ByteBuffer.allocateDirect(WorldLayoutData.CUBE_FOUND_COLORS.length * 4);
-    bbFoundColors.order(ByteOrder.nativeOrder());
-    cubeFoundColors = bbFoundColors.asFloatBuffer();
-    cubeFoundColors.put(WorldLayoutData.CUBE_FOUND_COLORS);
-    cubeFoundColors.position(0);
-
-    ByteBuffer bbNormals = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_NORMALS.length * 4);
-    bbNormals.order(ByteOrder.nativeOrder());
-    cubeNormals = bbNormals.asFloatBuffer();
-    cubeNormals.put(WorldLayoutData.CUBE_NORMALS);
-    cubeNormals.position(0);
-
-    // make a floor
-    ByteBuffer bbFloorVertices = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_COORDS.length * 4);
-    bbFloorVertices.order(ByteOrder.nativeOrder());
-    floorVertices = bbFloorVertices.asFloatBuffer();
-    floorVertices.put(WorldLayoutData.FLOOR_COORDS);
-    floorVertices.position(0);
-
-    ByteBuffer bbFloorNormals = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_NORMALS.length * 4);
-    bbFloorNormals.order(ByteOrder.nativeOrder());
-    floorNormals = bbFloorNormals.asFloatBuffer();
-    floorNormals.put(WorldLayoutData.FLOOR_NORMALS);
-    floorNormals.position(0);
-
-    ByteBuffer bbFloorColors = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_COLORS.length * 4);
-    bbFloorColors.order(ByteOrder.nativeOrder());
-    floorColors = bbFloorColors.asFloatBuffer();
-    floorColors.put(WorldLayoutData.FLOOR_COLORS);
-    floorColors.position(0);
-
-    int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
-    int gridShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.grid_fragment);
-    int passthroughShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.passthrough_fragment);
-
-    cubeProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(cubeProgram, vertexShader);
-    GLES20.glAttachShader(cubeProgram, passthroughShader);
-    GLES20.glLinkProgram(cubeProgram);
-    GLES20.glUseProgram(cubeProgram);
-
-    checkGLError("Cube program");
-
-    cubePositionParam = GLES20.glGetAttribLocation(cubeProgram, "a_Position");
-    cubeNormalParam = GLES20.glGetAttribLocation(cubeProgram, "a_Normal");
-    cubeColorParam = GLES20.glGetAttribLocation(cubeProgram, "a_Color");
-
-    cubeModelParam = GLES20.glGetUniformLocation(cubeProgram, "u_Model");
-    cubeModelViewParam = GLES20.glGetUniformLocation(cubeProgram, "u_MVMatrix");
-    cubeModelViewProjectionParam = GLES20.glGetUniformLocation(cubeProgram, "u_MVP");
-    cubeLightPosParam = GLES20.glGetUniformLocation(cubeProgram, "u_LightPos");
-
-    checkGLError("Cube program params");
-
-    floorProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(floorProgram, vertexShader);
-    GLES20.glAttachShader(floorProgram, gridShader);
-    GLES20.glLinkProgram(floorProgram);
-    GLES20.glUseProgram(floorProgram);
-
-    checkGLError("Floor program");
-
-    floorModelParam = GLES20.glGetUniformLocation(floorProgram, "u_Model");
-    floorModelViewParam = GLES20.glGetUniformLocation(floorProgram, "u_MVMatrix");
-    floorModelViewProjectionParam = GLES20.glGetUniformLocation(floorProgram, "u_MVP");
-    floorLightPosParam = GLES20.glGetUniformLocation(floorProgram, "u_LightPos");
-
-    floorPositionParam = GLES20.glGetAttribLocation(floorProgram, "a_Position");
-    floorNormalParam = GLES20.glGetAttribLocation(floorProgram, "a_Normal");
-    floorColorParam = GLES20.glGetAttribLocation(floorProgram, "a_Color");
-
-    checkGLError("Floor program params");
-
-    Matrix.setIdentityM(modelFloor, 0);
-    Matrix.translateM(modelFloor, 0, 0, -floorDepth, 0); // Floor appears below user.
-
-    //f1.init();
 
-    // Avoid any delays during start-up due to decoding of sound files.
-    new Thread(
-            new Runnable() {
-              @Override
-              public void run() {
-                // Start spatial audio playback of OBJECT_SOUND_FILE at the model position. The
-                // returned sourceId handle is stored and allows for repositioning the sound object
-                // whenever the cube position changes.
-                gvrAudioEngine.preloadSoundFile(OBJECT_SOUND_FILE);
-                sourceId = gvrAudioEngine.createSoundObject(OBJECT_SOUND_FILE);
-                gvrAudioEngine.setSoundObjectPosition(sourceId, modelPosition[0], modelPosition[1], modelPosition[2]);
-                gvrAudioEngine.playSound(sourceId, true /* looped playback */);
-                // Preload an unspatialized sound to be played on a successful trigger on the cube.
-                gvrAudioEngine.preloadSoundFile(SUCCESS_SOUND_FILE);
-              }
-            })
-            .start();
+    // Upload the static geometry once; draws only bind the buffers afterwards.
+    MeshData[] meshData = startupScheduler.await("pack meshes", meshDataFuture);
+    Log.i(TAG, "cube mesh: " + meshData[0].describe());
+    Log.i(TAG, "found cube mesh: " + meshData[1].describe());
+    Log.i(TAG, "floor mesh: " + meshData[2].describe());
+
+    StartupScheduler.Span span = startupScheduler.begin("upload meshes");
+    sceneRenderer.onContextCreated(meshData[0], meshData[1], meshData[2]);
+    startupScheduler.end(span);
+
+    // Both programs share light_vertex, which the registry compiles only once.
+    span = startupScheduler.begin("programs");
+    shaderRegistry.onContextCreated();
+    sceneRenderer.createPrograms(programs);
+    if (cubeScene != null) {
+      Log.i(TAG, "scene: " + cubeScene.getCount() + " cubes");
+    }
+    startupScheduler.end(span);
+
+    sceneRenderer.createFloor();
+
+    //f1.init(shaderRegistry);
+    Log.i(TAG, "shaders: " + shaderRegistry.describe());
 
     checkGLError("onSurfaceCreated");
   }
 
-  //  テキストファイルの行を文字列に変換する
-  private String readRawTextFile(int resId) {
-    /**
-     * Converts a raw text file into a string.
-     *
-     * @param resId The resource ID of the raw text file about to be turned into a shader.
-     * @return The context of the text file, or null in case of error.
-     */
-    InputStream inputStream = getResources().openRawResource(resId);
-    try {
-      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-      StringBuilder sb = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        sb.append(line).append("\n");
+  private final SceneRenderer.Programs programs = new SceneRenderer.Programs() {
+    @Override
+    public int getProgram(int program) {
+      switch (program) {
+        case SceneRenderer.PROGRAM_CUBE:
+          return shaderRegistry.getProgram(R.raw.light_vertex, R.raw.passthrough_fragment);
+        case SceneRenderer.PROGRAM_FLOOR:
+          return shaderRegistry.getProgram(R.raw.light_vertex, R.raw.grid_fragment);
+        case SceneRenderer.PROGRAM_STEREO_CUBE:
+          return shaderRegistry.getProgram(R.raw.stereo_light_vertex, R.raw.passthrough_fragment);
+        case SceneRenderer.PROGRAM_STEREO_FLOOR:
+          return shaderRegistry.getProgram(R.raw.stereo_light_vertex, R.raw.grid_fragment);
+        case SceneRenderer.PROGRAM_INSTANCED:
+          return shaderRegistry.getProgram(R.raw.instanced_light_vertex, R.raw.instanced_fragment);
+        default:
+          throw new IllegalArgumentException("program " + program);
       }
-      reader.close();
-      return sb.toString();
-    } catch (IOException e) {
-      e.printStackTrace();
     }
-    return null;
-  }
+  };
 
   /**
    * Prepares OpenGL ES before we draw a frame.
@@ -441,211 +495,146 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
    */
   @Override
   public void onNewFrame(HeadTransform headTransform) {
-    //setCubeRotation();
-
-    // Build the camera matrix and apply it to the ModelView.
-    Matrix.setLookAtM(camera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+    long frameStart = System.nanoTime();
+    metrics.onFrameStart(frameStart);
+    frameState.beginFrame();
+    sceneRenderer.beginFrame();
 
     headTransform.getHeadView(headView, 0);
 
+    // Sample the sensors once so both eyes see the same orientation. The first sensor drives
+    // the main cube, the others only the rack.
+    SensorHub hub = sensorHub;
+    int deviceCount = hub == null ? 0 : hub.getDeviceCount();
+    long now = System.nanoTime();
+    if (deviceCount > 0 && sampleSensor(hub.getHistory(0), now, cubeOrientation, 0)) {
+      frameState.countMatrixOps(1);
+      // The frame reaches the display about one period from now.
+      metrics.recordSensorToPhoton(
+          now + metrics.getFramePeriodNanos() - sensorTime(hub.getHistory(0), now));
+    }
+
+    if (cubeScene != null && deviceCount > 1) {
+      sampleOtherSensors(hub, deviceCount, now);
+    }
+
+    // Smoothing is up to the sensor's filter chain, the history already interpolates.
+    sceneRenderer.updateScene(headView, cubeOrientation, deviceOrientations, deviceCount);
+
     // Update the 3d audio engine with the most recent head rotation.
     headTransform.getQuaternion(headRotation, 0);
-    gvrAudioEngine.setHeadRotation(headRotation[0], headRotation[1], headRotation[2], headRotation[3]);
-    // Regular update call to GVR audio engine.
-    gvrAudioEngine.update();
+    SessionRecorder recorder = sessionRecorder;
+    if (recorder != null) {
+      recorder.recordFrame(frameStart, headRotation, 0);
+    }
+    // Regular update call to GVR audio engine, with the source moves since the last frame.
+    spatialAudio.tick(frameStart, headRotation, 0);
 
     checkGLError("onReadyToDraw");
+    metrics.recordNewFrame(System.nanoTime() - frameStart);
   }
 
 
-  /**
-   * Draws a frame for an eye.
-   *
-   * @param eye The eye to render. Includes all required transformations.
-   */
-  @Override
-  public void onDrawEye(Eye eye) {
-    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-
-    checkGLError("colorParam");
-
-    // Apply the eye transformation to the camera.
-    Matrix.multiplyMM(view, 0, eye.getEyeView(), 0, camera, 0);
-
-    // Set the position of the light
-    Matrix.multiplyMV(lightPosInEyeSpace, 0, view, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
-
-    // Build the ModelView and ModelViewProjection matrices
-    // for calculating cube position and light.
-    float[] perspective = eye.getPerspective(Z_NEAR, Z_FAR);
-
-    //Matrix.setRotateM(modelCube, 0, SRZ , 0.0f, 0.0f, 1.0f);
-    Matrix.setIdentityM(modelCube, 0);
-    Matrix.translateM(modelCube, 0, 0f, 0f, 4.2f);
-    Matrix.rotateM(modelCube, 0, SRZ, 1.0f, 0.0f, 0.0f);
-    Matrix.rotateM(modelCube, 0, SRY, 0.0f, 1.0f, 0.0f);
-    Matrix.rotateM(modelCube, 0, SRX, 0.0f, 0.0f, 1.0f);
-
-    Matrix.multiplyMM(modelView, 0, view, 0, modelCube, 0);
-    Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
-
-    drawCube();
-
-    // Set modelView for the floor, so we draw floor in the correct location
-    Matrix.multiplyMM(modelView, 0, view, 0, modelFloor, 0);
-    Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
-    drawFloor();
-    //f1.draw();
+  // Looking one sample interval into the past keeps a sample on either side to interpolate
+  // between, the prediction moves the target forward again to hide the transport latency.
+  private long sensorTime(SampleHistory history, long now) {
+    return now - history.getAverageIntervalNanos() + sensorPredictionNanos;
   }
 
-  public void run() {
-    InputStream mmInStream = null;
-
-    Message valueMsg = new Message();
-    valueMsg.what = VIEW_STATUS;
-    valueMsg.obj = "connecting...";
-    //System.out.println(valueMsg);
-    mHandler.sendMessage(valueMsg);
-
-    try{
-
-      // 取得したデバイス名を使ってBluetoothでSocket接続
-      mSocket = mDevice.createRfcommSocketToServiceRecord(MY_UUID);
-      mSocket.connect();
-      mmInStream = mSocket.getInputStream();
-      mmOutputStream = mSocket.getOutputStream();
-
-      // InputStreamのバッファを格納
-      byte[] buffer = new byte[1024];
-      //byte[] buffer = new byte[2048];
-
-      // 取得したバッファのサイズを格納
-      int bytes;
-      valueMsg = new Message();
-      valueMsg.what = VIEW_STATUS;
-      valueMsg.obj = "connected.";
-      //System.out.println(valueMsg);
-      mHandler.sendMessage(valueMsg);
-
-      connectFlg = true;
-
-      while(isRunning){
-
-        // InputStreamの読み込み
-        bytes = mmInStream.read(buffer);
-        Log.i(TAG,"bytes="+bytes);
-        // String型に変換
-        String readMsg = new String(buffer, 0, bytes);
-
-        // null以外なら表示
-        if(readMsg.trim() != null && !readMsg.trim().equals("")){
-          Log.i(TAG,"value="+readMsg.trim());
-
-          valueMsg = new Message();
-          valueMsg.what = VIEW_INPUT;
-          valueMsg.obj = readMsg;
-          //System.out.println("L190"+valueMsg);
-          mHandler.sendMessage(valueMsg);
-        }
-        else{
-          // Log.i(TAG,"value=nodata");
-        }
+  private boolean sampleSensor(SampleHistory history, long now, float[] out, int offset) {
+    return history.sampleAt(
+        sensorTime(history, now), MAX_SENSOR_EXTRAPOLATION_NANOS, out, offset);
+  }
 
+  private void sampleOtherSensors(SensorHub hub, int deviceCount, long now) {
+    if (deviceOrientations.length < deviceCount * SampleHistory.SIZE) {
+      deviceOrientations = new float[deviceCount * SampleHistory.SIZE];
+      for (int d = 0; d < deviceCount; d++) {
+        Quaternions.setIdentity(deviceOrientations, d * SampleHistory.SIZE);
       }
-    }catch(Exception e){
-
-      valueMsg = new Message();
-      valueMsg.what = VIEW_STATUS;
-      valueMsg.obj = "Error1:" + e;
-      //System.out.println(valueMsg);
-      //mHandler.sendMessage(valueMsg);
-
-      try{
-        mSocket.close();
-      }catch(Exception ee){}
-      isRunning = false;
-      connectFlg = false;
+    }
+    // Keep the last orientation of a sensor that has nothing new.
+    for (int d = 1; d < deviceCount; d++) {
+      sampleSensor(hub.getHistory(d), now, deviceOrientations, d * SampleHistory.SIZE);
     }
   }
 
-  @Override
-  public void onFinishFrame(Viewport viewport) {}
-
   /**
-   * Draw the cube.
+   * Draws a frame for an eye.
    *
-   * <p>We've set all of our transformation matrices. Now we simply pass them into the shader.
+   * @param eye The eye to render. Includes all required transformations.
    */
-  public void drawCube() {
-    GLES20.glUseProgram(cubeProgram);
-
-    GLES20.glUniform3fv(cubeLightPosParam, 1, lightPosInEyeSpace, 0);
-
-    // Set the Model in the shader, used to calculate lighting
-    GLES20.glUniformMatrix4fv(cubeModelParam, 1, false, modelCube, 0);
+  @Override
+  public void onDrawEye(Eye eye) {
+    long start = System.nanoTime();
+    float[] perspective = eye.getPerspective(SceneRenderer.Z_NEAR, SceneRenderer.Z_FAR);
+    sceneRenderer.drawEye(eye.getEyeView(), perspective);
+    long elapsed = System.nanoTime() - start;
+    frameState.addSubmitNanos(elapsed);
+    metrics.recordDrawEye(elapsed);
+  }
 
-    // Set the ModelView in the shader, used to calculate lighting
-    GLES20.glUniformMatrix4fv(cubeModelViewParam, 1, false, modelView, 0);
+  /**
+   * Draws both eyes in one callback instead of one {@link #onDrawEye} per eye, see
+   * {@link SceneRenderer#drawFrame}.
+   */
+  private class SinglePassRenderer implements GvrView.Renderer, SceneRenderer.Viewports {
+    private final float[][] eyeViews = new float[StereoProgram.EYES][];
+    private final float[][] eyePerspectives = new float[StereoProgram.EYES][];
+    private final Eye[] eyes = new Eye[StereoProgram.EYES];
 
-    // Set the position of the cube
-    GLES20.glVertexAttribPointer(
-            cubePositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, cubeVertices);
+    @Override
+    public void onDrawFrame(HeadTransform headTransform, Eye leftEye, Eye rightEye) {
+      onNewFrame(headTransform);
+
+      long start = System.nanoTime();
+      eyes[0] = leftEye;
+      eyes[1] = rightEye;
+      for (int i = 0; i < StereoProgram.EYES; i++) {
+        eyeViews[i] = eyes[i].getEyeView();
+        eyePerspectives[i] = eyes[i].getPerspective(SceneRenderer.Z_NEAR, SceneRenderer.Z_FAR);
+      }
+      sceneRenderer.drawFrame(eyeViews, eyePerspectives, this);
 
-    // Set the ModelViewProjection matrix in the shader.
-    GLES20.glUniformMatrix4fv(cubeModelViewProjectionParam, 1, false, modelViewProjection, 0);
+      long elapsed = System.nanoTime() - start;
+      frameState.addSubmitNanos(elapsed);
+      // Both eyes in one sample.
+      metrics.recordDrawEye(elapsed);
+    }
 
-    // Set the normal positions of the cube, again for shading
-    GLES20.glVertexAttribPointer(cubeNormalParam, 3, GLES20.GL_FLOAT, false, 0, cubeNormals);
-    GLES20.glVertexAttribPointer(cubeColorParam, 4, GLES20.GL_FLOAT, false, 0,
-            isLookingAtObject() ? cubeFoundColors : cubeColors);
+    @Override
+    public void setViewport(int eye) {
+      eyes[eye].getViewport().setGLViewport();
+    }
 
-    // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(cubePositionParam);
-    GLES20.glEnableVertexAttribArray(cubeNormalParam);
-    GLES20.glEnableVertexAttribArray(cubeColorParam);
+    @Override
+    public void onFinishFrame(Viewport viewport) {
+      TreasureHuntActivity.this.onFinishFrame(viewport);
+    }
 
-    GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 36);
+    @Override
+    public void onSurfaceChanged(int width, int height) {
+      TreasureHuntActivity.this.onSurfaceChanged(width, height);
+    }
 
-    // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(cubePositionParam);
-    GLES20.glDisableVertexAttribArray(cubeNormalParam);
-    GLES20.glDisableVertexAttribArray(cubeColorParam);
+    @Override
+    public void onSurfaceCreated(EGLConfig config) {
+      TreasureHuntActivity.this.onSurfaceCreated(config);
+    }
 
-    checkGLError("Drawing cube");
+    @Override
+    public void onRendererShutdown() {
+      TreasureHuntActivity.this.onRendererShutdown();
+    }
   }
 
-  /**
-   * Draw the floor.
-   *
-   * <p>This feeds in data for the floor into the shader. Note that this doesn't feed in data about
-   * position of the light, so if we rewrite our code to draw the floor first, the lighting might
-   * look strange.
-   */
-  public void drawFloor() {
-    GLES20.glUseProgram(floorProgram);
-
-    // Set ModelView, MVP, position, normals, and color.
-    GLES20.glUniform3fv(floorLightPosParam, 1, lightPosInEyeSpace, 0);
-    GLES20.glUniformMatrix4fv(floorModelParam, 1, false, modelFloor, 0);
-    GLES20.glUniformMatrix4fv(floorModelViewParam, 1, false, modelView, 0);
-    GLES20.glUniformMatrix4fv(floorModelViewProjectionParam, 1, false, modelViewProjection, 0);
-    GLES20.glVertexAttribPointer(
-            floorPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, floorVertices);
-    GLES20.glVertexAttribPointer(floorNormalParam, 3, GLES20.GL_FLOAT, false, 0, floorNormals);
-    GLES20.glVertexAttribPointer(floorColorParam, 4, GLES20.GL_FLOAT, false, 0, floorColors);
-
-    GLES20.glEnableVertexAttribArray(floorPositionParam);
-    GLES20.glEnableVertexAttribArray(floorNormalParam);
-    GLES20.glEnableVertexAttribArray(floorColorParam);
-
-    GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 24);
-
-    GLES20.glDisableVertexAttribArray(floorPositionParam);
-    GLES20.glDisableVertexAttribArray(floorNormalParam);
-    GLES20.glDisableVertexAttribArray(floorColorParam);
-
-    checkGLError("drawing floor");
+  @Override
+  public void onFinishFrame(Viewport viewport) {
+    if (!firstFrameReported) {
+      firstFrameReported = true;
+      Log.i(TAG, "time to first frame: " + (System.nanoTime() - createNanos) / 1000000 + " ms");
+      startupScheduler.logTimeline();
+    }
   }
 
   @Override
@@ -655,9 +644,8 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
      */
     Log.i(TAG, "onCardboardTrigger");
 
-    if (isLookingAtObject()) {
-      successSourceId = gvrAudioEngine.createStereoSound(SUCCESS_SOUND_FILE);
-      gvrAudioEngine.playSound(successSourceId, false /* looping disabled */);
+    if (frameState.lookingAtObject) {
+      spatialAudio.playOneShot(SUCCESS_SOUND_FILE);
       hideObject();
     }
 
@@ -666,87 +654,46 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
   }
 
   protected void hideObject() {
-    /**
-     * Find a new random position for the object.
-     *
-     * <p>We'll rotate it around the Y-axis so it's out of sight, and then up or down by a little bit.
-     */
-    float[] rotationMatrix = new float[16];
-    float[] posVec = new float[4];
-
-    // First rotate in XZ plane, between 90 and 270 deg away, and scale so that we vary
-    // the object's distance from the user.
-    float angleXZ = (float) Math.random() * 180 + 90;
-    Matrix.setRotateM(rotationMatrix, 0, angleXZ, 0f, 1f, 0f);
-    float oldObjectDistance = objectDistance;
-    objectDistance =
-            (float) Math.random() * (MAX_MODEL_DISTANCE - MIN_MODEL_DISTANCE) + MIN_MODEL_DISTANCE;
-    float objectScalingFactor = objectDistance / oldObjectDistance;
-    Matrix.scaleM(rotationMatrix, 0, objectScalingFactor, objectScalingFactor, objectScalingFactor);
-    Matrix.multiplyMV(posVec, 0, rotationMatrix, 0, modelCube, 12);
-
-    float angleY = (float) Math.random() * 80 - 40; // Angle in Y plane, between -40 and 40.
-    angleY = (float) Math.toRadians(angleY);
-    float newY = (float) Math.tan(angleY) * objectDistance;
-
-    modelPosition[0] = posVec[0];
-    modelPosition[1] = newY;
-    modelPosition[2] = posVec[2];
-
+    objectDistance = sceneRenderer.relocateCube(objectDistance, MIN_MODEL_DISTANCE,
+        MAX_MODEL_DISTANCE, random, modelPosition);
+    spatialAudio.setPosition(cubeSound, modelPosition[0], modelPosition[1], modelPosition[2]);
   }
 
-  /**
-   * Check if user is looking at object by calculating where the object is in eye-space.
-   *
-   * @return true if the user is looking at the object.
-   */
-  private boolean isLookingAtObject() {
-    // Convert object space to camera space. Use the headView from onNewFrame.
-    Matrix.multiplyMM(modelView, 0, headView, 0, modelCube, 0);
-    Matrix.multiplyMV(tempPosition, 0, modelView, 0, POS_MATRIX_MULTIPLY_VEC, 0);
+  // 受信スレッドから呼ばれるので、表示はHandler経由で行う
+  private final SensorHub.Listener sensorListener = new SensorHub.Listener() {
+    @Override
+    public void onConnected(int device) {
+      mHandler.obtainMessage(VIEW_STATUS, "connected: " + device).sendToTarget();
+    }
 
-    float pitch = (float) Math.atan2(tempPosition[1], -tempPosition[2]);
-    float yaw = (float) Math.atan2(tempPosition[0], -tempPosition[2]);
+    @Override
+    public void onFirstSample(int device) {
+      // connectButtonを非表示にする
+      mHandler.sendEmptyMessage(VIEW_INPUT);
+    }
 
-    return Math.abs(pitch) < PITCH_LIMIT && Math.abs(yaw) < YAW_LIMIT;
-  }
+    @Override
+    public void onDisconnected(int device, IOException cause) {
+      mHandler.obtainMessage(VIEW_STATUS, "Error" + device + ":" + cause).sendToTarget();
+    }
+  };
+
+  private final RateLimitedLog statusLog = new RateLimitedLog(STATUS_LOG_INTERVAL_MS);
 
-  private boolean SensFlag = false;
   Handler mHandler = new Handler() {
     @Override
     public void handleMessage(Message msg) {
       int action = msg.what;
-      String msgStr = (String)msg.obj;
       if(action == VIEW_INPUT){
-        //mInputTextView.setText(msgStr);
-        System.out.println("VIEW_INPUT:"+msgStr);
-
         // connectButtonの非表示
         connectButton.setVisibility(View.INVISIBLE);
-
-        if (msgStr.equals("r")){
-          System.out.println(InputVal);
-          if (SensFlag){
-            try{
-              SRX = Float.parseFloat(InputVal.split(" ")[1]);
-              SRY = Float.parseFloat(InputVal.split(" ")[2]);
-              SRZ = Float.parseFloat(InputVal.split(" ")[3]);
-            }catch (ArrayIndexOutOfBoundsException e){
-              System.out.print("上手く取れない");
-            }
-
-          }else{
-            SensFlag = true;
-          }
-
-          InputVal = "";
-        }else{
-          InputVal += msgStr;
-        }
       }
       else if(action == VIEW_STATUS){
         //mStatusTextView.setText(msgStr);
-        System.out.println("VIEW_STATUS:"+msgStr);
+        // 多数のセンサが再接続を繰り返すとログが溢れるので間引く
+        if (statusLog.allow()) {
+          System.out.println("VIEW_STATUS:" + msg.obj + statusLog.suppressedSuffix());
+        }
 
       }
     }
@@ -757,15 +704,16 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
   public void onClick(View v) {
     if(v.equals(connectButton)) {
       // 接続されていない場合のみ
-      if (!connectFlg) {
+      SensorHub hub = sensorHub;
+      if (hub != null && !hub.isRunning()) {
         //mStatusTextView.setText("try connect");
         System.out.println("try connect");
         //Toast.makeText(this, "try connect", Toast.LENGTH_LONG).show();
 
-        mThread = new Thread((Runnable) this);
-        // Threadを起動し、Bluetooth接続
-        isRunning = true;
-        mThread.start();
+        // センサごとにThreadを起動し、Bluetooth接続
+        mHandler.obtainMessage(VIEW_STATUS, "connecting...").sendToTarget();
+        sensorsStarted = true;
+        hub.start();
       }
     }
   }
@@ -774,21 +722,80 @@ public class TreasureHuntActivity extends GvrActivity implements Runnable, View.
   public void onPause() {
     gvrAudioEngine.pause();
     super.onPause();
-    try{
-      mSocket.close();
+    SensorHub hub = sensorHub;
+    if (hub != null) {
+      hub.stop();
+    }
+  }
+
+  @Override
+  public void onDestroy() {
+    SessionRecorder recorder = sessionRecorder;
+    if (recorder != null) {
+      // Everything but the last flush interval is on disk already.
+      recorder.stop();
+      Log.i(TAG, "capture: " + recorder.describe());
     }
-    catch(Exception e){}
+    super.onDestroy();
   }
 
   @Override
   public void onResume() {
     super.onResume();
     gvrAudioEngine.resume();
+    SensorHub hub = sensorHub;
+    if (sensorsStarted && hub != null && !hub.isRunning()) {
+      // The readers of the previous start exit on their own, the new ones wait for them.
+      mHandler.obtainMessage(VIEW_STATUS, "reconnecting...").sendToTarget();
+      hub.start();
+    }
+  }
+
+  /**
+   * Prints the pipeline metrics, e.g. {@code adb shell dumpsys activity
+   * com.google.vr.sdk.samples.treasurehunt/.TreasureHuntActivity}. The argument {@code reset}
+   * starts them over afterwards.
+   */
+  @Override
+  public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+    super.dump(prefix, fd, writer, args);
+    writer.println(prefix + "Pipeline metrics:");
+    metrics.dump(prefix + "  ", writer);
+    SensorHub hub = sensorHub;
+    if (hub != null) {
+      writer.print(hub.describe());
+    }
+    writer.println(prefix + "Audio: " + spatialAudio.describe());
+    SessionRecorder recorder = sessionRecorder;
+    if (recorder != null) {
+      writer.println(prefix + "Capture: " + recorder.describe());
+    }
+    if (args != null && args.length > 0 && args[0].equals("reset")) {
+      metrics.reset();
+    }
   }
 
   @Override
   public void onRendererShutdown() {
     Log.i(TAG, "onRendererShutdown");
+    Log.i(TAG, "matrix ops per frame: " + frameState.getAverageMatrixOps()
+        + " (was " + FrameState.LEGACY_MATRIX_OPS_PER_FRAME + ")");
+    Log.i(TAG, "CPU submission per frame: " + frameState.getAverageSubmitMicros() + " us ("
+        + (singlePass ? "single-pass" : "per-eye") + ")");
+    FrustumCuller culler = sceneRenderer.getCuller();
+    Log.i(TAG, "culling per frame: " + culler.getAverageSubmitted() + " drawn, "
+        + culler.getAverageCulled() + " culled");
+    Log.i(TAG, "GL calls: " + GlState.describe());
+    Log.i(TAG, "audio: " + spatialAudio.describe());
+    SensorHub hub = sensorHub;
+    if (hub != null) {
+      Log.i(TAG, "sensors:\n" + hub.describe());
+    }
+    FloorTileStreamer terrain = sceneRenderer.getTerrain();
+    if (terrain != null) {
+      Log.i(TAG, "terrain: " + terrain.describe());
+      sceneRenderer.releaseTerrain();
+    }
   }
 
 }
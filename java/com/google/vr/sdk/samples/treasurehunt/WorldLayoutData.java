@@ -16,18 +16,6 @@
 
 package com.google.vr.sdk.samples.treasurehunt;
 
-import android.content.res.Resources;
-import android.opengl.GLES20;
-import android.util.Log;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-
-
-import static android.content.ContentValues.TAG;
-
 /**
  * Contains vertex, normal and color data.
  */
@@ -0,0 +1,43 @@
+#version 300 es
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// light_vertex for instanced drawing: the model matrix comes from a per-instance attribute.
+
+uniform mat4 u_View;
+uniform mat4 u_Projection;
+uniform vec3 u_LightPos;
+
+layout(location = 0) in vec4 a_Position;
+layout(location = 1) in vec3 a_Normal;
+layout(location = 2) in vec4 a_Color;
+layout(location = 3) in mat4 a_Model;
+
+out vec4 v_Color;
+
+void main() {
+   mat4 modelView = u_View * a_Model;
+   vec3 modelViewVertex = vec3(modelView * a_Position);
+   vec3 modelViewNormal = normalize(vec3(modelView * vec4(a_Normal, 0.0)));
+
+   float distance = length(u_LightPos - modelViewVertex);
+   vec3 lightVector = normalize(u_LightPos - modelViewVertex);
+   float diffuse = max(dot(modelViewNormal, lightVector), 0.5);
+
+   diffuse = diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
+   v_Color = vec4(a_Color.rgb * diffuse, a_Color.a);
+   gl_Position = u_Projection * vec4(modelViewVertex, 1.0);
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Same lighting as light_vertex, but the per-eye matrices of both eyes are uploaded once per
+// frame and u_Eye selects the one to use for the current draw.
+
+uniform mat4 u_Model;
+uniform mat4 u_MVP[2];
+uniform mat4 u_MVMatrix[2];
+uniform vec3 u_LightPos[2];
+uniform int u_Eye;
+
+attribute vec4 a_Position;
+attribute vec4 a_Color;
+attribute vec3 a_Normal;
+
+varying vec4 v_Color;
+varying vec3 v_Grid;
+
+void main() {
+   v_Grid = vec3(u_Model * a_Position);
+
+   mat4 modelView = u_MVMatrix[u_Eye];
+   vec3 lightPos = u_LightPos[u_Eye];
+   vec3 modelViewVertex = vec3(modelView * a_Position);
+   vec3 modelViewNormal = vec3(modelView * vec4(a_Normal, 0.0));
+
+   float distance = length(lightPos - modelViewVertex);
+   vec3 lightVector = normalize(lightPos - modelViewVertex);
+   float diffuse = max(dot(modelViewNormal, lightVector), 0.5);
+
+   diffuse = diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
+   v_Color = vec4(a_Color.rgb * diffuse, a_Color.a);
+   gl_Position = u_MVP[u_Eye] * a_Position;
+}